@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
+import android.app.Fragment;
 import android.app.FragmentManager;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -110,6 +111,20 @@ public class DialogUi {
         if (dialog != null) dialog.dismissAllowingStateLoss();
     }
 
+    /**
+     * Dialog作成時に与えたリクエストコードを指定して ProgressDialog(風の)Dialogの メッセージを変更する
+     * @param activity 呼び出すActivity
+     * @param requestCode 作成時に設定した リクエストコード
+     * @param message 表示するメッセージ
+     */
+    public static void setProgressMessage(Activity activity, int requestCode, String message) {
+        FragmentManager manager = getFragmentManager(activity);
+        Fragment fragment = manager.findFragmentByTag(getFragmentTag(requestCode));
+        if (fragment instanceof DialogUiFragment) {
+            ((DialogUiFragment) fragment).setProgressMessage(message);
+        }
+    }
+
     public static String getFragmentTag(int requestCode) {
         return TAG_PREFIX + Integer.toHexString(requestCode);
     }
@@ -342,6 +357,7 @@ public class DialogUi {
         private DialogEventListener mListener = null;
         private int mRequestCode;
         private String[] mChoiceList;
+        private TextView mProgressMessage = null;
 
 
         @Override
@@ -457,6 +473,16 @@ public class DialogUi {
             callbackToListener(EVENT_BUTTON_NEGATIVE);
         }
 
+        /**
+         * ProgressDialog(風の)Dialogの メッセージを変更する
+         * @param message 表示するメッセージ
+         */
+        public void setProgressMessage(String message) {
+            // Dialog作成時に設定されたメッセージも更新しておく (Fragmentの再作成時に 最新のメッセージが表示されるように)
+            if (getArguments() != null) getArguments().putString(KEY_DIALOG_TEXT, message);
+            if (mProgressMessage != null) mProgressMessage.setText(message);
+        }
+
         private void callbackToListener(int which) {
             if (mListener == null) return;
 
@@ -496,6 +522,7 @@ public class DialogUi {
             LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
             tv.setPadding(pxPadding, 0, 0, 0);          // progress表示と メッセージの間もマージンをあける
             layout.addView(tv);
+            mProgressMessage = tv;
 
             return layout;
         }
@@ -13,6 +13,7 @@ public class Settings {
     private final static String KEY_ADJUST_RATE = "settings.ADJUST_RATE";
     private final static String KEY_FILE_PATH = "viewer.FILE_PATH";
     private final static String KEY_FILE_SIZE = "viewer.FONT_SIZE";
+    private final static String KEY_MONOSPACE = "viewer.MONOSPACE";
 
 
     public static int getAdjustRate(Context context) {
@@ -32,6 +33,14 @@ public class Settings {
         PreferenceManager.getDefaultSharedPreferences(context).edit().putFloat(KEY_FILE_SIZE, fontSize).apply();
     }
 
+    public static boolean getMonospace(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_MONOSPACE, false);
+    }
+
+    public static void putMonospace(Context context, boolean monospace) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(KEY_MONOSPACE, monospace).apply();
+    }
+
     public static Uri getFileUri(Context context) {
         String strUri = PreferenceManager.getDefaultSharedPreferences(context).getString(KEY_FILE_PATH, null);
         if (strUri == null) return null;
@@ -2,40 +2,90 @@ package com.insprout.okubo.mytool;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.app.DialogFragment;
+import android.content.ActivityNotFoundException;
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.Handler;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.format.Formatter;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.GestureDetector;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.insprout.okubo.mytool.util.SdkUtils;
+import com.insprout.okubo.mytool.viewer.CharsetScorer;
+import com.insprout.okubo.mytool.viewer.FileExporter;
+import com.insprout.okubo.mytool.viewer.FileFollower;
+import com.insprout.okubo.mytool.viewer.FileLoader;
+import com.insprout.okubo.mytool.viewer.FileSearcher;
+import com.insprout.okubo.mytool.viewer.FileState;
+import com.insprout.okubo.mytool.viewer.FileStatistics;
+import com.insprout.okubo.mytool.viewer.FileStateStore;
+import com.insprout.okubo.mytool.viewer.FilterAdapter;
+import com.insprout.okubo.mytool.viewer.FilterResult;
+import com.insprout.okubo.mytool.viewer.HexAdapter;
+import com.insprout.okubo.mytool.viewer.JsonTreeAdapter;
+import com.insprout.okubo.mytool.viewer.LineFilter;
+import com.insprout.okubo.mytool.viewer.LineIndex;
+import com.insprout.okubo.mytool.viewer.LineIndexer;
+import com.insprout.okubo.mytool.viewer.LiteralSearcher;
+import com.insprout.okubo.mytool.viewer.PageAdapter;
+import com.insprout.okubo.mytool.viewer.PageCache;
+import com.insprout.okubo.mytool.viewer.PageLayout;
+import com.insprout.okubo.mytool.viewer.PageView;
+import com.insprout.okubo.mytool.viewer.RegexSearcher;
+import com.insprout.okubo.mytool.viewer.SearchResult;
+import com.insprout.okubo.mytool.viewer.StatisticsCounter;
+import com.insprout.okubo.mytool.viewer.TableAdapter;
+import com.insprout.okubo.mytool.viewer.TextPager;
+import com.insprout.okubo.mytool.viewer.TrigramIndexer;
+import com.insprout.okubo.mytool.viewer.UriSource;
+import com.insprout.okubo.mytool.viewer.ViewerExecutors;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.PatternSyntaxException;
 
-import org.mozilla.universalchardet.UniversalDetector;
 
-
-public class TextViewerActivity extends AppCompatActivity implements DialogUi.DialogEventListener {
+public class TextViewerActivity extends AppCompatActivity
+        implements DialogUi.DialogEventListener, FileLoader.Callback, FileSearcher.OnSearchListener, FileFollower.OnFollowListener,
+        PageAdapter.OnPageLayoutListener, LineFilter.OnFilterListener, StatisticsCounter.OnStatisticsListener,
+        LineIndexer.OnIndexListener, FileExporter.OnExportListener {
     private final static int REQ_DLG_CHAR_SET = 101;
     private final static int REQ_DLG_FONT_SIZE = 102;
+    private final static int REQ_DLG_JUMP_LINE = 103;
+    private final static int REQ_DLG_PROGRESS = 104;
+    private final static int REQ_DLG_SEARCH = 105;
+    private final static int REQ_DLG_FILTER = 106;
+    private final static int REQ_DLG_FILE_INFO = 107;
+    private final static int REQ_DLG_FILE_INFO_PROGRESS = 108;
+    private final static int REQ_DLG_EXPORT = 109;
+    private final static int REQ_DLG_EXPORT_RANGE = 110;
+    private final static int REQ_DLG_EXPORT_PROGRESS = 111;
+
+    private final static int REQUEST_CREATE_EXPORT_FILE = 200;  // 保存先の選択 (startActivityForResult)
+
+    private final static long TRIGRAM_MIN_FILE_BYTES = 16 * 1024 * 1024;    // 検索用の索引を作成する ファイルサイズ (byte)
 
     private final static String CHARSET_UTF8 = "UTF-8";
     private final static String CHARSET_SJIS = "SHIFT_JIS";
@@ -43,9 +93,42 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
     private final static String CHARSET_EUC_JP = "EUC-JP";
 
     private Uri mFileUri;
-    private TextView mTextView;
+    private ListView mListView;
+    private PageAdapter mPageAdapter;
+    private HexAdapter mHexAdapter;
+    private FilterAdapter mFilterAdapter;
+    private TableAdapter mTableAdapter;
+    private JsonTreeAdapter mJsonAdapter;
+    private UriSource mSource = null;
+    private FileLoader mFileLoader;
+    private LineIndexer mLineIndexer = null;
+    private LineIndex mLineIndex = null;
+    private FileState mFileState = null;                        // 表示中のファイルの状態 (閉じる時に保存する)
+    private FileFollower mFollower = null;
+    private boolean mFollowing = false;                         // ファイル末尾を追跡するモード
+    private int mScrollPage = -1;                               // レイアウト待ちの スクロール先のページ (なしの場合は -1)
+    private int mScrollChar = 0;
+    private float mTouchY = 0;                                  // 最後に触れた位置 (長押しした行を求めるのに使用する)
+    private FileSearcher mSearcher = null;
+    private int mSearchIndex = -1;                              // 表示中の検索結果の番号
+    private TrigramIndexer mTrigramIndexer = null;
+    private StatisticsCounter mStatisticsCounter = null;
+    private FileStatistics mFileStatistics = null;              // 表示中のファイルの 集計結果 (未集計の場合は null)
+    private FileExporter mFileExporter = null;
+    private String mExportCharSet = null;                       // 保存する文字コード (保存先の選択待ちの間 保持する)
+    private long mExportStart = 0;                              // 保存する範囲 (byte)
+    private long mExportEnd = 0;
+    private LineFilter mLineFilter = null;
+    private boolean mFilterMode = false;                        // 一致した行のみを表示するモード
+    private long mFilterOrigin = 0;                             // 絞り込みを開始した時の 表示位置 (byte)
+    private long mFilterScrollOffset = -1;                      // 絞り込み結果の待ち合わせ中の スクロール先 (なしの場合は -1)
     private String mCharSet = null;
     private float mSpFontSize = 18.0f;
+    private boolean mMonospace = false;                         // 等幅フォント表示
+    private boolean mHexMode = false;                           // 16進表示
+    private boolean mTableMode = false;                         // 表形式(CSV/TSV)表示
+    private boolean mJsonMode = false;                          // JSONのツリー表示
+    private boolean mDetectOnLoad = false;                      // 文字コードを判定して読み込み中
     private final String[] mCharSetArray = {
             CHARSET_UTF8,
             CHARSET_SJIS,
@@ -68,12 +151,58 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_viewer);
 
+        mFileLoader = new FileLoader(this, this);
+        mFileLoader.setCandidateCharSets(mCharSetArray);
         initVars(getIntent());
         initView();
 
         viewFile();
     }
 
+    @Override
+    protected void onDestroy() {
+        mFileLoader.cancel();
+        cancelIndexers();
+        cancelStatistics();
+        cancelExport();
+        cancelSearch();
+        stopFilter();
+        stopFollow();
+        mPageAdapter.setPager(null);
+        mHexAdapter.setSource(null, 0);
+        mTableAdapter.setSource(null, null, null);
+        mJsonAdapter.setSource(null, 0);
+        closeSource();
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mFollower != null) mFollower.start();
+    }
+
+    @Override
+    protected void onStop() {
+        // 表示されていない間は 監視しない (再表示時に まとめて反映する)
+        if (mFollower != null) mFollower.stop();
+        super.onStop();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // 次回 同じファイルを開いた時に 文字コードの判定や索引の作成をせずに 同じ位置から表示できるように保存しておく
+        saveFileState();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // 表示中のページは TextPagerが保持しているので、キャッシュは破棄してよい
+        PageCache.getInstance(this).onTrimMemory(level);
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -88,13 +217,90 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
     private void initVars(Intent intent) {
         mFileUri = intent.getData();
         mCharSet = null;
+        // 読み込み中のファイルがあれば中止する (索引の作成は 閉じる前に止めておく)
+        mFileLoader.cancel();
+        cancelIndexers();
+        closeSource();
         float fontSize = Settings.getFontSize(this);
         if (fontSize > 4.0f) mSpFontSize = fontSize;
+        mMonospace = Settings.getMonospace(this);
     }
 
     private void initView() {
-        mTextView = findViewById(R.id.tv_viewer);
+        mPageAdapter = new PageAdapter(this, R.layout.item_viewer_page);
+        mPageAdapter.setOnPageLayoutListener(this);
+        mHexAdapter = new HexAdapter(this, R.layout.item_viewer_hex);
+        mFilterAdapter = new FilterAdapter(this, R.layout.item_viewer_filter, R.id.tv_line_number, R.id.tv_line_text);
+        mTableAdapter = new TableAdapter(this, R.layout.item_viewer_table);
+        mJsonAdapter = new JsonTreeAdapter(this, R.layout.item_viewer_json, R.id.tv_json_marker, R.id.tv_json_text);
+        mJsonAdapter.setMoreLabelFormat(getString(R.string.label_json_more_fmt));
+        mListView = findViewById(R.id.lv_viewer);
+        mListView.setAdapter(mPageAdapter);
+        mListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // 利用者がスクロールした場合は、レイアウト待ちのスクロールは行わない
+                if (scrollState == SCROLL_STATE_TOUCH_SCROLL) {
+                    mScrollPage = -1;
+                    mFilterScrollOffset = -1;
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                // 表示範囲から離れたページは破棄して、メモリ使用量をファイルサイズに依存させない
+                // (前後のページは 先読みと レイアウトの作成を バックグラウンドで行っておく)
+                // ツリー表示は 展開された要素の行のみを保持しているので 破棄するものはない
+                if (visibleItemCount <= 0) return;
+                if (mFilterMode) {
+                    mFilterAdapter.setVisibleRange(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+                } else if (mHexMode) {
+                    mHexAdapter.setVisibleRange(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+                } else if (mTableMode) {
+                    mTableAdapter.setVisibleRange(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+                } else if (!mJsonMode) {
+                    mPageAdapter.setVisibleRange(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+                }
+            }
+        });
+        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                // 絞り込み表示で 行が選択された場合は、全体の表示に戻して その行を表示する
+                if (mFilterMode) {
+                    exitFilter(mFilterAdapter.getResult().getOffset(position));
+                } else if (mJsonMode) {
+                    // ツリー表示では 選択された要素の 展開・折りたたみを切り替える
+                    mJsonAdapter.toggle(position);
+                }
+            }
+        });
+        // 表形式表示では 横方向のドラッグで 列をスクロールする (縦方向は ListViewがスクロールする)
+        final GestureDetector detector = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (Math.abs(distanceX) <= Math.abs(distanceY)) return false;
+                mTableAdapter.scrollHorizontally(mListView, distanceX);
+                return true;
+            }
+        });
+        mListView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent event) {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) mTouchY = event.getY();
+                return mTableMode && !mFilterMode && detector.onTouchEvent(event);
+            }
+        });
+        // テキスト表示では 長押しした行を クリップボードにコピーする (ページは 選択できる TextViewではないため)
+        mListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                if (mFilterMode || mHexMode || mTableMode || mJsonMode || !(view instanceof PageView)) return false;
+                return copyLine(position, (PageView) view, mTouchY - view.getTop());
+            }
+        });
         setFontSize(mSpFontSize);
+        mPageAdapter.setMonospace(mMonospace);
     }
 
 
@@ -104,14 +310,14 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
 
         if (mFileUri != null) {
             // 暗黙的Intentでファイルが指定された
-            viewFileDelayed(mFileUri, mCharSet);
+            loadFile(mFileUri, mCharSet);
             Settings.putFileUri(TextViewerActivity.this, mFileUri);
 
         } else {
             // 表示ファイルが指定されていないので、前回表示したファイルを開く
             mFileUri = Settings.getFileUri(TextViewerActivity.this);
             if (mFileUri != null) {
-                viewFileDelayed(mFileUri, mCharSet);
+                loadFile(mFileUri, mCharSet);
 
             } else {
                 // 指定ファイルなし
@@ -120,104 +326,1030 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
         }
     }
 
-    private void viewFileDelayed(final Uri fileUri, final String charSet) {
-        String msg = getString(R.string.toast_view_fmt, "");
-        final DialogFragment mProgress = new DialogUi.Builder(this, DialogUi.STYLE_PROGRESS_DIALOG)
-                .setTitle(msg)
-                .setMessage(mFileUri.toString())
+    /**
+     * ファイルの読み込みを開始する。読み込みは I/Oスレッドで行い、完了したら表示する
+     * @param fileUri 表示するファイル
+     * @param charSet 文字コード。nullの場合は 判定する
+     */
+    private void loadFile(Uri fileUri, String charSet) {
+        loadFile(fileUri, charSet, false);
+    }
+
+    /**
+     * ファイルの読み込みを開始する。読み込みは I/Oスレッドで行い、完了したら表示する
+     * @param fileUri 表示するファイル
+     * @param charSet 文字コード。nullの場合は 判定する
+     * @param reopen true: 開いている UriSourceを閉じて 開き直す (切り詰められた・置き換えられた場合)
+     */
+    private void loadFile(Uri fileUri, String charSet, boolean reopen) {
+        // 実行中の読み込みは FileLoaderの load()で中止される
+        cancelIndexers();
+        // 開き直す前に 現在の状態を保存しておく (保存と読み込みは 同じ I/Oスレッドで順に行われる)
+        saveFileState();
+        mFileState = null;
+        mLineIndex = null;
+        mFileStatistics = null;
+        cancelStatistics();
+        cancelExport();
+        cancelSearch();
+        stopFilter();
+        stopFollow();
+        mPageAdapter.setPager(null);
+        mHexAdapter.setSource(null, 0);
+        mTableAdapter.setSource(null, null, null);
+        mJsonAdapter.setSource(null, 0);
+        mDetectOnLoad = (charSet == null);
+
+        DialogUi.dismissDialog(this, REQ_DLG_PROGRESS);
+        new DialogUi.Builder(this, DialogUi.STYLE_PROGRESS_DIALOG)
+                .setTitle(getString(R.string.toast_view_fmt, ""))
+                .setMessage(fileUri.toString())
+                .setRequestCode(REQ_DLG_PROGRESS)
                 .show();
-        new Handler().postDelayed(new Runnable() {
+
+        // 置き換えられた場合は 以前のサイズでマップした領域を読まないように、読み込みを全て止めてから閉じる
+        if (reopen) closeSource();
+        // 文字コードの変更などで 同じファイルを開き直す場合は、既に開いている UriSourceをそのまま使用する
+        mFileLoader.load(fileUri, mSource, charSet);
+    }
+
+    private void cancelIndexers() {
+        if (mLineIndexer != null) {
+            mLineIndexer.cancel();
+            mLineIndexer = null;
+        }
+        if (mTrigramIndexer != null) {
+            mTrigramIndexer.cancel();
+            mTrigramIndexer = null;
+        }
+    }
+
+    @Override
+    public void onLoadProgress(long bytes, long total) {
+        String message = mFileUri.toString() + "\n" + Formatter.formatFileSize(this, bytes);
+        if (total > 0) message += " / " + Formatter.formatFileSize(this, total);
+        DialogUi.setProgressMessage(this, REQ_DLG_PROGRESS, message);
+    }
+
+    @Override
+    public void onLoadCompleted(TextPager pager, boolean detected, boolean binary, FileState state) {
+        DialogUi.dismissDialog(this, REQ_DLG_PROGRESS);
+        if (pager.getSource() != mSource) {
+            closeSource();
+            mSource = pager.getSource();
+        }
+        mCharSet = pager.getCharSet();
+
+        // ファイル全体は読み込まず、表示されるページのみ TextPagerが読み込む
+        mPageAdapter.setPager(pager);
+        // 16進表示は 行の位置から計算するので、索引の作成を待たずに 任意の位置を表示できる
+        mHexAdapter.setSource(mSource, pager.getFileSize());
+        if (mJsonMode) {
+            // ツリー表示中に開き直した場合は 解析し直す (UTF-8以外で開き直した場合は テキスト表示に戻す)
+            mJsonMode = false;
+            setJsonMode(CHARSET_UTF8.equals(mCharSet));
+        }
+        if (mDetectOnLoad) {
+            // バイナリファイルと思われる場合は 16進表示で開く (文字コードを指定して開き直した場合は 表示方法を変えない)
+            setHexMode(binary);
+            if (!detected && !binary) Toast.makeText(this, R.string.toast_char_set_unknown, Toast.LENGTH_LONG).show();
+        }
+        mFileState = state;
+        if (state.getScrollOffset() > 0) {
+            // 前回表示していた位置から表示する
+            scrollToOffset(state.getScrollOffset());
+        } else {
+            mListView.setSelection(0);
+        }
+
+        if (state.getLineIndex() != null) {
+            // 保存されていた索引を使用する (ファイルを走査し直さない)
+            mLineIndex = state.getLineIndex();
+        } else {
+            // 行番号から位置を引くための索引は、表示とは別にバックグラウンドで作成する
+            mLineIndexer = new LineIndexer(mSource);
+            mLineIndexer.setOnIndexListener(this);
+            mLineIndexer.start();
+            mLineIndex = mLineIndexer.getIndex();
+            state.setLineIndex(mLineIndex);
+        }
+        // 表形式表示は 索引から行の位置を求める (作成途中でも 作成済みの行は表示できる)
+        mTableAdapter.setSource(mSource, mCharSet, mLineIndex);
+        // 新たに開いたファイルは 拡張子が CSV/TSVであれば 表形式、JSON(UTF-8)であれば ツリー形式で表示する
+        if (mDetectOnLoad && !binary) {
+            setTableMode(isTableFile(mFileUri));
+            if (isJsonFile(mFileUri) && CHARSET_UTF8.equals(mCharSet)) setJsonMode(true);
+        }
+
+        // 追跡モードであれば 開き直したファイルも続けて追跡する
+        if (mFollowing) startFollow();
+    }
+
+    @Override
+    public void onLoadGrown(TextPager pager, int firstChangedPage) {
+        // 圧縮されたファイルの サイズを求めた範囲が広がった場合は、追記された場合と同様に反映する
+        onFileAppended(pager, firstChangedPage);
+        // ツリー表示は 設定した範囲のみを解析するので、サイズを求め終えたら 全体を解析し直す
+        if (mJsonMode && pager == mPageAdapter.getPager() && pager.getSource().isSizeKnown()
+                && mJsonAdapter.getSize() < pager.getFileSize()) {
+            mJsonMode = false;
+            setJsonSource(true);
+        }
+    }
+
+    @Override
+    public void onLoadFailed(Uri uri) {
+        DialogUi.dismissDialog(this, REQ_DLG_PROGRESS);
+    }
+
+    @Override
+    public void onIndexUpdated(LineIndex index, long scannedBytes) {
+        // 表形式表示の行数は 索引の作成に合わせて増える
+        if (index == mLineIndex) mTableAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * 等幅フォント表示を切り替える。表示中の位置は そのまま維持する
+     */
+    private void toggleMonospace() {
+        mMonospace = !mMonospace;
+        Settings.putMonospace(getApplicationContext(), mMonospace);
+        mPageAdapter.setMonospace(mMonospace);
+    }
+
+    /**
+     * テキスト表示と 16進表示を切り替える。表示中の位置は そのまま維持する
+     */
+    private void toggleHex() {
+        TextPager pager = mPageAdapter.getPager();
+        if (pager == null) return;
+
+        long offset = getFirstVisibleOffset(pager);
+        setHexMode(!mHexMode);
+        if (offset >= 0) {
+            // 16進表示から戻る場合は 行の先頭に合わせる (文字の途中の位置は ページ内の位置に変換できない)
+            scrollToOffset(mHexMode ? offset : toLineStart(offset));
+        }
+    }
+
+    private void setHexMode(boolean hexMode) {
+        mScrollPage = -1;
+        mHexMode = hexMode;
+        if (hexMode) {
+            mTableMode = false;
+            setJsonSource(false);
+        }
+        updateAdapter();
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * テキスト表示と 表形式(CSV/TSV)表示を切り替える。表示中の行は そのまま維持する
+     */
+    private void toggleTable() {
+        TextPager pager = mPageAdapter.getPager();
+        if (pager == null) return;
+
+        long offset = getFirstVisibleOffset(pager);
+        setTableMode(!mTableMode);
+        if (offset >= 0) scrollToOffset(toLineStart(offset));
+    }
+
+    private void setTableMode(boolean tableMode) {
+        mScrollPage = -1;
+        mTableMode = tableMode;
+        if (tableMode) {
+            mHexMode = false;
+            setJsonSource(false);
+        }
+        updateAdapter();
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * テキスト表示と JSONのツリー表示を切り替える。表示中の位置に近い要素を表示する
+     */
+    private void toggleJson() {
+        TextPager pager = mPageAdapter.getPager();
+        if (pager == null) return;
+
+        long offset = getFirstVisibleOffset(pager);
+        setJsonMode(!mJsonMode);
+        if (offset >= 0) scrollToOffset(mJsonMode ? offset : toLineStart(offset));
+    }
+
+    private void setJsonMode(boolean jsonMode) {
+        mScrollPage = -1;
+        setJsonSource(jsonMode);
+        if (jsonMode) {
+            mHexMode = false;
+            mTableMode = false;
+        }
+        updateAdapter();
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * ツリー表示の モードと 表示するファイルを設定する
+     * 解析結果は 表示中のみ保持し、ツリー表示を終える時に破棄する (索引の作成も中止する)
+     * @param jsonMode true: ツリー表示にする
+     */
+    private void setJsonSource(boolean jsonMode) {
+        TextPager pager = mPageAdapter.getPager();
+        if (jsonMode == mJsonMode || (jsonMode && pager == null)) return;
+        mJsonMode = jsonMode;
+        mJsonAdapter.setSource(jsonMode ? mSource : null, jsonMode ? pager.getFileSize() : 0);
+    }
+
+    /**
+     * ツリー形式で表示するファイルか (拡張子で判定する)
+     * @param uri ファイルの Uri
+     * @return true: JSONファイル
+     */
+    private static boolean isJsonFile(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name == null) return false;
+        name = name.toLowerCase(Locale.US);
+        return name.endsWith(".json") || name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+
+    /**
+     * 表形式で表示するファイルか (拡張子で判定する)
+     * @param uri ファイルの Uri
+     * @return true: CSV/TSVファイル
+     */
+    private static boolean isTableFile(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name == null) return false;
+        name = name.toLowerCase(Locale.US);
+        return name.endsWith(".csv") || name.endsWith(".tsv");
+    }
+
+    /**
+     * 表示モードに合わせて ListViewの Adapterを切り替える
+     */
+    private void updateAdapter() {
+        BaseAdapter adapter = (mFilterMode ? mFilterAdapter : mHexMode ? mHexAdapter : mTableMode ? mTableAdapter
+                : mJsonMode ? mJsonAdapter : mPageAdapter);
+        if (mListView.getAdapter() != adapter) mListView.setAdapter(adapter);
+    }
+
+    /**
+     * 追跡モードを切り替える
+     */
+    private void toggleFollow() {
+        mFollowing = !mFollowing;
+        if (mFollowing) {
+            startFollow();
+        } else {
+            stopFollow();
+        }
+    }
+
+    /**
+     * ファイルへの追記の監視を開始して、末尾を表示する
+     */
+    private void startFollow() {
+        TextPager pager = mPageAdapter.getPager();
+        // 圧縮されたファイルは 追記を監視できない
+        if (pager == null || pager.getSource().isCompressed()) return;
+
+        stopFollow();
+        mFollower = new FileFollower(this, pager, mLineIndex, mFileState, this);
+        mFollower.start();
+        // 追記されて 項目が増えた場合は、常に末尾までスクロールさせる
+        mListView.setTranscriptMode(AbsListView.TRANSCRIPT_MODE_ALWAYS_SCROLL);
+        mListView.setSelection(mListView.getCount() - 1);
+    }
+
+    private void stopFollow() {
+        if (mFollower == null) return;
+        mFollower.stop();
+        mFollower = null;
+        mListView.setTranscriptMode(AbsListView.TRANSCRIPT_MODE_DISABLED);
+    }
+
+    @Override
+    public void onFileAppended(TextPager pager, int firstChangedPage) {
+        if (pager != mPageAdapter.getPager()) return;
+        // 追記された部分のページのみ 読み込み直される (TRANSCRIPT_MODE_ALWAYS_SCROLLにより 末尾までスクロールする)
+        mPageAdapter.notifyDataSetChanged();
+        mHexAdapter.setSize(pager.getFileSize());
+        mTableAdapter.notifyDataSetChanged();
+        // 絞り込み表示中であれば 追記された部分も絞り込む
+        if (mLineFilter != null) mLineFilter.start();
+    }
+
+    @Override
+    public void onFileReplaced(Uri uri) {
+        // 切り詰められた場合などは 開き直す (追跡モードは継続する)
+        if (uri.equals(mFileUri)) loadFile(mFileUri, mCharSet, true);
+    }
+
+    /**
+     * 表示中のファイルの状態(文字コード、表示位置、索引)を保存する
+     */
+    private void saveFileState() {
+        TextPager pager = mPageAdapter.getPager();
+        final FileState state = mFileState;
+        if (pager == null || state == null) return;
+
+        long offset = getFirstVisibleOffset(pager);
+        // 表示位置は 文字の先頭でなければならないので、16進表示の場合は 行の先頭とする
+        if (offset >= 0) state.setScrollOffset((mHexMode || mJsonMode) && !mFilterMode ? toLineStart(offset) : offset);
+
+        // 保存は I/Oスレッドで行う
+        final Uri uri = pager.getUri();
+        final Context context = getApplicationContext();
+        ViewerExecutors.io().execute(new Runnable() {
             @Override
             public void run() {
-                viewFile(fileUri, charSet);
-                mProgress.dismiss();
+                FileStateStore.save(context, uri, state);
             }
-        }, 100);
+        });
     }
 
-    private void viewFile(Uri fileUri, String charSet) {
-        mTextView.setText(null);
+    /**
+     * 表示されている最初の行の ファイル上の位置を返す (ファイルの読み込みは行わない)
+     * @param pager 表示中の TextPager
+     * @return 行の開始位置 (byte)。求められない場合は -1
+     */
+    private long getFirstVisibleOffset(TextPager pager) {
+        // 絞り込み表示の場合は 表示されている最初の 一致した行の位置
+        if (mFilterMode) {
+            long offset = mFilterAdapter.getResult().getOffset(mListView.getFirstVisiblePosition());
+            return (offset >= 0 ? offset : mFilterOrigin);
+        }
+        // 16進表示の場合は 表示されている最初の行の位置 (文字の先頭とは限らない)
+        if (mHexMode) return HexAdapter.getRowOffset(mListView.getFirstVisiblePosition());
+        // 表形式表示の場合は 表示されている最初の行の位置
+        if (mTableMode) return (mLineIndex != null ? mLineIndex.getLineOffset(mListView.getFirstVisiblePosition()) : -1);
+        // ツリー表示の場合は 表示されている最初の要素の位置 (行の先頭とは限らない)
+        if (mJsonMode) return mJsonAdapter.getRowOffset(mListView.getFirstVisiblePosition());
+
+        int page = mListView.getFirstVisiblePosition();
+        long pageStart = pager.peekPageStart(page);
+        CharSequence text = pager.peekPage(page);
+        View child = mListView.getChildAt(0);
+        if (pageStart < 0 || text == null || !(child instanceof PageView)) return -1;
+        PageLayout layout = ((PageView) child).getLayout();
+        if (layout == null) return pageStart;
+
+        // 表示されている最初の行が ページの先頭から何行目か(改行の数)を求める
+        int y = -child.getTop() - child.getPaddingTop();
+        int charOffset = Math.min(layout.getLineStart(layout.getLineForVertical(Math.max(y, 0))), text.length());
+        int lines = 0;
+        for (int i = 0; i < charOffset; i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        if (lines == 0 || mLineIndex == null) return pageStart;
 
-        InputStream inputStream = getInputStream(fileUri);
-        if (inputStream == null) return;
+        // 行の位置(byte)は 索引から求める。(索引がその行まで作成されていない場合は ページの先頭とする)
+        int firstLine = mLineIndex.findLine(pageStart);
+        if (mLineIndex.getLineOffset(firstLine) != pageStart) return pageStart;
+        long offset = mLineIndex.getLineOffset(firstLine + lines);
+        return (offset >= 0 ? offset : pageStart);
+    }
 
-        if (charSet != null) {
-            mCharSet = charSet;
-        } else {
-            mCharSet = detectCharSet(fileUri);
-            if (mCharSet == null) mCharSet = CHARSET_UTF8;
-        }
-
-        StringBuilder builder = new StringBuilder();
-        // try-with-resources で BufferedReaderの close()を自動呼出しさせる
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, mCharSet))) {
-            int lineCount = 0;
-            String line;
-            while ((line = br.readLine()) != null) {            //1行ごとに読み込む
-                if (lineCount++ > 0) builder.append("\n");
-                builder.append(line);
-            }
+    /**
+     * 指定位置を含む行の 開始位置を返す
+     * @param offset 位置 (byte)
+     * @return 行の開始位置 (byte)。索引が作成されていない場合は 0
+     */
+    private long toLineStart(long offset) {
+        if (mLineIndex == null) return 0;
+        long lineStart = mLineIndex.getLineOffset(mLineIndex.findLine(offset));
+        return Math.max(lineStart, 0);
+    }
 
+    /**
+     * ページ内の 指定された高さにある行を クリップボードにコピーする
+     * 折り返して表示されていても 改行までの 1行全体をコピーする。(レイアウトが作成されていない場合は ページ全体)
+     * @param page ページ番号
+     * @param view ページを表示している PageView
+     * @param y PageViewの上端からの位置 (pixel)
+     * @return true: コピーした
+     */
+    private boolean copyLine(int page, PageView view, float y) {
+        TextPager pager = mPageAdapter.getPager();
+        CharSequence text = (pager != null ? pager.peekPage(page) : null);
+        ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
+        if (text == null || text.length() == 0 || clipboard == null) return false;
+
+        int offset = Math.min(view.getOffsetForVertical(y), text.length());
+        CharSequence copied = text;
+        if (offset >= 0) {
+            int start = offset;
+            while (start > 0 && text.charAt(start - 1) != '\n') start--;
+            int end = offset;
+            while (end < text.length() && text.charAt(end) != '\n') end++;
+            copied = text.subSequence(start, end);
+        }
+        clipboard.setPrimaryClip(ClipData.newPlainText(null, copied.toString()));
+        Toast.makeText(this, offset >= 0 ? R.string.toast_copied_line : R.string.toast_copied_page, Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
+    private void closeSource() {
+        if (mSource == null) return;
+        try {
+            mSource.close();
         } catch (IOException e) {
+            // 何もしない
+        }
+        mSource = null;
+    }
+
+    /**
+     * 指定行が表示されるようにスクロールする
+     * @param line 行番号 (0から始まる)
+     */
+    private void jumpToLine(final int line) {
+        if (mLineIndex == null) return;
+
+        // 索引から 行の位置(byte)を求める。ファイルを先頭から読み直す必要はない
+        long offset = mLineIndex.getLineOffset(line);
+        if (offset < 0) {
+            Toast.makeText(this, R.string.toast_line_not_indexed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        scrollToOffset(offset);
+    }
+
+    /**
+     * ファイル上の指定位置が表示されるようにスクロールする
+     * @param offset 位置 (byte)。文字の先頭であること
+     */
+    private void scrollToOffset(final long offset) {
+        final TextPager pager = mPageAdapter.getPager();
+        if (pager == null) return;
+        if (mFilterMode) {
+            // 絞り込み表示では 指定位置以降で 最初に一致した行を表示する
+            mListView.setSelection(mFilterAdapter.getResult().findNext(offset));
+            return;
+        }
+        if (mHexMode) {
+            // 16進表示では 行は位置から計算できるので、ファイルを読まずにスクロールできる
+            mListView.setSelection(HexAdapter.getRow(offset));
+            return;
+        }
+        if (mTableMode) {
+            // 表形式表示では 行は索引から求める
+            if (mLineIndex != null) mListView.setSelection(Math.max(mLineIndex.findLine(offset), 0));
+            return;
+        }
+        if (mJsonMode) {
+            // ツリー表示では 展開されている要素のうち 指定位置を含む(または直前の)要素を表示する
+            mListView.setSelection(Math.max(mJsonAdapter.findRow(offset), 0));
             return;
         }
 
-        mTextView.setText(builder.toString());
+        // ページとページ内の文字位置を求める (ページの位置を求めるために ファイルを読む場合があるので I/Oスレッドで行う)
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final int page = pager.findPage(offset);
+                pager.getPage(page);
+                final int charOffset = pager.toCharOffset(page, offset);
+                if (charOffset < 0) return;
+                mListView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pager == mPageAdapter.getPager()) scrollToChar(page, charOffset);
+                    }
+                });
+            }
+        });
+    }
 
+    /**
+     * 指定ページの指定位置の文字が表示されるようにスクロールする
+     * @param page ページ番号
+     * @param charOffset ページ内の文字位置
+     */
+    private void scrollToChar(int page, int charOffset) {
+        mScrollPage = page;
+        mScrollChar = charOffset;
+        mPageAdapter.notifyDataSetChanged();
+        mListView.setSelection(page);
+        mListView.post(new Runnable() {
+            @Override
+            public void run() {
+                applyPendingScroll();
+            }
+        });
     }
 
-    private String detectCharSet(Uri uri) {
-        if (uri == null) return null;
+    /**
+     * scrollToChar()で指定された位置に スクロールする
+     * ページのレイアウトは バックグラウンドで作成されるので、作成されていない場合は 作成された時点で再度呼び出される
+     */
+    private void applyPendingScroll() {
+        int page = mScrollPage;
+        if (page < 0) return;
+        View child = mListView.getChildAt(page - mListView.getFirstVisiblePosition());
+        if (!(child instanceof PageView)) return;
+        PageLayout layout = ((PageView) child).getLayout();
+        if (layout == null) return;
+
+        int y = layout.getLineTop(layout.getLineForOffset(mScrollChar)) + child.getPaddingTop();
+        mListView.setSelectionFromTop(page, -y);
+        // 文字サイズが変わる前のレイアウトで 位置を合わせた場合は、新しいレイアウトが作成された時点で 再度合わせる
+        if (mPageAdapter.isLaidOut(page)) mScrollPage = -1;
+    }
 
-        // 文字コード判定ライブラリの実装
-        UniversalDetector detector = new UniversalDetector(null);
+    @Override
+    public void onPageLayoutChanged(int page) {
+        if (page != mScrollPage) return;
+        mListView.post(new Runnable() {
+            @Override
+            public void run() {
+                applyPendingScroll();
+            }
+        });
+    }
 
-        // try-with-resources で InputStreamの close()を自動呼出しさせる
-        try (InputStream fis = getInputStream(uri)) {
-            byte[] buf = new byte[4096];
-            int size;
-            while ((size = fis.read(buf)) > 0 && !detector.isDone()) {
-                detector.handleData(buf, 0, size);
+    /**
+     * ファイル内の文字列の検索を開始する。見つかった位置は 検索途中でも順次 onSearchUpdated()に通知される
+     * (実行中の検索は中止する)
+     * @param query 検索する文字列
+     * @param regex true: 正規表現で検索する
+     */
+    private void startSearch(String query, boolean regex) {
+        cancelSearch();
+        if (mSource == null || mCharSet == null || query.isEmpty()) return;
+
+        if (regex) {
+            try {
+                mSearcher = new RegexSearcher(mSource, query, mCharSet);
+            } catch (PatternSyntaxException e) {
+                Toast.makeText(this, getString(R.string.toast_invalid_regex, e.getDescription()), Toast.LENGTH_SHORT).show();
+                return;
             }
-            detector.dataEnd();
+        } else {
+            LiteralSearcher searcher = new LiteralSearcher(mSource, query, mCharSet);
+            if (mFileState != null) searcher.setTrigramIndex(mFileState.getTrigramIndex());
+            mSearcher = searcher;
+        }
+        mSearcher.setOnSearchListener(this);
+        mSearcher.start();
+
+        // 大きなファイルは 2回目以降の検索のために 索引を用意しておく
+        if (mTrigramIndexer == null && mFileState != null && mFileState.getTrigramIndex() == null) {
+            try {
+                if (mSource.size() >= TRIGRAM_MIN_FILE_BYTES) {
+                    mTrigramIndexer = new TrigramIndexer(this, mSource, mFileState);
+                    mTrigramIndexer.start();
+                }
+            } catch (IOException e) {
+                // 索引がなくても 検索はできる
+            }
+        }
+    }
 
-        } catch (IOException e) {
-            return null;
+    private void cancelSearch() {
+        if (mSearcher != null) {
+            mSearcher.cancel();
+            mSearcher = null;
         }
+        mSearchIndex = -1;
+        mPageAdapter.setHighlight(-1, 0, 0);
+        mHexAdapter.setHighlight(-1);
+    }
 
-        return detector.getDetectedCharset();
+    @Override
+    public void onSearchUpdated(SearchResult result, long scannedBytes) {
+        if (mSearchIndex < 0) {
+            if (result.getCount() > 0) {
+                // 最初に見つかった位置は 検索の完了を待たずに表示する
+                showSearchResult(0);
+            } else if (result.isCompleted()) {
+                Toast.makeText(this, getString(R.string.toast_search_not_found, result.getQuery()), Toast.LENGTH_SHORT).show();
+            }
+        }
+        invalidateOptionsMenu();
     }
 
-    InputStream getInputStream(Uri uri) {
-        if (uri == null) return null;
+    /**
+     * 次(前)の 検索結果を表示する
+     * @param forward true: 次の検索結果, false: 前の検索結果
+     */
+    private void moveSearchResult(boolean forward) {
+        if (mSearcher == null) return;
+        SearchResult result = mSearcher.getResult();
+        int count = result.getCount();
+        if (count == 0) return;
+
+        int index = mSearchIndex + (forward ? 1 : -1);
+        if (index >= count || index < 0) {
+            // 検索が完了していれば 先頭(末尾)に戻る
+            if (!result.isCompleted()) return;
+            index = (index < 0 ? count - 1 : 0);
+        }
+        showSearchResult(index);
+    }
 
-        String scheme = uri.getScheme();
-        if (scheme == null) return null;
+    /**
+     * 指定番目の検索結果を 強調表示してスクロールする
+     * @param index 検索結果の番号
+     */
+    private void showSearchResult(final int index) {
+        final TextPager pager = mPageAdapter.getPager();
+        if (pager == null || mSearcher == null) return;
+
+        final SearchResult result = mSearcher.getResult();
+        final long offset = result.getOffset(index);
+        if (offset < 0) return;
+        mSearchIndex = index;
+
+        String message = getString(result.isCompleted() ? R.string.msg_search_hit_fmt : R.string.msg_search_hit_searching_fmt,
+                index + 1, result.getCount());
+        if (mLineIndex != null && mLineIndex.isCompleted()) {
+            message += "\n" + getString(R.string.msg_search_line_fmt, mLineIndex.findLine(offset) + 1);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
 
-        try {
-            switch (scheme) {
-                case "file":
-                    String path = uri.getPath();
-                    if (path != null) {
-                        return new FileInputStream(path);
+        if (mFilterMode) {
+            // 絞り込み表示では 見つかった位置を含む行(または その前で一致した行)を表示する
+            mListView.setSelection(Math.max(mFilterAdapter.getResult().findNext(offset + 1) - 1, 0));
+            return;
+        }
+        if (mHexMode) {
+            // 見つかった位置を含む行を強調表示する
+            mHexAdapter.setHighlight(offset);
+            mListView.setSelection(HexAdapter.getRow(offset));
+            return;
+        }
+        if (mTableMode) {
+            // 表形式表示では 見つかった位置を含む行を表示する
+            if (mLineIndex != null) mListView.setSelection(Math.max(mLineIndex.findLine(offset), 0));
+            return;
+        }
+        if (mJsonMode) {
+            // ツリー表示では 見つかった位置を含む(展開されている)要素を表示する
+            mListView.setSelection(Math.max(mJsonAdapter.findRow(offset), 0));
+            return;
+        }
+
+        // 見つかった位置(byte)から ページとページ内の文字位置を求める (ファイルを読むので I/Oスレッドで行う)
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final int page = pager.findPage(offset);
+                pager.getPage(page);
+                // 長い行が 複数のページに折り返されていても、一致した文字列の先頭を含むページを強調表示する
+                final int charStart = pager.toCharOffset(page, offset);
+                if (charStart < 0) return;
+                mListView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pager != mPageAdapter.getPager() || index != mSearchIndex || mHexMode || mTableMode || mJsonMode) return;
+                        mPageAdapter.setHighlight(page, charStart, charStart + result.getLength(index));
+                        scrollToChar(page, charStart);
                     }
-                    break;
+                });
+            }
+        });
+    }
+
+    /**
+     * 文字列(または正規表現)に一致する行のみの表示に切り替えて、絞り込みを開始する
+     * 一致した行は 絞り込みの途中でも順次 表示に追加される
+     * @param query 一致させる文字列
+     * @param regex true: 正規表現として扱う
+     */
+    private void startFilter(String query, boolean regex) {
+        TextPager pager = mPageAdapter.getPager();
+        if (pager == null || mSource == null || mCharSet == null || query.isEmpty()) return;
+
+        LineFilter filter;
+        try {
+            filter = new LineFilter(mSource, query, regex, mCharSet);
+        } catch (PatternSyntaxException e) {
+            Toast.makeText(this, getString(R.string.toast_invalid_regex, e.getDescription()), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // 表示中の位置以降で 最初に一致した行から表示する (絞り込み直す場合も 同じ位置から表示する)
+        long offset = Math.max(getFirstVisibleOffset(pager), 0);
+        if (!mFilterMode) mFilterOrigin = offset;
+        if (mLineFilter != null) mLineFilter.cancel();
+
+        mLineFilter = filter;
+        mLineFilter.setOnFilterListener(this);
+        mFilterAdapter.setResult(mSource, mCharSet, filter.getResult());
+        mFilterMode = true;
+        mFilterScrollOffset = offset;
+        mScrollPage = -1;
+        updateAdapter();
+        mLineFilter.start();
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * 絞り込みを中止して、全体の表示に戻す
+     */
+    private void stopFilter() {
+        if (mLineFilter != null) {
+            mLineFilter.cancel();
+            mLineFilter = null;
+        }
+        mFilterAdapter.setResult(null, null, null);
+        mFilterScrollOffset = -1;
+        if (!mFilterMode) return;
+        mFilterMode = false;
+        updateAdapter();
+        invalidateOptionsMenu();
+    }
 
-                case "content":
-                    return getContentResolver().openInputStream(uri);
+    /**
+     * 絞り込み表示から 全体の表示に戻して、指定位置を表示する
+     * @param offset 表示する位置 (byte)。行の先頭であること。-1の場合は 表示中の位置
+     */
+    private void exitFilter(long offset) {
+        TextPager pager = mPageAdapter.getPager();
+        if (offset < 0 && pager != null) offset = getFirstVisibleOffset(pager);
+        stopFilter();
+        if (offset >= 0) scrollToOffset(offset);
+    }
+
+    @Override
+    public void onFilterUpdated(FilterResult result, long scannedBytes) {
+        if (mLineFilter == null || result != mLineFilter.getResult()) return;
+        mFilterAdapter.notifyDataSetChanged();
+
+        int count = result.getCount();
+        if (mFilterScrollOffset >= 0) {
+            // 絞り込みを開始した位置以降の行が 見つかった時点で その行までスクロールする
+            int index = result.findNext(mFilterScrollOffset);
+            if (index < count) {
+                mListView.setSelection(index);
+                mFilterScrollOffset = -1;
+            } else if (result.isCompleted()) {
+                mListView.setSelection(Math.max(count - 1, 0));
+                mFilterScrollOffset = -1;
+            }
+        }
+        if (result.isCompleted() && !mFollowing) {
+            if (count == 0) {
+                Toast.makeText(this, getString(R.string.toast_search_not_found, result.getQuery()), Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, getString(R.string.msg_filter_count_fmt, count), Toast.LENGTH_SHORT).show();
             }
+        }
+    }
+
+    private void showFilterDialog() {
+        if (mPageAdapter.getPager() == null) return;
+
+        // 入力項目は 検索と同じ
+        new DialogUi.Builder(this)
+                .setTitle(R.string.menu_filter)
+                .setView(R.layout.dlg_search)
+                .setPositiveButton()
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_FILTER)
+                .show();
+    }
+
+    /**
+     * ファイル情報(サイズ、行数、単語数、ログレベルごとの行数)を表示する
+     * 集計していない場合や 集計後に追記された場合は、集計してから表示する
+     */
+    private void showFileInfo() {
+        TextPager pager = mPageAdapter.getPager();
+        if (pager == null) return;
+
+        if (mFileStatistics != null && mFileStatistics.getFileSize() == pager.getFileSize()) {
+            showFileInfoDialog(mFileStatistics);
+            return;
+        }
+        cancelStatistics();
+        mStatisticsCounter = new StatisticsCounter(mSource);
+        mStatisticsCounter.setOnStatisticsListener(this);
+        mStatisticsCounter.start();
+
+        new DialogUi.Builder(this, DialogUi.STYLE_PROGRESS_DIALOG)
+                .setTitle(R.string.menu_file_info)
+                .setMessage(getString(R.string.msg_file_info_counting_fmt,
+                        Formatter.formatFileSize(this, 0), Formatter.formatFileSize(this, pager.getFileSize())))
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_FILE_INFO_PROGRESS)
+                .show();
+    }
+
+    private void cancelStatistics() {
+        if (mStatisticsCounter != null) {
+            mStatisticsCounter.cancel();
+            mStatisticsCounter = null;
+            DialogUi.dismissDialog(this, REQ_DLG_FILE_INFO_PROGRESS);
+        }
+    }
+
+    @Override
+    public void onStatisticsProgress(long scannedBytes, long totalBytes) {
+        DialogUi.setProgressMessage(this, REQ_DLG_FILE_INFO_PROGRESS, getString(R.string.msg_file_info_counting_fmt,
+                Formatter.formatFileSize(this, scannedBytes), Formatter.formatFileSize(this, totalBytes)));
+    }
+
+    @Override
+    public void onStatisticsCompleted(FileStatistics statistics) {
+        mStatisticsCounter = null;
+        DialogUi.dismissDialog(this, REQ_DLG_FILE_INFO_PROGRESS);
+        if (statistics == null) return;
+
+        mFileStatistics = statistics;
+        showFileInfoDialog(statistics);
+    }
+
+    private void showFileInfoDialog(FileStatistics statistics) {
+        String message = getString(R.string.msg_file_info_fmt,
+                Formatter.formatFileSize(this, statistics.getFileSize()),
+                statistics.getFileSize(),
+                statistics.getLineCount(),
+                statistics.getWordCount(),
+                statistics.getNonAsciiBytes(),
+                statistics.getLevelCount(FileStatistics.LEVEL_ERROR),
+                statistics.getLevelCount(FileStatistics.LEVEL_WARN),
+                statistics.getLevelCount(FileStatistics.LEVEL_INFO),
+                statistics.getElapsedMillis() / 1000.0f);
+        new DialogUi.Builder(this)
+                .setTitle(R.string.menu_file_info)
+                .setMessage(message)
+                .setPositiveButton()
+                .setRequestCode(REQ_DLG_FILE_INFO)
+                .show();
+    }
+
+    /**
+     * 別の文字コードに変換して保存する。保存する文字コード、行の範囲、保存先の順に選択する
+     */
+    private void showExportDialog() {
+        if (mPageAdapter.getPager() == null || mCharSet == null) return;
+
+        new DialogUi.Builder(this)
+                .setTitle(R.string.menu_export)
+                .setSingleChoiceItems(mCharSetArray, 0)
+                .setPositiveButton()
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_EXPORT)
+                .show();
+    }
+
+    private void showExportRangeDialog() {
+        if (mLineIndex == null) return;
+
+        LineIndex index = mLineIndex;
+        String message = getString(index.isCompleted() ? R.string.msg_export_range_fmt : R.string.msg_export_range_indexing_fmt,
+                mExportCharSet, index.getLineCount());
+        new DialogUi.Builder(this)
+                .setTitle(R.string.menu_export)
+                .setMessage(message)
+                .setView(R.layout.dlg_export_range)
+                .setPositiveButton()
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_EXPORT_RANGE)
+                .show();
+    }
 
-        } catch (FileNotFoundException e) {
-            return null;
+    /**
+     * 保存する行の範囲を 位置(byte)に変換する
+     * @param firstLine 最初の行 (0から始まる)
+     * @param lastLine 最後の行 (0から始まる)。-1の場合は ファイルの末尾まで
+     * @return true: 変換できた。false: 索引が作成されていない行が指定された
+     */
+    private boolean setExportRange(int firstLine, int lastLine) {
+        TextPager pager = mPageAdapter.getPager();
+        if (pager == null || mLineIndex == null) return false;
+
+        long start = mLineIndex.getLineOffset(Math.max(firstLine, 0));
+        long end = (lastLine < 0 ? pager.getFileSize() : mLineIndex.getLineOffset(lastLine + 1));
+        // 最後の行は 次の行が無いので ファイルの末尾までとする
+        if (end < 0 && mLineIndex.isCompleted() && lastLine >= mLineIndex.getLineCount() - 1) end = pager.getFileSize();
+        if (start < 0 || end < 0) return false;
+        mExportStart = start;
+        mExportEnd = Math.max(end, start);
+        return true;
+    }
+
+    /**
+     * 保存先を選択する画面を表示する (選択結果は onActivityResult()に通知される)
+     */
+    private void selectExportFile() {
+        // 既定のファイル名は 表示中のファイル名とする
+        String name = mFileUri.getLastPathSegment();
+        if (name != null) name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf(':')) + 1);
+
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/plain");
+        if (name != null && !name.isEmpty()) intent.putExtra(Intent.EXTRA_TITLE, name);
+        try {
+            startActivityForResult(intent, REQUEST_CREATE_EXPORT_FILE);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.toast_export_failed, Toast.LENGTH_SHORT).show();
         }
+    }
 
-        return null;
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_CREATE_EXPORT_FILE && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            startExport(data.getData());
+        }
     }
 
+    /**
+     * 選択された保存先への 書き出しを開始する。書き出しは バックグラウンドで行い、進捗を表示する
+     * @param uri 保存先
+     */
+    private void startExport(Uri uri) {
+        if (mSource == null || mCharSet == null || mExportCharSet == null) return;
+
+        cancelExport();
+        WritableByteChannel output;
+        try {
+            // 保存先が pipeの場合もあるので、シークせずに 順に書き込む
+            // 既存のファイルに上書きする場合に 以前の内容が後ろに残らないように 切り詰めて開く
+            ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(uri, "wt");
+            if (pfd == null) throw new FileNotFoundException(uri.toString());
+            output = new ParcelFileDescriptor.AutoCloseOutputStream(pfd).getChannel();
+        } catch (FileNotFoundException | SecurityException e) {
+            Toast.makeText(this, R.string.toast_export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mFileExporter = new FileExporter(mSource, mExportStart, mExportEnd, mCharSet, mExportCharSet, output);
+        mFileExporter.setOnExportListener(this);
+        mFileExporter.setOutputUri(this, uri);
+        mFileExporter.start();
+
+        new DialogUi.Builder(this, DialogUi.STYLE_PROGRESS_DIALOG)
+                .setTitle(R.string.menu_export)
+                .setMessage(getString(R.string.msg_export_progress_fmt, Formatter.formatFileSize(this, 0),
+                        Formatter.formatFileSize(this, mExportEnd - mExportStart), Formatter.formatFileSize(this, 0)))
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_EXPORT_PROGRESS)
+                .show();
+    }
+
+    private void cancelExport() {
+        if (mFileExporter != null) {
+            mFileExporter.cancel();
+            mFileExporter = null;
+            DialogUi.dismissDialog(this, REQ_DLG_EXPORT_PROGRESS);
+        }
+    }
+
+    @Override
+    public void onExportProgress(long readBytes, long totalBytes, long elapsedMillis) {
+        DialogUi.setProgressMessage(this, REQ_DLG_EXPORT_PROGRESS, getString(R.string.msg_export_progress_fmt,
+                Formatter.formatFileSize(this, readBytes), Formatter.formatFileSize(this, totalBytes),
+                formatThroughput(readBytes, elapsedMillis)));
+    }
+
+    @Override
+    public void onExportCompleted(long readBytes, long writtenBytes, long elapsedMillis) {
+        mFileExporter = null;
+        DialogUi.dismissDialog(this, REQ_DLG_EXPORT_PROGRESS);
+        Toast.makeText(this, getString(R.string.toast_export_completed_fmt, Formatter.formatFileSize(this, writtenBytes),
+                elapsedMillis / 1000.0f, formatThroughput(readBytes, elapsedMillis)), Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onExportFailed() {
+        mFileExporter = null;
+        DialogUi.dismissDialog(this, REQ_DLG_EXPORT_PROGRESS);
+        Toast.makeText(this, R.string.toast_export_failed, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * 1秒あたりの 処理量の表示用文字列を返す
+     * @param bytes 処理したバイト数
+     * @param elapsedMillis 経過時間 (msec)
+     * @return 表示用文字列 (「/秒」は含まない)
+     */
+    private String formatThroughput(long bytes, long elapsedMillis) {
+        return Formatter.formatFileSize(this, elapsedMillis > 0 ? bytes * 1000 / elapsedMillis : bytes);
+    }
+
+    private void showSearchDialog() {
+        if (mPageAdapter.getPager() == null) return;
+
+        new DialogUi.Builder(this)
+                .setTitle(R.string.menu_search)
+                .setView(R.layout.dlg_search)
+                .setPositiveButton()
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_SEARCH)
+                .show();
+    }
 
     private void setFontSize(float fontSize) {
         DisplayMetrics metrics = getResources().getDisplayMetrics();
-        mTextView.setTextSize(fontSize * metrics.scaledDensity / metrics.density);
+        mPageAdapter.setTextSize(fontSize * metrics.scaledDensity / metrics.density);
+        mHexAdapter.setTextSize(fontSize * metrics.scaledDensity / metrics.density);
+        mFilterAdapter.setTextSize(fontSize * metrics.scaledDensity / metrics.density);
+        mTableAdapter.setTextSize(fontSize * metrics.scaledDensity / metrics.density);
+        mJsonAdapter.setTextSize(fontSize * metrics.scaledDensity / metrics.density);
     }
 
     private String getFontSizeLabel(float fontSize) {
@@ -240,11 +1372,26 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
                 .show();
     }
 
+    private void showJumpLineDialog() {
+        if (mLineIndex == null) return;
+
+        LineIndex index = mLineIndex;
+        String message = getString(index.isCompleted() ? R.string.msg_jump_line_fmt : R.string.msg_jump_line_indexing_fmt, index.getLineCount());
+        new DialogUi.Builder(this)
+                .setTitle(R.string.menu_jump_line)
+                .setMessage(message)
+                .setView(R.layout.dlg_jump_line)
+                .setPositiveButton()
+                .setNegativeButton()
+                .setRequestCode(REQ_DLG_JUMP_LINE)
+                .show();
+    }
+
     private void changeCharSet() {
         int selected = Arrays.asList(mCharSetArray).indexOf(mCharSet);
         new DialogUi.Builder(this)
                 .setTitle(R.string.menu_char_set)
-                .setSingleChoiceItems(mCharSetArray, selected)
+                .setSingleChoiceItems(getCharSetLabels(), selected)
                 .setPositiveButton()
                 .setNegativeButton()
                 .setRequestCode(REQ_DLG_CHAR_SET)
@@ -252,6 +1399,31 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
     }
 
 
+    /**
+     * 文字コードの選択肢の 表示用文字列を返す
+     * ファイルを開いた時に 文字コードを評価していれば、最も もっともらしいものと 不正な byte列の数を付け加える
+     * @return 表示用文字列 (mCharSetArrayと同じ順)
+     */
+    private String[] getCharSetLabels() {
+        String[] labels = mCharSetArray.clone();
+        CharsetScorer.Score[] scores = (mFileState != null ? mFileState.getCharSetScores() : null);
+        if (scores == null || scores.length == 0) return labels;
+
+        for (int i = 0; i < labels.length; i++) {
+            for (CharsetScorer.Score score : scores) {
+                if (!score.charSet.equalsIgnoreCase(mCharSetArray[i])) continue;
+                if (score == scores[0]) {
+                    labels[i] = getString(R.string.label_char_set_likely_fmt, labels[i]);
+                } else if (score.errors > 0) {
+                    labels[i] = getString(R.string.label_char_set_errors_fmt, labels[i], score.errors);
+                }
+                break;
+            }
+        }
+        return labels;
+    }
+
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -314,12 +1486,90 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
                     int pos = ((ListView)view).getCheckedItemPosition();
                     String charSet = ((ListView)view).getItemAtPosition(pos).toString();
                     Log.d("dialog", "item: " + charSet);
-                    mCharSet = mCharSetArray[pos];
                     if (mFileUri != null) {
-                        viewFile(mFileUri, mCharSet);
+                        // 文字コードが選択された場合は テキストとして表示する
+                        setHexMode(false);
+                        // 読み込み中であれば中止して、選択された文字コードで読み込み直す
+                        loadFile(mFileUri, mCharSetArray[pos]);
                     }
                 }
                 break;
+
+            case REQ_DLG_JUMP_LINE:
+                if (which == DialogUi.EVENT_BUTTON_POSITIVE) {
+                    EditText editText = view.findViewById(R.id.et_line_number);
+                    try {
+                        // 入力は 1から始まる行番号
+                        jumpToLine(Integer.parseInt(editText.getText().toString()) - 1);
+                    } catch (NumberFormatException e) {
+                        // 入力なしの場合は何もしない
+                    }
+                }
+                break;
+
+            case REQ_DLG_SEARCH:
+                if (which == DialogUi.EVENT_BUTTON_POSITIVE) {
+                    EditText editText = view.findViewById(R.id.et_search);
+                    CheckBox checkBox = view.findViewById(R.id.cb_regex);
+                    startSearch(editText.getText().toString(), checkBox.isChecked());
+                }
+                break;
+
+            case REQ_DLG_FILTER:
+                if (which == DialogUi.EVENT_BUTTON_POSITIVE) {
+                    EditText editText = view.findViewById(R.id.et_search);
+                    CheckBox checkBox = view.findViewById(R.id.cb_regex);
+                    startFilter(editText.getText().toString(), checkBox.isChecked());
+                }
+                break;
+
+            case REQ_DLG_FILE_INFO_PROGRESS:
+                // 集計中に キャンセルされた
+                if (which == DialogUi.EVENT_BUTTON_NEGATIVE) cancelStatistics();
+                break;
+
+            case REQ_DLG_EXPORT:
+                if (which == DialogUi.EVENT_BUTTON_POSITIVE) {
+                    int pos = ((ListView)view).getCheckedItemPosition();
+                    if (pos < 0) break;
+                    mExportCharSet = mCharSetArray[pos];
+                    showExportRangeDialog();
+                }
+                break;
+
+            case REQ_DLG_EXPORT_RANGE:
+                if (which == DialogUi.EVENT_BUTTON_POSITIVE) {
+                    // 入力は 1から始まる行番号。空欄の場合は ファイルの先頭・末尾まで
+                    EditText firstLineText = view.findViewById(R.id.et_export_first_line);
+                    EditText lastLineText = view.findViewById(R.id.et_export_last_line);
+                    int firstLine = parseLineNumber(firstLineText);
+                    int lastLine = parseLineNumber(lastLineText);
+                    if (!setExportRange(firstLine, lastLine)) {
+                        Toast.makeText(this, R.string.toast_line_not_indexed, Toast.LENGTH_SHORT).show();
+                        break;
+                    }
+                    selectExportFile();
+                }
+                break;
+
+            case REQ_DLG_EXPORT_PROGRESS:
+                // 書き出し中に キャンセルされた (書き出し済みの部分は 保存先に残る)
+                if (which == DialogUi.EVENT_BUTTON_NEGATIVE) cancelExport();
+                break;
+        }
+    }
+
+
+    /**
+     * 入力された行番号を返す
+     * @param editText 行番号(1から始まる)の入力欄
+     * @return 行番号 (0から始まる)。入力なしの場合は -1
+     */
+    private static int parseLineNumber(EditText editText) {
+        try {
+            return Math.max(Integer.parseInt(editText.getText().toString()) - 1, 0);
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -350,10 +1600,52 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
             menuItem.setTitle(label);
         }
 
+        if ((menuItem = menu.findItem(R.id.action_follow)) != null) {
+            TextPager pager = mPageAdapter.getPager();
+            menuItem.setChecked(mFollowing);
+            menuItem.setEnabled(pager == null || !pager.getSource().isCompressed());
+        }
+
+        if ((menuItem = menu.findItem(R.id.action_monospace)) != null) {
+            menuItem.setChecked(mMonospace);
+        }
+
+        if ((menuItem = menu.findItem(R.id.action_hex)) != null) {
+            menuItem.setChecked(mHexMode);
+            menuItem.setEnabled(!mFilterMode);
+        }
+
+        if ((menuItem = menu.findItem(R.id.action_table)) != null) {
+            menuItem.setChecked(mTableMode);
+            menuItem.setEnabled(!mFilterMode);
+        }
+
+        if ((menuItem = menu.findItem(R.id.action_json)) != null) {
+            // 他の文字コードでは 文字の一部が 括弧や「"」と区別できないので、UTF-8のみ対応する
+            menuItem.setChecked(mJsonMode);
+            menuItem.setEnabled(!mFilterMode && CHARSET_UTF8.equals(mCharSet));
+        }
+
+        if ((menuItem = menu.findItem(R.id.action_filter)) != null) {
+            menuItem.setChecked(mFilterMode);
+        }
+
+        if ((menuItem = menu.findItem(R.id.action_export)) != null) {
+            menuItem.setEnabled(mPageAdapter.getPager() != null && mCharSet != null);
+        }
+
         if ((menuItem = menu.findItem(R.id.action_font_size)) != null) {
             menuItem.setTitle(getString(R.string.menu_font_size) + getFontSizeLabel(mSpFontSize));
         }
 
+        boolean hasResult = (mSearcher != null && mSearcher.getResult().getCount() > 0);
+        if ((menuItem = menu.findItem(R.id.action_search_next)) != null) {
+            menuItem.setEnabled(hasResult);
+        }
+        if ((menuItem = menu.findItem(R.id.action_search_prev)) != null) {
+            menuItem.setEnabled(hasResult);
+        }
+
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -374,6 +1666,58 @@ public class TextViewerActivity extends AppCompatActivity implements DialogUi.Di
                 changeCharSet();
                 return true;
 
+            case R.id.action_monospace:
+                toggleMonospace();
+                return true;
+
+            case R.id.action_hex:
+                toggleHex();
+                return true;
+
+            case R.id.action_table:
+                toggleTable();
+                return true;
+
+            case R.id.action_json:
+                toggleJson();
+                return true;
+
+            case R.id.action_jump_line:
+                showJumpLineDialog();
+                return true;
+
+            case R.id.action_follow:
+                toggleFollow();
+                return true;
+
+            case R.id.action_search:
+                showSearchDialog();
+                return true;
+
+            case R.id.action_filter:
+                if (mFilterMode) {
+                    exitFilter(-1);
+                } else {
+                    showFilterDialog();
+                }
+                return true;
+
+            case R.id.action_file_info:
+                showFileInfo();
+                return true;
+
+            case R.id.action_export:
+                showExportDialog();
+                return true;
+
+            case R.id.action_search_next:
+                moveSearchResult(true);
+                return true;
+
+            case R.id.action_search_prev:
+                moveSearchResult(false);
+                return true;
+
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -0,0 +1,57 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.util.Arrays;
+
+/**
+ * Boyer-Moore-Horspool法で byte列を検索するクラス
+ */
+
+public class ByteSearcher {
+
+    private final byte[] mPattern;
+    private final int[] mShift = new int[ 256 ];
+
+
+    /**
+     * コンストラクタ
+     * @param pattern 検索する byte列 (1byte以上)
+     */
+    public ByteSearcher(byte[] pattern) {
+        mPattern = pattern;
+
+        // 不一致の場合に ずらす量を byte値ごとに求めておく
+        int last = pattern.length - 1;
+        Arrays.fill(mShift, pattern.length);
+        for (int i = 0; i < last; i++) {
+            mShift[pattern[i] & 0xff] = last - i;
+        }
+    }
+
+    public int getPatternLength() {
+        return mPattern.length;
+    }
+
+    /**
+     * 指定範囲から パターンを検索する
+     * @param buf 検索対象
+     * @param from 検索開始位置
+     * @param to 検索終了位置 (この位置は含まない)
+     * @return 見つかった位置。見つからない場合は -1
+     */
+    public int indexOf(byte[] buf, int from, int to) {
+        byte[] pattern = mPattern;
+        int last = pattern.length - 1;
+        int i = from;
+        while (i + last < to) {
+            byte b = buf[i + last];
+            if (b == pattern[last]) {
+                int j = last - 1;
+                while (j >= 0 && buf[i + j] == pattern[j]) j--;
+                if (j < 0) return i;
+            }
+            i += mShift[b & 0xff];
+        }
+        return -1;
+    }
+
+}
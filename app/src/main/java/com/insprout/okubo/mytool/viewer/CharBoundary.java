@@ -0,0 +1,167 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * byte列の途中の位置から 文字の区切りを判定するための 文字コードごとの規則をまとめたクラス
+ *
+ * - UTF-8: 2byte目以降が 10xxxxxx なので、それ以外の byteが文字の先頭となる
+ * - SHIFT_JIS: 0x40未満の byteは 2byte文字の一部にならないので、そこから先頭byte・2byte目の並びをたどる
+ * - EUC-JP: 0x80未満の byteは 多バイト文字の一部にならないので、そこから先頭byte・2byte目以降の並びをたどる
+ * - ISO-2022-JP: 状態を持つので、状態を指定する エスケープシーケンス(ESC)の位置からしか デコードを始められない。
+ *   途中の位置の状態は 直前のエスケープシーケンスと、そこからの 2byte文字の並びで判定する
+ */
+
+class CharBoundary {
+    final static String CHARSET_UTF8 = "UTF-8";
+    final static String CHARSET_SJIS = "SHIFT_JIS";
+    final static String CHARSET_JIS = "ISO-2022-JP";
+    final static String CHARSET_EUC_JP = "EUC-JP";
+
+    private final static int MAX_UTF8_TRAIL = 3;
+    private final static byte ESC = 0x1B;
+
+    // ISO-2022-JPの 指定位置の状態
+    final static int SHIFT_UNKNOWN = -1;                        // 判定できない
+    final static int SHIFT_NONE = 0;                            // 文字の先頭ではない (2byte文字の 2byte目や エスケープシーケンスの途中など)
+    final static int SHIFT_SINGLE = 1;                          // ASCII(JIS X 0201ローマ字)の 文字の先頭
+    final static int SHIFT_DOUBLE = 2;                          // 2byte文字の 文字の先頭
+
+
+    /**
+     * 状態を持つ文字コード(途中の位置から 区切りを判定できないもの)か判定する
+     * @param charSet 文字コード
+     * @return true: 状態を持つ
+     */
+    static boolean isStateful(String charSet) {
+        return CHARSET_JIS.equalsIgnoreCase(charSet);
+    }
+
+    /**
+     * 指定位置以降の 最初の文字の先頭位置(デコードを開始できる位置)を返す
+     * @param bytes byte列
+     * @param position 検索開始位置
+     * @param limit 検索終了位置
+     * @param charSet 文字コード
+     * @return 文字の先頭位置。limitまでに見つからない場合は -1
+     */
+    static int findCharStart(ByteBuffer bytes, int position, int limit, String charSet) {
+        if (CHARSET_JIS.equalsIgnoreCase(charSet)) {
+            // 状態を指定するエスケープシーケンスの先頭から デコードする
+            for (int i = position; i < limit; i++) {
+                if (bytes.get(i) == ESC) return i;
+            }
+            return -1;
+
+        } else if (CHARSET_SJIS.equalsIgnoreCase(charSet)) {
+            for (int i = position; i < limit; i++) {
+                if ((bytes.get(i) & 0xFF) < 0x40) return i;
+            }
+            return -1;
+
+        } else if (CHARSET_EUC_JP.equalsIgnoreCase(charSet)) {
+            for (int i = position; i < limit; i++) {
+                if ((bytes.get(i) & 0x80) == 0) return i;
+            }
+            return -1;
+        }
+
+        int max = Math.min(position + MAX_UTF8_TRAIL + 1, limit);
+        for (int i = position; i < max; i++) {
+            if ((bytes.get(i) & 0xC0) != 0x80) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 指定位置が 文字の先頭か確認する
+     * (多バイト文字の 2byte目以降の位置を除外する)
+     * @param buf 読み込んだ byte列 (positionより前の部分は すべて 確認に使用する)
+     * @param position 確認する位置
+     * @param fileStart true: bufの先頭が ファイルの先頭 (bufの先頭を 文字の先頭とみなせる)
+     * @param charSet 文字コード
+     * @return true: 文字の先頭。区切りが確認できなかった場合も true
+     */
+    static boolean isCharStart(byte[] buf, int position, boolean fileStart, String charSet) {
+        if (CHARSET_SJIS.equalsIgnoreCase(charSet)) {
+            // 0x40未満の byteの直後を起点に 文字の区切りをたどる
+            int i = position;
+            while (i > 0 && (buf[i - 1] & 0xff) >= 0x40) i--;
+            if (i > 0 || fileStart) {
+                while (i < position) {
+                    int b = buf[i] & 0xff;
+                    i += ((b >= 0x81 && b <= 0x9F) || (b >= 0xE0 && b <= 0xFC)) ? 2 : 1;
+                }
+                return (i == position);
+            }
+
+        } else if (CHARSET_EUC_JP.equalsIgnoreCase(charSet)) {
+            // 0x80未満の byteの直後を起点に 文字の区切りをたどる
+            int i = position;
+            while (i > 0 && (buf[i - 1] & 0x80) != 0) i--;
+            if (i > 0 || fileStart) {
+                while (i < position) {
+                    int b = buf[i] & 0xff;
+                    i += (b == 0x8F) ? 3 : (b >= 0x8E) ? 2 : 1;
+                }
+                return (i == position);
+            }
+        }
+        // UTF-8は 検索文字列の先頭が 2byte目以降の byteになることはないので 確認しない
+        // ISO-2022-JPは 状態によるので getShiftState()で確認する
+        return true;
+    }
+
+    /**
+     * ISO-2022-JPで 指定位置の状態を返す
+     * @param buf 読み込んだ byte列 (positionより前の 最後のエスケープシーケンスから判定する)
+     * @param position 確認する位置
+     * @param fileStart true: bufの先頭が ファイルの先頭 (エスケープシーケンスがなければ ASCIIとみなせる)
+     * @return 状態。bufに エスケープシーケンスがなく 判定できない場合は SHIFT_UNKNOWN
+     */
+    static int getShiftState(byte[] buf, int position, boolean fileStart) {
+        int escape = findLastEscape(buf, position);
+        if (escape < 0) return (fileStart ? SHIFT_SINGLE : SHIFT_UNKNOWN);
+        return getShiftState(buf, escape, position);
+    }
+
+    /**
+     * ISO-2022-JPで 指定のエスケープシーケンスが有効な範囲の 指定位置の状態を返す
+     * @param buf 読み込んだ byte列
+     * @param escape エスケープシーケンスの位置
+     * @param position 確認する位置 (escapeと同じく bufの先頭からの位置)
+     * @return 状態
+     */
+    static int getShiftState(byte[] buf, int escape, long position) {
+        if (escape + 2 >= buf.length) return SHIFT_NONE;
+        byte intermediate = buf[escape + 1];
+        byte last = buf[escape + 2];
+        // ESC $ ( D など 4byteのものは 2byte文字の状態となる
+        int length = (intermediate == '$' && last == '(') ? 4 : 3;
+        long base = escape + length;
+        if (position < base) return SHIFT_NONE;
+
+        if (intermediate == '$') {
+            // 2byte文字の状態では エスケープシーケンスの直後から 2byteずつが 1文字となる
+            return ((position - base) % 2 == 0 ? SHIFT_DOUBLE : SHIFT_NONE);
+        } else if (intermediate == '(' && (last == 'B' || last == 'J')) {
+            return SHIFT_SINGLE;
+        }
+        // 1byteカナなど 検索文字列に現れない状態
+        return SHIFT_NONE;
+    }
+
+    /**
+     * 指定位置より前の 最後のエスケープシーケンスの位置を返す
+     * @param buf 読み込んだ byte列
+     * @param position 検索終了位置
+     * @return エスケープシーケンスの位置。ない場合は -1
+     */
+    static int findLastEscape(byte[] buf, int position) {
+        for (int i = position - 1; i >= 0; i--) {
+            if (buf[i] == ESC) return i;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * ファイル先頭部分を 候補の文字コードごとに実際にデコードして、文字コードとしての もっともらしさを評価するクラス
+ *
+ * 候補ごとに CPUのコア数分 並列にデコードし、不正な byte列(malformed, unmappable)と
+ * 通常のテキストには まず現れない文字(半角カナ、制御文字、私用領域など)を数える。
+ * (EUC-JPの byte列は Shift_JISとしても 半角カナの並びとして デコードできてしまうため、不正な byte列だけでは区別できない)
+ * 評価の低い(数の少ない)順に並べ、同じ評価の場合は UniversalDetectorの判定結果、候補の順を優先する
+ */
+
+public class CharsetScorer {
+    private final static int ERROR_WEIGHT = 16;                 // 不正な byte列 1箇所の評価 (不自然な文字 1文字に対する重み)
+    private final static int CONFIDENT_RATIO = 1000;            // 不正な byte列が 文字数の 1/CONFIDENT_RATIO以下であれば 判定できたとする
+    private final static int BUFFER_CHARS = 4096;
+
+    /**
+     * 1つの文字コードの評価
+     */
+    public static class Score {
+        public final String charSet;
+        public final int errors;                                // 不正な byte列の数
+        public final int unlikely;                              // 通常のテキストには まず現れない文字の数
+        public final int chars;                                 // デコードできた文字数
+
+        Score(String charSet, int errors, int unlikely, int chars) {
+            this.charSet = charSet;
+            this.errors = errors;
+            this.unlikely = unlikely;
+            this.chars = chars;
+        }
+
+        /**
+         * 評価値を返す
+         * @return 評価値 (小さいほど もっともらしい)
+         */
+        public long getPenalty() {
+            return (long)errors * ERROR_WEIGHT + unlikely;
+        }
+
+        /**
+         * この文字コードで 正しくデコードできたと言えるか
+         * @return true: 不正な byte列が ほとんどない
+         */
+        public boolean isConfident() {
+            return (long)errors * CONFIDENT_RATIO <= chars;
+        }
+    }
+
+
+    /**
+     * 候補の文字コードを評価して、もっともらしい順に並べて返す
+     * @param head ファイル先頭部分
+     * @param endOfFile headがファイル全体の場合は true (falseの場合は 末尾で途切れた文字を不正としない)
+     * @param candidates 候補の文字コード (端末で扱えない文字コードは除く)
+     * @param detected UniversalDetectorなどで判定された文字コード。候補になければ 候補に加える (ない場合は null)
+     * @return 評価 (もっともらしい順)
+     */
+    public static Score[] score(final ByteBuffer head, final boolean endOfFile, String[] candidates, final String detected) {
+        List<String> charSets = new ArrayList<>();
+        for (String charSet : candidates) {
+            if (!charSets.contains(charSet) && Charset.isSupported(charSet)) charSets.add(charSet);
+        }
+        if (detected != null && !containsIgnoreCase(charSets, detected) && Charset.isSupported(detected)) charSets.add(detected);
+
+        // 候補ごとに 並列にデコードする
+        List<Future<Score>> futures = new ArrayList<>();
+        for (final String charSet : charSets) {
+            futures.add(ViewerExecutors.compute().submit(new Callable<Score>() {
+                @Override
+                public Score call() {
+                    return decode(head.duplicate(), endOfFile, charSet);
+                }
+            }));
+        }
+        final List<Score> scores = new ArrayList<>();
+        try {
+            for (Future<Score> future : futures) {
+                scores.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            for (Future<Score> future : futures) future.cancel(true);
+            return new Score[0];
+        }
+
+        final List<String> order = charSets;
+        Score[] result = scores.toArray(new Score[ scores.size() ]);
+        Arrays.sort(result, new Comparator<Score>() {
+            @Override
+            public int compare(Score s1, Score s2) {
+                long p1 = s1.getPenalty();
+                long p2 = s2.getPenalty();
+                if (p1 != p2) return (p1 < p2 ? -1 : 1);
+                boolean d1 = s1.charSet.equalsIgnoreCase(detected);
+                boolean d2 = s2.charSet.equalsIgnoreCase(detected);
+                if (d1 != d2) return (d1 ? -1 : 1);
+                return order.indexOf(s1.charSet) - order.indexOf(s2.charSet);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 指定の文字コードで デコードして評価する
+     */
+    private static Score decode(ByteBuffer in, boolean endOfFile, String charSet) {
+        CharsetDecoder decoder = Charset.forName(charSet).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(BUFFER_CHARS);
+        int[] counts = new int[ 2 ];                            // 文字数, 不自然な文字の数
+        int errors = 0;
+        while (true) {
+            CoderResult result = decoder.decode(in, out, endOfFile);
+            count(out, counts);
+            if (result.isError()) {
+                // 不正な byte列は 読み飛ばして続ける
+                errors++;
+                in.position(in.position() + result.length());
+            } else if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (endOfFile) {
+            while (decoder.flush(out).isOverflow()) count(out, counts);
+            count(out, counts);
+        }
+        int chars = counts[0];
+        int unlikely = counts[1];
+        return new Score(charSet, errors, unlikely, chars);
+    }
+
+    /**
+     * デコードされた文字を数えて、バッファを空にする
+     */
+    private static void count(CharBuffer out, int[] counts) {
+        out.flip();
+        counts[0] += out.remaining();
+        while (out.hasRemaining()) {
+            if (isUnlikely(out.get())) counts[1]++;
+        }
+        out.clear();
+    }
+
+    /**
+     * 通常のテキストには まず現れない文字か判定する
+     */
+    private static boolean isUnlikely(char c) {
+        // ISO-2022-JPの エスケープシーケンスは デコードすると現れないので、ESCも不自然な文字とする
+        if (c < 0x20) return c != '\t' && c != '\n' && c != '\r' && c != '\f';
+        return (c >= 0x7F && c <= 0x9F)                         // DEL, C1制御文字
+                || (c >= 0xFF61 && c <= 0xFF9F)                 // 半角カナ
+                || (c >= 0xE000 && c <= 0xF8FF)                 // 私用領域
+                || c == 0xFFFD;
+    }
+
+    private static boolean containsIgnoreCase(List<String> list, String value) {
+        for (String item : list) {
+            if (item.equalsIgnoreCase(value)) return true;
+        }
+        return false;
+    }
+
+}
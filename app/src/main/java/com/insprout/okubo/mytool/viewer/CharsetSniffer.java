@@ -0,0 +1,131 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.mozilla.universalchardet.UniversalDetector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ファイル先頭部分から 文字コードを判定するクラス
+ *
+ * 呼び出し元が読み込んだ先頭部分(SAMPLE_SIZE)から、BOM → UTF-8としての妥当性 → juniversalchardet の順に判定する。
+ * (読み込んだ先頭部分は 呼び出し元が表示などにも使用するので、同じ部分を再度読み込まなくてよい)
+ */
+
+public class CharsetSniffer {
+    public final static int SAMPLE_SIZE = 64 * 1024;           // 判定に使用する先頭部分のサイズ
+    private final static int BINARY_CONTROL_RATIO = 20;         // 制御文字が これ以上の割合(1/20)であれば バイナリとする
+
+    private final static String CHARSET_UTF8 = "UTF-8";
+    private final static byte[] BOM_UTF8 = { (byte)0xEF, (byte)0xBB, (byte)0xBF };
+
+
+    /**
+     * 文字コードを判定する
+     * @param head ファイル先頭部分
+     * @param endOfFile headがファイル全体の場合は true
+     * @return 判定された文字コード (判定できなかった場合は null)
+     */
+    public static String detect(ByteBuffer head, boolean endOfFile) {
+        // BOMがあれば それで確定する
+        if (startsWith(head, BOM_UTF8)) return CHARSET_UTF8;
+
+        // ASCIIのみ もしくは UTF-8として正しい byte列であれば UTF-8とする
+        // (UniversalDetectorは このような場合に isDone()にならず、ファイル全体を読む事になるので先に判定する)
+        // ただし ISO-2022-JPは 7bitの byte列なので、エスケープシーケンスを含む場合は除く
+        if (!containsEscape(head) && isValidUtf8(head, endOfFile)) return CHARSET_UTF8;
+
+        // 文字コード判定ライブラリの実装
+        UniversalDetector detector = new UniversalDetector(null);
+        byte[] bytes;
+        int offset;
+        int length = head.remaining();
+        if (head.hasArray()) {
+            bytes = head.array();
+            offset = head.arrayOffset() + head.position();
+        } else {
+            bytes = new byte[ length ];
+            head.duplicate().get(bytes);
+            offset = 0;
+        }
+        detector.handleData(bytes, offset, length);
+        detector.dataEnd();
+        return detector.getDetectedCharset();
+    }
+
+    /**
+     * バイナリファイルのように見えるか判定する
+     * (このビューアで扱う文字コードでは テキストに NULは現れず、改行やタブ以外の制御文字も まれにしか現れない)
+     * @param head ファイル先頭部分
+     * @return true: バイナリファイルと思われる
+     */
+    public static boolean isBinary(ByteBuffer head) {
+        int controls = 0;
+        for (int i = head.position(); i < head.limit(); i++) {
+            int b = head.get(i) & 0xff;
+            if (b == 0) return true;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1B) controls++;
+        }
+        return controls > 0 && controls >= head.remaining() / BINARY_CONTROL_RATIO;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsEscape(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == 0x1B) return true;
+        }
+        return false;
+    }
+
+    /**
+     * UTF-8として正しい byte列か判定する
+     * @param buffer 判定する byte列
+     * @param endOfFile bufferがファイル末尾までの場合は true (falseの場合は 末尾で途切れた文字を許容する)
+     * @return true: UTF-8として正しい
+     */
+    static boolean isValidUtf8(ByteBuffer buffer, boolean endOfFile) {
+        int limit = buffer.limit();
+        int i = buffer.position();
+        while (i < limit) {
+            int b = buffer.get(i) & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+
+            int trail;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                trail = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                trail = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                trail = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            int code = b & (0x3F >> trail);
+            for (int j = 1; j <= trail; j++) {
+                // 先頭部分の末尾で 文字が途切れている場合は、それまでが正しければよい
+                if (i + j >= limit) return !endOfFile;
+                int c = buffer.get(i + j) & 0xff;
+                if ((c & 0xC0) != 0x80) return false;
+                code = (code << 6) | (c & 0x3F);
+            }
+            // 冗長な表現や サロゲート、範囲外の値は不正
+            if (code < min || code > 0x10FFFF || (code >= 0xD800 && code <= 0xDFFF)) return false;
+            i += trail + 1;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSV/TSVの 1行を 列に分割するクラス
+ *
+ * 「"」で囲まれた列の中の 区切り文字は 列の区切りとせず、「""」は 「"」1文字とする。(RFC 4180)
+ * 表示は 1行ずつ行うので、「"」で囲まれた列の中の 改行は扱わない。(閉じられていない「"」は 行末までを 1つの列とする)
+ */
+
+class CsvScanner {
+    final static char DELIMITER_COMMA = ',';
+    final static char DELIMITER_TAB = '\t';
+    private final static char QUOTE = '"';
+
+
+    /**
+     * 区切り文字を判定する
+     * 「"」の外にある タブと カンマの数を比べて、多い方を区切り文字とする
+     * @param line 判定する行 (通常は 先頭行)
+     * @return DELIMITER_TAB もしくは DELIMITER_COMMA
+     */
+    static char detectDelimiter(CharSequence line) {
+        int tabs = 0;
+        int commas = 0;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == QUOTE) {
+                quoted = !quoted;
+            } else if (!quoted) {
+                if (c == DELIMITER_TAB) tabs++;
+                else if (c == DELIMITER_COMMA) commas++;
+            }
+        }
+        return (tabs > 0 && tabs >= commas ? DELIMITER_TAB : DELIMITER_COMMA);
+    }
+
+    /**
+     * 1行を 列に分割する
+     * @param line 分割する行 (改行コードを除く)
+     * @param delimiter 区切り文字
+     * @param maxColumns 分割する最大の列数 (残りは 最後の列に含めずに捨てる)
+     * @return 列の値 (囲みの「"」を除いたもの)
+     */
+    static String[] split(CharSequence line, char delimiter, int maxColumns) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        int length = line.length();
+        int i = 0;
+        while (columns.size() < maxColumns) {
+            value.setLength(0);
+            if (i < length && line.charAt(i) == QUOTE) {
+                // 「"」で囲まれた列は 閉じの「"」までを値とする
+                i++;
+                while (i < length) {
+                    char c = line.charAt(i++);
+                    if (c != QUOTE) {
+                        value.append(c);
+                    } else if (i < length && line.charAt(i) == QUOTE) {
+                        value.append(QUOTE);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                // 閉じの「"」の後に 区切り文字までの文字があれば そのまま値に含める
+                while (i < length && line.charAt(i) != delimiter) value.append(line.charAt(i++));
+            } else {
+                int start = i;
+                while (i < length && line.charAt(i) != delimiter) i++;
+                value.append(line, start, i);
+            }
+            columns.add(value.toString());
+            if (i >= length) break;
+            i++;                                                // 区切り文字を飛ばす
+        }
+        return columns.toArray(new String[ columns.size() ]);
+    }
+
+}
@@ -0,0 +1,441 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * deflate形式(RFC 1951)のデータを 伸長するクラス
+ *
+ * java.util.zip.Inflaterは 途中の位置(bit単位)から伸長を再開できないので、独自に実装している。
+ * ブロックの区切りごとに OnBlockListenerに通知するので、その時点の 入力位置(bit)・出力位置と 直前32KBの出力を保存しておけば、
+ * 後から その位置から伸長を再開できる。(先頭から伸長し直す必要はない)
+ *
+ * スレッドセーフではない。
+ */
+
+class DeflateDecoder {
+    final static int WINDOW_SIZE = 32 * 1024;                   // 参照できる 過去の出力の範囲
+    private final static int RING_SIZE = 64 * 1024;             // 過去の出力 + 取り出されていない出力
+    private final static int RING_MASK = RING_SIZE - 1;
+    private final static int DECODE_CHUNK = 16 * 1024;          // 1回に伸長する目安のサイズ
+    private final static int INPUT_BUFFER_SIZE = 64 * 1024;
+    private final static int LOOKUP_BITS = 10;                  // これ以下の長さの符号は 表を引いて復号する
+    private final static int MAX_BITS = 15;
+
+    private final static int STATE_HEADER = 0;
+    private final static int STATE_STORED = 1;
+    private final static int STATE_HUFFMAN = 2;
+    private final static int STATE_DONE = 3;
+
+    private final static int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private final static int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private final static int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769,
+            1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+    };
+    private final static int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    private final static int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    private static Huffman sFixedLiteral = null;
+    private static Huffman sFixedDistance = null;
+
+    interface OnBlockListener {
+        /**
+         * ブロックの区切りに達した事を通知する。(伸長を再開できる位置)
+         * @param decoder 通知元
+         */
+        void onBlockBoundary(DeflateDecoder decoder);
+    }
+
+    private final UriSource mSource;
+    private final long mEnd;                                    // 入力の終了位置 (byte)
+    private final byte[] mInput = new byte[ INPUT_BUFFER_SIZE ];
+    private long mInputOffset;                                  // mInput[0]の ファイル上の位置
+    private int mInputPos = 0;
+    private int mInputLimit = 0;
+    private long mBitBuffer = 0;
+    private int mBitCount = 0;
+
+    private final byte[] mRing = new byte[ RING_SIZE ];
+    private final long mHistoryStart;                           // 参照できる 出力の開始位置
+    private long mWritten;                                      // 伸長した位置 (出力の先頭からのバイト数)
+    private long mDelivered;                                    // 取り出された位置
+
+    private int mState = STATE_HEADER;
+    private boolean mFinalBlock = false;
+    private int mStoredRemaining = 0;
+    private Huffman mLiteral;
+    private Huffman mDistance;
+    private OnBlockListener mListener = null;
+
+
+    /**
+     * コンストラクタ
+     * @param source 入力のファイル
+     * @param bitPosition 伸長を開始する位置 (bit単位。ブロックの先頭であること)
+     * @param end 入力の終了位置 (byte)
+     * @param outPosition 開始位置の 出力上の位置
+     * @param window 開始位置の 直前の出力 (最大 WINDOW_SIZE。ストリームの先頭の場合は null)
+     * @param windowLength windowの長さ
+     */
+    DeflateDecoder(UriSource source, long bitPosition, long end, long outPosition, byte[] window, int windowLength) throws IOException {
+        mSource = source;
+        mEnd = end;
+        mInputOffset = bitPosition >>> 3;
+        mWritten = mDelivered = outPosition;
+        mHistoryStart = outPosition - windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            mRing[(int)(mHistoryStart + i) & RING_MASK] = window[i];
+        }
+        int skip = (int)(bitPosition & 7);
+        if (skip > 0) readBits(skip);
+    }
+
+    void setOnBlockListener(OnBlockListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 取り出した位置を返す
+     * @return 出力の先頭からのバイト数
+     */
+    long getPosition() {
+        return mDelivered;
+    }
+
+    /**
+     * 伸長した位置を返す (ブロックの区切りでは 伸長を再開できる出力位置となる)
+     * @return 出力の先頭からのバイト数
+     */
+    long getOutputPosition() {
+        return mWritten;
+    }
+
+    /**
+     * 次に読む入力の位置を返す (ブロックの区切りでは 伸長を再開できる入力位置となる)
+     * @return ファイル上の位置 (bit単位)
+     */
+    long getBitPosition() {
+        return (mInputOffset + mInputPos) * 8 - mBitCount;
+    }
+
+    /**
+     * 最後のブロックまで伸長し終えたか
+     * @return true: 終了した
+     */
+    boolean isFinished() {
+        return mState == STATE_DONE;
+    }
+
+    /**
+     * 伸長した位置の 直前の出力を複写する (伸長を再開する時の windowとして使用する)
+     * @param dest 複写先 (WINDOW_SIZE以上の長さ)
+     * @return 複写したバイト数
+     */
+    int copyWindow(byte[] dest) {
+        int length = (int)Math.min(WINDOW_SIZE, mWritten - mHistoryStart);
+        long start = mWritten - length;
+        for (int i = 0; i < length; i++) {
+            dest[i] = mRing[(int)(start + i) & RING_MASK];
+        }
+        return length;
+    }
+
+    /**
+     * 伸長したデータを取り出す
+     * @param buf 読み込み先
+     * @param offset 読み込み先の開始位置
+     * @param length 読み込むバイト数
+     * @return 読み込んだバイト数。最後まで取り出した場合は -1
+     */
+    int read(byte[] buf, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int pending = (int)(mWritten - mDelivered);
+            if (pending == 0) {
+                if (mState == STATE_DONE) break;
+                decode();
+                continue;
+            }
+            int start = (int)mDelivered & RING_MASK;
+            int size = Math.min(Math.min(length - read, pending), RING_SIZE - start);
+            System.arraycopy(mRing, start, buf, offset + read, size);
+            mDelivered += size;
+            read += size;
+        }
+        return (read > 0 || length == 0 ? read : -1);
+    }
+
+    /**
+     * 伸長したデータを読み飛ばす
+     * @param count 読み飛ばすバイト数
+     * @return 読み飛ばしたバイト数
+     */
+    long skip(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long pending = mWritten - mDelivered;
+            if (pending == 0) {
+                if (mState == STATE_DONE) break;
+                decode();
+                continue;
+            }
+            long size = Math.min(count - skipped, pending);
+            mDelivered += size;
+            skipped += size;
+        }
+        return skipped;
+    }
+
+    /**
+     * 取り出されていないデータが DECODE_CHUNKに達するか、ブロックの終わりまで 伸長する
+     */
+    private void decode() throws IOException {
+        while (mWritten - mDelivered < DECODE_CHUNK) {
+            switch (mState) {
+                case STATE_HEADER:
+                    readBlockHeader();
+                    break;
+
+                case STATE_STORED:
+                    mRing[(int)mWritten++ & RING_MASK] = (byte) readBits(8);
+                    if (--mStoredRemaining == 0) endBlock();
+                    break;
+
+                case STATE_HUFFMAN:
+                    int symbol = decodeSymbol(mLiteral);
+                    if (symbol < 256) {
+                        mRing[(int)mWritten++ & RING_MASK] = (byte) symbol;
+                    } else if (symbol == 256) {
+                        endBlock();
+                        return;
+                    } else {
+                        copyMatch(symbol - 257);
+                    }
+                    break;
+
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void endBlock() {
+        mState = (mFinalBlock ? STATE_DONE : STATE_HEADER);
+        if (mState == STATE_HEADER && mListener != null) mListener.onBlockBoundary(this);
+    }
+
+    private void copyMatch(int lengthCode) throws IOException {
+        if (lengthCode >= LENGTH_BASE.length) throw new IOException("invalid length code");
+        int length = LENGTH_BASE[lengthCode] + readBits(LENGTH_EXTRA[lengthCode]);
+        int distanceCode = decodeSymbol(mDistance);
+        if (distanceCode >= DISTANCE_BASE.length) throw new IOException("invalid distance code");
+        int distance = DISTANCE_BASE[distanceCode] + readBits(DISTANCE_EXTRA[distanceCode]);
+        if (mWritten - distance < mHistoryStart) throw new IOException("invalid distance");
+
+        // 重なる場合(distance < length)は 複写した内容を続けて複写するので、1byteずつ行う
+        long from = mWritten - distance;
+        for (int i = 0; i < length; i++) {
+            mRing[(int)(mWritten + i) & RING_MASK] = mRing[(int)(from + i) & RING_MASK];
+        }
+        mWritten += length;
+    }
+
+    private void readBlockHeader() throws IOException {
+        mFinalBlock = (readBits(1) == 1);
+        int type = readBits(2);
+        switch (type) {
+            case 0:
+                // 非圧縮ブロック: byte境界から LEN, NLENが続く
+                readBits(mBitCount & 7);
+                int length = readBits(16);
+                int complement = readBits(16);
+                if ((length ^ 0xFFFF) != complement) throw new IOException("invalid stored block");
+                mStoredRemaining = length;
+                mState = STATE_STORED;
+                if (length == 0) endBlock();
+                break;
+
+            case 1:
+                setFixedTables();
+                mState = STATE_HUFFMAN;
+                break;
+
+            case 2:
+                readDynamicTables();
+                mState = STATE_HUFFMAN;
+                break;
+
+            default:
+                throw new IOException("invalid block type");
+        }
+    }
+
+    private void setFixedTables() throws IOException {
+        synchronized (DeflateDecoder.class) {
+            if (sFixedLiteral == null) {
+                int[] lengths = new int[ 288 ];
+                for (int i = 0; i < 144; i++) lengths[i] = 8;
+                for (int i = 144; i < 256; i++) lengths[i] = 9;
+                for (int i = 256; i < 280; i++) lengths[i] = 7;
+                for (int i = 280; i < 288; i++) lengths[i] = 8;
+                sFixedLiteral = new Huffman(lengths, 0, 288);
+                int[] distances = new int[ 30 ];
+                for (int i = 0; i < 30; i++) distances[i] = 5;
+                sFixedDistance = new Huffman(distances, 0, 30);
+            }
+            mLiteral = sFixedLiteral;
+            mDistance = sFixedDistance;
+        }
+    }
+
+    private void readDynamicTables() throws IOException {
+        int literalCount = readBits(5) + 257;
+        int distanceCount = readBits(5) + 1;
+        int codeLengthCount = readBits(4) + 4;
+
+        int[] codeLengths = new int[ 19 ];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+        }
+        Huffman codeLengthCode = new Huffman(codeLengths, 0, 19);
+
+        int[] lengths = new int[ literalCount + distanceCount ];
+        int index = 0;
+        while (index < lengths.length) {
+            int symbol = decodeSymbol(codeLengthCode);
+            if (symbol < 16) {
+                lengths[index++] = symbol;
+                continue;
+            }
+            int repeat;
+            int value = 0;
+            if (symbol == 16) {
+                if (index == 0) throw new IOException("invalid code lengths");
+                value = lengths[index - 1];
+                repeat = 3 + readBits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + readBits(3);
+            } else {
+                repeat = 11 + readBits(7);
+            }
+            if (index + repeat > lengths.length) throw new IOException("invalid code lengths");
+            while (repeat-- > 0) lengths[index++] = value;
+        }
+        if (lengths[256] == 0) throw new IOException("missing end-of-block code");
+
+        mLiteral = new Huffman(lengths, 0, literalCount);
+        mDistance = new Huffman(lengths, literalCount, distanceCount);
+    }
+
+    private int decodeSymbol(Huffman huffman) throws IOException {
+        fillBits(MAX_BITS);
+        int entry = huffman.lookup[(int)mBitBuffer & ((1 << LOOKUP_BITS) - 1)];
+        if (entry != 0) {
+            int length = entry & 0x0F;
+            if (length > mBitCount) throw new EOFException();
+            dropBits(length);
+            return entry >>> 4;
+        }
+
+        // 表にない長い符号は 1bitずつ復号する
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            if (length > mBitCount) throw new EOFException();
+            code |= (int)(mBitBuffer >>> (length - 1)) & 1;
+            int count = huffman.counts[length];
+            if (code - first < count) {
+                dropBits(length);
+                return huffman.symbols[index + code - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new IOException("invalid huffman code");
+    }
+
+    private int readBits(int count) throws IOException {
+        if (count == 0) return 0;
+        fillBits(count);
+        if (mBitCount < count) throw new EOFException();
+        int value = (int)(mBitBuffer & ((1L << count) - 1));
+        dropBits(count);
+        return value;
+    }
+
+    private void dropBits(int count) {
+        mBitBuffer >>>= count;
+        mBitCount -= count;
+    }
+
+    /**
+     * 指定 bit数以上を mBitBufferに読み込む (入力の終わりに達した場合は 読み込める分のみ)
+     */
+    private void fillBits(int count) throws IOException {
+        while (mBitCount < count) {
+            if (mInputPos == mInputLimit) {
+                mInputOffset += mInputLimit;
+                mInputPos = 0;
+                int length = (int)Math.min(INPUT_BUFFER_SIZE, mEnd - mInputOffset);
+                mInputLimit = (length > 0 ? Math.max(mSource.read(mInputOffset, mInput, 0, length), 0) : 0);
+                if (mInputLimit == 0) return;
+            }
+            mBitBuffer |= (long)(mInput[mInputPos++] & 0xFF) << mBitCount;
+            mBitCount += 8;
+        }
+    }
+
+
+    /**
+     * ハフマン符号の復号表
+     */
+    private static class Huffman {
+        private final int[] counts = new int[ MAX_BITS + 1 ];  // 符号長ごとの 符号の数
+        private final int[] symbols;                            // 符号順に並べた シンボル
+        private final int[] lookup = new int[ 1 << LOOKUP_BITS ];  // 先頭 LOOKUP_BITS bitから引く (symbol << 4 | 符号長)。0は表にない
+
+        private Huffman(int[] lengths, int offset, int count) throws IOException {
+            for (int i = 0; i < count; i++) counts[lengths[offset + i]]++;
+            counts[0] = 0;
+            int left = 1;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                left = (left << 1) - counts[length];
+                if (left < 0) throw new IOException("over-subscribed huffman code");
+            }
+
+            int[] offsets = new int[ MAX_BITS + 2 ];
+            for (int length = 1; length <= MAX_BITS; length++) offsets[length + 1] = offsets[length] + counts[length];
+            symbols = new int[ offsets[MAX_BITS + 1] ];
+            int[] nextCode = new int[ MAX_BITS + 2 ];
+            int code = 0;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                code = (code + counts[length - 1]) << 1;
+                nextCode[length] = code;
+            }
+
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[offset + symbol];
+                if (length == 0) continue;
+                symbols[offsets[length]++] = symbol;
+                int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                if (length <= LOOKUP_BITS) {
+                    for (int i = reversed; i < lookup.length; i += 1 << length) {
+                        lookup[i] = (symbol << 4) | length;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+
+/**
+ * TextPageの文字配列から 直接描画する PageLayout (等幅フォント表示用)
+ *
+ * 各行を 表示幅で文字単位に折り返し、折り返した行の範囲を int配列で保持する。
+ * 描画は Canvas.drawText(char[], ...)で行うので、描画のたびに Stringなどを作成することはない。
+ * 文字幅は GlyphWidthCacheから求め、ASCIIのみの行で 等幅フォントの場合は 文字数から計算する。
+ * (双方向テキストや 文字の合成などには対応しないので、それらが必要な場合は StaticPageLayoutを使用する)
+ */
+
+class DirectPageLayout implements PageLayout {
+    private final TextPage mText;
+    private final char[] mChars;
+    private final TextPaint mPaint;
+    private final GlyphWidthCache mWidths;
+    private final int mRowHeight;                               // 1行の高さ (pixel)
+    private final int mBaseline;                                // 行の上端から ベースラインまでの距離
+    private int mRowCount = 0;
+    private int[] mRowStarts;                                   // 折り返した各行の 開始位置
+    private int[] mRowEnds;                                     // 折り返した各行の 終了位置 (改行コードを含まない)
+
+
+    /**
+     * レイアウトを作成する (バックグラウンドで呼び出してよい)
+     * @param text ページのテキスト
+     * @param paint 描画に使用する TextPaint (このレイアウト専用のもの)
+     * @param width 表示幅
+     * @param widths 文字幅のキャッシュ (paintと同じ文字サイズ・フォントのもの)
+     */
+    DirectPageLayout(TextPage text, TextPaint paint, int width, GlyphWidthCache widths) {
+        mText = text;
+        mChars = text.getChars();
+        mPaint = paint;
+        mWidths = widths;
+
+        Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+        mRowHeight = metrics.bottom - metrics.top;
+        mBaseline = -metrics.top;
+
+        int lineCount = text.getLineCount();
+        int capacity = Math.max(lineCount + lineCount / 4, 16);
+        mRowStarts = new int[capacity];
+        mRowEnds = new int[capacity];
+        for (int line = 0; line < lineCount; line++) {
+            int start = text.getLineStart(line);
+            int end = text.getLineEnd(line);
+            if (start >= end) {
+                addRow(start, start);
+                continue;
+            }
+            while (start < end) {
+                int rowEnd = breakRow(start, end, width);
+                addRow(start, rowEnd);
+                start = rowEnd;
+            }
+        }
+    }
+
+    private void addRow(int start, int end) {
+        if (mRowCount == mRowStarts.length) {
+            int capacity = mRowCount * 2;
+            int[] starts = new int[capacity];
+            int[] ends = new int[capacity];
+            System.arraycopy(mRowStarts, 0, starts, 0, mRowCount);
+            System.arraycopy(mRowEnds, 0, ends, 0, mRowCount);
+            mRowStarts = starts;
+            mRowEnds = ends;
+        }
+        mRowStarts[mRowCount] = start;
+        mRowEnds[mRowCount] = end;
+        mRowCount++;
+    }
+
+    /**
+     * 表示幅に収まる 行の終了位置を求める (少なくとも 1文字は含める)
+     * @param start 開始位置
+     * @param end 行の終了位置
+     * @param width 表示幅
+     * @return 折り返す位置
+     */
+    private int breakRow(int start, int end, int width) {
+        int index = start;
+        float x = 0.0f;
+
+        if (mWidths.isFixedAscii()) {
+            // 等幅フォントで ASCIIの表示可能文字が続く間は 文字数だけで求める
+            float advance = mWidths.getAsciiAdvance();
+            int columns = Math.max((int) (width / advance), 1);
+            int limit = Math.min(end, start + columns);
+            while (index < limit && isFixedChar(mChars[index])) index++;
+            if (index == limit) return limit;
+            x = (index - start) * advance;
+        }
+
+        while (index < end) {
+            char c = mChars[index];
+            int count = 1;
+            float w;
+            if (c == '\t') {
+                w = mWidths.nextTabStop(x) - x;
+            } else if (Character.isHighSurrogate(c) && index + 1 < end && Character.isLowSurrogate(mChars[index + 1])) {
+                w = mWidths.getWidth(mChars, index);
+                count = 2;
+            } else {
+                w = mWidths.getWidth(c);
+            }
+            if (x + w > width && index > start) break;
+            x += w;
+            index += count;
+        }
+        return index;
+    }
+
+    private static boolean isFixedChar(char c) {
+        return (c >= 0x20 && c <= 0x7E);
+    }
+
+    /**
+     * 行の先頭から 指定位置までの幅を求める
+     * @param start 行の開始位置
+     * @param end 位置
+     * @return 幅 (pixel)
+     */
+    private float measure(int start, int end) {
+        float x = 0.0f;
+        int index = start;
+        if (mWidths.isFixedAscii()) {
+            while (index < end && isFixedChar(mChars[index])) index++;
+            x = (index - start) * mWidths.getAsciiAdvance();
+        }
+        while (index < end) {
+            char c = mChars[index];
+            if (c == '\t') {
+                x = mWidths.nextTabStop(x);
+            } else if (Character.isHighSurrogate(c) && index + 1 < end && Character.isLowSurrogate(mChars[index + 1])) {
+                x += mWidths.getWidth(mChars, index);
+                index++;
+            } else {
+                x += mWidths.getWidth(c);
+            }
+            index++;
+        }
+        return x;
+    }
+
+    @Override
+    public int getHeight() {
+        return mRowCount * mRowHeight;
+    }
+
+    @Override
+    public int getLineCount() {
+        return mRowCount;
+    }
+
+    @Override
+    public int getLineTop(int line) {
+        return line * mRowHeight;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line >= mRowCount) return mText.length();
+        return mRowStarts[line];
+    }
+
+    @Override
+    public int getLineForOffset(int offset) {
+        int low = 0;
+        int high = mRowCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mRowStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(low, 0);
+    }
+
+    @Override
+    public int getLineForVertical(int vertical) {
+        if (mRowCount == 0 || vertical < 0) return 0;
+        return Math.min(vertical / mRowHeight, mRowCount - 1);
+    }
+
+    @Override
+    public void draw(Canvas canvas, int top, int bottom, int highlightStart, int highlightEnd, Paint highlightPaint) {
+        if (mRowCount == 0) return;
+
+        // 描画が必要な範囲の行のみ描画する
+        int first = getLineForVertical(top);
+        int last = getLineForVertical(bottom);
+        for (int row = first; row <= last; row++) {
+            int start = mRowStarts[row];
+            int end = mRowEnds[row];
+            int rowTop = row * mRowHeight;
+
+            if (highlightStart < highlightEnd && highlightStart <= end && highlightEnd > start) {
+                float left = measure(start, Math.max(highlightStart, start));
+                float right = measure(start, Math.min(highlightEnd, end));
+                if (highlightEnd > end) right += mWidths.getAsciiAdvance();     // 改行を含む場合
+                canvas.drawRect(left, rowTop, right, rowTop + mRowHeight, highlightPaint);
+            }
+            drawRow(canvas, start, end, rowTop + mBaseline);
+        }
+    }
+
+    private void drawRow(Canvas canvas, int start, int end, int baseline) {
+        // タブを含む場合は タブで区切って描画する
+        int segment = start;
+        float x = 0.0f;
+        for (int i = start; i < end; i++) {
+            if (mChars[i] != '\t') continue;
+            if (i > segment) {
+                canvas.drawText(mChars, segment, i - segment, x, baseline, mPaint);
+                x += measure(segment, i);
+            }
+            x = mWidths.nextTabStop(x);
+            segment = i + 1;
+        }
+        if (end > segment) canvas.drawText(mChars, segment, end - segment, x, baseline, mPaint);
+    }
+
+}
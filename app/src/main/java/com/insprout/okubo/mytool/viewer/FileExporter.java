@@ -0,0 +1,287 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * ファイルの指定範囲を 別の文字コードに変換して書き出すクラス
+ *
+ * CHUNK_SIZEずつ読み込んで デコード・エンコードし、そのまま書き出す。(変換後の全体を メモリに保持することはない)
+ * チャンクの境界で 文字の途中になった byte列は 次のチャンクの先頭に詰めて デコードする。
+ * 変換できない文字は 置換文字にする。(変換前後の文字コードが同じ場合は 変換せずに そのまま書き出す)
+ * 中止した場合や 失敗した場合は、書き出し途中のファイルを残さないように削除する。(setOutputUri()で指定した場合)
+ */
+
+public class FileExporter implements Runnable {
+    private final static int CHUNK_SIZE = 256 * 1024;           // 1回に読み込む単位 (byte)
+    private final static long INTERVAL_NOTIFY = 200;            // 進捗の通知間隔 (msec)
+
+    public interface OnExportListener {
+        /**
+         * 書き出しの進捗を通知する (UIスレッドで呼び出される)
+         * @param readBytes 読み込み済みのバイト数
+         * @param totalBytes 書き出す範囲のバイト数
+         * @param elapsedMillis 開始からの経過時間 (msec)
+         */
+        void onExportProgress(long readBytes, long totalBytes, long elapsedMillis);
+
+        /**
+         * 書き出しの完了を通知する (UIスレッドで呼び出される)
+         * @param readBytes 読み込んだバイト数
+         * @param writtenBytes 書き出したバイト数
+         * @param elapsedMillis 書き出しにかかった時間 (msec)
+         */
+        void onExportCompleted(long readBytes, long writtenBytes, long elapsedMillis);
+
+        /**
+         * 読み込み・書き込みエラーで 中止した事を通知する (UIスレッドで呼び出される)
+         */
+        void onExportFailed();
+    }
+
+    private final UriSource mSource;
+    private final long mStart;
+    private final long mEnd;
+    private final String mInputCharSet;
+    private final String mOutputCharSet;
+    private final WritableByteChannel mOutput;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private OnExportListener mListener = null;
+    private Context mContext = null;
+    private Uri mOutputUri = null;                              // 中止・失敗した場合に削除する 書き出し先
+    private volatile boolean mCanceled = false;
+    private long mStarted = 0;
+    private long mNotified = 0;
+    private long mReadBytes = 0;
+    private long mWrittenBytes = 0;
+
+
+    /**
+     * コンストラクタ
+     * @param source 書き出すファイル
+     * @param start 書き出す範囲の 開始位置 (byte。文字の先頭であること)
+     * @param end 書き出す範囲の 終了位置 (byte)
+     * @param inputCharSet ファイルの文字コード
+     * @param outputCharSet 書き出す文字コード
+     * @param output 書き出し先 (書き出し後に closeする)
+     */
+    public FileExporter(UriSource source, long start, long end, String inputCharSet, String outputCharSet, WritableByteChannel output) {
+        mSource = source;
+        mStart = start;
+        mEnd = end;
+        mInputCharSet = inputCharSet;
+        mOutputCharSet = outputCharSet;
+        mOutput = output;
+    }
+
+    public void setOnExportListener(OnExportListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 書き出し先の Uriを設定する。中止した場合や 失敗した場合は 書き出し途中のファイルを削除する
+     * @param context コンテキスト
+     * @param uri 書き出し先 (ACTION_CREATE_DOCUMENTで作成したもの)
+     */
+    public void setOutputUri(Context context, Uri uri) {
+        mContext = context.getApplicationContext();
+        mOutputUri = uri;
+    }
+
+    /**
+     * バックグラウンドで 書き出しを開始する
+     */
+    public void start() {
+        ViewerExecutors.background().execute(this);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    @Override
+    public void run() {
+        mStarted = SystemClock.uptimeMillis();
+        mNotified = mStarted;
+        boolean succeeded = false;
+        try {
+            if (mInputCharSet.equalsIgnoreCase(mOutputCharSet)) {
+                copy();
+            } else {
+                transcode();
+            }
+            succeeded = true;
+        } catch (IOException | RuntimeException e) {
+            // 書き出し先の容量不足や 未対応の文字コードなど
+            succeeded = false;
+        } finally {
+            try {
+                mOutput.close();
+            } catch (IOException e) {
+                succeeded = false;
+            }
+        }
+        // 途中までしか書き出していないファイルは 削除する (closeした後に行うこと)
+        if (!succeeded || mCanceled) deleteOutput();
+
+        if (mCanceled) return;
+        final boolean completed = succeeded;
+        final long readBytes = mReadBytes;
+        final long writtenBytes = mWrittenBytes;
+        final long elapsed = SystemClock.uptimeMillis() - mStarted;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCanceled || mListener == null) return;
+                if (completed) {
+                    mListener.onExportCompleted(readBytes, writtenBytes, elapsed);
+                } else {
+                    mListener.onExportFailed();
+                }
+            }
+        });
+    }
+
+    /**
+     * 書き出し先のファイルを削除する (書き出しを中止した場合や 失敗した場合)
+     */
+    private void deleteOutput() {
+        if (mOutputUri == null) return;
+        try {
+            DocumentsContract.deleteDocument(mContext.getContentResolver(), mOutputUri);
+        } catch (FileNotFoundException | SecurityException | UnsupportedOperationException | IllegalArgumentException e) {
+            // 削除できない保存先の場合は そのまま残る
+        }
+    }
+
+    /**
+     * 変換せずに そのまま書き出す
+     */
+    private void copy() throws IOException {
+        byte[] buf = new byte[ CHUNK_SIZE ];
+        ByteBuffer output = ByteBuffer.wrap(buf);
+        long position = mStart;
+        while (position < mEnd && !mCanceled) {
+            int n = mSource.read(position, buf, 0, (int)Math.min(buf.length, mEnd - position));
+            if (n <= 0) break;
+            position += n;
+            mReadBytes += n;
+            output.clear();
+            output.limit(n);
+            write(output);
+            notifyProgress();
+        }
+    }
+
+    /**
+     * 文字コードを変換して書き出す
+     */
+    private void transcode() throws IOException {
+        CharsetDecoder decoder = Charset.forName(mInputCharSet).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharsetEncoder encoder = Charset.forName(mOutputCharSet).newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // 読み込みは UriSourceが byte配列に行うので 配列を持つ ByteBuffer、書き出しは チャネルが直接書き込める direct ByteBufferを使用する
+        byte[] buf = new byte[ CHUNK_SIZE ];
+        ByteBuffer input = ByteBuffer.wrap(buf);
+        input.limit(0);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        ByteBuffer output = ByteBuffer.allocateDirect((int)(CHUNK_SIZE * encoder.maxBytesPerChar()));
+
+        long position = mStart;
+        boolean endOfInput = false;
+        while (!endOfInput && !mCanceled) {
+            // 前回 デコードしきれなかった byte列 (文字の途中) を先頭に詰めて、続きを読み込む
+            input.compact();
+            int length = (int)Math.min(input.remaining(), mEnd - position);
+            int n = (length > 0 ? mSource.read(position, buf, input.position(), length) : 0);
+            if (n > 0) {
+                position += n;
+                mReadBytes += n;
+                input.position(input.position() + n);
+            } else {
+                endOfInput = true;
+            }
+            input.flip();
+
+            CoderResult result;
+            do {
+                result = decoder.decode(input, chars, endOfInput);
+                encode(encoder, chars, output, false);
+            } while (result.isOverflow());
+            notifyProgress();
+        }
+        if (mCanceled) return;
+
+        // デコーダ・エンコーダに残っている状態を 書き出す (ISO-2022-JPの ASCIIへ戻すエスケープシーケンスなど)
+        while (decoder.flush(chars).isOverflow()) {
+            encode(encoder, chars, output, false);
+        }
+        encode(encoder, chars, output, true);
+        while (encoder.flush(output).isOverflow()) {
+            output.flip();
+            write(output);
+            output.clear();
+        }
+        output.flip();
+        write(output);
+    }
+
+    /**
+     * デコード済みの文字を エンコードして書き出す
+     * @param chars デコード済みの文字 (書き込み可能な状態。エンコードしきれなかった文字は 先頭に詰めて返す)
+     * @param output エンコード用のバッファ
+     * @param endOfInput true: 最後の文字
+     */
+    private void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer output, boolean endOfInput) throws IOException {
+        chars.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, output, endOfInput);
+            output.flip();
+            write(output);
+            output.clear();
+        } while (result.isOverflow());
+        chars.compact();
+    }
+
+    private void write(ByteBuffer output) throws IOException {
+        while (output.hasRemaining()) {
+            mWrittenBytes += mOutput.write(output);
+        }
+    }
+
+    private void notifyProgress() {
+        long now = SystemClock.uptimeMillis();
+        if (now - mNotified < INTERVAL_NOTIFY) return;
+        mNotified = now;
+
+        final long readBytes = mReadBytes;
+        final long totalBytes = mEnd - mStart;
+        final long elapsed = now - mStarted;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onExportProgress(readBytes, totalBytes, elapsed);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 表示中のファイルへの追記を監視して、追記された部分のみを 表示と索引に反映するクラス (tail -f のような動作)
+ *
+ * "file:" スキームは FileObserverで変更を監視し、それ以外は 一定間隔でファイルサイズを確認する。
+ * 追記された場合は 追記された範囲のみを読み込むので、処理量は 追記されたバイト数に比例する。
+ * ファイルが切り詰められた場合や、追記を読み込めない UriSourceの場合は 開き直しを通知する
+ */
+
+public class FileFollower {
+    private final static long INTERVAL_POLL = 1000;             // ファイルサイズを確認する間隔 (msec)
+
+    public interface OnFollowListener {
+        /**
+         * ファイルに追記された事を通知する (UIスレッドで呼び出される)
+         * @param pager 追記が反映された TextPager
+         * @param firstChangedPage 内容が変わった最初のページ
+         */
+        void onFileAppended(TextPager pager, int firstChangedPage);
+
+        /**
+         * ファイルが 追記以外の方法で変更された事を通知する (UIスレッドで呼び出される)
+         * @param uri 変更されたファイルの Uri
+         */
+        void onFileReplaced(Uri uri);
+    }
+
+    private final Context mContext;
+    private final TextPager mPager;
+    private final LineIndex mIndex;
+    private final FileState mState;
+    private final OnFollowListener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mCheckPending = new AtomicBoolean(false);
+    private final AtomicBoolean mExtending = new AtomicBoolean(false);     // 索引に追加中
+    private volatile boolean mExtendAgain = false;
+    private FileObserver mObserver = null;
+    private volatile boolean mRunning = false;
+
+    private final Runnable mPollTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) return;
+            requestCheck();
+            mHandler.postDelayed(this, INTERVAL_POLL);
+        }
+    };
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param pager 表示中のファイルの TextPager
+     * @param index 表示中のファイルの 行の索引
+     * @param state 表示中のファイルの状態 (追記されたら更新する)
+     * @param listener 通知先
+     */
+    public FileFollower(Context context, TextPager pager, LineIndex index, FileState state, OnFollowListener listener) {
+        mContext = context.getApplicationContext();
+        mPager = pager;
+        mIndex = index;
+        mState = state;
+        mListener = listener;
+    }
+
+    /**
+     * 監視を開始する (UIスレッドから呼び出すこと)
+     */
+    public void start() {
+        if (mRunning) return;
+        mRunning = true;
+
+        Uri uri = mPager.getUri();
+        String path = uri.getPath();
+        if ("file".equals(uri.getScheme()) && path != null) {
+            mObserver = new FileObserver(path, FileObserver.MODIFY | FileObserver.CLOSE_WRITE) {
+                @Override
+                public void onEvent(int event, String path) {
+                    requestCheck();
+                }
+            };
+            mObserver.startWatching();
+            // 監視していなかった間の追記も反映する
+            requestCheck();
+        } else {
+            mHandler.post(mPollTask);
+        }
+    }
+
+    /**
+     * 監視を終了する (UIスレッドから呼び出すこと)
+     */
+    public void stop() {
+        mRunning = false;
+        if (mObserver != null) {
+            mObserver.stopWatching();
+            mObserver = null;
+        }
+        mHandler.removeCallbacks(mPollTask);
+    }
+
+    private void requestCheck() {
+        // 確認待ちの間に 変更が重なって通知された場合は、まとめて 1回だけ確認する
+        if (!mCheckPending.compareAndSet(false, true)) return;
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                mCheckPending.set(false);
+                if (mRunning && !mPager.isClosed()) check();
+            }
+        });
+    }
+
+    /**
+     * ファイルサイズを確認して、追記された部分を反映する (I/Oスレッドで呼び出される)
+     */
+    private void check() {
+        UriSource source = mPager.getSource();
+        Uri uri = mPager.getUri();
+        long oldSize = mPager.getFileSize();
+        try {
+            // 切り詰められた場合は 追記としては扱えない
+            long currentSize = ViewerFiles.getFileSize(mContext, uri);
+            if (currentSize >= 0 && currentSize < oldSize) {
+                postReplaced(uri);
+                return;
+            }
+
+            long size = source.refresh();
+            if (size < oldSize) {
+                // UriSourceで 縮んだ事を検出した場合も 開き直す
+                postReplaced(uri);
+                return;
+            }
+            if (size > oldSize) {
+                source.setLastModified(ViewerFiles.getLastModified(mContext, uri));
+                mState.update(source);
+                final int firstChanged = mPager.grow(size);
+                extendIndex();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mRunning) mListener.onFileAppended(mPager, firstChanged);
+                    }
+                });
+
+            } else if (currentSize > oldSize) {
+                // 追記された内容を読み込めない UriSource (シークできない ContentProviderなど)
+                postReplaced(uri);
+
+            } else {
+                // 索引の作成中に追記された分を 作成後に追加する
+                extendIndex();
+            }
+
+        } catch (IOException e) {
+            // 次回の確認時に 再度試みる
+        }
+    }
+
+    private void extendIndex() {
+        // 最初の索引の作成中は、作成が完了してから追加する (索引に追加できるのは 1スレッドのみ)
+        if (mIndex == null || !mIndex.isCompleted()) return;
+        if (mIndex.getIndexedSize() >= mPager.getFileSize()) return;
+        // I/Oスレッドを止めないように バックグラウンドで追加する。追加中の場合は 完了した後に 続けて追加する
+        if (!mExtending.compareAndSet(false, true)) {
+            mExtendAgain = true;
+            return;
+        }
+        ViewerExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                do {
+                    mExtendAgain = false;
+                    if (mIndex.getIndexedSize() < mPager.getFileSize()) {
+                        new LineIndexer(mPager.getSource(), mIndex, mIndex.getIndexedSize()).run();
+                    }
+                } while (mExtendAgain && mRunning && !mPager.isClosed());
+                mExtending.set(false);
+            }
+        });
+    }
+
+    private void postReplaced(final Uri uri) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRunning) return;
+                stop();
+                mListener.onFileReplaced(uri);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Future;
+
+/**
+ * ファイルを開いて 最初のページを表示できる状態にするまでを、I/Oスレッドで行うクラス
+ * 新たに load()が呼び出された場合や cancel()された場合は、実行中の読み込みは中止され 結果も通知されない
+ *
+ * サイズが分かっていないファイル(圧縮されたファイル)は、先頭部分のみで表示を始め、
+ * 残りのサイズは バックグラウンドで求めて 求めた範囲を順に TextPagerに反映する
+ */
+
+public class FileLoader {
+    private final static String CHARSET_DEFAULT = "UTF-8";
+    private final static long MEASURE_BYTES = 1024 * 1024;      // サイズが分かっていない場合に 1回に求める範囲 (byte)
+    private final static long INTERVAL_GROW = 500;              // 求めた範囲を TextPagerに反映する間隔 (msec)
+
+    public interface Callback {
+        /**
+         * 読み込みの進捗を通知する (UIスレッドで呼び出される)
+         * @param bytes 読み込んだバイト数
+         * @param total ファイルサイズ (不明の場合は -1)
+         */
+        void onLoadProgress(long bytes, long total);
+
+        /**
+         * 読み込みが完了した事を通知する (UIスレッドで呼び出される)
+         * @param pager 読み込んだファイルの TextPager
+         * @param detected 文字コードが判定された場合は true
+         * @param binary バイナリファイルと思われる場合は true
+         * @param state ファイルの表示状態。前回の状態が保存されていた場合は 復元されている
+         */
+        void onLoadCompleted(TextPager pager, boolean detected, boolean binary, FileState state);
+
+        /**
+         * 読み込み完了後に サイズを求めた範囲が広がった事を通知する (UIスレッドで呼び出される)
+         * TextPagerは 追記された場合と同様に grow()で広げられている
+         * @param pager 範囲が広がった TextPager
+         * @param firstChangedPage 内容が変わった最初のページ
+         */
+        void onLoadGrown(TextPager pager, int firstChangedPage);
+
+        /**
+         * 読み込みに失敗した事を通知する (UIスレッドで呼び出される)
+         * @param uri 読み込もうとしたファイルの Uri
+         */
+        void onLoadFailed(Uri uri);
+    }
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private LoadTask mTask = null;
+    private GrowTask mGrowTask = null;
+    private String[] mCandidateCharSets = null;
+
+
+    public FileLoader(Context context, Callback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = callback;
+    }
+
+    /**
+     * 文字コードを判定する時の 候補を設定する
+     * 設定した場合は 候補ごとに実際にデコードして評価し、最も もっともらしい文字コードとする
+     * @param charSets 候補の文字コード。nullの場合は CharsetSnifferの判定結果のみを使用する
+     */
+    public void setCandidateCharSets(String[] charSets) {
+        mCandidateCharSets = charSets;
+    }
+
+    /**
+     * ファイルの読み込みを開始する。実行中の読み込みがあれば中止する
+     * @param uri 読み込むファイルの Uri
+     * @param source 既に開いている UriSource (uriと同じファイルであれば 開き直さずに使用する)。ない場合は null
+     * @param charSet 文字コード。nullの場合は 判定する
+     */
+    public void load(Uri uri, UriSource source, String charSet) {
+        cancel();
+        if (source != null && !uri.equals(source.getUri())) source = null;
+        mTask = new LoadTask(uri, source, charSet);
+        mTask.mFuture = ViewerExecutors.io().submit(mTask);
+    }
+
+    public void cancel() {
+        if (mGrowTask != null) {
+            mGrowTask.mStopped = true;
+            mGrowTask = null;
+        }
+        if (mTask == null) return;
+        mTask.cancel();
+        mTask = null;
+    }
+
+
+    private class LoadTask implements Runnable, UriSource.OnProgressListener {
+        private final Uri mUri;
+        private final UriSource mReuseSource;
+        private final String mCharSet;
+        private final String[] mCandidates;
+        private volatile boolean mCanceled = false;
+        private volatile UriSource mOwnedSource = null;            // このタスクで開いた UriSource (中止する時に 読み込みを止める)
+        private Future<?> mFuture;
+
+        LoadTask(Uri uri, UriSource source, String charSet) {
+            mUri = uri;
+            mReuseSource = source;
+            mCharSet = charSet;
+            mCandidates = mCandidateCharSets;
+        }
+
+        /**
+         * 読み込みを中止する (UIスレッドから呼び出される)
+         * サイズを求めるための ファイル末尾までの読み込みなども 途中で止める
+         */
+        void cancel() {
+            mCanceled = true;
+            mFuture.cancel(false);
+            // 呼び出し元から渡された UriSourceは 引き続き使用されるので 止めない
+            UriSource source = mOwnedSource;
+            if (source != null) source.abort();
+        }
+
+        @Override
+        public void run() {
+            UriSource source = mReuseSource;
+            if (source == null) {
+                source = UriSource.open(mContext, mUri);
+                if (source != null) {
+                    mOwnedSource = source;
+                    // 開いている間に cancel()された場合は、ここで止める
+                    if (mCanceled) source.abort();
+                }
+            }
+            if (source == null) {
+                postFailed();
+                return;
+            }
+
+            try {
+                source.setOnProgressListener(this);
+                // ファイル先頭部分は 1度だけ読み込んで、ファイルの確認・文字コードの判定・表示に使用する
+                ByteBuffer head = source.getBuffer(0, CharsetSniffer.SAMPLE_SIZE);
+                final FileState state = FileState.create(source, head);
+                // 前回表示した時と同じ内容のファイルであれば、保存されている文字コードと行の索引を使用する
+                FileStateStore.restore(mContext, mUri, state);
+
+                String charSet = mCharSet;
+                String detected = null;
+                if (charSet == null && state.isRestored() && state.getCharSet() != null && Charset.isSupported(state.getCharSet())) {
+                    charSet = state.getCharSet();
+                    detected = charSet;
+
+                } else if (charSet == null) {
+                    // ファイル先頭部分から判定する (ファイル全体を読むことはない)
+                    // (サイズが分かっていない場合は 先頭部分が SAMPLE_SIZEに満たなければ ファイル末尾とする)
+                    boolean endOfFile = (source.isSizeKnown() ? head.limit() >= source.size()
+                            : head.limit() < CharsetSniffer.SAMPLE_SIZE);
+                    detected = CharsetSniffer.detect(head, endOfFile);
+                    charSet = detected;
+                    if (mCandidates != null) {
+                        // 判定結果も含めて 候補ごとにデコードして評価し、最も もっともらしいものとする
+                        // (不正な byte列が多い場合は 判定できなかったものとするが、表示には そのまま使用する)
+                        CharsetScorer.Score[] scores = CharsetScorer.score(head, endOfFile, mCandidates, detected);
+                        state.setCharSetScores(scores);
+                        if (scores.length > 0) {
+                            charSet = scores[0].charSet;
+                            detected = (scores[0].isConfident() ? charSet : null);
+                        }
+                    }
+                    // 判定できなかった場合や、端末で扱えない文字コードと判定された場合は デフォルトの文字コードとする
+                    if (charSet == null || !Charset.isSupported(charSet)) charSet = CHARSET_DEFAULT;
+                }
+                if (mCanceled) throw new IOException("canceled");
+
+                // サイズが分かっていない場合は 最初の画面の分のみ求めておく (残りは 表示してから求める)
+                final boolean growing = !source.isSizeKnown();
+                source.measure(MEASURE_BYTES);
+                final TextPager pager = new TextPager(source, charSet);
+                // 文字コードを切り替えて戻した場合や 同じファイルを開き直した場合は、キャッシュされているページを使用する
+                pager.setPageCache(PageCache.getInstance(mContext));
+                // 読み込み済みの先頭部分は、そのまま表示に使用する
+                pager.setHeadBuffer(head);
+                // 最初の画面の分は ここで読み込んでおく
+                pager.getPage(0);
+                source.setOnProgressListener(null);
+                if (mCanceled) throw new IOException("canceled");
+
+                state.setCharSet(charSet);
+                final boolean isDetected = charSet.equals(detected);
+                final boolean isBinary = CharsetSniffer.isBinary(head);
+                final UriSource loaded = source;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCanceled) {
+                            closeIfOwned(loaded);
+                            return;
+                        }
+                        mTask = null;
+                        mCallback.onLoadCompleted(pager, isDetected, isBinary, state);
+                        if (growing) {
+                            mGrowTask = new GrowTask(pager);
+                            ViewerExecutors.background().execute(mGrowTask);
+                        }
+                    }
+                });
+
+            } catch (IOException e) {
+                source.setOnProgressListener(null);
+                closeIfOwned(source);
+                postFailed();
+            }
+        }
+
+        @Override
+        public void onProgress(final long bytes, final long total) {
+            if (mCanceled) return;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCanceled) mCallback.onLoadProgress(bytes, total);
+                }
+            });
+        }
+
+        private void closeIfOwned(UriSource source) {
+            // 呼び出し元から渡された UriSourceは 呼び出し元が管理するので closeしない
+            if (source == mReuseSource) return;
+            try {
+                source.close();
+            } catch (IOException e) {
+                // 何もしない
+            }
+        }
+
+        private void postFailed() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCanceled) return;
+                    mTask = null;
+                    mCallback.onLoadFailed(mUri);
+                }
+            });
+        }
+    }
+
+
+    /**
+     * サイズが分かっていない TextPagerの サイズを求めて、求めた範囲を 一定間隔で grow()で反映するタスク
+     * (索引の作成などで 同時にサイズを求めている場合も、同じ位置から交互に進める)
+     */
+    private class GrowTask implements Runnable {
+        private final TextPager mPager;
+        private volatile boolean mStopped = false;
+
+        GrowTask(TextPager pager) {
+            mPager = pager;
+        }
+
+        @Override
+        public void run() {
+            UriSource source = mPager.getSource();
+            long notified = SystemClock.uptimeMillis();
+            try {
+                while (!mStopped && !mPager.isClosed() && !source.isSizeKnown()) {
+                    source.measure(source.getAvailableSize() + MEASURE_BYTES);
+                    long now = SystemClock.uptimeMillis();
+                    if (now - notified >= INTERVAL_GROW) {
+                        grow();
+                        notified = now;
+                    }
+                }
+            } catch (IOException e) {
+                // 伸長できなかった場合などは 求め終えた範囲までを表示する
+            }
+            if (!mStopped && !mPager.isClosed()) grow();
+        }
+
+        private void grow() {
+            final int firstChanged;
+            try {
+                firstChanged = mPager.grow(mPager.getSource().getAvailableSize());
+            } catch (IOException e) {
+                return;
+            }
+            if (firstChanged < 0) return;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStopped) mCallback.onLoadGrown(mPager, firstChanged);
+                }
+            });
+        }
+    }
+
+}
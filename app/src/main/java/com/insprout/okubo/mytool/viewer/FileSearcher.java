@@ -0,0 +1,104 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * ファイル内を検索するクラスの 基底クラス
+ *
+ * 検索はバックグラウンドで行い、見つかった位置は SearchResultに順次追加されるので 検索途中でも参照できる。
+ * 検索の方法(文字列 / 正規表現)は サブクラスで実装する
+ */
+
+public abstract class FileSearcher implements Runnable {
+
+    public interface OnSearchListener {
+        /**
+         * 検索状況を通知する (UIスレッドで呼び出される)
+         * @param result 検索結果 (検索途中の場合は その時点までの結果)
+         * @param scannedBytes 検索済みのバイト数
+         */
+        void onSearchUpdated(SearchResult result, long scannedBytes);
+    }
+
+    private final UriSource mSource;
+    private final String mCharSet;
+    private final SearchResult mResult;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private OnSearchListener mListener = null;
+    private volatile boolean mCanceled = false;
+
+
+    /**
+     * コンストラクタ
+     * @param source 検索するファイル
+     * @param query 検索する文字列
+     * @param charSet ファイルの文字コード
+     */
+    protected FileSearcher(UriSource source, String query, String charSet) {
+        mSource = source;
+        mCharSet = charSet;
+        mResult = new SearchResult(query);
+    }
+
+    public SearchResult getResult() {
+        return mResult;
+    }
+
+    public void setOnSearchListener(OnSearchListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * バックグラウンドで 検索を開始する
+     */
+    public void start() {
+        ViewerExecutors.background().execute(this);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    protected UriSource getSource() {
+        return mSource;
+    }
+
+    protected String getCharSet() {
+        return mCharSet;
+    }
+
+    @Override
+    public void run() {
+        long scanned = search();
+
+        if (mCanceled) return;
+        mResult.setCompleted();
+        notifyUpdated(scanned);
+    }
+
+    /**
+     * ファイルを検索して、見つかった位置を getResult()に追加する
+     * (途中で cancel()された場合は 速やかに終了すること)
+     * @return 検索済みのバイト数
+     */
+    protected abstract long search();
+
+    /**
+     * 検索状況を UIスレッドに通知する
+     * @param scannedBytes 検索済みのバイト数
+     */
+    protected void notifyUpdated(final long scannedBytes) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onSearchUpdated(mResult, scannedBytes);
+            }
+        });
+    }
+
+}
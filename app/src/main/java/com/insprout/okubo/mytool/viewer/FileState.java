@@ -0,0 +1,174 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * ファイルごとに保存する 表示状態
+ * (文字コード、行の索引、検索用の索引、表示位置と、それらが同じ内容のファイルのものか確認するための情報)
+ *
+ * ファイルの同一性は サイズ、更新日時、先頭部分のハッシュ値の組で確認する
+ * (圧縮されたファイルは 伸長後のサイズを求めるのに時間がかかるので、圧縮されたままのサイズで確認する)
+ */
+
+public class FileState {
+    private long mFileSize;                                     // ファイルサイズ (圧縮されたファイルは 圧縮されたままのサイズ)
+    private long mLastModified;
+    private long mHeadHash;
+    private String mCharSet = null;
+    private long mScrollOffset = 0;                             // 表示位置 (表示されている最初の行の開始位置 byte)
+    private LineIndex mLineIndex = null;                        // 作成済みの行の索引 (ない場合は null)
+    private volatile TrigramIndex mTrigramIndex = null;         // 検索用の索引 (ない場合は null。バックグラウンドで設定される)
+    private CharsetScorer.Score[] mCharSetScores = null;        // 文字コードの候補の評価 (評価していない場合は null)
+    private boolean mRestored = false;
+    private boolean mLineIndexSaved = false;                    // 行の索引が 保存済みか
+    private boolean mCompressed = false;                        // 圧縮されたファイル (mFileSizeは 伸長後のサイズと異なる)
+
+
+    /**
+     * コンストラクタ
+     * @param fileSize ファイルサイズ
+     * @param lastModified 更新日時
+     * @param headHash ファイル先頭部分のハッシュ値
+     */
+    FileState(long fileSize, long lastModified, long headHash) {
+        mFileSize = fileSize;
+        mLastModified = lastModified;
+        mHeadHash = headHash;
+    }
+
+    /**
+     * ファイルの現在の状態から 作成する
+     * @param source ファイル
+     * @param head ファイル先頭部分 (CharsetSniffer.SAMPLE_SIZE byte)
+     * @return 表示状態 (文字コードや表示位置は 未設定)
+     */
+    static FileState create(UriSource source, ByteBuffer head) throws IOException {
+        FileState state = new FileState(source.getSourceSize(), source.getLastModified(), hash(head));
+        state.mCompressed = source.isCompressed();
+        return state;
+    }
+
+    /**
+     * ファイルに追記された場合に、ファイルの状態を更新する
+     * (先頭部分が SAMPLE_SIZEに満たなかった場合は、追記により ハッシュ値も変わる)
+     * @param source 追記後のファイル (refresh()されていること)
+     */
+    void update(UriSource source) throws IOException {
+        long size = source.getSourceSize();
+        if (mFileSize < CharsetSniffer.SAMPLE_SIZE && size != mFileSize) {
+            mHeadHash = hash(source.getBuffer(0, CharsetSniffer.SAMPLE_SIZE));
+        }
+        mFileSize = size;
+        mLastModified = source.getLastModified();
+        mLineIndexSaved = false;
+    }
+
+    long getFileSize() {
+        return mFileSize;
+    }
+
+    long getLastModified() {
+        return mLastModified;
+    }
+
+    long getHeadHash() {
+        return mHeadHash;
+    }
+
+    boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /**
+     * 同じ内容のファイルの状態か確認する
+     * @param other 比較する状態
+     * @return true: 同じ内容のファイル
+     */
+    public boolean isSameFile(FileState other) {
+        return other != null
+                && mFileSize == other.mFileSize
+                && mLastModified == other.mLastModified
+                && mHeadHash == other.mHeadHash;
+    }
+
+    public String getCharSet() {
+        return mCharSet;
+    }
+
+    public void setCharSet(String charSet) {
+        mCharSet = charSet;
+    }
+
+    public long getScrollOffset() {
+        return mScrollOffset;
+    }
+
+    public void setScrollOffset(long offset) {
+        mScrollOffset = offset;
+    }
+
+    /**
+     * 文字コードを判定した時の 候補ごとの評価を返す
+     * @return 評価 (もっともらしい順)。評価していない場合は null
+     */
+    public CharsetScorer.Score[] getCharSetScores() {
+        return mCharSetScores;
+    }
+
+    void setCharSetScores(CharsetScorer.Score[] scores) {
+        mCharSetScores = scores;
+    }
+
+    public LineIndex getLineIndex() {
+        return mLineIndex;
+    }
+
+    public void setLineIndex(LineIndex index) {
+        if (index != mLineIndex) mLineIndexSaved = false;
+        mLineIndex = index;
+    }
+
+    public TrigramIndex getTrigramIndex() {
+        return mTrigramIndex;
+    }
+
+    void setTrigramIndex(TrigramIndex index) {
+        mTrigramIndex = index;
+    }
+
+    /**
+     * 保存されていた状態から 復元されたか
+     * @return true: 保存されていた状態を復元した
+     */
+    public boolean isRestored() {
+        return mRestored;
+    }
+
+    void setRestored(boolean restored) {
+        mRestored = restored;
+    }
+
+    boolean isLineIndexSaved() {
+        return mLineIndexSaved;
+    }
+
+    void setLineIndexSaved(boolean saved) {
+        mLineIndexSaved = saved;
+    }
+
+    private static long hash(ByteBuffer head) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = head.duplicate();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[ buffer.remaining() ];
+            buffer.get(bytes);
+            crc.update(bytes);
+        }
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,315 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * ファイルごとの表示状態(FileState)を アプリの内部ストレージに保存するクラス
+ *
+ * 表示状態は 最近表示したファイルごとに 小さなバイナリファイルとして保存する。(文字コードを判定した時の 候補ごとの評価も含む)
+ * 行の索引は サイズが大きくなるので 別ファイルとし、行の長さを可変長整数で保存する。(1行あたり 1〜2byte程度)
+ * 検索用の索引(TrigramIndex)も 同様に別ファイルとし、必要になった時点で読み込む
+ */
+
+public class FileStateStore {
+    private final static String DIR_NAME = "viewer";
+    private final static String EXT_STATE = ".state";
+    private final static String EXT_LINES = ".lines";
+    private final static String EXT_TRIGRAMS = ".trigrams";
+    private final static String EXT_TEMP = ".tmp";
+    private final static int MAGIC_STATE = 0x54565354;        // "TVST"
+    private final static int MAGIC_LINES = 0x5456494C;        // "TVIL"
+    private final static int MAGIC_TRIGRAMS = 0x54565447;     // "TVTG"
+    private final static int VERSION = 1;
+    private final static int VERSION_LINES = 2;                // 行の索引のみ 索引を作成した範囲を追加した
+    private final static int VERSION_STATE = 2;                // 表示状態のみ 文字コードの候補の評価を追加した
+    private final static int MAX_FILES = 20;                    // 表示状態を保存しておく ファイル数
+
+    /**
+     * 保存されている表示状態を復元する
+     * 保存されている状態が 同じ内容のファイルのものであれば、文字コード・表示位置・行の索引を stateに設定する
+     * @param context コンテキスト
+     * @param uri ファイルの Uri
+     * @param state 現在のファイルの状態 (FileState.create()で作成したもの)
+     * @return true: 復元できた
+     */
+    public static boolean restore(Context context, Uri uri, FileState state) {
+        File stateFile = getFile(context, uri, EXT_STATE);
+        if (!stateFile.isFile()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != MAGIC_STATE) return false;
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_STATE) return false;
+            if (!uri.toString().equals(in.readUTF())) return false;
+            if (!state.isSameFile(readFingerprint(in))) return false;
+
+            String charSet = in.readUTF();
+            state.setCharSet(charSet.isEmpty() ? null : charSet);
+            state.setScrollOffset(in.readLong());
+            if (version >= VERSION_STATE) state.setCharSetScores(readCharSetScores(in));
+            LineIndex index = readLineIndex(getFile(context, uri, EXT_LINES), state);
+            state.setLineIndex(index);
+            if (index != null) state.setLineIndexSaved(true);
+            state.setRestored(true);
+
+        } catch (IOException e) {
+            return false;
+        }
+        // 最近表示したファイルとして 残しておく
+        stateFile.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * 表示状態を保存する (ファイルに書き込むので UIスレッドからは呼び出さないこと)
+     * 行の索引は 作成が完了していて、まだ保存していない場合のみ保存する
+     * @param context コンテキスト
+     * @param uri ファイルの Uri
+     * @param state 保存する状態
+     */
+    public static void save(Context context, Uri uri, FileState state) {
+        File dir = getDir(context);
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        LineIndex index = state.getLineIndex();
+        // ファイル全体の索引のみを保存する (読み込みエラーなどで 途中までの索引は保存しない)
+        // 圧縮されたファイルは 伸長後のサイズと比較できないが、追記されることはないので 作成が完了していればよい
+        if (index != null && index.isCompleted() && (state.isCompressed() || index.getIndexedSize() == state.getFileSize())
+                && !state.isLineIndexSaved()) {
+            File linesFile = getFile(context, uri, EXT_LINES);
+            File temp = new File(linesFile.getPath() + EXT_TEMP);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC_LINES);
+                out.writeInt(VERSION_LINES);
+                writeFingerprint(out, state);
+                out.writeLong(index.getIndexedSize());
+                int count = index.getLineCount();
+                out.writeInt(count);
+                // 行の開始位置は 前の行からの差分(行の長さ)を 可変長整数で書き込む
+                long previous = 0;
+                for (int i = 0; i < count; i++) {
+                    long offset = index.getLineOffset(i);
+                    writeVarLong(out, offset - previous);
+                    previous = offset;
+                }
+            } catch (IOException e) {
+                temp.delete();
+            }
+            if (temp.isFile() && temp.renameTo(linesFile)) state.setLineIndexSaved(true);
+        }
+
+        File stateFile = getFile(context, uri, EXT_STATE);
+        File temp = new File(stateFile.getPath() + EXT_TEMP);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC_STATE);
+            out.writeInt(VERSION_STATE);
+            out.writeUTF(uri.toString());
+            writeFingerprint(out, state);
+            out.writeUTF(state.getCharSet() != null ? state.getCharSet() : "");
+            out.writeLong(state.getScrollOffset());
+            writeCharSetScores(out, state.getCharSetScores());
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(stateFile)) temp.delete();
+
+        removeOldFiles(dir);
+    }
+
+    /**
+     * 保存されている 検索用の索引を読み込む (ファイルを読み込むので UIスレッドからは呼び出さないこと)
+     * @param context コンテキスト
+     * @param uri ファイルの Uri
+     * @param state 現在のファイルの状態
+     * @return 索引。保存されていない場合や 異なる内容のファイルのものだった場合は null
+     */
+    public static TrigramIndex restoreTrigramIndex(Context context, Uri uri, FileState state) {
+        File file = getFile(context, uri, EXT_TRIGRAMS);
+        if (!file.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC_TRIGRAMS || in.readInt() != VERSION) return null;
+            if (!state.isSameFile(readFingerprint(in))) return null;
+            return TrigramIndex.read(in);
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 検索用の索引を保存する (ファイルに書き込むので UIスレッドからは呼び出さないこと)
+     * @param context コンテキスト
+     * @param uri ファイルの Uri
+     * @param state 現在のファイルの状態
+     * @param index 保存する索引
+     */
+    public static void saveTrigramIndex(Context context, Uri uri, FileState state, TrigramIndex index) {
+        File dir = getDir(context);
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        File file = getFile(context, uri, EXT_TRIGRAMS);
+        File temp = new File(file.getPath() + EXT_TEMP);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC_TRIGRAMS);
+            out.writeInt(VERSION);
+            writeFingerprint(out, state);
+            index.write(out);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) temp.delete();
+    }
+
+    /**
+     * 指定ファイル用の 保存先ファイルを返す
+     * @param context コンテキスト
+     * @param uri ファイルの Uri
+     * @param extension 拡張子
+     * @return 保存先ファイル
+     */
+    static File getFile(Context context, Uri uri, String extension) {
+        // Uriのハッシュ値をファイル名とする。(衝突した場合は 保存されている Uriやフィンガープリントで区別される)
+        String name = String.format(Locale.US, "%08x", uri.toString().hashCode());
+        return new File(getDir(context), name + extension);
+    }
+
+    private static File getDir(Context context) {
+        return new File(context.getFilesDir(), DIR_NAME);
+    }
+
+    private static LineIndex readLineIndex(File file, FileState state) {
+        if (!file.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC_LINES) return null;
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_LINES) return null;
+            if (!state.isSameFile(readFingerprint(in))) return null;
+            // 以前の形式は 索引を作成した範囲を保存していないので、ファイルサイズとする (圧縮されたファイルには使用できない)
+            long indexedSize = (version >= VERSION_LINES ? in.readLong() : state.getFileSize());
+            if (version < VERSION_LINES && state.isCompressed()) return null;
+
+            int count = in.readInt();
+            LineIndex index = new LineIndex();
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                offset += readVarLong(in);
+                index.add(offset);
+            }
+            index.setCompleted(indexedSize);
+            return index;
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeFingerprint(DataOutputStream out, FileState state) throws IOException {
+        out.writeLong(state.getFileSize());
+        out.writeLong(state.getLastModified());
+        out.writeLong(state.getHeadHash());
+    }
+
+    private static FileState readFingerprint(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        long headHash = in.readLong();
+        return new FileState(size, lastModified, headHash);
+    }
+
+    private static void writeCharSetScores(DataOutputStream out, CharsetScorer.Score[] scores) throws IOException {
+        // 評価していない場合は 件数を -1とする
+        out.writeInt(scores != null ? scores.length : -1);
+        if (scores == null) return;
+        for (CharsetScorer.Score score : scores) {
+            out.writeUTF(score.charSet);
+            out.writeInt(score.errors);
+            out.writeInt(score.unlikely);
+            out.writeInt(score.chars);
+        }
+    }
+
+    private static CharsetScorer.Score[] readCharSetScores(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) return null;
+        CharsetScorer.Score[] scores = new CharsetScorer.Score[ count ];
+        for (int i = 0; i < count; i++) {
+            String charSet = in.readUTF();
+            int errors = in.readInt();
+            int unlikely = in.readInt();
+            int chars = in.readInt();
+            scores[i] = new CharsetScorer.Score(charSet, errors, unlikely, chars);
+        }
+        return scores;
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * 保存している表示状態が MAX_FILESを超えた場合は、最近表示していないファイルのものから削除する
+     * @param dir 保存先ディレクトリ
+     */
+    private static void removeOldFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        File[] states = new File[ files.length ];
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(EXT_STATE)) states[count++] = file;
+        }
+        if (count <= MAX_FILES) return;
+
+        states = Arrays.copyOf(states, count);
+        Arrays.sort(states, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long t1 = f1.lastModified();
+                long t2 = f2.lastModified();
+                return (t1 > t2 ? -1 : (t1 < t2 ? 1 : 0));
+            }
+        });
+        for (int i = MAX_FILES; i < count; i++) {
+            String path = states[i].getPath();
+            String base = path.substring(0, path.length() - EXT_STATE.length());
+            states[i].delete();
+            new File(base + EXT_LINES).delete();
+            new File(base + EXT_TRIGRAMS).delete();
+        }
+    }
+
+}
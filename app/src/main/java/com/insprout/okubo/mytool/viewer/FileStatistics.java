@@ -0,0 +1,75 @@
+package com.insprout.okubo.mytool.viewer;
+
+/**
+ * ファイルの集計結果 (StatisticsCounterで作成する)
+ *
+ * 文字コードによらず byte列のまま集計する。
+ * (単語は 空白・タブ・改行で区切られた並び、ログレベルは 各行の先頭 StatisticsCounter.LEVEL_SCAN_BYTES以内に
+ * 最初に現れた ERROR/WARN/INFOで判定する)
+ */
+
+public class FileStatistics {
+    public final static int LEVEL_ERROR = 0;
+    public final static int LEVEL_WARN = 1;
+    public final static int LEVEL_INFO = 2;
+    final static int LEVEL_COUNT = 3;
+
+    private final long mFileSize;
+    private final long mLineCount;
+    private final long mWordCount;
+    private final long mNonAsciiBytes;
+    private final long[] mLevelCounts;
+    private final long mElapsedMillis;
+
+
+    FileStatistics(long fileSize, long lineCount, long wordCount, long nonAsciiBytes, long[] levelCounts, long elapsedMillis) {
+        mFileSize = fileSize;
+        mLineCount = lineCount;
+        mWordCount = wordCount;
+        mNonAsciiBytes = nonAsciiBytes;
+        mLevelCounts = levelCounts;
+        mElapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * 集計した時の ファイルサイズを返す (追記された場合は 集計し直す必要がある)
+     * @return ファイルサイズ (byte)
+     */
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    public long getLineCount() {
+        return mLineCount;
+    }
+
+    public long getWordCount() {
+        return mWordCount;
+    }
+
+    /**
+     * ASCII以外(0x80以上)の byte数を返す
+     * @return byte数
+     */
+    public long getNonAsciiBytes() {
+        return mNonAsciiBytes;
+    }
+
+    /**
+     * 指定のログレベルの行数を返す
+     * @param level LEVEL_ERROR, LEVEL_WARN, LEVEL_INFOのいずれか
+     * @return 行数
+     */
+    public long getLevelCount(int level) {
+        return mLevelCounts[level];
+    }
+
+    /**
+     * 集計にかかった時間を返す
+     * @return 時間 (msec)
+     */
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 絞り込みで一致した行(FilterResult)を ListViewの 1項目ずつ表示するための Adapter
+ *
+ * 行の内容は BLOCK_LINES行ごとに I/Oスレッドで読み込んでデコードし、表示範囲(と前後のブロック)のみを保持する。
+ * (非常に長い行は 先頭の MAX_LINE_BYTESまでを表示する)
+ */
+
+public class FilterAdapter extends BaseAdapter {
+    private final static int BLOCK_LINES = 64;                  // 1回に読み込む行数
+    private final static int BLOCK_MARGIN = 1;                  // 表示範囲の前後に保持しておくブロック数
+    private final static int MAX_LINE_BYTES = 2048;             // 1行で表示する 最大サイズ (byte)
+    private final static String ELLIPSIS = "…";
+
+    private final LayoutInflater mInflater;
+    private final int mLayoutId;
+    private final int mLineNumberId;
+    private final int mLineTextId;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SparseArray<String[]> mBlocks = new SparseArray<>();
+    private final Set<Integer> mRequested = new HashSet<>();   // 読み込み要求中のブロック
+    private UriSource mSource = null;
+    private String mCharSet = null;
+    private FilterResult mResult = null;
+    private int mCount = 0;                                     // 絞り込み中は 行数が増えるので、通知時点の値を使用する
+    private float mTextSize = 18.0f;                            // 文字サイズ (sp単位)
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param layoutId 1行を表示するレイアウトID
+     * @param lineNumberId レイアウト内の 行番号を表示する TextViewのID
+     * @param lineTextId レイアウト内の 行の内容を表示する TextViewのID
+     */
+    public FilterAdapter(Context context, int layoutId, int lineNumberId, int lineTextId) {
+        mInflater = LayoutInflater.from(context);
+        mLayoutId = layoutId;
+        mLineNumberId = lineNumberId;
+        mLineTextId = lineTextId;
+    }
+
+    /**
+     * 表示する絞り込みの結果を設定する (UriSourceは 呼び出し元が管理するので closeしない)
+     * @param source ファイル
+     * @param charSet ファイルの文字コード
+     * @param result 絞り込みの結果。nullの場合は 表示を消去する
+     */
+    public void setResult(UriSource source, String charSet, FilterResult result) {
+        mSource = source;
+        mCharSet = charSet;
+        mResult = result;
+        mBlocks.clear();
+        mRequested.clear();
+        notifyDataSetChanged();
+    }
+
+    public FilterResult getResult() {
+        return mResult;
+    }
+
+    /**
+     * 文字サイズを設定する
+     * @param textSize 文字サイズ (sp単位)
+     */
+    public void setTextSize(float textSize) {
+        mTextSize = textSize;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 表示されている範囲を通知する。範囲外のブロックを破棄し、前後のブロックの読み込みを要求する
+     * @param first 表示されている最初の項目
+     * @param last 表示されている最後の項目
+     */
+    public void setVisibleRange(int first, int last) {
+        int firstBlock = first / BLOCK_LINES - BLOCK_MARGIN;
+        int lastBlock = last / BLOCK_LINES + BLOCK_MARGIN;
+        for (int i = mBlocks.size() - 1; i >= 0; i--) {
+            int block = mBlocks.keyAt(i);
+            if (block < firstBlock || block > lastBlock) mBlocks.removeAt(i);
+        }
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            requestBlock(block);
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        int count = (mResult != null ? mResult.getCount() : 0);
+        // 読み込み後に 一致した行が追加された ブロックは 読み込み直す
+        if (count > mCount && mCount % BLOCK_LINES != 0) mBlocks.remove(mCount / BLOCK_LINES);
+        mCount = count;
+        super.notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return (mResult != null ? mResult.getOffset(position) : -1L);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) view = mInflater.inflate(mLayoutId, parent, false);
+        TextView lineNumberView = view.findViewById(mLineNumberId);
+        TextView lineTextView = view.findViewById(mLineTextId);
+        lineNumberView.setTextSize(TypedValue.COMPLEX_UNIT_SP, mTextSize);
+        lineTextView.setTextSize(TypedValue.COMPLEX_UNIT_SP, mTextSize);
+
+        // 行番号は 1から始まる番号で表示する
+        lineNumberView.setText(String.valueOf(mResult.getLine(position) + 1));
+        String[] lines = mBlocks.get(position / BLOCK_LINES);
+        if (lines == null) {
+            // 読み込まれていない行は 読み込みを要求して、読み込まれるまで 行番号のみ表示しておく
+            requestBlock(position / BLOCK_LINES);
+            lineTextView.setText(null);
+        } else {
+            lineTextView.setText(lines[position % BLOCK_LINES]);
+        }
+        return view;
+    }
+
+    private void requestBlock(final int block) {
+        final UriSource source = mSource;
+        final FilterResult result = mResult;
+        final int first = block * BLOCK_LINES;
+        if (source == null || result == null || block < 0 || first >= mCount) return;
+        if (mBlocks.get(block) != null || !mRequested.add(block)) return;
+
+        final int count = Math.min(BLOCK_LINES, mCount - first);
+        final String charSet = mCharSet;
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final String[] lines = readLines(source, charSet, result, first, count);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result != mResult || !mRequested.remove(block) || lines == null) return;
+                        // 読み込み中に 一致した行が追加された場合は、次に表示する時に 読み込み直す
+                        if (count < BLOCK_LINES && first + count < mCount) return;
+                        mBlocks.put(block, lines);
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 一致した行の内容を読み込む (I/Oスレッドで呼び出される)
+     * @return 行の内容 (改行コードを除く)。読み込めなかった場合は null
+     */
+    private static String[] readLines(UriSource source, String charSet, FilterResult result, int first, int count) {
+        String[] lines = new String[ BLOCK_LINES ];
+        CharsetDecoder decoder = Charset.forName(charSet).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] buf = new byte[ MAX_LINE_BYTES ];
+        try {
+            for (int i = 0; i < count; i++) {
+                long offset = result.getOffset(first + i);
+                int length = (int)Math.min(MAX_LINE_BYTES, source.size() - offset);
+                int read = 0;
+                while (read < length) {
+                    int size = source.read(offset + read, buf, read, length - read);
+                    if (size <= 0) break;
+                    read += size;
+                }
+
+                int end = 0;
+                while (end < read && buf[end] != '\n') end++;
+                boolean truncated = (end == MAX_LINE_BYTES);
+                if (end > 0 && buf[end - 1] == '\r') end--;
+                CharBuffer chars = decoder.reset().decode(ByteBuffer.wrap(buf, 0, end));
+                lines[i] = (truncated ? chars.toString() + ELLIPSIS : chars.toString());
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return lines;
+    }
+
+}
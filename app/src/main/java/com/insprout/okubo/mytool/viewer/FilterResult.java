@@ -0,0 +1,138 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.util.Arrays;
+
+/**
+ * 絞り込みで一致した行の一覧
+ * 行番号は プリミティブの int配列、行の開始位置(byte)は long配列で 昇順に保持する。
+ * (行の開始位置も保持しておくので、行の索引が作成途中でも 一致した行を表示できる)
+ *
+ * 追加は 絞り込みのスレッド(1つ)のみが行い、参照は UIスレッドなど任意のスレッドから行える
+ */
+
+public class FilterResult {
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private final String mQuery;
+    private volatile int[] mLines = new int[ INITIAL_CAPACITY ];
+    private volatile long[] mOffsets = new long[ INITIAL_CAPACITY ];
+    private volatile int mCount = 0;
+    private volatile boolean mCompleted = false;
+    // 絞り込み済みの範囲 (追記された場合は この位置から絞り込みを続ける。絞り込みのスレッドのみが参照する)
+    private long mScannedSize = 0;
+    private int mScannedLines = 0;
+
+
+    public FilterResult(String query) {
+        mQuery = query;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * 一致した行数を返す (絞り込み途中の場合は、その時点までの行数)
+     * @return 行数
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 指定番目に一致した行の 行番号を返す
+     * @param index 番号 (0から始まる)
+     * @return 行番号 (0から始まる)。範囲外の場合は -1
+     */
+    public int getLine(int index) {
+        // mCountを先に読むこと。(配列は mCountより先に更新されている)
+        int count = mCount;
+        if (index < 0 || index >= count) return -1;
+        return mLines[index];
+    }
+
+    /**
+     * 指定番目に一致した行の 開始位置を返す
+     * @param index 番号 (0から始まる)
+     * @return 位置 (byte)。範囲外の場合は -1
+     */
+    public long getOffset(int index) {
+        int count = mCount;
+        if (index < 0 || index >= count) return -1;
+        return mOffsets[index];
+    }
+
+    /**
+     * 指定位置以降で 最初に一致した行の番号を返す
+     * @param offset 位置 (byte)
+     * @return 番号。指定位置以降に一致した行がない場合は getCount()
+     */
+    public int findNext(long offset) {
+        int count = mCount;
+        long[] offsets = mOffsets;
+
+        // 二分探索で offset以上の最小の位置を探す
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * 一致した行を追加する。(絞り込みのスレッドからのみ呼び出すこと)
+     * @param line 行番号
+     * @param offset 行の開始位置 (byte)
+     */
+    void add(int line, long offset) {
+        int count = mCount;
+        if (count == mOffsets.length) {
+            mLines = Arrays.copyOf(mLines, count * 2);
+            mOffsets = Arrays.copyOf(mOffsets, count * 2);
+        }
+        mLines[count] = line;
+        mOffsets[count] = offset;
+        mCount = count + 1;
+    }
+
+    /**
+     * 指定位置以降の行を 一覧から取り除く。(末尾の 改行で終わっていない行を 絞り込み直す場合に使用する)
+     * @param offset 位置 (byte)
+     */
+    void removeFrom(long offset) {
+        mCount = findNext(offset);
+    }
+
+    void setCompleted(boolean completed) {
+        mCompleted = completed;
+    }
+
+    long getScannedSize() {
+        return mScannedSize;
+    }
+
+    int getScannedLines() {
+        return mScannedLines;
+    }
+
+    /**
+     * 絞り込み済みの範囲を記録する
+     * @param size 絞り込み済みの範囲 (行の開始位置であること)
+     * @param lines その範囲に含まれる行数
+     */
+    void setScanned(long size, int lines) {
+        mScannedSize = size;
+        mScannedLines = lines;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.text.TextPaint;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 文字幅のキャッシュ
+ * 文字コードの上位8bitごとに 256文字分の幅を まとめて計測して保持する。(1文字ごとに Paintで計測しない)
+ *
+ * 複数のスレッドから同時に使用してよい。
+ * 文字サイズやフォントが変わった場合は 新しいインスタンスを作成すること
+ */
+
+class GlyphWidthCache {
+    private final static int BLOCK_BITS = 8;
+    private final static int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private final static int BLOCK_MASK = BLOCK_SIZE - 1;
+    private final static int TAB_COLUMNS = 8;                   // タブの間隔 (空白の文字数)
+
+    private final TextPaint mPaint;
+    private final AtomicReferenceArray<float[]> mBlocks = new AtomicReferenceArray<>(0x10000 >> BLOCK_BITS);
+    private volatile boolean mAsciiMeasured = false;
+    private boolean mFixedAscii = false;                        // ASCIIの表示可能文字が すべて同じ幅か (等幅フォント)
+    private float mAsciiAdvance = 0.0f;
+    private float mTabWidth = 0.0f;
+
+
+    /**
+     * コンストラクタ
+     * @param paint 計測に使用する TextPaint (このキャッシュ専用のもの)
+     */
+    GlyphWidthCache(TextPaint paint) {
+        mPaint = paint;
+    }
+
+    /**
+     * 文字の幅を返す
+     * @param c 文字 (サロゲートペアは getWidth(char[], int)を使用すること)
+     * @return 幅 (pixel)
+     */
+    float getWidth(char c) {
+        float[] widths = mBlocks.get(c >>> BLOCK_BITS);
+        if (widths == null) widths = loadBlock(c >>> BLOCK_BITS);
+        return widths[c & BLOCK_MASK];
+    }
+
+    /**
+     * サロゲートペアの幅を返す (キャッシュせずに計測する)
+     * @param chars 文字の配列
+     * @param index 上位サロゲートの位置
+     * @return 幅 (pixel)
+     */
+    float getWidth(char[] chars, int index) {
+        synchronized (mPaint) {
+            return mPaint.measureText(chars, index, 2);
+        }
+    }
+
+    /**
+     * ASCIIの表示可能文字(0x20～0x7E)が すべて同じ幅か
+     * @return true: 等幅。各文字の幅は getAsciiAdvance()
+     */
+    boolean isFixedAscii() {
+        measureAscii();
+        return mFixedAscii;
+    }
+
+    float getAsciiAdvance() {
+        measureAscii();
+        return mAsciiAdvance;
+    }
+
+    /**
+     * 指定位置の 次のタブ位置を返す
+     * @param x 行の先頭からの位置 (pixel)
+     * @return 次のタブ位置 (pixel)
+     */
+    float nextTabStop(float x) {
+        measureAscii();
+        if (mTabWidth <= 0.0f) return x;
+        return ((int) (x / mTabWidth) + 1) * mTabWidth;
+    }
+
+    private void measureAscii() {
+        if (mAsciiMeasured) return;
+        synchronized (this) {
+            if (mAsciiMeasured) return;
+            float advance = getWidth(' ');
+            boolean fixed = (advance > 0.0f);
+            for (char c = 0x21; c <= 0x7E && fixed; c++) {
+                if (getWidth(c) != advance) fixed = false;
+            }
+            mFixedAscii = fixed;
+            mAsciiAdvance = advance;
+            mTabWidth = advance * TAB_COLUMNS;
+            mAsciiMeasured = true;
+        }
+    }
+
+    private float[] loadBlock(int block) {
+        char[] chars = new char[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            chars[i] = (char) ((block << BLOCK_BITS) | i);
+        }
+        float[] widths = new float[BLOCK_SIZE];
+        synchronized (mPaint) {
+            mPaint.getTextWidths(chars, 0, BLOCK_SIZE, widths);
+        }
+        // 同時に計測された場合は 先に格納されたものを使用する
+        mBlocks.compareAndSet(block, null, widths);
+        return mBlocks.get(block);
+    }
+
+}
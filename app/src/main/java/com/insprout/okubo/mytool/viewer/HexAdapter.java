@@ -0,0 +1,235 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ファイルの内容を 16進ダンプとして ListViewに表示するための Adapter
+ * 1項目が 16byteの 1行で、行の位置は 行番号 * 16 となるので、索引を作成せずに 任意の位置を表示できる。
+ *
+ * 内容は BLOCK_SIZEごとに I/Oスレッドで UriSourceから読み込み、表示範囲(と前後のブロック)のみを保持する
+ */
+
+public class HexAdapter extends BaseAdapter {
+    public final static int BYTES_PER_ROW = HexRowView.BYTES_PER_ROW;
+    private final static int BLOCK_SIZE = 4096;                 // 1回に読み込むサイズ (BYTES_PER_ROWの倍数)
+    private final static int BLOCK_MARGIN = 1;                  // 表示範囲の前後に保持しておくブロック数
+
+    private final LayoutInflater mInflater;
+    private final int mLayoutId;
+    private final DisplayMetrics mMetrics;
+    private final int mTextColor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SparseArray<byte[]> mBlocks = new SparseArray<>();
+    private final Set<Integer> mRequested = new HashSet<>();   // 読み込み要求中のブロック
+    private UriSource mSource = null;
+    private long mSize = 0;
+    private int mRowCount = 0;
+    private int mOffsetDigits = 8;
+    private float mTextSize = 18.0f;                            // 文字サイズ (sp単位)
+    private long mHighlightRow = -1;                            // 強調表示する行 (なしの場合は -1)
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param layoutId 1行を表示する HexRowViewのレイアウトID
+     */
+    public HexAdapter(Context context, int layoutId) {
+        mInflater = LayoutInflater.from(context);
+        mLayoutId = layoutId;
+        mMetrics = context.getResources().getDisplayMetrics();
+        // 文字色は TextViewの既定値に合わせる
+        mTextColor = new TextView(context).getCurrentTextColor();
+    }
+
+    /**
+     * 表示するファイルを設定する (UriSourceは 呼び出し元が管理するので closeしない)
+     * @param source ファイル。nullの場合は 表示を消去する
+     * @param size ファイルサイズ
+     */
+    public void setSource(UriSource source, long size) {
+        mSource = source;
+        mBlocks.clear();
+        mRequested.clear();
+        mHighlightRow = -1;
+        setSize(size);
+    }
+
+    public UriSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * ファイルサイズを更新する (追記された場合など)。末尾のブロックは 読み込み直す
+     * @param size ファイルサイズ
+     */
+    public void setSize(long size) {
+        if (size > mSize && mSize % BLOCK_SIZE != 0) mBlocks.remove((int)(mSize / BLOCK_SIZE));
+        mSize = (mSource != null ? size : 0);
+        mRowCount = (int)Math.min((mSize + BYTES_PER_ROW - 1) / BYTES_PER_ROW, Integer.MAX_VALUE);
+        // 位置の桁数は ファイルサイズに合わせる (8桁以上)
+        int digits = 8;
+        while (digits < 16 && (mSize >>> (digits * 4)) != 0) digits++;
+        mOffsetDigits = digits;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 文字サイズを設定する
+     * @param textSize 文字サイズ (sp単位)
+     */
+    public void setTextSize(float textSize) {
+        mTextSize = textSize;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 指定位置を含む行を強調表示する
+     * @param offset 位置 (byte)。-1の場合は 強調表示を解除する
+     */
+    public void setHighlight(long offset) {
+        mHighlightRow = (offset >= 0 ? offset / BYTES_PER_ROW : -1);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 指定位置を含む行を返す
+     * @param offset 位置 (byte)
+     * @return 行番号
+     */
+    public static int getRow(long offset) {
+        return (int)Math.min(offset / BYTES_PER_ROW, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 指定行の位置を返す
+     * @param row 行番号
+     * @return 位置 (byte)
+     */
+    public static long getRowOffset(int row) {
+        return (long) row * BYTES_PER_ROW;
+    }
+
+    /**
+     * 表示されている範囲を通知する。範囲外のブロックを破棄し、前後のブロックの読み込みを要求する
+     * @param firstRow 表示されている最初の行
+     * @param lastRow 表示されている最後の行
+     */
+    public void setVisibleRange(int firstRow, int lastRow) {
+        int first = getBlock(firstRow) - BLOCK_MARGIN;
+        int last = getBlock(lastRow) + BLOCK_MARGIN;
+        for (int i = mBlocks.size() - 1; i >= 0; i--) {
+            int block = mBlocks.keyAt(i);
+            if (block < first || block > last) mBlocks.removeAt(i);
+        }
+        for (int block = first; block <= last; block++) {
+            requestBlock(block);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mRowCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return getRowOffset(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        HexRowView rowView = (HexRowView) convertView;
+        if (rowView == null) rowView = (HexRowView) mInflater.inflate(mLayoutId, parent, false);
+        rowView.setTextStyle(toPixel(mTextSize), mTextColor, mOffsetDigits);
+
+        long offset = getRowOffset(position);
+        int block = getBlock(position);
+        byte[] bytes = mBlocks.get(block);
+        if (bytes == null) {
+            // 読み込まれていないブロックは 読み込みを要求して、読み込まれるまで 位置のみ表示しておく
+            requestBlock(block);
+            rowView.setRow(offset, null, 0, 0, false);
+        } else {
+            int start = (int)(offset - (long) block * BLOCK_SIZE);
+            int count = Math.max(Math.min(BYTES_PER_ROW, bytes.length - start), 0);
+            rowView.setRow(offset, bytes, start, count, position == mHighlightRow);
+        }
+        return rowView;
+    }
+
+    private static int getBlock(int row) {
+        return (int)(getRowOffset(row) / BLOCK_SIZE);
+    }
+
+    private void requestBlock(final int block) {
+        final UriSource source = mSource;
+        final long position = (long) block * BLOCK_SIZE;
+        if (source == null || block < 0 || position >= mSize) return;
+        if (mBlocks.get(block) != null || !mRequested.add(block)) return;
+
+        final int length = (int)Math.min(BLOCK_SIZE, mSize - position);
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] bytes = read(source, position, length);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (source != mSource || !mRequested.remove(block) || bytes == null) return;
+                        mBlocks.put(block, bytes);
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 指定範囲を読み込む (I/Oスレッドで呼び出される)
+     * @return 読み込んだ内容。読み込めなかった場合は null
+     */
+    private static byte[] read(UriSource source, long position, int length) {
+        byte[] bytes = new byte[ length ];
+        int read = 0;
+        try {
+            while (read < length) {
+                int size = source.read(position + read, bytes, read, length - read);
+                if (size <= 0) break;
+                read += size;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (read < length) {
+            byte[] shrunk = new byte[ read ];
+            System.arraycopy(bytes, 0, shrunk, 0, read);
+            return shrunk;
+        }
+        return bytes;
+    }
+
+    private float toPixel(float sp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, sp, mMetrics);
+    }
+
+}
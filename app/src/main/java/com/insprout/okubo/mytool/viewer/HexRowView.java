@@ -0,0 +1,145 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 16進表示の 1行(16byte)を表示する View
+ * 「位置  16進ダンプ  ASCII」の形式の文字列を char配列に組み立てて、Canvas.drawText(char[], ...)で描画する。
+ * (表示幅に収まらない場合は 文字サイズを縮小する)
+ */
+
+public class HexRowView extends View {
+    public final static int BYTES_PER_ROW = 16;
+    private final static int COLOR_HIGHLIGHT = 0x80FFD54F;     // 強調表示の背景色
+    private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mHighlightPaint = new Paint();
+    private final char[] mChars = new char[ 16 + 2 + BYTES_PER_ROW * 3 + 1 + 1 + BYTES_PER_ROW ];
+    private int mLength = 0;
+    private int mOffsetDigits = 8;                              // 位置の桁数
+    private float mTextSize = 0.0f;                             // 指定された文字サイズ (pixel)
+    private int mFittedWidth = -1;                              // 文字サイズを合わせた 表示幅
+    private int mBaseline = 0;                                  // 上端から ベースラインまでの距離
+    private boolean mHighlighted = false;
+
+
+    public HexRowView(Context context) {
+        super(context);
+        initialize();
+    }
+
+    public HexRowView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        initialize();
+    }
+
+    public HexRowView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        initialize();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public HexRowView(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        initialize();
+    }
+
+    private void initialize() {
+        mPaint.setTypeface(Typeface.MONOSPACE);
+        mHighlightPaint.setColor(COLOR_HIGHLIGHT);
+    }
+
+    /**
+     * 文字の表示形式を設定する
+     * @param textSize 文字サイズ (pixel)
+     * @param color 文字色
+     * @param offsetDigits 位置の桁数
+     */
+    public void setTextStyle(float textSize, int color, int offsetDigits) {
+        mPaint.setColor(color);
+        if (textSize != mTextSize || offsetDigits != mOffsetDigits) {
+            mTextSize = textSize;
+            mOffsetDigits = offsetDigits;
+            mFittedWidth = -1;
+            requestLayout();
+        }
+    }
+
+    /**
+     * 表示する行を設定する
+     * @param offset 行の位置
+     * @param bytes 行の内容を含む配列。nullの場合は 位置のみ表示する(読み込まれていない場合)
+     * @param start 配列上の 行の開始位置
+     * @param count 行のバイト数 (BYTES_PER_ROW以下)
+     * @param highlighted true: 行を強調表示する
+     */
+    public void setRow(long offset, byte[] bytes, int start, int count, boolean highlighted) {
+        int pos = 0;
+        for (int shift = (mOffsetDigits - 1) * 4; shift >= 0; shift -= 4) {
+            mChars[pos++] = HEX_DIGITS[(int)(offset >>> shift) & 0x0F];
+        }
+        mChars[pos++] = ' ';
+        mChars[pos++] = ' ';
+        if (bytes != null) {
+            for (int i = 0; i < BYTES_PER_ROW; i++) {
+                if (i == BYTES_PER_ROW / 2) mChars[pos++] = ' ';
+                if (i < count) {
+                    int b = bytes[start + i] & 0xFF;
+                    mChars[pos++] = HEX_DIGITS[b >>> 4];
+                    mChars[pos++] = HEX_DIGITS[b & 0x0F];
+                } else {
+                    mChars[pos++] = ' ';
+                    mChars[pos++] = ' ';
+                }
+                mChars[pos++] = ' ';
+            }
+            mChars[pos++] = ' ';
+            for (int i = 0; i < count; i++) {
+                int b = bytes[start + i] & 0xFF;
+                mChars[pos++] = (b >= 0x20 && b < 0x7F ? (char) b : '.');
+            }
+        }
+        mLength = pos;
+        mHighlighted = highlighted;
+        invalidate();
+    }
+
+    /**
+     * 表示幅に 1行分が収まるように 文字サイズを合わせる
+     * @param width 表示幅 (paddingを除く)
+     */
+    private void fitTextSize(int width) {
+        if (width == mFittedWidth || width <= 0) return;
+        mFittedWidth = width;
+        mPaint.setTextSize(mTextSize);
+        int columns = mOffsetDigits + 2 + BYTES_PER_ROW * 3 + 1 + 1 + BYTES_PER_ROW;
+        float rowWidth = mPaint.measureText("0") * columns;
+        if (rowWidth > width) mPaint.setTextSize(mTextSize * width / rowWidth);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        fitTextSize(width - getPaddingLeft() - getPaddingRight());
+        Paint.FontMetricsInt metrics = mPaint.getFontMetricsInt();
+        mBaseline = -metrics.top;
+        setMeasuredDimension(width, metrics.bottom - metrics.top + getPaddingTop() + getPaddingBottom());
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mHighlighted) canvas.drawRect(0, 0, getWidth(), getHeight(), mHighlightPaint);
+        canvas.drawText(mChars, 0, mLength, getPaddingLeft(), getPaddingTop() + mBaseline, mPaint);
+    }
+
+}
@@ -0,0 +1,426 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * gzip / zipで圧縮されたファイルを 伸長した内容として読み込む UriSource
+ *
+ * ファイル全体を一時ファイルに伸長することはせず、読み込む位置に応じて その都度 伸長する。
+ * 伸長の途中の 一定間隔(CHECKPOINT_INTERVAL)ごとに 再開に必要な情報(チェックポイント)を記録しておくので、
+ * ファイルの途中を読む場合も 直前のチェックポイントから伸長すればよい。
+ * (チェックポイントの 直前32KBの出力は キャッシュファイルに退避し、ヒープには 位置のみを保持する)
+ *
+ * 伸長後のサイズは 最後まで伸長しないと分からないので、先頭から少しずつ求める(measure())。
+ * 求めている間も 読み込みは待たされず、求めた範囲には チェックポイントが記録されている。
+ *
+ * zipの場合は 最初のエントリのみを対象とする。
+ */
+
+class InflatedUriSource extends UriSource {
+    private final static int CHECKPOINT_INTERVAL = 1024 * 1024; // チェックポイントを記録する間隔 (伸長後のバイト数)
+    private final static int MAX_CURSORS = 4;                   // 同時に保持する 伸長途中の位置の数
+    private final static int INTERVAL_PROGRESS = 1024 * 1024;  // 読み込み状況を通知する間隔 (byte)
+    private final static String WINDOW_FILE_PREFIX = "inflate";
+
+    private final static int GZIP_MAGIC = 0x1F8B;
+    private final static int ZIP_MAGIC = 0x504B0304;
+    private final static int GZIP_FLAG_HCRC = 0x02;
+    private final static int GZIP_FLAG_EXTRA = 0x04;
+    private final static int GZIP_FLAG_NAME = 0x08;
+    private final static int GZIP_FLAG_COMMENT = 0x10;
+    private final static int GZIP_TRAILER_SIZE = 8;
+    private final static int ZIP_HEADER_SIZE = 30;
+    private final static int ZIP_FLAG_ENCRYPTED = 0x01;
+    private final static int METHOD_DEFLATE = 8;
+
+    private final UriSource mRaw;
+    private final boolean mGzip;                                // gzipは 複数のメンバーが連結されている場合がある
+    private final long mFirstData;                              // 最初の 圧縮データの開始位置
+    private volatile long mSize = -1;                           // 伸長後のサイズ (求め終えていない場合は -1)
+    private volatile long mMeasured = 0;                        // サイズを求め終えた範囲 (伸長後のバイト数)
+    private final Object mMeasureLock = new Object();
+    private Cursor mMeasureCursor = null;                       // サイズを求めるための Cursor (mMeasureLockで排他する)
+
+    // チェックポイントは 読み込みと サイズを求める伸長の 両方から記録するので、mCheckpointLockで排他する
+    private final Object mCheckpointLock = new Object();
+    private final File mWindowFile;
+    private final RandomAccessFile mWindows;
+    private int mCheckpointCount = 0;
+    private long[] mCheckpointBits = new long[ 64 ];            // 伸長を再開する 入力の位置 (bit)
+    private long[] mCheckpointOutputs = new long[ 64 ];         // 再開する位置の 出力上の位置
+    private int[] mWindowLengths = new int[ 64 ];
+    private final List<Cursor> mCursors = new ArrayList<>();   // 最近使用したものほど 後ろになる
+
+
+    /**
+     * 圧縮されたファイルであれば、伸長して読み込む UriSourceを返す
+     * @param source 元のファイル
+     * @param cacheDir キャッシュファイルを作成するディレクトリ
+     * @return 圧縮されていない場合や 対応していない形式の場合は sourceをそのまま返す
+     */
+    static UriSource wrap(UriSource source, File cacheDir) {
+        try {
+            byte[] magic = new byte[4];
+            if (readFully(source, 0, magic, 4) < 4) return source;
+            int magic16 = ((magic[0] & 0xFF) << 8) | (magic[1] & 0xFF);
+            int magic32 = (magic16 << 16) | ((magic[2] & 0xFF) << 8) | (magic[3] & 0xFF);
+
+            long data = -1;
+            boolean gzip = false;
+            if (magic16 == GZIP_MAGIC) {
+                data = findGzipData(source, 0);
+                gzip = true;
+            } else if (magic32 == ZIP_MAGIC) {
+                data = findZipData(source);
+            }
+            if (data < 0) return source;
+            return new InflatedUriSource(source, gzip, data, cacheDir);
+
+        } catch (IOException e) {
+            return source;
+        }
+    }
+
+    private InflatedUriSource(UriSource raw, boolean gzip, long firstData, File cacheDir) throws IOException {
+        super(raw.getUri());
+        mRaw = raw;
+        mGzip = gzip;
+        mFirstData = firstData;
+        mWindowFile = File.createTempFile(WINDOW_FILE_PREFIX, null, cacheDir);
+        mWindows = new RandomAccessFile(mWindowFile, "rw");
+        addCheckpoint(firstData * 8, 0, null, 0);
+    }
+
+    /**
+     * gzipのヘッダーを読み、圧縮データの開始位置を返す
+     * @param source ファイル
+     * @param position ヘッダーの位置
+     * @return 圧縮データの開始位置。gzipのヘッダーでない場合は -1
+     */
+    private static long findGzipData(UriSource source, long position) throws IOException {
+        byte[] header = new byte[10];
+        if (readFully(source, position, header, 10) < 10) return -1;
+        if ((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || header[2] != METHOD_DEFLATE) return -1;
+        int flags = header[3] & 0xFF;
+        long offset = position + 10;
+        byte[] b = new byte[2];
+        if ((flags & GZIP_FLAG_EXTRA) != 0) {
+            if (readFully(source, offset, b, 2) < 2) return -1;
+            offset += 2 + ((b[0] & 0xFF) | ((b[1] & 0xFF) << 8));
+        }
+        if ((flags & GZIP_FLAG_NAME) != 0) offset = skipString(source, offset);
+        if ((flags & GZIP_FLAG_COMMENT) != 0) offset = skipString(source, offset);
+        if ((flags & GZIP_FLAG_HCRC) != 0) offset += 2;
+        return offset;
+    }
+
+    private static long skipString(UriSource source, long offset) throws IOException {
+        byte[] b = new byte[1];
+        while (readFully(source, offset++, b, 1) == 1) {
+            if (b[0] == 0) return offset;
+        }
+        throw new EOFException();
+    }
+
+    /**
+     * zipの 最初のエントリのヘッダーを読み、圧縮データの開始位置を返す
+     * @param source ファイル
+     * @return 圧縮データの開始位置。deflateで圧縮されていない場合や 暗号化されている場合は -1
+     */
+    private static long findZipData(UriSource source) throws IOException {
+        byte[] header = new byte[ ZIP_HEADER_SIZE ];
+        if (readFully(source, 0, header, ZIP_HEADER_SIZE) < ZIP_HEADER_SIZE) return -1;
+        int flags = (header[6] & 0xFF) | ((header[7] & 0xFF) << 8);
+        int method = (header[8] & 0xFF) | ((header[9] & 0xFF) << 8);
+        if (method != METHOD_DEFLATE || (flags & ZIP_FLAG_ENCRYPTED) != 0) return -1;
+        int nameLength = (header[26] & 0xFF) | ((header[27] & 0xFF) << 8);
+        int extraLength = (header[28] & 0xFF) | ((header[29] & 0xFF) << 8);
+        return ZIP_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static int readFully(UriSource source, long position, byte[] buf, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int size = source.read(position + read, buf, read, length - read);
+            if (size <= 0) break;
+            read += size;
+        }
+        return read;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return true;
+    }
+
+    @Override
+    public long getSourceSize() throws IOException {
+        return mRaw.size();
+    }
+
+    /**
+     * 伸長後のサイズを返す。求め終えていない場合は 最後まで伸長して求める
+     * (時間がかかるので UIスレッドからは呼び出さないこと)
+     * @return 伸長後のサイズ (byte)
+     */
+    @Override
+    public long size() throws IOException {
+        measure(Long.MAX_VALUE);
+        return mSize;
+    }
+
+    @Override
+    public boolean isSizeKnown() {
+        return mSize >= 0;
+    }
+
+    @Override
+    public long getAvailableSize() {
+        long size = mSize;
+        return (size >= 0 ? size : mMeasured);
+    }
+
+    /**
+     * 伸長後のサイズを 指定位置まで求める
+     * 先頭から伸長して チェックポイントを記録しながら進めるので、求めた範囲は 後から任意の位置を すぐに読み込める。
+     * 読み込みとは別の Cursorで伸長するので、求めている間も 読み込みは待たされない。
+     * また INTERVAL_PROGRESSごとに 排他を解除するので、複数のスレッドから呼び出された場合は 交互に進める
+     * @param limit 求める位置 (伸長後のバイト数)
+     * @return 求め終えた範囲 (getAvailableSize())
+     */
+    @Override
+    long measure(long limit) throws IOException {
+        while (mSize < 0 && mMeasured < limit) {
+            synchronized (mMeasureLock) {
+                if (mSize < 0 && mMeasured < limit) measureNext(Math.min(limit, mMeasured + INTERVAL_PROGRESS));
+            }
+        }
+        return getAvailableSize();
+    }
+
+    /**
+     * サイズを求めるための Cursorを 指定位置まで進める (mMeasureLockを取得して呼び出すこと)
+     * @param position 進める位置 (伸長後のバイト数)
+     */
+    private void measureNext(long position) throws IOException {
+        checkAborted();
+        if (mMeasureCursor == null) {
+            mMeasureCursor = new Cursor();
+            mMeasureCursor.start(0);
+        }
+        long from = mMeasureCursor.getPosition();
+        mMeasureCursor.skipTo(position);
+        long measured = mMeasureCursor.getPosition();
+        notifyProgress(mMeasureCursor.getInputPosition(), mRaw.size());
+        mMeasured = measured;
+        if (measured == from) {
+            // それ以上 伸長できなければ 最後まで伸長した
+            mSize = measured;
+            mMeasureCursor = null;
+        }
+    }
+
+    @Override
+    public void abort() {
+        super.abort();
+        mRaw.abort();
+    }
+
+    @Override
+    public synchronized int read(long position, byte[] buf, int offset, int length) throws IOException {
+        // サイズを求め終えていなくても 読み込める (ファイル末尾は 伸長できなくなった所で分かる)
+        long size = mSize;
+        if (size >= 0) {
+            if (position >= size) return -1;
+            length = (int)Math.min(length, size - position);
+        }
+
+        Cursor cursor = getCursor(position);
+        int read = 0;
+        while (read < length) {
+            int n = cursor.read(buf, offset + read, length - read);
+            if (n <= 0) break;
+            read += n;
+        }
+        return (read > 0 ? read : -1);
+    }
+
+    /**
+     * 指定位置まで伸長した Cursorを返す
+     * 指定位置の手前にある Cursorがあれば それを進め、なければ 直前のチェックポイントから伸長し直す
+     * @param position 位置 (伸長後のバイト数)
+     * @return Cursor
+     */
+    private Cursor getCursor(long position) throws IOException {
+        int checkpoint;
+        long checkpointOutput;
+        synchronized (mCheckpointLock) {
+            checkpoint = findCheckpoint(position);
+            checkpointOutput = mCheckpointOutputs[checkpoint];
+        }
+
+        Cursor cursor = null;
+        for (Cursor c : mCursors) {
+            long p = c.getPosition();
+            if (p <= position && p >= checkpointOutput && (cursor == null || p > cursor.getPosition())) cursor = c;
+        }
+        if (cursor == null) {
+            // 最も長く使用されていない Cursorを チェックポイントから再開させる
+            cursor = (mCursors.size() < MAX_CURSORS ? new Cursor() : mCursors.get(0));
+            cursor.start(checkpoint);
+        }
+        mCursors.remove(cursor);
+        mCursors.add(cursor);
+        cursor.skipTo(position);
+        return cursor;
+    }
+
+    private int findCheckpoint(long position) {
+        int index = Arrays.binarySearch(mCheckpointOutputs, 0, mCheckpointCount, position);
+        return (index >= 0 ? index : -index - 2);
+    }
+
+    /**
+     * 指定位置に チェックポイントを記録する必要があるか (最後のチェックポイントから CHECKPOINT_INTERVAL以上進んだ位置のみ記録する)
+     * @param output 出力上の位置
+     * @return true: 記録する
+     */
+    private boolean needsCheckpoint(long output) {
+        synchronized (mCheckpointLock) {
+            return mCheckpointCount == 0 || output >= mCheckpointOutputs[mCheckpointCount - 1] + CHECKPOINT_INTERVAL;
+        }
+    }
+
+    /**
+     * チェックポイントを記録する。(最後のチェックポイントから CHECKPOINT_INTERVAL以上進んだ位置のみ)
+     * @param bitPosition 伸長を再開する 入力の位置 (bit)
+     * @param output 出力上の位置
+     * @param window 直前の出力
+     * @param windowLength 直前の出力の長さ
+     */
+    private void addCheckpoint(long bitPosition, long output, byte[] window, int windowLength) throws IOException {
+        synchronized (mCheckpointLock) {
+            if (!needsCheckpoint(output)) return;
+            if (mCheckpointCount == mCheckpointBits.length) {
+                int capacity = mCheckpointCount * 2;
+                mCheckpointBits = Arrays.copyOf(mCheckpointBits, capacity);
+                mCheckpointOutputs = Arrays.copyOf(mCheckpointOutputs, capacity);
+                mWindowLengths = Arrays.copyOf(mWindowLengths, capacity);
+            }
+            if (windowLength > 0) {
+                mWindows.seek((long) mCheckpointCount * DeflateDecoder.WINDOW_SIZE);
+                mWindows.write(window, 0, windowLength);
+            }
+            mCheckpointBits[mCheckpointCount] = bitPosition;
+            mCheckpointOutputs[mCheckpointCount] = output;
+            mWindowLengths[mCheckpointCount] = windowLength;
+            mCheckpointCount++;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // サイズを求めている途中であれば 止める
+        abort();
+        mCursors.clear();
+        try {
+            mRaw.close();
+        } finally {
+            mWindows.close();
+            //noinspection ResultOfMethodCallIgnored
+            mWindowFile.delete();
+        }
+    }
+
+
+    /**
+     * 伸長途中の位置
+     */
+    private class Cursor implements DeflateDecoder.OnBlockListener {
+        private final byte[] mWindow = new byte[ DeflateDecoder.WINDOW_SIZE ];
+        private DeflateDecoder mDecoder = null;
+
+        long getPosition() {
+            return (mDecoder != null ? mDecoder.getPosition() : -1);
+        }
+
+        /**
+         * 次に読む 元のファイル上の位置を返す (読み込み状況の通知に使用する)
+         * @return 位置 (byte)
+         */
+        long getInputPosition() {
+            return (mDecoder != null ? mDecoder.getBitPosition() / 8 : 0);
+        }
+
+        /**
+         * 指定されたチェックポイントから 伸長を再開する
+         * @param checkpoint チェックポイントの番号
+         */
+        void start(int checkpoint) throws IOException {
+            long bitPosition;
+            long output;
+            int windowLength;
+            synchronized (mCheckpointLock) {
+                bitPosition = mCheckpointBits[checkpoint];
+                output = mCheckpointOutputs[checkpoint];
+                windowLength = mWindowLengths[checkpoint];
+                if (windowLength > 0) {
+                    mWindows.seek((long) checkpoint * DeflateDecoder.WINDOW_SIZE);
+                    mWindows.readFully(mWindow, 0, windowLength);
+                }
+            }
+            setDecoder(new DeflateDecoder(mRaw, bitPosition, mRaw.size(), output, mWindow, windowLength));
+        }
+
+        private void setDecoder(DeflateDecoder decoder) {
+            mDecoder = decoder;
+            mDecoder.setOnBlockListener(this);
+        }
+
+        void skipTo(long position) throws IOException {
+            while (mDecoder.getPosition() < position) {
+                if (mDecoder.skip(position - mDecoder.getPosition()) == 0 && !nextMember()) break;
+            }
+        }
+
+        int read(byte[] buf, int offset, int length) throws IOException {
+            while (true) {
+                int read = mDecoder.read(buf, offset, length);
+                if (read > 0 || !nextMember()) return read;
+            }
+        }
+
+        /**
+         * gzipの 後続のメンバーに進む
+         * @return true: 後続のメンバーがあった
+         */
+        private boolean nextMember() throws IOException {
+            if (!mGzip || !mDecoder.isFinished()) return false;
+            long end = (mDecoder.getBitPosition() + 7) / 8;
+            long data = findGzipData(mRaw, end + GZIP_TRAILER_SIZE);
+            if (data < 0) return false;
+            long output = mDecoder.getOutputPosition();
+            addCheckpoint(data * 8, output, null, 0);
+            setDecoder(new DeflateDecoder(mRaw, data * 8, mRaw.size(), output, null, 0));
+            return true;
+        }
+
+        @Override
+        public void onBlockBoundary(DeflateDecoder decoder) {
+            long output = decoder.getOutputPosition();
+            if (!needsCheckpoint(output)) return;
+            try {
+                addCheckpoint(decoder.getBitPosition(), output, mWindow, decoder.copyWindow(mWindow));
+            } catch (IOException e) {
+                // チェックポイントが記録できなくても 伸長は続けられる
+            }
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.util.Arrays;
+
+/**
+ * JSONファイルの 大きなオブジェクト・配列の 開始位置と終了位置の一覧 (JsonIndexerで作成する)
+ *
+ * ツリー表示で 子要素を解析する時に、大きな子要素を 読まずに飛ばすために使用する。
+ * MIN_INDEXED_BYTESより小さい要素は 保持しない。(読んで飛ばしても 時間はかからない)
+ * 開始位置の昇順に プリミティブの long配列で保持する
+ */
+
+public class JsonIndex {
+    final static int MIN_INDEXED_BYTES = 4096;
+
+    private final long[] mStarts;
+    private final long[] mEnds;
+    private final long mIndexedSize;
+
+
+    JsonIndex(long[] starts, long[] ends, long indexedSize) {
+        mStarts = starts;
+        mEnds = ends;
+        mIndexedSize = indexedSize;
+    }
+
+    /**
+     * 索引を作成した時の ファイルサイズを返す
+     * @return ファイルサイズ (byte)
+     */
+    public long getIndexedSize() {
+        return mIndexedSize;
+    }
+
+    /**
+     * 保持している要素の数を返す
+     * @return 要素数
+     */
+    public int getCount() {
+        return mStarts.length;
+    }
+
+    /**
+     * 指定位置から始まる オブジェクト・配列の 終了位置を返す
+     * @param start 開始位置 (「{」または「[」の位置)
+     * @return 終了位置 (閉じの「}」「]」の次の位置)。保持していない場合は -1
+     */
+    public long findEnd(long start) {
+        int i = Arrays.binarySearch(mStarts, start);
+        return (i >= 0 ? mEnds[i] : -1);
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * JSONファイルを 先頭から走査して JsonIndexを作成するクラス
+ *
+ * 文字列の中かどうかと オブジェクト・配列の入れ子のみを追い、値の解析は行わない。
+ * 閉じた時点で MIN_INDEXED_BYTES以上の大きさの要素を記録し、最後に開始位置の順に並べ替える。
+ * (UTF-8のみ対応。他の文字コードでは 文字の一部として「"」や「\」が現れる場合がある)
+ */
+
+public class JsonIndexer implements Runnable {
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int INDEX_BITS = 24;                   // 並べ替えの時に 開始位置と合わせて 1つの long値にする 番号の bit数
+    private final static int MAX_ENTRIES = 1 << INDEX_BITS;
+
+    public interface OnIndexListener {
+        /**
+         * 索引の作成が完了した事を通知する (UIスレッドで呼び出される)
+         * @param index 作成した索引
+         */
+        void onJsonIndexed(JsonIndex index);
+    }
+
+    private final UriSource mSource;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private OnIndexListener mListener = null;
+    private volatile boolean mCanceled = false;
+
+
+    /**
+     * コンストラクタ
+     * @param source 索引を作成するファイル
+     */
+    public JsonIndexer(UriSource source) {
+        mSource = source;
+    }
+
+    public void setOnIndexListener(OnIndexListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * バックグラウンドで 索引の作成を開始する
+     */
+    public void start() {
+        ViewerExecutors.background().execute(this);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    @Override
+    public void run() {
+        final JsonIndex index;
+        try {
+            index = build();
+        } catch (IOException e) {
+            return;
+        }
+        if (index == null) return;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onJsonIndexed(index);
+            }
+        });
+    }
+
+    private JsonIndex build() throws IOException {
+        long size = mSource.size();
+        byte[] buf = new byte[ BUFFER_SIZE ];
+        long[] stack = new long[ 64 ];                          // 閉じていない要素の 開始位置
+        int depth = 0;
+        long[] starts = new long[ 1024 ];
+        long[] ends = new long[ 1024 ];
+        int count = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        long offset = 0;
+        while (offset < size) {
+            if (mCanceled) return null;
+            int read = mSource.read(offset, buf, 0, (int)Math.min(buf.length, size - offset));
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                byte b = buf[i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+                switch (b) {
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                    case '[':
+                        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                        stack[depth++] = offset + i;
+                        break;
+                    case '}':
+                    case ']':
+                        // 対応しない閉じ括弧は 無視する
+                        if (depth == 0) break;
+                        long start = stack[--depth];
+                        long end = offset + i + 1;
+                        if (end - start < JsonIndex.MIN_INDEXED_BYTES || count >= MAX_ENTRIES) break;
+                        if (count == starts.length) {
+                            starts = Arrays.copyOf(starts, count * 2);
+                            ends = Arrays.copyOf(ends, count * 2);
+                        }
+                        starts[count] = start;
+                        ends[count] = end;
+                        count++;
+                        break;
+                }
+            }
+            offset += read;
+        }
+
+        // 閉じた順(終了位置の順)に記録しているので、開始位置と番号を 1つの値にまとめて 開始位置の順に並べ替える
+        long[] keys = new long[ count ];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (starts[i] << INDEX_BITS) | i;
+        }
+        Arrays.sort(keys);
+        long[] sortedStarts = new long[ count ];
+        long[] sortedEnds = new long[ count ];
+        for (int i = 0; i < count; i++) {
+            int n = (int)(keys[i] & (MAX_ENTRIES - 1));
+            sortedStarts[i] = starts[n];
+            sortedEnds[i] = ends[n];
+        }
+        return new JsonIndex(sortedStarts, sortedEnds, size);
+    }
+
+}
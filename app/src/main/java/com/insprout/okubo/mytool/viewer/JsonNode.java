@@ -0,0 +1,48 @@
+package com.insprout.okubo.mytool.viewer;
+
+/**
+ * JSONツリー表示の 1行 (1つの値) を表すクラス
+ *
+ * 値の内容は 表示用の先頭部分のみを保持し、オブジェクト・配列の子要素は 展開された時に ファイルから解析する。
+ */
+
+class JsonNode {
+    final static int TYPE_OBJECT = 0;
+    final static int TYPE_ARRAY = 1;
+    final static int TYPE_STRING = 2;
+    final static int TYPE_NUMBER = 3;
+    final static int TYPE_LITERAL = 4;                          // true / false / null
+    final static int TYPE_MORE = 5;                             // 表示しきれなかった 残りの子要素 (タップで続きを解析する)
+    final static long END_UNKNOWN = -1;                         // 終了位置を まだ求めていない (大きなオブジェクト・配列)
+
+    final int depth;
+    final String key;                                           // オブジェクトの子要素の場合は キー、それ以外は null
+    final int type;
+    final String preview;                                       // 値の表示用文字列 (オブジェクト・配列の場合は null)
+    final long start;                                           // 値の開始位置 (TYPE_MOREの場合は 続きを解析する位置)
+    // 値の終了位置 (TYPE_MOREの場合は 親要素の終了位置)。END_UNKNOWNの場合は JsonIndexが作成された時に設定する
+    // TYPE_MOREで END_UNKNOWNの場合は、startから始まる 終了位置の分からない値の 次から続きを解析する
+    long end;
+    final int nextIndex;                                        // TYPE_MOREの場合の 次の子要素の番号
+    boolean expanded = false;
+
+
+    JsonNode(int depth, String key, int type, String preview, long start, long end, int nextIndex) {
+        this.depth = depth;
+        this.key = key;
+        this.type = type;
+        this.preview = preview;
+        this.start = start;
+        this.end = end;
+        this.nextIndex = nextIndex;
+    }
+
+    /**
+     * 展開可能な値かどうかを返す
+     * @return true: オブジェクトもしくは配列
+     */
+    boolean isContainer() {
+        return (type == TYPE_OBJECT || type == TYPE_ARRAY);
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSONファイルの オブジェクト・配列の 直下の子要素のみを解析するクラス (UTF-8のみ対応)
+ *
+ * 子要素が オブジェクト・配列の場合は 中身を解析せずに 終了位置まで飛ばす。
+ * JsonIndexに終了位置があれば 読まずに飛ばし、なければ 括弧の対応を数えながら読み飛ばす。
+ * JsonIndexの作成前は 読み飛ばすのは MAX_SKIP_BYTESまでとし、それより大きな要素は 終了位置を求めずに
+ * 以降の子要素の解析を 続きの行(TYPE_MORE)として保留する。(ファイル全体を読まないと 最初の画面を表示できない事がないように)
+ * 構文の誤りは 可能な範囲で読み飛ばし、例外にはしない。(表示できる所までを表示する)
+ */
+
+class JsonParser {
+    final static int MAX_CHILDREN = 500;                        // 1回に解析する 子要素の最大数 (残りは TYPE_MOREの行にする)
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int PREVIEW_BYTES = 256;               // 値の表示用に読み込む 最大サイズ (byte)
+    private final static int MAX_SKIP_BYTES = 1024 * 1024;      // 索引がない場合に 括弧の対応を数えて読み飛ばす 最大サイズ (byte)
+    private final static String ELLIPSIS = "…";
+
+    private final UriSource mSource;
+    private final JsonIndex mIndex;
+    private final long mSize;
+    private final byte[] mBuf = new byte[ BUFFER_SIZE ];
+    private long mBufStart = 0;
+    private int mBufLength = 0;
+    private final CharsetDecoder mDecoder = Charset.forName("UTF-8").newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+
+    /**
+     * コンストラクタ
+     * @param source ファイル
+     * @param index 大きな要素の索引。作成されていない場合は null
+     * @param size 解析する範囲 (ファイルサイズ)
+     */
+    JsonParser(UriSource source, JsonIndex index, long size) {
+        mSource = source;
+        mIndex = index;
+        mSize = size;
+    }
+
+    /**
+     * 子要素を解析する
+     * @param parent 親要素。nullの場合は ファイル全体(トップレベルの値。NDJSONの場合は 複数になる)
+     * @param from 解析を開始する位置 (親要素の「{」「[」の次の位置、もしくは 前回解析を終えた位置)
+     * @param firstIndex 最初の子要素の番号
+     * @return 子要素。MAX_CHILDRENを超えた場合は 最後に TYPE_MOREの行を追加する
+     * @throws IOException 読み込みエラー
+     */
+    List<JsonNode> parseChildren(JsonNode parent, long from, int firstIndex) throws IOException {
+        List<JsonNode> children = new ArrayList<>();
+        int depth = (parent != null ? parent.depth + 1 : 0);
+        // 親要素の 閉じ括弧の手前までを解析する (終了位置が分からない場合は 閉じ括弧が現れるまで)
+        boolean openEnded = (parent != null && parent.end == JsonNode.END_UNKNOWN);
+        long limit = (parent != null && !openEnded ? Math.min(parent.end - 1, mSize) : mSize);
+        boolean object = (parent != null && parent.type == JsonNode.TYPE_OBJECT);
+
+        long pos = from;
+        int n = firstIndex;
+        while (true) {
+            pos = skipSeparators(pos, limit);
+            if (pos >= limit) break;
+            int b = byteAt(pos);
+            if (b < 0) break;
+            // 対応しない閉じ括弧は 読み飛ばす
+            if (b == '}' || b == ']') {
+                if (openEnded) break;
+                pos++;
+                continue;
+            }
+            if (children.size() >= MAX_CHILDREN) {
+                children.add(new JsonNode(depth, null, JsonNode.TYPE_MORE, null, pos, limit, n));
+                break;
+            }
+
+            String key = null;
+            if (object) {
+                if (b == '"') {
+                    long keyEnd = skipString(pos, limit);
+                    key = readString(pos, keyEnd);
+                    pos = skipWhitespace(keyEnd, limit);
+                    if (pos < limit && byteAt(pos) == ':') pos = skipWhitespace(pos + 1, limit);
+                }
+            } else if (parent != null) {
+                key = "[" + n + "]";
+            }
+            if (pos >= limit) break;
+
+            b = byteAt(pos);
+            JsonNode node;
+            if (b == '{' || b == '[') {
+                long end = findEnd(pos, limit, mIndex != null ? limit : Math.min(limit, pos + MAX_SKIP_BYTES));
+                node = new JsonNode(depth, key, (b == '{' ? JsonNode.TYPE_OBJECT : JsonNode.TYPE_ARRAY), null, pos, end, 0);
+                if (end == JsonNode.END_UNKNOWN) {
+                    // 終了位置が分からないので 以降の子要素は 続きの行とする
+                    children.add(node);
+                    children.add(new JsonNode(depth, null, JsonNode.TYPE_MORE, null, pos, JsonNode.END_UNKNOWN, n + 1));
+                    break;
+                }
+            } else if (b == '"') {
+                long end = skipString(pos, limit);
+                node = new JsonNode(depth, key, JsonNode.TYPE_STRING, "\"" + readString(pos, end) + "\"", pos, end, 0);
+            } else {
+                long end = skipScalar(pos, limit);
+                int type = (b == '-' || (b >= '0' && b <= '9') ? JsonNode.TYPE_NUMBER : JsonNode.TYPE_LITERAL);
+                node = new JsonNode(depth, key, type, readScalar(pos, end), pos, end, 0);
+            }
+            children.add(node);
+            pos = node.end;
+            n++;
+        }
+        return children;
+    }
+
+    /**
+     * 終了位置の分からない値の 次の位置を返す (続きの行を解析する時に 呼び出す)
+     * 索引があれば 索引から求め、なければ 括弧の対応を数えながら 最後まで読み飛ばす
+     * @param pos 値の開始位置 (「{」「[」の位置)
+     * @return 値の終了位置。閉じられていない場合は ファイルサイズ
+     */
+    long skipValue(long pos) throws IOException {
+        return findEnd(pos, mSize, mSize);
+    }
+
+    /**
+     * オブジェクト・配列の 終了位置を求める
+     * @param pos 開始の「{」「[」の位置
+     * @param limit 解析する範囲の終了位置
+     * @param scanLimit 括弧の対応を数えて読み飛ばす 範囲の終了位置
+     * @return 閉じ括弧の次の位置。scanLimitまでに 閉じられていない場合は END_UNKNOWN (scanLimitが limitの場合は limit)
+     */
+    private long findEnd(long pos, long limit, long scanLimit) throws IOException {
+        long end = (mIndex != null ? mIndex.findEnd(pos) : -1);
+        if (end >= 0 && end <= limit) return end;
+        end = skipContainer(pos, scanLimit);
+        return (end >= scanLimit && scanLimit < limit ? JsonNode.END_UNKNOWN : end);
+    }
+
+    /**
+     * 指定位置の 1byteを返す
+     * @return 値 (0～255)。範囲外の場合は -1
+     */
+    private int byteAt(long pos) throws IOException {
+        if (pos < mBufStart || pos >= mBufStart + mBufLength) {
+            if (pos < 0 || pos >= mSize) return -1;
+            mBufStart = pos;
+            mBufLength = Math.max(mSource.read(pos, mBuf, 0, (int)Math.min(mBuf.length, mSize - pos)), 0);
+            if (mBufLength == 0) return -1;
+        }
+        return mBuf[(int)(pos - mBufStart)] & 0xff;
+    }
+
+    private long skipWhitespace(long pos, long limit) throws IOException {
+        while (pos < limit) {
+            int b = byteAt(pos);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') break;
+            pos++;
+        }
+        return pos;
+    }
+
+    private long skipSeparators(long pos, long limit) throws IOException {
+        while (pos < limit) {
+            int b = byteAt(pos);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != ',') break;
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * 文字列を読み飛ばす
+     * @param pos 開始の「"」の位置
+     * @return 閉じの「"」の次の位置。閉じられていない場合は limit
+     */
+    private long skipString(long pos, long limit) throws IOException {
+        boolean escaped = false;
+        for (pos++; pos < limit; pos++) {
+            int b = byteAt(pos);
+            if (b < 0) break;
+            if (escaped) {
+                escaped = false;
+            } else if (b == '\\') {
+                escaped = true;
+            } else if (b == '"') {
+                return pos + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * オブジェクト・配列を 括弧の対応を数えながら読み飛ばす
+     * @param pos 開始の「{」「[」の位置
+     * @return 閉じ括弧の次の位置。閉じられていない場合は limit
+     */
+    private long skipContainer(long pos, long limit) throws IOException {
+        int nest = 0;
+        while (pos < limit) {
+            int b = byteAt(pos);
+            if (b < 0) break;
+            if (b == '"') {
+                pos = skipString(pos, limit);
+                continue;
+            }
+            pos++;
+            if (b == '{' || b == '[') {
+                nest++;
+            } else if (b == '}' || b == ']') {
+                if (--nest == 0) return pos;
+            }
+        }
+        return limit;
+    }
+
+    private long skipScalar(long pos, long limit) throws IOException {
+        while (pos < limit) {
+            int b = byteAt(pos);
+            if (b < 0 || b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n') break;
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * 数値・true/false/null の 表示用文字列を読み込む
+     */
+    private String readScalar(long start, long end) throws IOException {
+        int length = (int)Math.min(end - start, PREVIEW_BYTES);
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) byteAt(start + i));
+        }
+        if (end - start > length) text.append(ELLIPSIS);
+        return text.toString();
+    }
+
+    /**
+     * 文字列の 表示用文字列を読み込む (エスケープは 元の文字に戻す)
+     * @param start 開始の「"」の位置
+     * @param end 閉じの「"」の次の位置
+     * @return 囲みの「"」を除いた文字列
+     */
+    private String readString(long start, long end) throws IOException {
+        long contentEnd = (end - 1 > start && byteAt(end - 1) == '"' ? end - 1 : end);
+        int length = (int)Math.min(contentEnd - (start + 1), PREVIEW_BYTES);
+        boolean truncated = (contentEnd - (start + 1) > length);
+        byte[] bytes = new byte[ length ];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) byteAt(start + 1 + i);
+        }
+        // 途中で切った場合は UTF-8の 文字の途中で切らないようにする
+        if (truncated) {
+            while (length > 0 && (byteAt(start + 1 + length) & 0xc0) == 0x80) length--;
+        }
+
+        String raw;
+        try {
+            raw = mDecoder.reset().decode(ByteBuffer.wrap(bytes, 0, length)).toString();
+        } catch (CharacterCodingException e) {
+            raw = "";
+        }
+        String text = unescape(raw);
+        return (truncated ? text + ELLIPSIS : text);
+    }
+
+    private static String unescape(String raw) {
+        if (raw.indexOf('\\') < 0) return raw;
+
+        StringBuilder text = new StringBuilder(raw.length());
+        int length = raw.length();
+        for (int i = 0; i < length; i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= length) {
+                text.append(c);
+                continue;
+            }
+            char e = raw.charAt(++i);
+            switch (e) {
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 < length) {
+                        try {
+                            text.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException ex) {
+                            // 不正な値は そのまま表示する
+                        }
+                    }
+                    text.append('\\').append(e);
+                    break;
+                default:
+                    // 「"」「\」「/」は その文字自身
+                    text.append(e);
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+}
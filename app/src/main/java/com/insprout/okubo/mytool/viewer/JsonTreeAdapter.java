@@ -0,0 +1,339 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.Formatter;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JSONファイルを ツリー形式で ListViewに表示するための Adapter (UTF-8のみ対応)
+ *
+ * 展開されている要素の 子要素のみを 行として保持し、展開された時に I/Oスレッドで 直下の子要素のみを解析する。
+ * (ファイル全体を解析することはなく、閉じた要素の行は 破棄する)
+ * 大きな要素を読み飛ばすための索引(JsonIndex)は バックグラウンドで作成し、作成後の展開から使用する。
+ * 行は 開始位置の順に並んでいるので、ファイル内の位置から 行を二分探索で求められる。
+ */
+
+public class JsonTreeAdapter extends BaseAdapter implements JsonIndexer.OnIndexListener {
+    private final static int MAX_INDENT_DEPTH = 16;             // 字下げする 最大の深さ
+    private final static float DIP_INDENT = 16.0f;              // 1段の字下げ幅
+    private final static String MARKER_COLLAPSED = "▶";
+    private final static String MARKER_EXPANDED = "▼";
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
+    private final int mLayoutId;
+    private final int mMarkerId;
+    private final int mTextId;
+    private final int mIndent;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<JsonNode> mRows = new ArrayList<>();     // 表示中の行 (開始位置の順)
+    private final Set<JsonNode> mRequested = new HashSet<>();   // 解析要求中の行
+    private UriSource mSource = null;
+    private long mSize = 0;
+    private JsonIndexer mIndexer = null;
+    private JsonIndex mIndex = null;
+    private float mTextSize = 18.0f;                            // 文字サイズ (sp単位)
+    private String mMoreLabelFormat = "(+%d)";                  // 残りの子要素の行の表示形式 (引数は 次の子要素の番号)
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param layoutId 1行を表示するレイアウトID
+     * @param markerId レイアウト内の 展開状態を表示する TextViewのID
+     * @param textId レイアウト内の キーと値を表示する TextViewのID
+     */
+    public JsonTreeAdapter(Context context, int layoutId, int markerId, int textId) {
+        mContext = context.getApplicationContext();
+        mInflater = LayoutInflater.from(context);
+        mLayoutId = layoutId;
+        mMarkerId = markerId;
+        mTextId = textId;
+        mIndent = (int)(DIP_INDENT * context.getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * 表示するファイルを設定する (UriSourceは 呼び出し元が管理するので closeしない)
+     * トップレベルの値が 1つだけの オブジェクト・配列であれば 展開して表示する
+     * @param source ファイル。nullの場合は 表示を消去する
+     * @param size ファイルサイズ (以降に追加された部分は 表示しない)
+     */
+    public void setSource(final UriSource source, final long size) {
+        if (mIndexer != null) {
+            mIndexer.cancel();
+            mIndexer = null;
+        }
+        mSource = source;
+        mSize = size;
+        mIndex = null;
+        mRows.clear();
+        mRequested.clear();
+        notifyDataSetChanged();
+        if (source == null) return;
+
+        mIndexer = new JsonIndexer(source);
+        mIndexer.setOnIndexListener(this);
+        mIndexer.start();
+
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<JsonNode> rows = new ArrayList<>();
+                try {
+                    // 索引の作成を待たずに解析する (大きな要素は 終了位置を求めずに 索引の作成後に求める)
+                    JsonParser parser = new JsonParser(source, null, size);
+                    rows.addAll(parser.parseChildren(null, 0, 0));
+                    // 終了位置が分からないため 以降が続きの行になった場合も、トップレベルの値は 1つとみなす
+                    boolean single = (rows.size() == 1
+                            || (rows.size() == 2 && rows.get(1).type == JsonNode.TYPE_MORE && rows.get(1).end == JsonNode.END_UNKNOWN));
+                    if (single && rows.get(0).isContainer()) {
+                        JsonNode root = rows.get(0);
+                        rows.addAll(1, parser.parseChildren(root, root.start + 1, 0));
+                        root.expanded = true;
+                    }
+                } catch (IOException e) {
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (source != mSource) return;
+                        mRows.addAll(rows);
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 表示しているファイルのサイズを返す
+     * @return setSource()で設定したサイズ
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * 残りの子要素の行の 表示形式を設定する
+     * @param format 表示形式 (引数は 次の子要素の番号)
+     */
+    public void setMoreLabelFormat(String format) {
+        mMoreLabelFormat = format;
+    }
+
+    /**
+     * 文字サイズを設定する
+     * @param textSize 文字サイズ (sp単位)
+     */
+    public void setTextSize(float textSize) {
+        mTextSize = textSize;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onJsonIndexed(JsonIndex index) {
+        // 作成中に 別のファイルに切り替わった場合は 使用しない
+        if (mSource == null || index.getIndexedSize() < mSize) return;
+        mIndex = index;
+        mIndexer = null;
+
+        // 終了位置を求めずにおいた要素は 索引から求め、保留していた 続きの行を解析する
+        for (JsonNode node : mRows) {
+            if (node.end != JsonNode.END_UNKNOWN || node.type == JsonNode.TYPE_MORE) continue;
+            long end = index.findEnd(node.start);
+            if (end >= 0) node.end = end;
+        }
+        for (int i = mRows.size() - 1; i >= 0; i--) {
+            JsonNode node = mRows.get(i);
+            if (node.type == JsonNode.TYPE_MORE && node.end == JsonNode.END_UNKNOWN) {
+                requestChildren(node, findParent(i), node.start, node.nextIndex);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 行の展開状態を切り替える。残りの子要素の行の場合は 続きを解析する
+     * @param position 行の位置
+     */
+    public void toggle(int position) {
+        if (position < 0 || position >= mRows.size()) return;
+        JsonNode node = mRows.get(position);
+        if (node.type == JsonNode.TYPE_MORE) {
+            requestChildren(node, findParent(position), node.start, node.nextIndex);
+        } else if (node.isContainer()) {
+            if (node.expanded) {
+                collapse(position);
+            } else {
+                requestChildren(node, node, node.start + 1, 0);
+            }
+        }
+    }
+
+    /**
+     * 指定位置を含む行を返す
+     * @param offset ファイル内の位置
+     * @return 開始位置が offset以前の 最後の行の位置。行がない場合は -1
+     */
+    public int findRow(long offset) {
+        int low = 0;
+        int high = mRows.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mRows.get(mid).start <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (found >= 0 || mRows.isEmpty() ? found : 0);
+    }
+
+    /**
+     * 行の ファイル内の位置を返す
+     * @param position 行の位置
+     * @return 値の開始位置。行がない場合は -1
+     */
+    public long getRowOffset(int position) {
+        return (position >= 0 && position < mRows.size() ? mRows.get(position).start : -1);
+    }
+
+    private void collapse(int position) {
+        JsonNode node = mRows.get(position);
+        int end = position + 1;
+        while (end < mRows.size() && mRows.get(end).depth > node.depth) end++;
+        mRows.subList(position + 1, end).clear();
+        node.expanded = false;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 子要素の解析を I/Oスレッドで行い、解析後に 行を置き換える
+     * @param target 解析後に 子要素の行を追加する行 (展開する行、もしくは 残りの子要素の行)
+     * @param parent 親要素 (nullの場合は ファイル全体)
+     * @param from 解析を開始する位置
+     * @param firstIndex 最初の子要素の番号
+     */
+    private void requestChildren(final JsonNode target, final JsonNode parent, final long from, final int firstIndex) {
+        final UriSource source = mSource;
+        if (source == null || !mRequested.add(target)) return;
+
+        final JsonIndex index = mIndex;
+        final long size = mSize;
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<JsonNode> parsed;
+                try {
+                    JsonParser parser = new JsonParser(source, index, size);
+                    // 終了位置の分からない値の 続きの場合は、その値を読み飛ばした位置から解析する
+                    long start = (target.type == JsonNode.TYPE_MORE && target.end == JsonNode.END_UNKNOWN
+                            ? parser.skipValue(from) : from);
+                    parsed = parser.parseChildren(parent, start, firstIndex);
+                } catch (IOException e) {
+                    parsed = null;
+                }
+                final List<JsonNode> children = parsed;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (source != mSource || !mRequested.remove(target) || children == null) return;
+                        // 解析中に 閉じられた(行が破棄された)場合は 何もしない
+                        int position = mRows.indexOf(target);
+                        if (position < 0) return;
+                        if (target.type == JsonNode.TYPE_MORE) {
+                            mRows.remove(position);
+                            mRows.addAll(position, children);
+                        } else {
+                            mRows.addAll(position + 1, children);
+                            target.expanded = true;
+                        }
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 親要素の行を返す (自身より浅い 直前の行)
+     * @return 親要素。トップレベルの場合は null
+     */
+    private JsonNode findParent(int position) {
+        int depth = mRows.get(position).depth;
+        for (int i = position - 1; i >= 0; i--) {
+            if (mRows.get(i).depth < depth) return mRows.get(i);
+        }
+        return null;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mRows.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) view = mInflater.inflate(mLayoutId, parent, false);
+        TextView markerView = view.findViewById(mMarkerId);
+        TextView textView = view.findViewById(mTextId);
+        markerView.setTextSize(TypedValue.COMPLEX_UNIT_SP, mTextSize);
+        textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, mTextSize);
+
+        JsonNode node = mRows.get(position);
+        markerView.setPaddingRelative(Math.min(node.depth, MAX_INDENT_DEPTH) * mIndent, 0, 0, 0);
+        markerView.setText(node.isContainer() ? (node.expanded ? MARKER_EXPANDED : MARKER_COLLAPSED) : null);
+        textView.setText(getLabel(node));
+        return view;
+    }
+
+    private String getLabel(JsonNode node) {
+        if (node.type == JsonNode.TYPE_MORE) return String.format(mMoreLabelFormat, node.nextIndex);
+
+        StringBuilder label = new StringBuilder();
+        if (node.key != null) label.append(node.key).append(": ");
+        switch (node.type) {
+            case JsonNode.TYPE_OBJECT:
+            case JsonNode.TYPE_ARRAY:
+                // 子要素は 展開するまで解析しないので、要素数の代わりに 大きさを表示する
+                label.append(node.type == JsonNode.TYPE_OBJECT ? "{…}" : "[…]");
+                // 終了位置を まだ求めていない場合は 大きさを表示しない
+                if (node.end != JsonNode.END_UNKNOWN) {
+                    label.append("  ").append(Formatter.formatShortFileSize(mContext, node.end - node.start));
+                }
+                break;
+            default:
+                label.append(node.preview);
+                break;
+        }
+        return label.toString();
+    }
+
+}
@@ -0,0 +1,444 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 文字列(または正規表現)に一致する行のみを抽出するクラス (grepのような動作)
+ *
+ * ファイルを一定サイズごとに分割して CPUのコア数分 並列に調べ、一致した行の行番号と開始位置を
+ * 先頭から順に FilterResultに追加するので、絞り込み途中でも それまでの結果を表示できる。
+ * 文字列は LiteralSearcherと同様に デコードせずに byte列のまま検索し、正規表現は 区間ごとにデコードして検索する。
+ * (区間の終わりをまたぐ行は 区間の後ろを MAX_LINE_EXTENSIONまで読み足して調べる。それより長い行の残りの部分は 次の区間で調べる)
+ *
+ * 絞り込みが完了した後に start()を呼び出すと、ファイルに追記された部分のみを 絞り込んで追加する
+ */
+
+public class LineFilter implements Runnable {
+    private final static int CHUNK_SIZE = 1024 * 1024;          // 並列に調べる単位 (byte)
+    private final static int MAX_LINE_EXTENSION = CHUNK_SIZE;   // 区間の後ろに読み足す 最大サイズ (byte)
+    private final static int BUFFER_SIZE = 4096;
+    private final static int INITIAL_CHUNK_HITS = 256;
+    private final static long INTERVAL_NOTIFY = 200;            // 進捗の通知間隔 (msec)
+    private final static char REPLACEMENT_CHAR = '\uFFFD';
+
+    public interface OnFilterListener {
+        /**
+         * 絞り込みの状況を通知する (UIスレッドで呼び出される)
+         * @param result 絞り込みの結果 (絞り込み途中の場合は その時点までの結果)
+         * @param scannedBytes 絞り込み済みのバイト数
+         */
+        void onFilterUpdated(FilterResult result, long scannedBytes);
+    }
+
+    private final UriSource mSource;
+    private final String mCharSet;
+    private final byte[] mBytePattern;                          // 文字列で絞り込む場合の byte列 (正規表現の場合は null)
+    private final Pattern mPattern;                             // 正規表現で絞り込む場合の パターン (文字列の場合は null)
+    private final FilterResult mResult;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mRunning = new AtomicBoolean(false);
+    private OnFilterListener mListener = null;
+    private volatile boolean mRestart = false;
+    private volatile boolean mCanceled = false;
+
+
+    /**
+     * コンストラクタ
+     * @param source 絞り込むファイル
+     * @param query 一致させる文字列 (または正規表現)
+     * @param regex true: queryを正規表現として扱う
+     * @param charSet ファイルの文字コード
+     * @throws PatternSyntaxException 正規表現の構文が正しくない場合
+     */
+    public LineFilter(UriSource source, String query, boolean regex, String charSet) {
+        mSource = source;
+        mCharSet = charSet;
+        mResult = new FilterResult(query);
+        if (regex) {
+            mPattern = Pattern.compile(query, Pattern.MULTILINE);
+            mBytePattern = null;
+        } else {
+            mPattern = null;
+            mBytePattern = LiteralSearcher.encodePattern(query, charSet);
+        }
+    }
+
+    public FilterResult getResult() {
+        return mResult;
+    }
+
+    public void setOnFilterListener(OnFilterListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * バックグラウンドで 絞り込みを開始する
+     * 絞り込み済みの場合は 追記された部分のみを絞り込む。(絞り込み中の場合は 完了した後に 続けて絞り込む)
+     */
+    public void start() {
+        if (mCanceled) return;
+        if (mRunning.compareAndSet(false, true)) {
+            ViewerExecutors.background().execute(this);
+        } else {
+            mRestart = true;
+        }
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    @Override
+    public void run() {
+        do {
+            mRestart = false;
+            filter();
+        } while (mRestart && !mCanceled);
+        mRunning.set(false);
+    }
+
+    /**
+     * 絞り込み済みの範囲から ファイル末尾までを絞り込んで、一致した行を FilterResultに追加する
+     */
+    private void filter() {
+        FilterResult result = mResult;
+        long start = result.getScannedSize();
+        int lineCount = result.getScannedLines();
+        long scanned = start;
+        long lastLineStart = start;
+        boolean endsWithNewline = true;
+        boolean failed = false;
+        ViewerExecutors.OrderedChunks<Hits> chunks = null;
+        try {
+            final long size = mSource.size();
+            if (start >= size && result.isCompleted()) return;
+            // 前回 末尾の改行で終わっていなかった行は 追記された内容を含めて 調べ直す
+            result.removeFrom(start);
+            result.setCompleted(false);
+
+            int chunkCount = (int)((size - start + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            long notified = SystemClock.uptimeMillis();
+
+            // 区間ごとに並列に調べ、結果は先頭から順に追加する
+            final long first = start;
+            chunks = new ViewerExecutors.OrderedChunks<>(chunkCount, new ViewerExecutors.ChunkTask<Hits>() {
+                @Override
+                public Hits call(int chunk) throws IOException {
+                    long from = first + (long)chunk * CHUNK_SIZE;
+                    return filterChunk(from, Math.min(from + CHUNK_SIZE, size), size);
+                }
+            });
+            for (int chunk = 0; chunks.hasNext() && !mCanceled; chunk++) {
+                Hits hits = chunks.next();
+                // 前の区間から続く行の 残りの部分で一致した場合は、まだ追加していなければ その行を追加する
+                if (hits.openLineMatched && lineCount > 0) {
+                    int count = result.getCount();
+                    if (count == 0 || result.getOffset(count - 1) != lastLineStart) result.add(lineCount - 1, lastLineStart);
+                }
+                for (int i = 0; i < hits.count; i++) {
+                    result.add(lineCount + hits.lines[i], hits.offsets[i]);
+                }
+                lineCount += hits.lineCount;
+                if (hits.lastLineStart >= 0) lastLineStart = hits.lastLineStart;
+                endsWithNewline = hits.endsWithNewline;
+                scanned = Math.min(start + (long)(chunk + 1) * CHUNK_SIZE, size);
+
+                long now = SystemClock.uptimeMillis();
+                if (now - notified >= INTERVAL_NOTIFY || (hits.count > 0 && result.getCount() == hits.count)) {
+                    notified = now;
+                    notifyUpdated(scanned);
+                }
+            }
+
+        } catch (IOException e) {
+            // 読み込めなかった区間の手前 (最後まで調べられた区間) までの結果とする
+            failed = true;
+        } catch (InterruptedException e) {
+            mCanceled = true;
+        } finally {
+            if (chunks != null) chunks.cancel();
+        }
+
+        if (mCanceled) return;
+        // 改行で終わっていない末尾の行は、追記された場合に 調べ直す
+        if (endsWithNewline) {
+            result.setScanned(scanned, lineCount);
+        } else {
+            result.setScanned(lastLineStart, lineCount - 1);
+        }
+        // 読み込めなかった場合は 未完了のままとする (次に start()を呼び出した時に 続きから絞り込む)
+        if (!failed) result.setCompleted(true);
+        notifyUpdated(scanned);
+    }
+
+    /**
+     * 指定範囲に開始位置がある行のうち、一致する行を求める
+     * @param start 開始位置
+     * @param end 終了位置
+     * @param size ファイルサイズ
+     * @return 一致した行 (行番号は 区間の最初の行を 0とする)
+     */
+    private Hits filterChunk(long start, long end, long size) throws IOException {
+        Hits hits = new Hits();
+        // 直前の byteが改行であれば startが行頭となるので、1byte前から読み込む
+        long readFrom = Math.max(start - 1, 0);
+        byte[] buf = new byte[ (int)(end - readFrom) + BUFFER_SIZE ];
+        int length = readFully(readFrom, buf, 0, (int)(end - readFrom));
+        int chunkEnd = length;                                  // この位置より前に開始する行が 区間に含まれる
+        // 途中までしか読み込めなかった区間は 行数も数えられないので、エラーとして 絞り込みを止める
+        if (length < end - readFrom) throw new IOException("short read at " + (readFrom + length));
+        if (mCanceled) return hits;
+
+        // 区間の最後の行の 残りの部分を読み足す
+        if (buf[chunkEnd - 1] != '\n') {
+            long limit = Math.min(end + MAX_LINE_EXTENSION, size);
+            while (readFrom + length < limit) {
+                if (length == buf.length) buf = Arrays.copyOf(buf, buf.length + BUFFER_SIZE * 4);
+                int read = readFully(readFrom + length, buf, length, (int)Math.min(buf.length - length, limit - readFrom - length));
+                if (read <= 0) throw new IOException("short read at " + (readFrom + length));
+                int newline = indexOfNewline(buf, length, length + read);
+                length = (newline >= 0 ? newline + 1 : length + read);
+                if (newline >= 0) break;
+            }
+        }
+
+        // 区間内の行数と 最後の行の開始位置を求める
+        int first = -1;
+        for (int i = (int)(start - readFrom); i < chunkEnd; i++) {
+            if (i == 0 ? readFrom == 0 : buf[i - 1] == '\n') {
+                if (first < 0) first = i;
+                hits.lineCount++;
+                hits.lastLineStart = readFrom + i;
+            }
+        }
+        hits.endsWithNewline = (buf[chunkEnd - 1] == '\n');
+
+        // 区間の先頭が 前の区間から続く行の途中であれば、その行の 区間内の部分も調べる
+        // (前の区間では MAX_LINE_EXTENSIONまでしか 読み足さないので、それより長い行は ここで調べないと 一致を見落とす)
+        int head = (int)(start - readFrom);
+        if (first != head) {
+            int lineEnd = (first >= 0 ? first : length);
+            if (mPattern != null) {
+                hits.openLineMatched = matchesRegex(buf, head, lineEnd);
+            } else if (mBytePattern.length > 0) {
+                hits.openLineMatched = matchesLiteral(buf, head, lineEnd, length, readFrom);
+            }
+        }
+        if (first < 0) return hits;
+
+        if (mPattern != null) {
+            filterRegex(hits, buf, first, chunkEnd, length, readFrom);
+        } else if (mBytePattern.length > 0) {
+            filterLiteral(hits, buf, first, chunkEnd, length, readFrom);
+        }
+        return hits;
+    }
+
+    /**
+     * 文字列に一致する行を byte列のまま検索する
+     * @param hits 一致した行の追加先
+     * @param buf 読み込んだ byte列
+     * @param first 区間の最初の行の開始位置 (bufの中の位置)
+     * @param chunkEnd この位置より前に開始する行が 区間に含まれる
+     * @param length 読み込んだ長さ
+     * @param base bufの先頭の ファイル上の位置
+     */
+    private void filterLiteral(Hits hits, byte[] buf, int first, int chunkEnd, int length, long base) {
+        ByteSearcher searcher = new ByteSearcher(mBytePattern);
+        int line = 0;
+        int lineStart = first;
+        int counted = first;
+        int pos = first;
+        while (!mCanceled && pos < chunkEnd) {
+            int hit = searcher.indexOf(buf, pos, length);
+            if (hit < 0) break;
+
+            // 一致した位置を含む行まで 改行を数える
+            for (int i = counted; i < hit; i++) {
+                if (buf[i] != '\n') continue;
+                line++;
+                lineStart = i + 1;
+            }
+            counted = hit;
+            if (lineStart >= chunkEnd) break;
+
+            // 多バイト文字の 2byte目以降から始まる一致は除外する (行頭の直前の改行から 文字の区切りをたどる)
+            if (!CharBoundary.isCharStart(buf, hit, base == 0, mCharSet)) {
+                pos = hit + 1;
+                continue;
+            }
+            hits.add(line, base + lineStart);
+
+            // 同じ行の 2つ目以降の一致は調べずに 次の行から検索する
+            pos = indexOfNewline(buf, hit, length);
+            if (pos < 0) break;
+            pos++;
+        }
+    }
+
+    /**
+     * 正規表現に一致する行を 区間をデコードして検索する
+     * @param hits 一致した行の追加先
+     * @param buf 読み込んだ byte列
+     * @param first 区間の最初の行の開始位置 (bufの中の位置)
+     * @param chunkEnd この位置より前に開始する行が 区間に含まれる
+     * @param length 読み込んだ長さ
+     * @param base bufの先頭の ファイル上の位置
+     */
+    private void filterRegex(Hits hits, byte[] buf, int first, int chunkEnd, int length, long base) {
+        CharBuffer chars;
+        try {
+            chars = Charset.forName(mCharSet).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(ByteBuffer.wrap(buf, first, length - first));
+        } catch (CharacterCodingException e) {
+            // REPLACEを指定しているので 発生しない
+            return;
+        }
+
+        // 一致した位置の行を 文字列と byte列の両方で 先頭から順にたどって求める
+        // (改行コード(0x0A)は byte列と文字列で 同じ順に現れる)
+        int line = 0;
+        int lineByte = first;
+        int checkedChar = 0;
+        int from = 0;
+        Matcher matcher = mPattern.matcher(chars);
+        while (!mCanceled && from <= chars.length() && matcher.find(from)) {
+            int matchStart = matcher.start();
+            for (int i = checkedChar; i < matchStart; i++) {
+                if (chars.get(i) != '\n') continue;
+                line++;
+                int newline = (lineByte >= 0 ? indexOfNewline(buf, lineByte, length) : -1);
+                lineByte = (newline >= 0 ? newline + 1 : -1);
+            }
+            checkedChar = matchStart;
+            if (lineByte < 0 || lineByte >= chunkEnd) break;
+            hits.add(line, base + lineByte);
+
+            // 同じ行の 2つ目以降の一致は調べずに 次の行から検索する
+            int next = matchStart;
+            while (next < chars.length() && chars.get(next) != '\n') next++;
+            if (next >= chars.length()) break;
+            from = next + 1;
+        }
+    }
+
+    /**
+     * 行の途中から始まる範囲に 文字列に一致する位置があるか調べる
+     * @param buf 読み込んだ byte列
+     * @param from 開始位置
+     * @param to この位置より前に開始する一致を調べる
+     * @param length 読み込んだ長さ
+     * @param base bufの先頭の ファイル上の位置
+     * @return true: 一致する位置がある
+     */
+    private boolean matchesLiteral(byte[] buf, int from, int to, int length, long base) {
+        ByteSearcher searcher = new ByteSearcher(mBytePattern);
+        int pos = from;
+        while (!mCanceled && pos < to) {
+            int hit = searcher.indexOf(buf, pos, length);
+            if (hit < 0 || hit >= to) return false;
+            if (CharBoundary.isCharStart(buf, hit, base == 0, mCharSet)) return true;
+            pos = hit + 1;
+        }
+        return false;
+    }
+
+    /**
+     * 行の途中から始まる範囲に 正規表現に一致する位置があるか調べる
+     * @param buf 読み込んだ byte列
+     * @param from 開始位置
+     * @param to 終了位置
+     * @return true: 一致する位置がある
+     */
+    private boolean matchesRegex(byte[] buf, int from, int to) {
+        int decodeStart = CharBoundary.findCharStart(ByteBuffer.wrap(buf, 0, to), from, to, mCharSet);
+        if (decodeStart < 0) return false;
+        CharBuffer chars;
+        try {
+            chars = Charset.forName(mCharSet).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(ByteBuffer.wrap(buf, decodeStart, to - decodeStart));
+        } catch (CharacterCodingException e) {
+            // REPLACEを指定しているので 発生しない
+            return false;
+        }
+
+        // 行の途中から デコードしているので、「^」が 先頭に一致しないように 改行以外の文字を前に置く
+        CharBuffer text = CharBuffer.allocate(chars.remaining() + 1);
+        text.put(REPLACEMENT_CHAR);
+        text.put(chars);
+        text.flip();
+        Matcher matcher = mPattern.matcher(text);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(1, text.length());
+        return !mCanceled && matcher.find();
+    }
+
+    private static int indexOfNewline(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private int readFully(long position, byte[] buf, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int size = mSource.read(position + read, buf, offset + read, length - read);
+            if (size <= 0) break;
+            read += size;
+        }
+        return read;
+    }
+
+    private void notifyUpdated(final long scannedBytes) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onFilterUpdated(mResult, scannedBytes);
+            }
+        });
+    }
+
+    /**
+     * 1つの区間で一致した行
+     */
+    private static class Hits {
+        private int[] lines = new int[ INITIAL_CHUNK_HITS ];
+        private long[] offsets = new long[ INITIAL_CHUNK_HITS ];
+        private int count = 0;
+        private int lineCount = 0;                              // 区間に開始位置がある 行数
+        private long lastLineStart = -1;                        // 区間の最後の行の開始位置
+        private boolean endsWithNewline = false;                // 区間が 改行で終わっている
+        private boolean openLineMatched = false;                // 前の区間から続く行の 区間内の部分で一致した
+
+        private void add(int line, long offset) {
+            if (count == lines.length) {
+                lines = Arrays.copyOf(lines, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            lines[count] = line;
+            offsets[count] = offset;
+            count++;
+        }
+    }
+
+}
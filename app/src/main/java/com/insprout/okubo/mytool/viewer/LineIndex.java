@@ -0,0 +1,100 @@
+package com.insprout.okubo.mytool.viewer;
+
+/**
+ * 行番号から その行の開始位置(byte)を引くための索引
+ * 行の開始位置を プリミティブの long配列で保持する。
+ *
+ * 追加は 索引作成スレッド(1つ)のみが行い、参照は UIスレッドなど任意のスレッドから行える
+ */
+
+public class LineIndex {
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private volatile long[] mOffsets = new long[ INITIAL_CAPACITY ];
+    private volatile int mCount = 0;
+    private volatile boolean mCompleted = false;
+    private volatile long mIndexedSize = 0;                     // 索引の作成が完了した範囲 (byte)
+
+
+    /**
+     * 索引に登録されている行数を返す (作成途中の場合は、その時点までの行数)
+     * @return 行数
+     */
+    public int getLineCount() {
+        return mCount;
+    }
+
+    /**
+     * 指定行の開始位置を返す
+     * @param line 行番号 (0から始まる)
+     * @return 開始位置 (byte)。索引に登録されていない行の場合は -1
+     */
+    public long getLineOffset(int line) {
+        // mCountを先に読むこと。(mOffsetsは mCountより先に更新されている)
+        int count = mCount;
+        if (line < 0 || line >= count) return -1;
+        return mOffsets[line];
+    }
+
+    /**
+     * 指定位置を含む行の行番号を返す
+     * @param offset 位置 (byte)
+     * @return 行番号。索引に登録されている範囲に無い場合は、登録されている最後の行
+     */
+    public int findLine(long offset) {
+        int count = mCount;
+        long[] offsets = mOffsets;
+        if (count == 0) return -1;
+
+        // 二分探索で offset以下の最大の開始位置を探す
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * 索引の作成が完了した範囲を返す。(ファイルに追記された場合は、この位置から索引を追加する)
+     * @return 先頭からのバイト数
+     */
+    public long getIndexedSize() {
+        return mIndexedSize;
+    }
+
+    /**
+     * 行の開始位置を追加する。(索引作成スレッドからのみ呼び出すこと)
+     * @param offset 行の開始位置 (byte)
+     */
+    void add(long offset) {
+        int count = mCount;
+        long[] offsets = mOffsets;
+        if (count == offsets.length) {
+            long[] expanded = new long[ offsets.length * 2 ];
+            System.arraycopy(offsets, 0, expanded, 0, count);
+            mOffsets = offsets = expanded;
+        }
+        offsets[count] = offset;
+        mCount = count + 1;
+    }
+
+    /**
+     * 索引の作成が完了した事を設定する。(索引作成スレッドからのみ呼び出すこと)
+     * @param indexedSize 索引を作成した範囲 (先頭からのバイト数)
+     */
+    void setCompleted(long indexedSize) {
+        mIndexedSize = indexedSize;
+        mCompleted = true;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ファイルを走査して LineIndexを作成するクラス
+ * 索引はバックグラウンドで少しずつ作成され、作成途中でも それまでの範囲は参照できる
+ * ファイルは一定サイズごとに分割して、CPUのコア数分 並列に走査する
+ */
+
+public class LineIndexer implements Runnable {
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int CHUNK_SIZE = 4 * 1024 * 1024;     // 並列に走査する単位 (byte)
+    private final static int INITIAL_CHUNK_LINES = 4096;
+    private final static long INTERVAL_NOTIFY = 200;            // 進捗の通知間隔 (msec)
+
+    public interface OnIndexListener {
+        /**
+         * 索引の作成状況を通知する (UIスレッドで呼び出される)
+         * @param index 作成中の索引
+         * @param scannedBytes 走査済みのバイト数
+         */
+        void onIndexUpdated(LineIndex index, long scannedBytes);
+    }
+
+    private final UriSource mSource;
+    private final LineIndex mIndex;
+    private final long mStart;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private OnIndexListener mListener = null;
+    private volatile boolean mCanceled = false;
+
+
+    /**
+     * コンストラクタ
+     * @param source 索引を作成するファイル
+     */
+    public LineIndexer(UriSource source) {
+        this(source, new LineIndex(), 0);
+    }
+
+    /**
+     * 作成済みの索引に、指定位置以降の行を追加するためのコンストラクタ (ファイルに追記された場合に使用する)
+     * @param source 索引を作成するファイル
+     * @param index 作成済みの索引
+     * @param start 索引を追加する範囲の開始位置 (index.getIndexedSize())
+     */
+    LineIndexer(UriSource source, LineIndex index, long start) {
+        mSource = source;
+        mIndex = index;
+        mStart = start;
+    }
+
+    public LineIndex getIndex() {
+        return mIndex;
+    }
+
+    public void setOnIndexListener(OnIndexListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * バックグラウンドで 索引の作成を開始する
+     */
+    public void start() {
+        ViewerExecutors.background().execute(this);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    @Override
+    public void run() {
+        long scanned = mStart;
+        long size = -1;
+        ViewerExecutors.OrderedChunks<long[]> chunks = null;
+        try {
+            size = mSource.size();
+            final long end = size;
+            int chunkCount = (int)((size - mStart + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            long notified = SystemClock.uptimeMillis();
+            // 作成済みの索引に追加する場合は、登録済みの行を重複して追加しないようにする
+            int lineCount = mIndex.getLineCount();
+            long lastLine = (lineCount > 0 ? mIndex.getLineOffset(lineCount - 1) : -1);
+
+            // ファイルを CHUNK_SIZEごとに分割して並列に走査し、結果は先頭から順に索引に追加する
+            // (索引は先頭から途切れなく作成されるので、作成途中でも参照できる)
+            chunks = new ViewerExecutors.OrderedChunks<>(chunkCount, new ViewerExecutors.ChunkTask<long[]>() {
+                @Override
+                public long[] call(int chunk) throws IOException {
+                    long start = mStart + (long)chunk * CHUNK_SIZE;
+                    return scanChunk(start, Math.min(start + CHUNK_SIZE, end));
+                }
+            });
+            for (int chunk = 0; chunks.hasNext() && !mCanceled; chunk++) {
+                long[] lineStarts = chunks.next();
+                // 配列の先頭は 行数
+                for (int i = 1; i <= (int)lineStarts[0]; i++) {
+                    if (lineStarts[i] <= lastLine) continue;
+                    mIndex.add(lineStarts[i]);
+                    lastLine = lineStarts[i];
+                }
+                scanned = Math.min(mStart + (long)(chunk + 1) * CHUNK_SIZE, size);
+
+                long now = SystemClock.uptimeMillis();
+                if (now - notified >= INTERVAL_NOTIFY) {
+                    notified = now;
+                    notifyUpdated(scanned);
+                }
+            }
+            if (size == 0 && lastLine < 0) mIndex.add(0);      // 空のファイルも 1行として扱う
+            scanned = size;
+
+        } catch (IOException e) {
+            // 読み込めなかった場合は 中止と同様に扱い、完了とはしない (途中までの索引が 完成したものとして保存されないように)
+            mCanceled = true;
+        } catch (InterruptedException e) {
+            mCanceled = true;
+        } finally {
+            if (chunks != null) chunks.cancel();
+        }
+
+        if (mCanceled || scanned != size) return;
+        mIndex.setCompleted(scanned);
+        notifyUpdated(scanned);
+    }
+
+    /**
+     * 指定範囲の 行の開始位置を求める
+     * @param start 開始位置
+     * @param end 終了位置
+     * @return 行の開始位置の配列。(先頭の要素は 行数)
+     */
+    private long[] scanChunk(long start, long end) throws IOException {
+        long[] lineStarts = new long[ INITIAL_CHUNK_LINES + 1 ];
+        int count = 0;
+        byte[] buf = new byte[BUFFER_SIZE];
+
+        // 直前の byteが改行であれば startが行頭となるので、1byte前から調べる
+        long offset = Math.max(start - 1, 0);
+        boolean lineStart = (start == 0);
+        while (!mCanceled && offset < end) {
+            int size = mSource.read(offset, buf, 0, (int)Math.min(buf.length, end - offset));
+            // 途中までしか読めなかった場合は 行が欠けるので エラーとする
+            if (size <= 0) throw new IOException("short read at " + offset);
+            for (int i = 0; i < size; i++) {
+                if (lineStart && offset + i >= start) {
+                    if (++count == lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+                    lineStarts[count] = offset + i;
+                }
+                // 改行コード(0x0A)は このビューアで扱う文字コードでは 他の文字の一部として現れることはない
+                lineStart = (buf[i] == '\n');
+            }
+            offset += size;
+        }
+        lineStarts[0] = count;
+        return lineStarts;
+    }
+
+    private void notifyUpdated(final long scannedBytes) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onIndexUpdated(mIndex, scannedBytes);
+            }
+        });
+    }
+
+}
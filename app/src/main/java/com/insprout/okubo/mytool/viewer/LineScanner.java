@@ -0,0 +1,122 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * byte列をデコードして 行に分割し、TextPageを作成するクラス
+ *
+ * デコード先の CharBufferや 行位置の配列は 使い回すので、ページごとの一時的な割り当ては最後のコピーのみとなる。
+ * (BufferedReader.readLine()のように 行ごとに Stringを作成することはない)
+ * 複数のスレッドから同時に使用しないこと
+ */
+
+public class LineScanner {
+    private final static int INITIAL_CHARS = 16 * 1024;
+    private final static int INITIAL_LINES = 512;
+
+    private final CharsetDecoder mDecoder;
+    private CharBuffer mChars = CharBuffer.allocate(INITIAL_CHARS);
+    private int[] mLineStarts = new int[ INITIAL_LINES ];
+    private int[] mLineEnds = new int[ INITIAL_LINES ];
+    private byte[] mLineEndings = new byte[ INITIAL_LINES ];
+
+
+    /**
+     * コンストラクタ
+     * @param charSet 文字コード
+     */
+    public LineScanner(String charSet) {
+        mDecoder = Charset.forName(charSet).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * byte列をデコードして 行に分割する
+     * @param bytes デコードする byte列 (positionから limitまで)
+     * @return デコードされたページ
+     */
+    public TextPage scan(ByteBuffer bytes) {
+        CharBuffer chars = decode(bytes);
+        int length = chars.position();
+        char[] array = chars.array();
+
+        // 改行コードの位置を記録する
+        int lineCount = 0;
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            char c = array[i];
+            if (c != '\n' && c != '\r') {
+                i++;
+                continue;
+            }
+
+            byte ending;
+            int end = i;
+            if (c == '\r' && i + 1 < length && array[i + 1] == '\n') {
+                ending = TextPage.LINE_END_CRLF;
+                i += 2;
+            } else {
+                ending = (c == '\n' ? TextPage.LINE_END_LF : TextPage.LINE_END_CR);
+                i++;
+            }
+            lineCount = addLine(lineCount, start, end, ending);
+            start = i;
+        }
+        if (start < length || lineCount == 0) {
+            lineCount = addLine(lineCount, start, length, TextPage.LINE_END_NONE);
+        }
+
+        return new TextPage(Arrays.copyOf(array, length),
+                lineCount,
+                Arrays.copyOf(mLineStarts, lineCount),
+                Arrays.copyOf(mLineEnds, lineCount),
+                Arrays.copyOf(mLineEndings, lineCount));
+    }
+
+    /**
+     * byte列を 使い回しの CharBufferにデコードする
+     * @param bytes デコードする byte列
+     * @return デコード結果 (0から positionまでが デコードされた文字)
+     */
+    private CharBuffer decode(ByteBuffer bytes) {
+        bytes = bytes.duplicate();
+        // 1byteが 2文字以上になる文字コードは扱わないので、byte数分の領域があれば足りる
+        if (mChars.capacity() < bytes.remaining()) {
+            mChars = CharBuffer.allocate(bytes.remaining());
+        }
+        mChars.clear();
+        mDecoder.reset();
+
+        while (mDecoder.decode(bytes, mChars, true).isOverflow()) expand();
+        while (mDecoder.flush(mChars).isOverflow()) expand();
+        return mChars;
+    }
+
+    private void expand() {
+        CharBuffer expanded = CharBuffer.allocate(mChars.capacity() * 2);
+        mChars.flip();
+        expanded.put(mChars);
+        mChars = expanded;
+    }
+
+    private int addLine(int lineCount, int start, int end, byte ending) {
+        if (lineCount == mLineStarts.length) {
+            int capacity = mLineStarts.length * 2;
+            mLineStarts = Arrays.copyOf(mLineStarts, capacity);
+            mLineEnds = Arrays.copyOf(mLineEnds, capacity);
+            mLineEndings = Arrays.copyOf(mLineEndings, capacity);
+        }
+        mLineStarts[lineCount] = start;
+        mLineEnds[lineCount] = end;
+        mLineEndings[lineCount] = ending;
+        return lineCount + 1;
+    }
+
+}
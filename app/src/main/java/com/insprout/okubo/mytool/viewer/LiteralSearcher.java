@@ -0,0 +1,203 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * ファイル内の文字列を検索するクラス
+ *
+ * 検索文字列を ファイルの文字コードで byte列に変換し、デコードせずに byte列のまま Boyer-Moore-Horspool法で検索する。
+ * 見つかった位置は SearchResultに順次追加され、検索途中でも参照できる。
+ * TrigramIndexが設定されている場合は、検索文字列を含む可能性があるブロックのみを読み込んで検索する
+ *
+ * ISO-2022-JPでは 同じ byte列が 状態によって ASCIIにも 2byte文字にもなるので、
+ * 見つかった位置の状態(直前のエスケープシーケンス)が 検索文字列の先頭の状態と一致するもののみを 一致とする
+ */
+
+public class LiteralSearcher extends FileSearcher {
+    private final static int BLOCK_SIZE = 1024 * 1024;         // 1回に読み込んで検索する単位 (byte)
+    private final static int BACK_MARGIN = 256;                 // 文字の区切りを確認するために 前に読み込んでおく量 (byte)
+    private final static long INTERVAL_NOTIFY = 200;            // 進捗の通知間隔 (msec)
+
+    private final byte[] mPattern;
+    private final int mShiftState;                              // 検索文字列の先頭の状態 (ISO-2022-JPのみ。確認しない場合は SHIFT_UNKNOWN)
+    private TrigramIndex mTrigramIndex = null;
+    private long mEscapeBlock = -1;                             // 直前に ファイルを遡って求めた エスケープシーケンスの 読み込み位置と内容
+    private byte[] mEscape = null;
+    private long mEscapeOffset = -1;
+
+
+    /**
+     * コンストラクタ
+     * @param source 検索するファイル
+     * @param query 検索する文字列
+     * @param charSet ファイルの文字コード
+     */
+    public LiteralSearcher(UriSource source, String query, String charSet) {
+        super(source, query, charSet);
+        mPattern = encodePattern(query, charSet);
+        mShiftState = getPatternShiftState(query, mPattern, charSet);
+    }
+
+    /**
+     * 検索に使用する索引を設定する。索引がある場合は 検索文字列を含む可能性があるブロックのみを検索する
+     * @param index 索引 (ない場合は null)
+     */
+    public void setTrigramIndex(TrigramIndex index) {
+        mTrigramIndex = index;
+    }
+
+    @Override
+    protected long search() {
+        long scanned = 0;
+        SearchResult result = getResult();
+        try {
+            if (mPattern.length == 0) return 0;
+
+            ByteSearcher searcher = new ByteSearcher(mPattern);
+            long size = getSource().size();
+            byte[] buf = new byte[ BACK_MARGIN + BLOCK_SIZE + mPattern.length - 1 ];
+            long notified = SystemClock.uptimeMillis();
+            long lastEnd = 0;
+
+            // 索引があれば 検索文字列を含む可能性がある範囲のみを検索する
+            long[] ranges = (mTrigramIndex != null ? mTrigramIndex.findCandidates(mPattern, size) : null);
+            if (ranges == null) ranges = new long[] { 0, size };
+
+            for (int r = 0; r < ranges.length && !isCanceled(); r += 2) {
+                long rangeEnd = ranges[r + 1];
+                long readEnd = Math.min(rangeEnd + mPattern.length - 1, size);
+                for (long block = ranges[r]; block < rangeEnd && !isCanceled(); block += BLOCK_SIZE) {
+                    // 前の BACK_MARGIN分と、ブロック境界をまたぐ一致を見つけるための (パターン長 - 1)分を余分に読み込む
+                    long start = Math.max(block - BACK_MARGIN, 0);
+                    int margin = (int)(block - start);
+                    int length = readFully(start, buf, (int)Math.min(buf.length, readEnd - start));
+                    int blockEnd = Math.min(margin + (int)Math.min(BLOCK_SIZE, rangeEnd - block), length);
+
+                    int i = margin;
+                    while ((i = searcher.indexOf(buf, i, length)) >= 0 && i < blockEnd) {
+                        long offset = start + i;
+                        if (offset >= lastEnd && isMatchStart(buf, i, start)) {
+                            result.add(offset);
+                            lastEnd = offset + mPattern.length;
+                        }
+                        i++;
+                    }
+                    scanned = Math.min(block + BLOCK_SIZE, rangeEnd);
+
+                    long now = SystemClock.uptimeMillis();
+                    if (now - notified >= INTERVAL_NOTIFY || result.getCount() == 1) {
+                        notified = now;
+                        notifyUpdated(scanned);
+                    }
+                }
+            }
+
+        } catch (IOException e) {
+            // 読み込めた所までの結果とする
+        }
+        return scanned;
+    }
+
+    /**
+     * 見つかった位置が 文字の先頭か確認する
+     * @param buf 読み込んだ byte列
+     * @param position 見つかった位置
+     * @param start bufの先頭の ファイル上の位置
+     * @return true: 文字の先頭
+     */
+    private boolean isMatchStart(byte[] buf, int position, long start) throws IOException {
+        if (!CharBoundary.isStateful(getCharSet())) {
+            return CharBoundary.isCharStart(buf, position, start == 0, getCharSet());
+        }
+        if (mShiftState == CharBoundary.SHIFT_UNKNOWN) return true;
+
+        int state = CharBoundary.getShiftState(buf, position, start == 0);
+        if (state == CharBoundary.SHIFT_UNKNOWN) {
+            // 読み込んだ範囲に エスケープシーケンスがなければ ファイルを遡って探す (同じブロックでは 同じものとなる)
+            if (mEscapeBlock != start) {
+                findEscapeBefore(start);
+                mEscapeBlock = start;
+            }
+            state = (mEscape == null ? CharBoundary.SHIFT_SINGLE
+                    : CharBoundary.getShiftState(mEscape, 0, start + position - mEscapeOffset));
+        }
+        return state == mShiftState;
+    }
+
+    /**
+     * 指定位置より前の 最後のエスケープシーケンスを探して、mEscapeOffset, mEscapeに設定する
+     * @param position 検索開始位置
+     */
+    private void findEscapeBefore(long position) throws IOException {
+        mEscape = null;
+        mEscapeOffset = -1;
+        byte[] buf = new byte[ BACK_MARGIN * 16 ];
+        long to = position;
+        while (to > 0 && !isCanceled()) {
+            long from = Math.max(to - buf.length, 0);
+            int length = readFully(from, buf, (int)(to - from));
+            int escape = CharBoundary.findLastEscape(buf, length);
+            if (escape >= 0) {
+                mEscapeOffset = from + escape;
+                mEscape = new byte[ 4 ];
+                readFully(mEscapeOffset, mEscape, mEscape.length);
+                return;
+            }
+            to = from;
+        }
+    }
+
+    private int readFully(long position, byte[] buf, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int size = getSource().read(position + read, buf, read, length - read);
+            if (size <= 0) break;
+            read += size;
+        }
+        return read;
+    }
+
+    /**
+     * 検索文字列を ファイルの文字コードで byte列に変換する
+     * @param query 検索文字列
+     * @param charSet 文字コード
+     * @return 変換された byte列
+     */
+    static byte[] encodePattern(String query, String charSet) {
+        if (query == null || query.isEmpty() || !Charset.isSupported(charSet)) return new byte[0];
+        byte[] pattern = query.getBytes(Charset.forName(charSet));
+
+        if (CharBoundary.CHARSET_JIS.equalsIgnoreCase(charSet) && isAllNonAscii(query)) {
+            // ISO-2022-JPの場合、全角文字のみの検索文字列であれば 前後のエスケープシーケンスを除いて検索する
+            // (ファイル中では 検索文字列の前後にも全角文字が続いている場合があるため)
+            if (pattern.length > 6 && pattern[0] == 0x1B && pattern[pattern.length - 3] == 0x1B) {
+                pattern = Arrays.copyOfRange(pattern, 3, pattern.length - 3);
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * 一致した位置で必要な状態を返す (ISO-2022-JPのみ)
+     * @param query 検索文字列
+     * @param pattern 変換された byte列
+     * @param charSet 文字コード
+     * @return 状態。エスケープシーケンスで始まる場合など 確認しない場合は SHIFT_UNKNOWN
+     */
+    static int getPatternShiftState(String query, byte[] pattern, String charSet) {
+        if (!CharBoundary.isStateful(charSet) || pattern.length == 0 || pattern[0] == 0x1B) return CharBoundary.SHIFT_UNKNOWN;
+        return (query.charAt(0) < 0x80 ? CharBoundary.SHIFT_SINGLE : CharBoundary.SHIFT_DOUBLE);
+    }
+
+    private static boolean isAllNonAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 0x80) return false;
+        }
+        return true;
+    }
+
+}
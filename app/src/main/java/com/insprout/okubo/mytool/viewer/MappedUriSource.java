@@ -0,0 +1,124 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * FileChannelをメモリマップして読み込む UriSource
+ * 2GBを越えるファイルも扱えるように、一定サイズの領域ごとに 必要になった時点でマップする
+ * ファイルに追記された場合は refresh()で サイズを更新し、末尾の領域をマップし直す
+ * (切り詰められた場合は 無効とし、以降の読み込みは IOExceptionとする。縮んだサイズを返すので 呼び出し元で開き直すこと)
+ */
+
+class MappedUriSource extends UriSource {
+    private final static int WINDOW_SIZE = 64 * 1024 * 1024;    // 1回にマップするサイズ
+
+    private final FileChannel mChannel;
+    private final Closeable mOwner;
+    private volatile long mSize;
+    private volatile boolean mInvalid = false;                  // 切り詰められた (マップした領域は 読めなくなっている)
+    private MappedByteBuffer[] mWindows;
+
+
+    /**
+     * コンストラクタ
+     * @param uri ファイルの Uri
+     * @param channel 読み込む FileChannel
+     * @param owner channelの元となったオブジェクト (close時に一緒に closeする)
+     */
+    MappedUriSource(Uri uri, FileChannel channel, Closeable owner) throws IOException {
+        super(uri);
+        mChannel = channel;
+        mOwner = owner;
+        mSize = channel.size();
+        mWindows = new MappedByteBuffer[ (int)((mSize + WINDOW_SIZE - 1) / WINDOW_SIZE) ];
+    }
+
+    @Override
+    public long size() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized long refresh() throws IOException {
+        long size = mChannel.size();
+        if (size == mSize) return mSize;
+        if (size < mSize || mInvalid) {
+            // 切り詰められた場合は 以前のサイズでマップした領域を読むと SIGBUSになるので、以降の読み込みは 失敗とする
+            // (読み込み中のスレッドがあるので 領域の配列は差し替えない。呼び出し元は 縮んだ事を検出して 開き直すこと)
+            mInvalid = true;
+            mSize = size;
+            return size;
+        }
+
+        // 末尾の領域は 以前のサイズでマップされているので、マップし直すように破棄しておく
+        int lastWindow = (int)((mSize + WINDOW_SIZE - 1) / WINDOW_SIZE) - 1;
+        MappedByteBuffer[] windows = Arrays.copyOf(mWindows, (int)((size + WINDOW_SIZE - 1) / WINDOW_SIZE));
+        if (lastWindow >= 0) windows[lastWindow] = null;
+        mWindows = windows;
+        mSize = size;
+        return size;
+    }
+
+    @Override
+    public int read(long position, byte[] buf, int offset, int length) throws IOException {
+        long fileSize = mSize;
+        if (position >= fileSize) return -1;
+
+        int read = 0;
+        while (read < length && position < fileSize) {
+            if (mInvalid) throw new IOException("file truncated");
+            int window = (int)(position / WINDOW_SIZE);
+            int windowOffset = (int)(position % WINDOW_SIZE);
+            // マップされた領域は 共有されるので、位置を持たせた duplicateで読み込む (スレッドセーフにするため)
+            ByteBuffer buffer = getWindow(window).duplicate();
+            int size = Math.min(length - read, buffer.limit() - windowOffset);
+            if (size <= 0) throw new IOException("position out of range: " + position);
+            buffer.position(windowOffset);
+            buffer.get(buf, offset + read, size);
+            read += size;
+            position += size;
+        }
+        return read;
+    }
+
+    @Override
+    public ByteBuffer getBuffer(long position, int length) throws IOException {
+        if (mInvalid) throw new IOException("file truncated");
+        length = (int)Math.max(Math.min(length, size() - position), 0);
+        int window = (int)(position / WINDOW_SIZE);
+        int windowOffset = (int)(position % WINDOW_SIZE);
+        if (length == 0 || windowOffset + length > WINDOW_SIZE) {
+            // マップ領域をまたぐ場合は コピーする
+            return super.getBuffer(position, length);
+        }
+
+        ByteBuffer buffer = getWindow(window).duplicate();
+        buffer.position(windowOffset);
+        buffer.limit(windowOffset + length);
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
+    private synchronized MappedByteBuffer getWindow(int window) throws IOException {
+        if (mInvalid) throw new IOException("file truncated");
+        if (window < 0 || window >= mWindows.length) throw new IOException("position out of range: window " + window);
+        if (mWindows[window] == null) {
+            long start = (long)window * WINDOW_SIZE;
+            mWindows[window] = mChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, mSize - start));
+        }
+        return mWindows[window];
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+        mOwner.close();
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * TextPagerの各ページを ListViewの 1項目として表示するための Adapter
+ * ListViewが画面外の Viewを再利用するので、表示されるのは表示中のページのみとなる
+ *
+ * 読み込まれていないページは 仮の表示にしておき、I/Oスレッドで読み込まれた時点で レイアウトを要求する。
+ * レイアウトは PageLayouterが バックグラウンドで作成し、作成された時点で表示を更新する
+ */
+
+public class PageAdapter extends BaseAdapter implements TextPager.OnPageLoadedListener, PageLayouter.OnLayoutListener,
+        PageView.OnWidthChangedListener {
+    private final static int LAYOUT_MARGIN = 1;                 // 表示範囲の前後に レイアウトを作成しておくページ数
+
+    public interface OnPageLayoutListener {
+        /**
+         * 表示中のページのレイアウトが更新された事を通知する (UIスレッドで呼び出される)
+         * @param page ページ番号
+         */
+        void onPageLayoutChanged(int page);
+    }
+
+    private final LayoutInflater mInflater;
+    private final int mLayoutId;
+    private final DisplayMetrics mMetrics;
+    private final PageLayouter mLayouter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private TextPager mPager = null;
+    private int mPageCount = 0;                                 // ファイルに追記されると ページ数が変わるので、通知時点の値を使用する
+    private float mTextSize = 18.0f;                            // 文字サイズ (sp単位)
+    private int mHighlightPage = -1;                            // 強調表示するページ (なしの場合は -1)
+    private int mHighlightStart = 0;
+    private int mHighlightEnd = 0;
+    private OnPageLayoutListener mListener = null;
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param layoutId 1ページを表示する PageViewのレイアウトID
+     */
+    public PageAdapter(Context context, int layoutId) {
+        mInflater = LayoutInflater.from(context);
+        mLayoutId = layoutId;
+        mMetrics = context.getResources().getDisplayMetrics();
+
+        // 文字色やフォントは TextViewの既定値に合わせる
+        TextView textView = new TextView(context);
+        TextPaint paint = new TextPaint(textView.getPaint());
+        paint.setColor(textView.getCurrentTextColor());
+        mLayouter = new PageLayouter(paint);
+        mLayouter.setOnLayoutListener(this);
+        mLayouter.setTextSize(toPixel(mTextSize));
+    }
+
+    public void setPager(TextPager pager) {
+        if (mPager != null) mPager.close();
+        mPager = pager;
+        mHighlightPage = -1;
+        mLayouter.clear();
+        if (mPager != null) mPager.setOnPageLoadedListener(this);
+        notifyDataSetChanged();
+    }
+
+    public TextPager getPager() {
+        return mPager;
+    }
+
+    public void setOnPageLayoutListener(OnPageLayoutListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 文字サイズを設定する。表示範囲のページのみ バックグラウンドで レイアウトし直す
+     * @param textSize 文字サイズ (sp単位)
+     */
+    public void setTextSize(float textSize) {
+        mTextSize = textSize;
+        mLayouter.setTextSize(toPixel(textSize));
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 等幅フォントで表示するかを設定する。表示範囲のページのみ バックグラウンドで レイアウトし直す
+     * @param monospace true: 等幅フォントで 文字配列から直接描画する
+     */
+    public void setMonospace(boolean monospace) {
+        mLayouter.setMonospace(monospace);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 指定範囲の文字を強調表示する (検索で見つかった文字列の表示などに使用する)
+     * @param page ページ番号。-1の場合は 強調表示を解除する
+     * @param start ページ内の開始位置
+     * @param end ページ内の終了位置
+     */
+    public void setHighlight(int page, int start, int end) {
+        mHighlightPage = page;
+        mHighlightStart = start;
+        mHighlightEnd = end;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 表示されている範囲を通知する。
+     * TextPagerには 前後のページの先読みを、PageLayouterには 前後のページのレイアウトの作成を要求する
+     * @param firstPage 表示されている最初のページ
+     * @param lastPage 表示されている最後のページ
+     */
+    public void setVisibleRange(int firstPage, int lastPage) {
+        if (mPager == null) return;
+        mPager.setVisibleRange(firstPage, lastPage);
+
+        mLayouter.setRange(firstPage - LAYOUT_MARGIN, lastPage + LAYOUT_MARGIN);
+        for (int page = firstPage - LAYOUT_MARGIN; page <= lastPage + LAYOUT_MARGIN; page++) {
+            requestLayout(page);
+        }
+    }
+
+    /**
+     * 表示中のページのレイアウトが 現在の文字サイズで作成済みか
+     * @param page ページ番号
+     * @return true: 作成済み
+     */
+    public boolean isLaidOut(int page) {
+        CharSequence text = (mPager != null ? mPager.peekPage(page) : null);
+        return (text != null && mLayouter.isCurrent(page, text));
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        mPageCount = (mPager != null ? mPager.getPageCount() : 0);
+        super.notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mPageCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return (mPager != null ? mPager.peekPage(position) : null);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        PageView pageView = (PageView) convertView;
+        if (pageView == null) {
+            pageView = (PageView) mInflater.inflate(mLayoutId, parent, false);
+            pageView.setOnWidthChangedListener(this);
+        }
+
+        CharSequence text = mPager.peekPage(position);
+        if (text == null) {
+            // 読み込まれていないページは 読み込みを要求して、読み込まれるまで仮の表示にしておく
+            mPager.requestPage(position);
+            pageView.setPageLayout(null, mLayouter.getLineHeight());
+            pageView.setVisibility(View.VISIBLE);
+
+        } else if (text == TextPager.EMPTY_PAGE) {
+            // 長い行の途中から始まるページなどは 内容が空になるので表示しない
+            pageView.setPageLayout(null, 0);
+            pageView.setVisibility(View.GONE);
+
+        } else {
+            // レイアウトが作成されるまでは、文字サイズが変わる前のレイアウトがあれば それを表示しておく
+            PageLayout layout = mLayouter.peekLayout(position, text);
+            if (!mLayouter.isCurrent(position, text)) mLayouter.request(position, text);
+            pageView.setPageLayout(layout, mLayouter.getLineHeight());
+            if (position == mHighlightPage) pageView.setHighlight(mHighlightStart, mHighlightEnd);
+            pageView.setVisibility(View.VISIBLE);
+        }
+        return pageView;
+    }
+
+    @Override
+    public void onPageLoaded(int page) {
+        requestLayout(page);
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onLayoutBuilt(int page) {
+        notifyDataSetChanged();
+        if (mListener != null) mListener.onPageLayoutChanged(page);
+    }
+
+    @Override
+    public void onWidthChanged(int contentWidth) {
+        // 画面の回転などで 表示幅が変わった場合は、表示範囲のページを レイアウトし直す
+        // (ListViewのレイアウト中に呼び出されるので、更新の通知は レイアウトが終わってから行う)
+        if (contentWidth == mLayouter.getWidth()) return;
+        mLayouter.setWidth(contentWidth);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                notifyDataSetChanged();
+            }
+        });
+    }
+
+    private void requestLayout(int page) {
+        if (mPager == null || page < 0 || page >= mPageCount) return;
+        CharSequence text = mPager.peekPage(page);
+        if (text != null && text != TextPager.EMPTY_PAGE) mLayouter.request(page, text);
+    }
+
+    private float toPixel(float sp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, sp, mMetrics);
+    }
+
+}
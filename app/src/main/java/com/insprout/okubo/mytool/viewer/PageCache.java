@@ -0,0 +1,257 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * デコード済みのページを保持する LRUキャッシュ
+ *
+ * キーは ファイル(Uri, サイズ, 更新日時)と 文字コード、ページ番号の組で、ファイルが更新されれば別のキーとなる。
+ * 文字コードを切り替えて元に戻した場合や、同じファイルを開き直した場合に デコードし直さずに表示できる。
+ * 保持するページの合計サイズは 指定されたバイト数以内に抑える。(複数のスレッドから使用してよい)
+ *
+ * 大きなファイルのページは Javaヒープではなく PageStore(メモリマップした領域)に格納し、取り出す時に TextPageに戻す。
+ * (ヒープに保持するのは 表示中のページのみとなるので、ヒープの上限を超えるファイルでも OutOfMemoryErrorにならない)
+ * TextPageに戻したページは 弱参照で覚えておき、表示中など 参照されている間は 同じものを返す。
+ * (PageLayouterは テキストが同じものかで 作成済みのレイアウトを使用できるか判断するため)
+ */
+
+public class PageCache {
+    private final static int DEFAULT_MEMORY_RATIO = 8;          // アプリのメモリ上限に対する キャッシュサイズの比 (1/8)
+    private final static int OFF_HEAP_BYTES = 64 * 1024 * 1024; // ヒープ外に保持するページの合計サイズの上限
+    private final static String STORE_FILE = "viewer/pages.bin";
+
+    private static PageCache sInstance = null;
+
+    private final LinkedHashMap<Key, TextPage> mPages = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, PageStore.Packed> mPackedPages = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Key, WeakReference<TextPage>> mUnpackedPages = new HashMap<>();  // ヒープ外から TextPageに戻したページ
+    private final PageStore mStore;                             // ヒープ外の領域。作成できなかった場合は null
+    private int mMaxBytes;
+    private int mBytes = 0;
+
+
+    /**
+     * アプリ全体で共有するキャッシュを返す
+     * キャッシュサイズは 端末のメモリクラスの 1/DEFAULT_MEMORY_RATIOとし、ヒープ外の領域は キャッシュディレクトリに作成する
+     * @param context コンテキスト
+     * @return キャッシュ
+     */
+    public static synchronized PageCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager am = (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClass = (am != null ? am.getMemoryClass() : 16);
+            PageStore store = PageStore.create(new File(context.getCacheDir(), STORE_FILE), OFF_HEAP_BYTES);
+            sInstance = new PageCache(memoryClass * 1024 * 1024 / DEFAULT_MEMORY_RATIO, store);
+        }
+        return sInstance;
+    }
+
+    /**
+     * コンストラクタ
+     * @param maxBytes 保持するページの合計サイズの上限 (byte)
+     */
+    public PageCache(int maxBytes) {
+        this(maxBytes, null);
+    }
+
+    private PageCache(int maxBytes, PageStore store) {
+        mMaxBytes = maxBytes;
+        mStore = store;
+    }
+
+    /**
+     * ファイルを識別するキーを作成する
+     * (サイズを求めている途中の場合は 求め終えた範囲のサイズとする。範囲が広がると 末尾のページの内容が変わるので 別のキーとなる)
+     * @param source ファイル
+     * @param charSet 文字コード
+     * @return キー。サイズが取得できない場合は null
+     */
+    public static String getFileKey(UriSource source, String charSet) {
+        try {
+            return source.getUri() + "|" + source.getAvailableSize() + "|" + source.getLastModified() + "|" + charSet;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * ヒープ上に保持しているページを返す (ヒープ外の領域は読まないので、UIスレッドから呼び出してよい)
+     * @param fileKey ファイルを識別するキー
+     * @param page ページ番号
+     * @return ページ。保持していない場合は null
+     */
+    public synchronized TextPage peek(String fileKey, int page) {
+        return mPages.get(new Key(fileKey, page));
+    }
+
+    /**
+     * 保持しているページを返す。ヒープ外に保持している場合は TextPageに戻して返す
+     * (メモリマップした領域を読むので、UIスレッドからは呼び出さないこと)
+     * @param fileKey ファイルを識別するキー
+     * @param page ページ番号
+     * @return ページ。保持していない場合は null
+     */
+    public synchronized TextPage get(String fileKey, int page) {
+        Key key = new Key(fileKey, page);
+        TextPage text = mPages.get(key);
+        if (text != null) return text;
+        PageStore.Packed packed = mPackedPages.get(key);
+        if (packed == null) return null;
+
+        // 前に戻したものが まだ参照されていれば 同じものを返す
+        WeakReference<TextPage> unpacked = mUnpackedPages.get(key);
+        text = (unpacked != null ? unpacked.get() : null);
+        if (text == null) {
+            text = mStore.unpack(packed);
+            removeUnreferenced();
+            mUnpackedPages.put(key, new WeakReference<>(text));
+        }
+        return text;
+    }
+
+    /**
+     * 参照されなくなった TextPageに戻したページを 取り除く
+     */
+    private void removeUnreferenced() {
+        Iterator<WeakReference<TextPage>> iterator = mUnpackedPages.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) iterator.remove();
+        }
+    }
+
+    /**
+     * ページを保持する
+     * @param fileKey ファイルを識別するキー
+     * @param page ページ番号
+     * @param text ページ
+     * @param offHeap true: ヒープ外の領域に保持する (領域がない場合は ヒープに保持する)
+     */
+    public synchronized void put(String fileKey, int page, TextPage text, boolean offHeap) {
+        if (offHeap && mStore != null) {
+            putPacked(new Key(fileKey, page), text);
+            return;
+        }
+
+        int size = text.getMemorySize();
+        // 1ページで上限を超える場合は 保持しない
+        if (size > mMaxBytes) return;
+
+        TextPage old = mPages.put(new Key(fileKey, page), text);
+        if (old != null) mBytes -= old.getMemorySize();
+        mBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 保持するページの合計サイズの上限を設定する。超えている場合は 古いページから破棄する
+     * @param maxBytes 上限 (byte)
+     */
+    public synchronized void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * ヒープ外に保持しているページの合計サイズを返す
+     * @return サイズ (byte)
+     */
+    public synchronized int getOffHeapBytes() {
+        return (mStore != null ? mStore.getUsedBytes() : 0);
+    }
+
+    public synchronized void clear() {
+        mPages.clear();
+        mBytes = 0;
+        for (PageStore.Packed packed : mPackedPages.values()) {
+            mStore.free(packed);
+        }
+        mPackedPages.clear();
+        mUnpackedPages.clear();
+    }
+
+    private void putPacked(Key key, TextPage text) {
+        // 1ページで領域全体を超える場合は 保持しない
+        if (PageStore.getPackedSize(text) > mStore.getCapacity()) return;
+
+        PageStore.Packed old = mPackedPages.remove(key);
+        if (old != null) mStore.free(old);
+        PageStore.Packed packed;
+        Iterator<PageStore.Packed> iterator = mPackedPages.values().iterator();
+        while ((packed = mStore.pack(text)) == null && iterator.hasNext()) {
+            // 空きが足りない場合は 最も長く使用されていないページから解放する
+            mStore.free(iterator.next());
+            iterator.remove();
+        }
+        if (packed != null) mPackedPages.put(key, packed);
+    }
+
+    /**
+     * メモリ不足の通知に応じて キャッシュを縮小する
+     * @param level ComponentCallbacks2.onTrimMemory()の level
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // プロセスが破棄される候補になっている場合や、実行中でもメモリが逼迫している場合は すべて破棄する
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(mMaxBytes / 4);
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            synchronized (this) {
+                trimToSize(mMaxBytes / 2);
+            }
+        }
+    }
+
+    private void trimToSize(int maxBytes) {
+        // アクセス順の LinkedHashMapなので、先頭から 最も長く使用されていない順になっている
+        Iterator<Map.Entry<Key, TextPage>> iterator = mPages.entrySet().iterator();
+        while (mBytes > maxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().getValue().getMemorySize();
+            iterator.remove();
+        }
+    }
+
+
+    private static class Key {
+        private final String mFileKey;
+        private final int mPage;
+
+        private Key(String fileKey, int page) {
+            mFileKey = fileKey;
+            mPage = page;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key key = (Key) obj;
+            return mPage == key.mPage && mFileKey.equals(key.mFileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return mFileKey.hashCode() * 31 + mPage;
+        }
+    }
+
+}
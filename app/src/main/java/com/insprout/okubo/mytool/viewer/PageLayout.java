@@ -0,0 +1,61 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * 1ページ分のテキストのレイアウト
+ * PageLayouterが バックグラウンドで作成し、PageViewが UIスレッドで描画する。
+ * (行は 折り返し後の 表示上の行を表す)
+ */
+
+public interface PageLayout {
+
+    /**
+     * レイアウトの高さを返す
+     * @return 高さ (pixel)
+     */
+    int getHeight();
+
+    int getLineCount();
+
+    /**
+     * 指定行の上端の位置を返す
+     * @param line 表示上の行番号
+     * @return 上端の位置 (pixel)
+     */
+    int getLineTop(int line);
+
+    /**
+     * 指定行の 最初の文字の位置を返す
+     * @param line 表示上の行番号
+     * @return ページのテキスト上の位置
+     */
+    int getLineStart(int line);
+
+    /**
+     * 指定位置の文字を含む行を返す
+     * @param offset ページのテキスト上の位置
+     * @return 表示上の行番号
+     */
+    int getLineForOffset(int offset);
+
+    /**
+     * 指定された高さにある行を返す
+     * @param vertical 位置 (pixel)
+     * @return 表示上の行番号
+     */
+    int getLineForVertical(int vertical);
+
+    /**
+     * 描画する (UIスレッドから呼び出すこと)
+     * @param canvas 描画先
+     * @param top 描画が必要な範囲の上端 (pixel)
+     * @param bottom 描画が必要な範囲の下端 (pixel)
+     * @param highlightStart 強調表示する範囲の開始位置
+     * @param highlightEnd 強調表示する範囲の終了位置 (強調表示しない場合は highlightStartと同じ値)
+     * @param highlightPaint 強調表示の背景の Paint
+     */
+    void draw(Canvas canvas, int top, int bottom, int highlightStart, int highlightEnd, Paint highlightPaint);
+
+}
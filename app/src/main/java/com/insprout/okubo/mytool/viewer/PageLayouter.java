@@ -0,0 +1,230 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextPaint;
+import android.util.SparseArray;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ページのテキストのレイアウト(PageLayout)を バックグラウンドで作成して保持するクラス
+ *
+ * レイアウトの作成(文字幅の計測や 折り返し位置の計算)は UIスレッドでは行わない。
+ * 文字サイズや表示幅が変わった場合は、作成済みのレイアウトは 新しいものができるまで そのまま表示に使用し、
+ * 表示範囲(と前後のページ)のみを作成し直す。
+ * 等幅フォント表示の場合は StaticLayoutを使用せず、文字配列から直接描画する DirectPageLayoutを作成する。
+ * (setTextSize()など、publicなメソッドは UIスレッドから呼び出すこと)
+ */
+
+public class PageLayouter {
+
+    public interface OnLayoutListener {
+        /**
+         * レイアウトが作成された事を通知する (UIスレッドで呼び出される)
+         * @param page ページ番号
+         */
+        void onLayoutBuilt(int page);
+    }
+
+    private final TextPaint mPaint;
+    private final Typeface mTypeface;                           // 等幅フォント表示でない場合のフォント
+    private final SparseArray<Entry> mLayouts = new SparseArray<>();
+    private final Set<Integer> mPending = new HashSet<>();     // 作成中のページ
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private OnLayoutListener mListener = null;
+    private int mWidth = 0;                                     // 表示幅 (pixel)
+    private boolean mMonospace = false;                         // 等幅フォント表示
+    private GlyphWidthCache mWidthCache = null;                 // 現在の文字サイズ・フォントの 文字幅のキャッシュ
+    // 以下は 作成を始める前に レイアウトのスレッドからも参照する
+    private volatile int mGeneration = 0;                       // 文字サイズや表示幅が変わるごとに 更新する
+    private volatile int mFrom = 0;                             // レイアウトを保持する範囲
+    private volatile int mTo = Integer.MAX_VALUE;
+
+
+    /**
+     * コンストラクタ
+     * @param paint レイアウトに使用する TextPaint (文字色、フォントなどを設定したもの)
+     */
+    public PageLayouter(TextPaint paint) {
+        mPaint = new TextPaint(paint);
+        mTypeface = paint.getTypeface();
+    }
+
+    public void setOnLayoutListener(OnLayoutListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 文字サイズを設定する
+     * @param textSize 文字サイズ (pixel単位)
+     */
+    public void setTextSize(float textSize) {
+        if (textSize == mPaint.getTextSize()) return;
+        mPaint.setTextSize(textSize);
+        invalidate();
+    }
+
+    public float getTextSize() {
+        return mPaint.getTextSize();
+    }
+
+    /**
+     * 等幅フォントで表示するかを設定する
+     * @param monospace true: 等幅フォントで 文字配列から直接描画する
+     */
+    public void setMonospace(boolean monospace) {
+        if (monospace == mMonospace) return;
+        mMonospace = monospace;
+        mPaint.setTypeface(monospace ? Typeface.MONOSPACE : mTypeface);
+        invalidate();
+    }
+
+    public boolean isMonospace() {
+        return mMonospace;
+    }
+
+    /**
+     * 表示幅を設定する
+     * @param width 表示幅 (pixel単位)
+     */
+    public void setWidth(int width) {
+        if (width == mWidth) return;
+        mWidth = width;
+        invalidate();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * 1行の高さを返す (レイアウトが作成されていないページの 仮の高さに使用する)
+     * @return 高さ (pixel)
+     */
+    public int getLineHeight() {
+        return mPaint.getFontMetricsInt(null);
+    }
+
+    /**
+     * 作成済みのレイアウトを返す (文字サイズなどが変わる前に作成されたものを返す場合がある)
+     * @param page ページ番号
+     * @param text ページのテキスト
+     * @return レイアウト。作成されていない場合や、テキストが変わった場合は null
+     */
+    public PageLayout peekLayout(int page, CharSequence text) {
+        Entry entry = mLayouts.get(page);
+        return (entry != null && entry.text == text ? entry.layout : null);
+    }
+
+    /**
+     * 現在の文字サイズ・表示幅で作成されたレイアウトがあるか
+     * @param page ページ番号
+     * @param text ページのテキスト
+     * @return true: 作成済み
+     */
+    public boolean isCurrent(int page, CharSequence text) {
+        Entry entry = mLayouts.get(page);
+        return (entry != null && entry.text == text && entry.generation == mGeneration);
+    }
+
+    /**
+     * レイアウトの作成を要求する。作成されたら OnLayoutListenerに通知される
+     * @param page ページ番号
+     * @param text ページのテキスト
+     */
+    public void request(final int page, final CharSequence text) {
+        if (mWidth <= 0 || text == null || page < mFrom || page > mTo) return;
+        if (isCurrent(page, text) || !mPending.add(page)) return;
+
+        // TextPaintはスレッドセーフではないので、作成する時点の設定を複製して使用する
+        final TextPaint paint = new TextPaint(mPaint);
+        final int width = mWidth;
+        final int generation = mGeneration;
+        final GlyphWidthCache widthCache;
+        if (mMonospace && text instanceof TextPage) {
+            if (mWidthCache == null) mWidthCache = new GlyphWidthCache(new TextPaint(mPaint));
+            widthCache = mWidthCache;
+        } else {
+            widthCache = null;
+        }
+        ViewerExecutors.layout().execute(new Runnable() {
+            @Override
+            public void run() {
+                // 待っている間に 設定が変わった場合や 保持する範囲から外れた場合は 作成しない (作成中の登録のみ解除する)
+                boolean stale = (generation != mGeneration || page < mFrom || page > mTo);
+                final PageLayout layout = (stale ? null : build(text, paint, width, widthCache));
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // 作成中に設定が変わった場合は、同じページの 新しい設定での作成要求が 作成中として登録されているので そのままにする
+                        if (generation != mGeneration) return;
+                        mPending.remove(page);
+                        // 保持する範囲から外れた場合は破棄する
+                        if (layout == null || page < mFrom || page > mTo) return;
+                        mLayouts.put(page, new Entry(text, layout, generation));
+                        if (mListener != null) mListener.onLayoutBuilt(page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * レイアウトを保持する範囲を設定する。範囲外のレイアウトは破棄する
+     * @param from 最初のページ
+     * @param to 最後のページ
+     */
+    public void setRange(int from, int to) {
+        mFrom = from;
+        mTo = to;
+        for (int i = mLayouts.size() - 1; i >= 0; i--) {
+            int page = mLayouts.keyAt(i);
+            if (page < from || page > to) mLayouts.removeAt(i);
+        }
+    }
+
+    public void clear() {
+        mLayouts.clear();
+        mPending.clear();
+        mGeneration++;
+    }
+
+    private void invalidate() {
+        // 作成済みのレイアウトは 新しいものができるまで表示に使用するので、ここでは破棄しない
+        mPending.clear();
+        mWidthCache = null;
+        mGeneration++;
+    }
+
+    /**
+     * レイアウトを作成する (バックグラウンドで呼び出される)
+     * @param text テキスト
+     * @param paint 使用する TextPaint
+     * @param width 表示幅
+     * @param widthCache 文字幅のキャッシュ。nullでない場合は DirectPageLayoutを作成する
+     * @return レイアウト
+     */
+    static PageLayout build(CharSequence text, TextPaint paint, int width, GlyphWidthCache widthCache) {
+        if (widthCache != null) {
+            return new DirectPageLayout((TextPage) text, paint, width, widthCache);
+        }
+        return new StaticPageLayout(text, paint, width);
+    }
+
+
+    private static class Entry {
+        private final CharSequence text;
+        private final PageLayout layout;
+        private final int generation;
+
+        private Entry(CharSequence text, PageLayout layout, int generation) {
+            this.text = text;
+            this.layout = layout;
+            this.generation = generation;
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * デコード済みのページを Javaヒープの外(メモリマップしたファイル)に保持する領域
+ *
+ * 領域は BLOCK_SIZEごとのブロックに分けて管理し、1ページは 連続していない複数のブロックに格納する。
+ * 文字がすべて Latin-1(0xFF以下)のページは 1文字 1byteで、それ以外は UTF-16で格納する。
+ * (AndroidではByteBuffer.allocateDirect()の領域も Javaヒープから確保されるので、ファイルをメモリマップして使用する)
+ *
+ * スレッドセーフではない。(PageCacheが 同期して使用する)
+ */
+
+class PageStore {
+    private final static int BLOCK_SIZE = 16 * 1024;            // 4の倍数であること (int値が ブロックをまたがないように)
+
+    private final MappedByteBuffer mBuffer;
+    private final int mBlockCount;
+    private final int[] mFreeBlocks;                            // 空いているブロックの番号
+    private int mFreeCount;
+
+
+    /**
+     * 領域を作成する
+     * ファイルは メモリマップした後に削除するので、アプリが終了すると 領域も解放される
+     * @param file 領域に使用するファイル
+     * @param capacity 領域のサイズ (byte)
+     * @return 作成した領域。作成できなかった場合は null
+     */
+    static PageStore create(File file, int capacity) {
+        int blockCount = capacity / BLOCK_SIZE;
+        if (blockCount <= 0) return null;
+
+        RandomAccessFile raf = null;
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) return null;
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength((long) blockCount * BLOCK_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) blockCount * BLOCK_SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+            return new PageStore(buffer, blockCount);
+
+        } catch (IOException e) {
+            return null;
+
+        } finally {
+            // マップした領域は ファイルを閉じて削除した後も有効
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // 何もしない
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private PageStore(MappedByteBuffer buffer, int blockCount) {
+        mBuffer = buffer;
+        mBlockCount = blockCount;
+        mFreeBlocks = new int[ blockCount ];
+        for (int i = 0; i < blockCount; i++) {
+            mFreeBlocks[i] = blockCount - 1 - i;
+        }
+        mFreeCount = blockCount;
+    }
+
+    /**
+     * 領域のサイズを返す
+     * @return サイズ (byte)
+     */
+    int getCapacity() {
+        return mBlockCount * BLOCK_SIZE;
+    }
+
+    /**
+     * 使用中のサイズを返す
+     * @return サイズ (byte)
+     */
+    int getUsedBytes() {
+        return (mBlockCount - mFreeCount) * BLOCK_SIZE;
+    }
+
+    /**
+     * ページを格納するのに必要なサイズを返す
+     * @param page ページ
+     * @return サイズ (byte)
+     */
+    static int getPackedSize(TextPage page) {
+        int length = page.length();
+        int charBytes = (isLatin1(page) ? length : length * 2);
+        int lineCount = page.getLineCount();
+        // 行の開始・終了位置(int)が ブロックをまたがないように 4byte境界に揃える
+        int size = align(charBytes) + lineCount * 8 + lineCount;
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    /**
+     * ページを格納する
+     * @param page ページ
+     * @return 格納したページ。空きが足りない場合は null
+     */
+    Packed pack(TextPage page) {
+        boolean latin1 = isLatin1(page);
+        int length = page.length();
+        int lineCount = page.getLineCount();
+        int blockCount = getPackedSize(page) / BLOCK_SIZE;
+        if (blockCount > mFreeCount) return null;
+
+        int[] blocks = new int[ blockCount ];
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = mFreeBlocks[--mFreeCount];
+        }
+
+        char[] chars = page.getChars();
+        int pos = 0;
+        if (latin1) {
+            for (int i = 0; i < length; i++, pos++) mBuffer.put(address(blocks, pos), (byte) chars[i]);
+        } else {
+            for (int i = 0; i < length; i++, pos += 2) mBuffer.putChar(address(blocks, pos), chars[i]);
+        }
+        pos = align(pos);
+        for (int line = 0; line < lineCount; line++, pos += 8) {
+            mBuffer.putInt(address(blocks, pos), page.getLineStart(line));
+            mBuffer.putInt(address(blocks, pos + 4), page.getLineEnd(line));
+        }
+        for (int line = 0; line < lineCount; line++, pos++) {
+            mBuffer.put(address(blocks, pos), page.getLineEnding(line));
+        }
+        return new Packed(blocks, latin1, length, lineCount);
+    }
+
+    /**
+     * 格納したページを ヒープ上の TextPageに戻す
+     * @param packed 格納したページ
+     * @return ページ
+     */
+    TextPage unpack(Packed packed) {
+        int[] blocks = packed.blocks;
+        int length = packed.length;
+        int lineCount = packed.lineCount;
+        char[] chars = new char[ length ];
+        int[] lineStarts = new int[ lineCount ];
+        int[] lineEnds = new int[ lineCount ];
+        byte[] lineEndings = new byte[ lineCount ];
+
+        int pos = 0;
+        if (packed.latin1) {
+            for (int i = 0; i < length; i++, pos++) chars[i] = (char) (mBuffer.get(address(blocks, pos)) & 0xFF);
+        } else {
+            for (int i = 0; i < length; i++, pos += 2) chars[i] = mBuffer.getChar(address(blocks, pos));
+        }
+        pos = align(pos);
+        for (int line = 0; line < lineCount; line++, pos += 8) {
+            lineStarts[line] = mBuffer.getInt(address(blocks, pos));
+            lineEnds[line] = mBuffer.getInt(address(blocks, pos + 4));
+        }
+        for (int line = 0; line < lineCount; line++, pos++) {
+            lineEndings[line] = mBuffer.get(address(blocks, pos));
+        }
+        return new TextPage(chars, lineCount, lineStarts, lineEnds, lineEndings);
+    }
+
+    /**
+     * 格納したページの領域を解放する
+     * @param packed 格納したページ
+     */
+    void free(Packed packed) {
+        for (int block : packed.blocks) {
+            mFreeBlocks[mFreeCount++] = block;
+        }
+    }
+
+    private static int address(int[] blocks, int pos) {
+        return blocks[pos / BLOCK_SIZE] * BLOCK_SIZE + pos % BLOCK_SIZE;
+    }
+
+    private static int align(int pos) {
+        return (pos + 3) & ~3;
+    }
+
+    private static boolean isLatin1(TextPage page) {
+        char[] chars = page.getChars();
+        int length = page.length();
+        for (int i = 0; i < length; i++) {
+            if (chars[i] > 0xFF) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * PageStoreに格納したページ
+     */
+    static class Packed {
+        private final int[] blocks;
+        private final boolean latin1;
+        private final int length;
+        private final int lineCount;
+
+        private Packed(int[] blocks, boolean latin1, int length, int lineCount) {
+            this.blocks = blocks;
+            this.latin1 = latin1;
+            this.length = length;
+            this.lineCount = lineCount;
+        }
+
+        int getMemorySize() {
+            return blocks.length * BLOCK_SIZE;
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 1ページ分のテキストを表示する View
+ *
+ * PageLayouterが バックグラウンドで作成した PageLayoutを描画するだけで、UIスレッドでは 文字幅の計測などを行わない。
+ * (TextViewのように setText()のたびに UIスレッドでレイアウトし直すことはない)
+ * 描画は 画面に表示される範囲(clip)の行のみ行う
+ */
+
+public class PageView extends View {
+    private final static int COLOR_HIGHLIGHT = 0x80FFD54F;     // 強調表示の背景色
+
+    public interface OnWidthChangedListener {
+        /**
+         * 表示幅が変わった事を通知する
+         * @param contentWidth paddingを除いた表示幅 (pixel)
+         */
+        void onWidthChanged(int contentWidth);
+    }
+
+    private PageLayout mLayout = null;
+    private int mPlaceholderHeight = 0;                         // レイアウトが作成されていない場合の高さ
+    private final Rect mClipBounds = new Rect();
+    private Paint mHighlightPaint;
+    private int mHighlightStart = 0;
+    private int mHighlightEnd = 0;
+    private OnWidthChangedListener mListener = null;
+
+
+    public PageView(Context context) {
+        super(context);
+        initialize();
+    }
+
+    public PageView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        initialize();
+    }
+
+    public PageView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        initialize();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public PageView(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        initialize();
+    }
+
+    private void initialize() {
+        mHighlightPaint = new Paint();
+        mHighlightPaint.setColor(COLOR_HIGHLIGHT);
+    }
+
+    public void setOnWidthChangedListener(OnWidthChangedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 表示する レイアウトを設定する
+     * @param layout レイアウト。nullの場合は placeholderHeightの高さの 空白を表示する
+     * @param placeholderHeight レイアウトがない場合の高さ
+     */
+    public void setPageLayout(PageLayout layout, int placeholderHeight) {
+        int oldHeight = getContentHeight();
+        mLayout = layout;
+        mPlaceholderHeight = placeholderHeight;
+        mHighlightStart = mHighlightEnd = 0;
+        if (getContentHeight() != oldHeight) requestLayout();
+        invalidate();
+    }
+
+    /**
+     * 表示中のレイアウトを返す
+     * @return レイアウト。作成されていない場合は null
+     */
+    public PageLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * 指定範囲の文字を強調表示する
+     * @param start 開始位置
+     * @param end 終了位置
+     */
+    public void setHighlight(int start, int end) {
+        mHighlightStart = start;
+        mHighlightEnd = end;
+        invalidate();
+    }
+
+    /**
+     * 指定された高さにある 表示上の行の 最初の文字の位置を返す
+     * @param y Viewの上端からの位置 (pixel)
+     * @return ページのテキスト上の位置。レイアウトが作成されていない場合は -1
+     */
+    public int getOffsetForVertical(float y) {
+        if (mLayout == null) return -1;
+        int line = mLayout.getLineForVertical(Math.max((int) y - getPaddingTop(), 0));
+        return mLayout.getLineStart(line);
+    }
+
+    private int getContentHeight() {
+        return (mLayout != null ? mLayout.getHeight() : mPlaceholderHeight);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int contentWidth = width - getPaddingLeft() - getPaddingRight();
+        if (mListener != null && contentWidth > 0) mListener.onWidthChanged(contentWidth);
+        setMeasuredDimension(width, getContentHeight() + getPaddingTop() + getPaddingBottom());
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) return;
+
+        // ListViewの項目は 一部のみ表示される事が多いので、表示される範囲を レイアウトの座標で渡す
+        if (!canvas.getClipBounds(mClipBounds)) return;
+        int top = mClipBounds.top - getPaddingTop();
+        int bottom = mClipBounds.bottom - getPaddingTop();
+
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas, top, bottom, mHighlightStart, mHighlightEnd, mHighlightPaint);
+        canvas.restore();
+    }
+
+}
@@ -0,0 +1,338 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ファイル内を 正規表現で検索するクラス
+ *
+ * ファイルを文字の区切りで一定サイズの区間に分割し、区間ごとにデコードして CPUのコア数分 並列に検索する。
+ * 結果は 区間の先頭から順に SearchResultに追加するので、検索途中でも 見つかった位置は昇順に並んでいる。
+ * 見つかった位置は 一致した文字列の先頭の byte位置で表す。
+ * (区間の境界をまたぐ一致は MAX_MATCH_BYTESまでの長さのもののみ見つかる)
+ *
+ * ISO-2022-JPは 状態を持つので 途中の位置から文字の区切りを判定できない。
+ * そのため 区間の境界を エスケープシーケンスの位置に合わせ、先頭から順に 1つずつ検索する。
+ */
+
+public class RegexSearcher extends FileSearcher {
+    private final static int SEGMENT_SIZE = 1024 * 1024;        // 並列に検索する単位 (byte)
+    private final static int CONTEXT_BYTES = 256;               // 「^」や 後読みの判定のために 前に読み込んでおく量 (byte)
+    private final static int MAX_MATCH_BYTES = 64 * 1024;       // 区間の境界をまたいで見つけられる 一致の最大長 (byte)
+    private final static int MAX_BOUNDARY_SCAN = 4096;          // 区間の境界とする 文字の先頭を探す範囲 (byte)
+    private final static int BUFFER_SIZE = 4096;
+    private final static int INITIAL_SEGMENT_HITS = 64;
+    private final static long INTERVAL_NOTIFY = 200;            // 進捗の通知間隔 (msec)
+
+    private final Pattern mPattern;
+
+
+    /**
+     * コンストラクタ
+     * @param source 検索するファイル
+     * @param regex 検索する正規表現
+     * @param charSet ファイルの文字コード
+     * @throws PatternSyntaxException 正規表現の構文が正しくない場合
+     */
+    public RegexSearcher(UriSource source, String regex, String charSet) {
+        super(source, regex, charSet);
+        mPattern = Pattern.compile(regex, Pattern.MULTILINE);
+    }
+
+    @Override
+    protected long search() {
+        if (CharBoundary.isStateful(getCharSet())) return searchSequential();
+
+        long scanned = 0;
+        SearchResult result = getResult();
+        ViewerExecutors.OrderedChunks<Hits> segments = null;
+        try {
+            final long size = getSource().size();
+            int segmentCount = (int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            long notified = SystemClock.uptimeMillis();
+            long lastEnd = 0;
+
+            // 区間ごとに並列に検索し、結果は先頭から順に追加する
+            segments = new ViewerExecutors.OrderedChunks<>(segmentCount, new ViewerExecutors.ChunkTask<Hits>() {
+                @Override
+                public Hits call(int segment) throws IOException {
+                    long from = (long)segment * SEGMENT_SIZE;
+                    return searchSegment(from, Math.min(from + SEGMENT_SIZE, size));
+                }
+            });
+            for (int segment = 0; segments.hasNext() && !isCanceled(); segment++) {
+                Hits hits = segments.next();
+                for (int i = 0; i < hits.count; i++) {
+                    // 前の区間で見つかった一致と 重なるものは除く
+                    if (hits.offsets[i] < lastEnd) continue;
+                    result.add(hits.offsets[i], hits.lengths[i]);
+                    lastEnd = hits.ends[i];
+                }
+                scanned = Math.min((long)(segment + 1) * SEGMENT_SIZE, size);
+
+                long now = SystemClock.uptimeMillis();
+                if (now - notified >= INTERVAL_NOTIFY || (hits.count > 0 && result.getCount() == hits.count)) {
+                    notified = now;
+                    notifyUpdated(scanned);
+                }
+            }
+
+        } catch (IOException e) {
+            // 検索できた所までの結果とする
+        } catch (InterruptedException e) {
+            cancel();
+        } finally {
+            if (segments != null) segments.cancel();
+        }
+        return scanned;
+    }
+
+    /**
+     * 状態を持つ文字コードのファイルを 先頭から順に検索する
+     * 区間の境界は 区間の大きさ以降の 最初のエスケープシーケンスの位置とする。(見つからない場合は ファイルの最後まで 1つの区間とする)
+     * @return 検索を終えた位置
+     */
+    private long searchSequential() {
+        long scanned = 0;
+        SearchResult result = getResult();
+        try {
+            long size = getSource().size();
+            long notified = SystemClock.uptimeMillis();
+            long lastEnd = 0;
+
+            while (scanned < size && !isCanceled()) {
+                long start = scanned;
+                long end = findEscape(Math.min(start + SEGMENT_SIZE, size), size);
+                Hits hits = searchRange(start, end);
+                for (int i = 0; i < hits.count; i++) {
+                    if (hits.offsets[i] < lastEnd) continue;
+                    result.add(hits.offsets[i], hits.lengths[i]);
+                    lastEnd = hits.ends[i];
+                }
+                scanned = end;
+
+                long now = SystemClock.uptimeMillis();
+                if (now - notified >= INTERVAL_NOTIFY || (hits.count > 0 && result.getCount() == hits.count)) {
+                    notified = now;
+                    notifyUpdated(scanned);
+                }
+            }
+
+        } catch (IOException e) {
+            // 検索できた所までの結果とする
+        }
+        return scanned;
+    }
+
+    /**
+     * 指定位置以降の 最初のエスケープシーケンスの位置を返す
+     * @param position 検索開始位置
+     * @param size ファイルサイズ
+     * @return エスケープシーケンスの位置。見つからない場合は size
+     */
+    private long findEscape(long position, long size) throws IOException {
+        while (position < size && !isCanceled()) {
+            ByteBuffer bytes = getSource().getBuffer(position, (int)Math.min(SEGMENT_SIZE, size - position));
+            int length = bytes.remaining();
+            if (length <= 0) break;
+            int found = CharBoundary.findCharStart(bytes, 0, length, getCharSet());
+            if (found >= 0) return position + found;
+            position += length;
+        }
+        return size;
+    }
+
+    /**
+     * 境界が文字の先頭と分かっている区間を検索する
+     * @param start 開始位置 (エスケープシーケンスの位置、または ファイルの先頭)
+     * @param end 終了位置 (エスケープシーケンスの位置、または ファイルの最後)
+     * @return 見つかった位置
+     */
+    private Hits searchRange(long start, long end) throws IOException {
+        if (start >= end) return new Hits();
+
+        long size = getSource().size();
+        long readStart = Math.max(start - CONTEXT_BYTES, 0);
+        long readEnd = Math.min(end + MAX_MATCH_BYTES, size);
+        ByteBuffer bytes = getSource().getBuffer(readStart, (int)(readEnd - readStart));
+        int segmentStart = (int)(start - readStart);
+        int segmentEnd = Math.min((int)(end - readStart), bytes.remaining());
+        int contextStart = (readStart == 0 ? 0 : CharBoundary.findCharStart(bytes, 0, segmentStart, getCharSet()));
+        if (contextStart < 0) contextStart = segmentStart;
+        return match(bytes, readStart, contextStart, segmentStart, segmentEnd);
+    }
+
+    /**
+     * 指定位置を含む区間を検索する
+     * 区間は startより後の最初の文字の先頭から、endより後の最初の文字の先頭までとし、その範囲で始まる一致を返す。
+     * デコードするのは 前の CONTEXT_BYTES分と 後の MAX_MATCH_BYTES分を加えた範囲のみとする。(長い行を含んでいても 一定の大きさ)
+     * @param start 開始位置
+     * @param end 終了位置
+     * @return 見つかった位置
+     */
+    private Hits searchSegment(long start, long end) throws IOException {
+        Hits hits = new Hits();
+        if (start >= end || isCanceled()) return hits;
+
+        // 「^」や 後読みの判定のために前の CONTEXT_BYTES分と、区間の境界をまたぐ一致を見つけるための MAX_MATCH_BYTES分を余分に読み込む
+        long size = getSource().size();
+        long readStart = Math.max(start - CONTEXT_BYTES, 0);
+        long readEnd = Math.min(end + MAX_MATCH_BYTES, size);
+        if (readStart >= readEnd) return hits;
+        ByteBuffer bytes = getSource().getBuffer(readStart, (int)(readEnd - readStart));
+        int length = bytes.remaining();
+
+        // 区間の境界は 隣の区間と同じ位置になるように、同じ方法で求める
+        int segmentStart = (start == 0 ? 0 : findBoundary(bytes, (int)(start - readStart)));
+        int segmentEnd = (end >= size ? length : findBoundary(bytes, (int)(end - readStart)));
+        if (segmentStart >= segmentEnd) return hits;
+        int contextStart = (readStart == 0 ? 0 : CharBoundary.findCharStart(bytes, 0, segmentStart, getCharSet()));
+        if (contextStart < 0) contextStart = segmentStart;
+        return match(bytes, readStart, contextStart, segmentStart, segmentEnd);
+    }
+
+    /**
+     * 読み込んだ byte列をデコードして、区間内で始まる一致を探す
+     * @param bytes 読み込んだ byte列
+     * @param readStart bytesの先頭の ファイル内の位置
+     * @param contextStart デコードを開始する位置 (bytes内の位置)
+     * @param segmentStart 区間の開始位置 (bytes内の位置)
+     * @param segmentEnd 区間の終了位置 (bytes内の位置)
+     * @return 見つかった位置
+     */
+    private Hits match(ByteBuffer bytes, long readStart, int contextStart, int segmentStart, int segmentEnd) {
+        Hits hits = new Hits();
+        ByteBuffer input = bytes.duplicate();
+        input.position(contextStart);
+        CharBuffer chars;
+        try {
+            chars = newDecoder().decode(input);
+        } catch (CharacterCodingException e) {
+            // REPLACEを指定しているので 発生しない
+            return hits;
+        }
+
+        // 見つかった位置(文字位置)は、同じ byte列を もう一度 先頭から順にデコードしながら byte位置に変換する
+        PositionTracker tracker = new PositionTracker(newDecoder(), bytes, contextStart);
+        Matcher matcher = mPattern.matcher(chars);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        matcher.region(tracker.toChar(segmentStart), chars.length());
+        while (!isCanceled() && matcher.find()) {
+            int matchStart = matcher.start();
+            int matchEnd = matcher.end();
+            // 空文字列に一致した場合は 記録しない (「^」など)
+            if (matchStart == matchEnd) continue;
+
+            int offset = tracker.toByte(matchStart);
+            if (offset >= segmentEnd) break;
+            hits.add(readStart + offset, readStart + tracker.toByte(matchEnd), matchEnd - matchStart);
+        }
+        return hits;
+    }
+
+    private CharsetDecoder newDecoder() {
+        return Charset.forName(getCharSet()).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 区間の境界とする位置を返す
+     * @param bytes 読み込んだ byte列
+     * @param position 区切りたい位置
+     * @return position以降 MAX_BOUNDARY_SCAN以内の 最初の文字の先頭。見つからない場合は position
+     */
+    private int findBoundary(ByteBuffer bytes, int position) {
+        int limit = bytes.limit();
+        if (position >= limit) return limit;
+        int found = CharBoundary.findCharStart(bytes, position, Math.min(position + MAX_BOUNDARY_SCAN, limit), getCharSet());
+        return (found >= 0 ? found : position);
+    }
+
+    /**
+     * byte列を先頭から順にデコードしながら、文字位置と byte位置を対応させるクラス (位置は 進める方向にのみたどれる)
+     */
+    private static class PositionTracker {
+        private final CharsetDecoder mDecoder;
+        private final ByteBuffer mBytes;
+        private final CharBuffer mBuffer = CharBuffer.allocate(BUFFER_SIZE);
+        private int mChars = 0;
+
+        private PositionTracker(CharsetDecoder decoder, ByteBuffer bytes, int start) {
+            mDecoder = decoder;
+            mBytes = bytes.duplicate();
+            mBytes.position(start);
+        }
+
+        /**
+         * 指定位置まで進めて、文字位置を返す
+         * @param position byte位置 (文字の先頭であること)
+         * @return 文字位置
+         */
+        private int toChar(int position) {
+            int limit = mBytes.limit();
+            mBytes.limit(position);
+            CoderResult result;
+            do {
+                mBuffer.clear();
+                result = mDecoder.decode(mBytes, mBuffer, false);
+                mChars += mBuffer.position();
+            } while (result.isOverflow());
+            mBytes.limit(limit);
+            return mChars;
+        }
+
+        /**
+         * 指定位置まで進めて、byte位置を返す
+         * @param position 文字位置
+         * @return byte位置
+         */
+        private int toByte(int position) {
+            while (mChars < position) {
+                // 出力する文字数を制限して、指定位置の文字の手前で デコードを止める
+                mBuffer.clear();
+                mBuffer.limit(Math.min(position - mChars, mBuffer.capacity()));
+                mDecoder.decode(mBytes, mBuffer, false);
+                if (mBuffer.position() == 0) break;
+                mChars += mBuffer.position();
+            }
+            return mBytes.position();
+        }
+    }
+
+    /**
+     * 1つの区間で見つかった位置
+     */
+    private static class Hits {
+        private long[] offsets = new long[ INITIAL_SEGMENT_HITS ];
+        private long[] ends = new long[ INITIAL_SEGMENT_HITS ];
+        private int[] lengths = new int[ INITIAL_SEGMENT_HITS ];
+        private int count = 0;
+
+        private void add(long offset, long end, int length) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            offsets[count] = offset;
+            ends[count] = end;
+            lengths[count] = length;
+            count++;
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.util.Arrays;
+
+/**
+ * 検索で見つかった位置(byte)の一覧
+ * 位置は 昇順に プリミティブの long配列で保持する。
+ *
+ * 正規表現の検索では 一致した長さが異なるので、長さも 見つかった位置ごとに保持する。
+ *
+ * 追加は 検索スレッド(1つ)のみが行い、参照は UIスレッドなど任意のスレッドから行える
+ */
+
+public class SearchResult {
+    private final static int INITIAL_CAPACITY = 256;
+
+    private final String mQuery;
+    private volatile long[] mOffsets = new long[ INITIAL_CAPACITY ];
+    private volatile int[] mLengths = null;                     // 一致した文字数 (nullの場合は すべて 検索文字列の長さ)
+    private volatile int mCount = 0;
+    private volatile boolean mCompleted = false;
+
+
+    public SearchResult(String query) {
+        mQuery = query;
+    }
+
+    public String getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * 見つかった件数を返す (検索途中の場合は、その時点までの件数)
+     * @return 件数
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 指定番目に見つかった位置を返す
+     * @param index 番号 (0から始まる)
+     * @return 位置 (byte)。範囲外の場合は -1
+     */
+    public long getOffset(int index) {
+        // mCountを先に読むこと。(mOffsetsは mCountより先に更新されている)
+        int count = mCount;
+        if (index < 0 || index >= count) return -1;
+        return mOffsets[index];
+    }
+
+    /**
+     * 指定番目に見つかった文字列の 長さを返す
+     * @param index 番号 (0から始まる)
+     * @return 文字数
+     */
+    public int getLength(int index) {
+        int count = mCount;
+        int[] lengths = mLengths;
+        if (index < 0 || index >= count || lengths == null) return mQuery.length();
+        return lengths[index];
+    }
+
+    /**
+     * 指定位置以降で 最初に見つかった位置の番号を返す
+     * @param offset 位置 (byte)
+     * @return 番号。指定位置以降に見つかっていない場合は getCount()
+     */
+    public int findNext(long offset) {
+        int count = mCount;
+        long[] offsets = mOffsets;
+
+        // 二分探索で offset以上の最小の位置を探す
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    void add(long offset) {
+        add(offset, mQuery.length());
+    }
+
+    /**
+     * 見つかった位置を追加する。(検索スレッドからのみ呼び出すこと)
+     * @param offset 位置 (byte)。文字の先頭であること
+     * @param length 見つかった文字列の長さ
+     */
+    void add(long offset, int length) {
+        int count = mCount;
+        long[] offsets = mOffsets;
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            if (mLengths != null) mLengths = Arrays.copyOf(mLengths, offsets.length);
+            mOffsets = offsets;
+        }
+        // 既定値と異なる値が追加されるまで 配列は作成しない
+        if (length != mQuery.length() && mLengths == null) {
+            int[] lengths = new int[ offsets.length ];
+            Arrays.fill(lengths, 0, count, mQuery.length());
+            mLengths = lengths;
+        }
+        if (mLengths != null) mLengths[count] = length;
+        offsets[count] = offset;
+        mCount = count + 1;
+    }
+
+    void setCompleted() {
+        mCompleted = true;
+    }
+
+}
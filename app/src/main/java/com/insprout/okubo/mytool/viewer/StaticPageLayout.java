@@ -0,0 +1,85 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Build;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * StaticLayoutによる PageLayout
+ * 任意のフォントや 双方向テキストなど、Androidのテキスト描画の機能をすべて使用できる
+ */
+
+class StaticPageLayout implements PageLayout {
+    private final Layout mLayout;
+    private final Path mHighlightPath = new Path();
+    private int mHighlightStart = 0;                            // mHighlightPathを作成した範囲
+    private int mHighlightEnd = 0;
+
+
+    /**
+     * レイアウトを作成する (バックグラウンドで呼び出してよい)
+     * @param text テキスト
+     * @param paint 使用する TextPaint (このレイアウト専用のもの)
+     * @param width 表示幅
+     */
+    @SuppressWarnings("deprecation")
+    StaticPageLayout(CharSequence text, TextPaint paint, int width) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mLayout = StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+                    .setIncludePad(true)
+                    .build();
+        } else {
+            mLayout = new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true);
+        }
+    }
+
+    @Override
+    public int getHeight() {
+        return mLayout.getHeight();
+    }
+
+    @Override
+    public int getLineCount() {
+        return mLayout.getLineCount();
+    }
+
+    @Override
+    public int getLineTop(int line) {
+        return mLayout.getLineTop(line);
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        return mLayout.getLineStart(line);
+    }
+
+    @Override
+    public int getLineForOffset(int offset) {
+        return mLayout.getLineForOffset(offset);
+    }
+
+    @Override
+    public int getLineForVertical(int vertical) {
+        return mLayout.getLineForVertical(vertical);
+    }
+
+    @Override
+    public void draw(Canvas canvas, int top, int bottom, int highlightStart, int highlightEnd, Paint highlightPaint) {
+        if (highlightStart >= highlightEnd) {
+            mLayout.draw(canvas);
+            return;
+        }
+        if (highlightStart != mHighlightStart || highlightEnd != mHighlightEnd) {
+            int length = mLayout.getText().length();
+            mLayout.getSelectionPath(Math.min(highlightStart, length), Math.min(highlightEnd, length), mHighlightPath);
+            mHighlightStart = highlightStart;
+            mHighlightEnd = highlightEnd;
+        }
+        mLayout.draw(canvas, mHighlightPath, highlightPaint, 0);
+    }
+
+}
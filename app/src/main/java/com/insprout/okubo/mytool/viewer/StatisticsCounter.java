@@ -0,0 +1,245 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * ファイルを走査して FileStatisticsを作成するクラス
+ *
+ * ファイルは CHUNK_SIZEごとに分割して CPUのコア数分 並列に走査する。
+ * 各チャンクは それぞれの long配列に数を数え、最後に先頭から順に合計する。(走査中に スレッド間で共有する値はない)
+ * 行の先頭が チャンク内にある行は、そのチャンクで ログレベルを判定する
+ */
+
+public class StatisticsCounter implements Runnable {
+    private final static int CHUNK_SIZE = 1024 * 1024;          // 並列に走査する単位 (byte)
+    final static int LEVEL_SCAN_BYTES = 256;                    // ログレベルを探す 行の先頭からの範囲 (byte)
+    private final static long INTERVAL_NOTIFY = 200;            // 進捗の通知間隔 (msec)
+
+    // チャンクごとの集計値の 配列内の位置
+    private final static int COUNT_LINES = 0;
+    private final static int COUNT_WORDS = 1;
+    private final static int COUNT_NON_ASCII = 2;
+    private final static int COUNT_LEVELS = 3;                  // COUNT_LEVELS + FileStatistics.LEVEL_xxx
+    private final static int COUNT_SIZE = COUNT_LEVELS + FileStatistics.LEVEL_COUNT;
+
+    // ログレベルの表記と そのレベル (WARNINGは WARNより先に判定する)
+    private final static byte[][] LEVEL_NAMES = {
+            { 'E', 'R', 'R', 'O', 'R' },
+            { 'W', 'A', 'R', 'N', 'I', 'N', 'G' },
+            { 'W', 'A', 'R', 'N' },
+            { 'I', 'N', 'F', 'O' }
+    };
+    private final static int[] LEVELS = {
+            FileStatistics.LEVEL_ERROR,
+            FileStatistics.LEVEL_WARN,
+            FileStatistics.LEVEL_WARN,
+            FileStatistics.LEVEL_INFO
+    };
+
+    public interface OnStatisticsListener {
+        /**
+         * 集計の進捗を通知する (UIスレッドで呼び出される)
+         * @param scannedBytes 走査済みのバイト数
+         * @param totalBytes ファイルサイズ
+         */
+        void onStatisticsProgress(long scannedBytes, long totalBytes);
+
+        /**
+         * 集計の完了を通知する (UIスレッドで呼び出される)
+         * @param statistics 集計結果。読み込めなかった場合は null
+         */
+        void onStatisticsCompleted(FileStatistics statistics);
+    }
+
+    private final UriSource mSource;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private OnStatisticsListener mListener = null;
+    private volatile boolean mCanceled = false;
+
+
+    /**
+     * コンストラクタ
+     * @param source 集計するファイル
+     */
+    public StatisticsCounter(UriSource source) {
+        mSource = source;
+    }
+
+    public void setOnStatisticsListener(OnStatisticsListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * バックグラウンドで 集計を開始する
+     */
+    public void start() {
+        ViewerExecutors.background().execute(this);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    @Override
+    public void run() {
+        long started = SystemClock.uptimeMillis();
+        FileStatistics statistics = null;
+        ViewerExecutors.OrderedChunks<long[]> chunks = null;
+        try {
+            final long size = mSource.size();
+            int chunkCount = (int)((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            long notified = started;
+            long[] total = new long[ COUNT_SIZE ];
+
+            chunks = new ViewerExecutors.OrderedChunks<>(chunkCount, new ViewerExecutors.ChunkTask<long[]>() {
+                @Override
+                public long[] call(int chunk) throws IOException {
+                    long start = (long)chunk * CHUNK_SIZE;
+                    return scanChunk(start, Math.min(start + CHUNK_SIZE, size), size);
+                }
+            });
+            for (int chunk = 0; chunks.hasNext() && !mCanceled; chunk++) {
+                long[] counts = chunks.next();
+                for (int i = 0; i < COUNT_SIZE; i++) {
+                    total[i] += counts[i];
+                }
+
+                long now = SystemClock.uptimeMillis();
+                if (now - notified >= INTERVAL_NOTIFY) {
+                    notified = now;
+                    notifyProgress(Math.min((long)(chunk + 1) * CHUNK_SIZE, size), size);
+                }
+            }
+            if (size == 0) total[COUNT_LINES] = 1;                // 空のファイルも 1行として扱う (LineIndexと同じ)
+
+            if (!mCanceled) {
+                long[] levels = new long[ FileStatistics.LEVEL_COUNT ];
+                System.arraycopy(total, COUNT_LEVELS, levels, 0, levels.length);
+                statistics = new FileStatistics(size, total[COUNT_LINES], total[COUNT_WORDS], total[COUNT_NON_ASCII],
+                        levels, SystemClock.uptimeMillis() - started);
+            }
+
+        } catch (IOException e) {
+            statistics = null;
+        } catch (InterruptedException e) {
+            mCanceled = true;
+        } finally {
+            if (chunks != null) chunks.cancel();
+        }
+
+        if (mCanceled) return;
+        notifyCompleted(statistics);
+    }
+
+    /**
+     * 指定範囲を集計する
+     * 直前の byteで 行頭・単語の先頭かを判定するので 1byte前から、範囲の最後の行の ログレベルを判定するために
+     * LEVEL_SCAN_BYTES分先まで 読み込む
+     * @param start 開始位置
+     * @param end 終了位置
+     * @param size ファイルサイズ
+     * @return 集計値の配列 (COUNT_xxxの位置)
+     */
+    private long[] scanChunk(long start, long end, long size) throws IOException {
+        long[] counts = new long[ COUNT_SIZE ];
+        long readStart = Math.max(start - 1, 0);
+        int length = (int)(Math.min(end + LEVEL_SCAN_BYTES, size) - readStart);
+        byte[] buf = new byte[ length ];
+        int read = 0;
+        while (read < length && !mCanceled) {
+            int n = mSource.read(readStart + read, buf, read, length - read);
+            // 途中までの集計を 完了した結果として返さないように、読み込めなかった場合は 失敗とする
+            if (n <= 0) throw new IOException("short read at " + (readStart + read));
+            read += n;
+        }
+
+        long lines = 0;
+        long words = 0;
+        long nonAscii = 0;
+        int chunkEnd = (int)(end - readStart);
+        int i = (int)(start - readStart);
+        byte prev = (start == 0 ? (byte)'\n' : buf[0]);
+        int lineStart = -1;                                     // 判定中の行の先頭 (ログレベルが決まった行は -1)
+        for (; i < chunkEnd && i < read; i++) {
+            byte b = buf[i];
+            if (prev == '\n') {
+                lines++;
+                lineStart = i;
+            }
+            if (b < 0) nonAscii++;
+            if (!isSpace(b) && isSpace(prev)) words++;
+            if (lineStart >= 0 && (b == 'E' || b == 'W' || b == 'I')) {
+                lineStart = matchLevel(buf, i, read, prev, lineStart, counts);
+            }
+            prev = b;
+        }
+
+        // 範囲の最後の行は 次のチャンクにまたがっていても このチャンクで判定する
+        if (prev != '\n') {
+            for (; lineStart >= 0 && i < read && buf[i] != '\n'; i++) {
+                byte b = buf[i];
+                if (b == 'E' || b == 'W' || b == 'I') lineStart = matchLevel(buf, i, read, prev, lineStart, counts);
+                prev = b;
+            }
+        }
+
+        counts[COUNT_LINES] = lines;
+        counts[COUNT_WORDS] = words;
+        counts[COUNT_NON_ASCII] = nonAscii;
+        return counts;
+    }
+
+    /**
+     * 指定位置から始まる ログレベルの表記を調べて、見つかれば そのレベルの行数を数える
+     * @return 行の先頭位置 (判定を続ける場合)。ログレベルが見つかった場合や 判定する範囲を過ぎた場合は -1
+     */
+    private static int matchLevel(byte[] buf, int position, int length, byte prev, int lineStart, long[] counts) {
+        if (position - lineStart >= LEVEL_SCAN_BYTES) return -1;
+        if (isWordByte(prev)) return lineStart;
+
+        for (int n = 0; n < LEVEL_NAMES.length; n++) {
+            byte[] name = LEVEL_NAMES[n];
+            int end = position + name.length;
+            if (end > length) continue;
+            if (end < length && isWordByte(buf[end])) continue;
+            int i = 1;
+            while (i < name.length && buf[position + i] == name[i]) i++;
+            if (i == name.length && buf[position] == name[0]) {
+                counts[COUNT_LEVELS + LEVELS[n]]++;
+                return -1;
+            }
+        }
+        return lineStart;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private static boolean isWordByte(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    private void notifyProgress(final long scannedBytes, final long totalBytes) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onStatisticsProgress(scannedBytes, totalBytes);
+            }
+        });
+    }
+
+    private void notifyCompleted(final FileStatistics statistics) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled && mListener != null) mListener.onStatisticsCompleted(statistics);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * シークできない InputStreamから読み込む UriSource
+ * 読み込んだ内容はキャッシュファイルに退避し、同じ位置を再度読む場合は キャッシュファイルから読み込む。
+ * (元の InputStreamは先頭から一度だけ読めばよい)
+ */
+
+class StreamUriSource extends UriSource {
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static String SPILL_FILE_PREFIX = "viewer";
+    private final static int INTERVAL_PROGRESS = 1024 * 1024;  // 読み込み状況を通知する間隔 (byte)
+
+    private final InputStream mInputStream;
+    private final File mSpillFile;
+    private final RandomAccessFile mSpill;
+    private long mSize;                                         // ファイルサイズ (不明の場合は -1)
+    private long mSpilled = 0;                                  // キャッシュファイルに退避済みのバイト数
+    private boolean mEndOfStream = false;
+    private final byte[] mBuffer = new byte[ BUFFER_SIZE ];
+
+
+    /**
+     * コンストラクタ
+     * @param uri ファイルの Uri
+     * @param inputStream 読み込む InputStream
+     * @param size ファイルサイズ (不明の場合は -1)
+     * @param cacheDir キャッシュファイルを作成するディレクトリ
+     */
+    StreamUriSource(Uri uri, InputStream inputStream, long size, File cacheDir) throws IOException {
+        super(uri);
+        mInputStream = inputStream;
+        mSize = size;
+        mSpillFile = File.createTempFile(SPILL_FILE_PREFIX, null, cacheDir);
+        mSpill = new RandomAccessFile(mSpillFile, "rw");
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        if (mSize < 0) {
+            // サイズが不明の場合は 最後まで読み込んで確定させる
+            fill(Long.MAX_VALUE);
+        }
+        return mSize;
+    }
+
+    @Override
+    public synchronized int read(long position, byte[] buf, int offset, int length) throws IOException {
+        fill(position + length);
+        if (position >= mSpilled) return -1;
+
+        int size = (int)Math.min(length, mSpilled - position);
+        mSpill.seek(position);
+        mSpill.readFully(buf, offset, size);
+        return size;
+    }
+
+    /**
+     * 指定位置まで InputStreamを読み進めて、キャッシュファイルに退避する
+     * @param position 読み込む位置
+     */
+    private void fill(long position) throws IOException {
+        while (!mEndOfStream && mSpilled < position) {
+            checkAborted();
+            int size = mInputStream.read(mBuffer);
+            if (size < 0) {
+                mEndOfStream = true;
+                mSize = mSpilled;
+                break;
+            }
+            mSpill.seek(mSpilled);
+            mSpill.write(mBuffer, 0, size);
+            mSpilled += size;
+            if (mSpilled % INTERVAL_PROGRESS < size) notifyProgress(mSpilled, mSize);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mInputStream.close();
+        mSpill.close();
+        //noinspection ResultOfMethodCallIgnored
+        mSpillFile.delete();
+    }
+
+}
@@ -0,0 +1,333 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * CSV/TSVファイルを 1行ずつ表形式で ListViewに表示するための Adapter
+ *
+ * 行の位置は LineIndexから求め、BLOCK_ROWS行ごとに I/Oスレッドで読み込んで 列に分割する。
+ * 分割するのは 表示範囲(と前後のブロック)の行のみで、ファイル全体を解析することはない。
+ * 列幅は 最初に読み込んだブロックの行から見積もり、以降は変更しない。(見積もりより長い値は 列幅で切り取って表示する)
+ */
+
+public class TableAdapter extends BaseAdapter {
+    private final static int BLOCK_ROWS = 64;                   // 1回に読み込む行数
+    private final static int BLOCK_MARGIN = 1;                  // 表示範囲の前後に保持しておくブロック数
+    private final static int MAX_ROW_BYTES = 16 * 1024;         // 1行で表示する 最大サイズ (byte)
+    private final static int MAX_COLUMNS = 256;                 // 表示する 最大の列数
+    private final static int MAX_CELL_CHARS = 256;              // 1つの列で表示する 最大の文字数
+    private final static int MIN_COLUMN_CHARS = 2;              // 列幅 (半角の文字数)
+    private final static int MAX_COLUMN_CHARS = 24;
+    private final static int DEFAULT_COLUMN_CHARS = 8;          // 見積もった範囲外の列の幅
+    private final static float DIP_CELL_PADDING = 6.0f;
+
+    private final LayoutInflater mInflater;
+    private final int mLayoutId;
+    private final DisplayMetrics mMetrics;
+    private final int mTextColor;
+    private final Paint mMeasurePaint = new Paint();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SparseArray<String[][]> mBlocks = new SparseArray<>();
+    private final Set<Integer> mRequested = new HashSet<>();   // 読み込み要求中のブロック
+    private UriSource mSource = null;
+    private String mCharSet = null;
+    private LineIndex mIndex = null;
+    private int mCount = 0;                                     // 索引の作成中は 行数が増えるので、通知時点の値を使用する
+    private float mTextSize = 18.0f;                            // 文字サイズ (sp単位)
+    private char mDelimiter = 0;                                // 区切り文字 (判定前は 0)
+    private int[] mColumnChars = null;                          // 見積もった列幅 (半角の文字数。見積もり前は null)
+    private int[] mColumnX = null;                              // 各列の左端の位置 (pixel)
+    private int mDefaultWidth = 0;
+    private int mCellPadding = 0;
+    private int mScrollX = 0;                                   // 横スクロール位置 (pixel)
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param layoutId 1行を表示する TableRowViewのレイアウトID
+     */
+    public TableAdapter(Context context, int layoutId) {
+        mInflater = LayoutInflater.from(context);
+        mLayoutId = layoutId;
+        mMetrics = context.getResources().getDisplayMetrics();
+        // 文字色は TextViewの既定値に合わせる
+        mTextColor = new TextView(context).getCurrentTextColor();
+        mCellPadding = (int)(DIP_CELL_PADDING * mMetrics.density);
+    }
+
+    /**
+     * 表示するファイルを設定する (UriSourceは 呼び出し元が管理するので closeしない)
+     * @param source ファイル。nullの場合は 表示を消去する
+     * @param charSet ファイルの文字コード
+     * @param index 行の索引 (作成中でもよい)
+     */
+    public void setSource(UriSource source, String charSet, LineIndex index) {
+        mSource = source;
+        mCharSet = charSet;
+        mIndex = index;
+        mBlocks.clear();
+        mRequested.clear();
+        mDelimiter = 0;
+        mColumnChars = null;
+        mScrollX = 0;
+        updateColumnX();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 文字サイズを設定する
+     * @param textSize 文字サイズ (sp単位)
+     */
+    public void setTextSize(float textSize) {
+        mTextSize = textSize;
+        updateColumnX();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 表示されている範囲を通知する。範囲外のブロックを破棄し、前後のブロックの読み込みを要求する
+     * @param first 表示されている最初の行
+     * @param last 表示されている最後の行
+     */
+    public void setVisibleRange(int first, int last) {
+        int firstBlock = first / BLOCK_ROWS - BLOCK_MARGIN;
+        int lastBlock = last / BLOCK_ROWS + BLOCK_MARGIN;
+        for (int i = mBlocks.size() - 1; i >= 0; i--) {
+            int block = mBlocks.keyAt(i);
+            if (block < firstBlock || block > lastBlock) mBlocks.removeAt(i);
+        }
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            requestBlock(block);
+        }
+    }
+
+    /**
+     * 横にスクロールする。表示中の行は 読み込み直さずに 描画する列のみを変える
+     * @param listView 表示中の ListView
+     * @param dx スクロール量 (pixel)
+     */
+    public void scrollHorizontally(AbsListView listView, float dx) {
+        if (mColumnX == null) return;
+        int visibleWidth = listView.getWidth() - listView.getPaddingLeft() - listView.getPaddingRight();
+        int maxScroll = Math.max(mColumnX[mColumnX.length - 1] - visibleWidth / 2, 0);
+        int scrollX = Math.max(Math.min(Math.round(mScrollX + dx), maxScroll), 0);
+        if (scrollX == mScrollX) return;
+
+        mScrollX = scrollX;
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            View child = listView.getChildAt(i);
+            if (child instanceof TableRowView) ((TableRowView) child).setScrollPosition(scrollX);
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        int count = (mIndex != null && mSource != null ? mIndex.getLineCount() : 0);
+        // 読み込み後に 行が追加された ブロックは 読み込み直す
+        if (count > mCount && mCount % BLOCK_ROWS != 0) mBlocks.remove(mCount / BLOCK_ROWS);
+        mCount = count;
+        super.notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return (mIndex != null ? mIndex.getLineOffset(position) : -1L);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TableRowView rowView = (TableRowView) convertView;
+        if (rowView == null) rowView = (TableRowView) mInflater.inflate(mLayoutId, parent, false);
+        // 先頭行は 見出しとして表示する
+        rowView.setTextStyle(toPixel(mTextSize), mTextColor, position == 0);
+
+        String[][] rows = mBlocks.get(position / BLOCK_ROWS);
+        if (rows == null) {
+            // 読み込まれていない行は 読み込みを要求して、読み込まれるまで 空欄で表示しておく
+            requestBlock(position / BLOCK_ROWS);
+            rowView.setRow(null, null, 0, 0, 0);
+        } else {
+            rowView.setRow(rows[position % BLOCK_ROWS], mColumnX, mDefaultWidth, mCellPadding, mScrollX);
+        }
+        return rowView;
+    }
+
+    private void requestBlock(final int block) {
+        final UriSource source = mSource;
+        final LineIndex index = mIndex;
+        final int first = block * BLOCK_ROWS;
+        if (source == null || index == null || block < 0 || first >= mCount) return;
+        if (mBlocks.get(block) != null || !mRequested.add(block)) return;
+
+        final int count = Math.min(BLOCK_ROWS, mCount - first);
+        final String charSet = mCharSet;
+        final char delimiter = mDelimiter;
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                // 区切り文字が決まっていなければ 先頭行から判定する (どのブロックから読み込んでも 同じ結果になるように)
+                char separator = delimiter;
+                if (separator == 0) {
+                    String[] head = readLines(source, charSet, index, 0, 1);
+                    separator = (head != null ? CsvScanner.detectDelimiter(head[0]) : CsvScanner.DELIMITER_COMMA);
+                }
+                final char decided = separator;
+                final String[][] rows = readRows(source, charSet, index, first, count, decided);
+                final int[] columnChars = (rows != null ? estimateColumnChars(rows, count) : null);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (source != mSource || !mRequested.remove(block) || rows == null) return;
+                        mDelimiter = decided;
+                        if (mColumnChars == null) {
+                            // 最初に読み込んだブロックから 列幅を決める
+                            mColumnChars = columnChars;
+                            updateColumnX();
+                        }
+                        // 読み込み中に 行が追加された場合は、次に表示する時に 読み込み直す
+                        if (count < BLOCK_ROWS && first + count < mCount) return;
+                        mBlocks.put(block, rows);
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 列幅から 各列の左端の位置を求める
+     */
+    private void updateColumnX() {
+        mMeasurePaint.setTextSize(toPixel(mTextSize));
+        float charWidth = mMeasurePaint.measureText("0");
+        mDefaultWidth = (int)(charWidth * DEFAULT_COLUMN_CHARS) + mCellPadding * 2;
+        if (mColumnChars == null) {
+            mColumnX = null;
+            return;
+        }
+        int[] columnX = new int[ mColumnChars.length + 1 ];
+        for (int i = 0; i < mColumnChars.length; i++) {
+            columnX[i + 1] = columnX[i] + (int)(charWidth * mColumnChars[i]) + mCellPadding * 2;
+        }
+        mColumnX = columnX;
+    }
+
+    /**
+     * 列幅を見積もる (半角の文字数。全角の文字は 2文字として数える)
+     * @param rows 行の値
+     * @param count 行数
+     * @return 列幅
+     */
+    private static int[] estimateColumnChars(String[][] rows, int count) {
+        int columns = 0;
+        for (int i = 0; i < count; i++) {
+            columns = Math.max(columns, rows[i].length);
+        }
+        int[] widths = new int[ columns ];
+        for (int i = 0; i < count; i++) {
+            for (int c = 0; c < rows[i].length; c++) {
+                String value = rows[i][c];
+                int width = 0;
+                for (int j = 0; j < value.length() && width < MAX_COLUMN_CHARS; j++) {
+                    width += (value.charAt(j) < 0x100 || (value.charAt(j) >= 0xFF61 && value.charAt(j) <= 0xFF9F) ? 1 : 2);
+                }
+                widths[c] = Math.max(widths[c], width);
+            }
+        }
+        for (int c = 0; c < columns; c++) {
+            widths[c] = Math.max(Math.min(widths[c], MAX_COLUMN_CHARS), MIN_COLUMN_CHARS);
+        }
+        return widths;
+    }
+
+    /**
+     * 行を読み込んで 列に分割する (I/Oスレッドで呼び出される)
+     * @return 行ごとの列の値。読み込めなかった場合は null
+     */
+    private static String[][] readRows(UriSource source, String charSet, LineIndex index, int first, int count, char delimiter) {
+        String[] lines = readLines(source, charSet, index, first, count);
+        if (lines == null) return null;
+
+        String[][] rows = new String[ BLOCK_ROWS ][];
+        for (int i = 0; i < count; i++) {
+            String[] columns = CsvScanner.split(lines[i], delimiter, MAX_COLUMNS);
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c].length() > MAX_CELL_CHARS) columns[c] = columns[c].substring(0, MAX_CELL_CHARS);
+            }
+            rows[i] = columns;
+        }
+        return rows;
+    }
+
+    /**
+     * 行の内容を読み込む (I/Oスレッドで呼び出される)
+     * @return 行の内容 (改行コードを除く)。読み込めなかった場合は null
+     */
+    private static String[] readLines(UriSource source, String charSet, LineIndex index, int first, int count) {
+        String[] lines = new String[ count ];
+        CharsetDecoder decoder = Charset.forName(charSet).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] buf = new byte[ MAX_ROW_BYTES ];
+        try {
+            long size = source.size();
+            for (int i = 0; i < count; i++) {
+                long offset = index.getLineOffset(first + i);
+                if (offset < 0) return null;
+                // 次の行の位置が分かっていれば そこまで、分からなければ 改行までを読み込む
+                long next = index.getLineOffset(first + i + 1);
+                int length = (int)Math.min(MAX_ROW_BYTES, (next >= 0 ? next : size) - offset);
+                int read = 0;
+                while (read < length) {
+                    int n = source.read(offset + read, buf, read, length - read);
+                    if (n <= 0) break;
+                    read += n;
+                }
+
+                int end = 0;
+                while (end < read && buf[end] != '\n') end++;
+                if (end > 0 && buf[end - 1] == '\r') end--;
+                lines[i] = decoder.reset().decode(ByteBuffer.wrap(buf, 0, end)).toString();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return lines;
+    }
+
+    private float toPixel(float sp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, sp, mMetrics);
+    }
+
+}
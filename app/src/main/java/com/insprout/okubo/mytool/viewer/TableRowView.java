@@ -0,0 +1,133 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * 表形式(CSV/TSV)の 1行を表示する View
+ * 列の位置は TableAdapterが 全行で共通に決めたものを使用し、横スクロール位置から 表示幅に入る列のみを描画する。
+ * (列幅に収まらない値は 列の範囲で切り取って表示する)
+ */
+
+public class TableRowView extends View {
+    private final static int COLOR_GRID = 0x40808080;          // 列の区切り線の色
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mGridPaint = new Paint();
+    private String[] mColumns = null;
+    private int[] mColumnX = null;                              // 各列の左端の位置 (列数 + 1個。最後は 右端)
+    private int mDefaultWidth = 0;                              // mColumnXの範囲外の列の幅
+    private int mCellPadding = 0;
+    private int mScrollX = 0;
+    private float mTextSize = 0.0f;
+    private int mBaseline = 0;                                  // 上端から ベースラインまでの距離
+
+
+    public TableRowView(Context context) {
+        super(context);
+        initialize();
+    }
+
+    public TableRowView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        initialize();
+    }
+
+    public TableRowView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        initialize();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public TableRowView(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        initialize();
+    }
+
+    private void initialize() {
+        mGridPaint.setColor(COLOR_GRID);
+    }
+
+    /**
+     * 文字の表示形式を設定する
+     * @param textSize 文字サイズ (pixel)
+     * @param color 文字色
+     * @param header true: 見出し行として 太字で表示する
+     */
+    public void setTextStyle(float textSize, int color, boolean header) {
+        mPaint.setColor(color);
+        mPaint.setFakeBoldText(header);
+        if (textSize != mTextSize) {
+            mTextSize = textSize;
+            mPaint.setTextSize(textSize);
+            requestLayout();
+        }
+    }
+
+    /**
+     * 表示する行を設定する
+     * @param columns 列の値。nullの場合は 何も表示しない(読み込まれていない場合)
+     * @param columnX 各列の左端の位置 (pixel)
+     * @param defaultWidth columnXの範囲外の列の幅 (pixel)
+     * @param cellPadding 列の左右の余白 (pixel)
+     * @param scrollX 横スクロール位置 (pixel)
+     */
+    public void setRow(String[] columns, int[] columnX, int defaultWidth, int cellPadding, int scrollX) {
+        mColumns = columns;
+        mColumnX = columnX;
+        mDefaultWidth = defaultWidth;
+        mCellPadding = cellPadding;
+        mScrollX = scrollX;
+        invalidate();
+    }
+
+    /**
+     * 横スクロール位置を変更する
+     * @param scrollX 横スクロール位置 (pixel)
+     */
+    public void setScrollPosition(int scrollX) {
+        if (scrollX == mScrollX) return;
+        mScrollX = scrollX;
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        Paint.FontMetricsInt metrics = mPaint.getFontMetricsInt();
+        mBaseline = -metrics.top;
+        setMeasuredDimension(width, metrics.bottom - metrics.top + getPaddingTop() + getPaddingBottom());
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mColumns == null || mColumnX == null) return;
+
+        int origin = getPaddingLeft() - mScrollX;
+        int width = getWidth();
+        int height = getHeight();
+        int estimated = mColumnX.length - 1;
+        int baseline = getPaddingTop() + mBaseline;
+        for (int i = 0; i < mColumns.length; i++) {
+            int left = origin + (i < estimated ? mColumnX[i] : mColumnX[estimated] + (i - estimated) * mDefaultWidth);
+            int right = (i < estimated ? origin + mColumnX[i + 1] : left + mDefaultWidth);
+            // 表示幅に入らない列は 描画しない
+            if (right <= 0) continue;
+            if (left >= width) break;
+
+            canvas.save();
+            canvas.clipRect(left, 0, right - mCellPadding, height);
+            canvas.drawText(mColumns[i], left + mCellPadding, baseline, mPaint);
+            canvas.restore();
+            canvas.drawLine(right, 0, right, height, mGridPaint);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.text.GetChars;
+
+/**
+ * デコードされた 1ページ分のテキスト
+ * 文字は 1つの char配列に保持し、各行は その配列上の位置(int)で表す。(行ごとに Stringを作成しない)
+ *
+ * 行末の改行コード(LF / CR+LF / CR)は 元のファイルのまま保持する。
+ * CharSequenceとしては、ページ末尾の改行コードを除いた範囲を返す
+ */
+
+public class TextPage implements CharSequence, GetChars {
+    // 行末の改行コード
+    public final static byte LINE_END_NONE = 0;                 // 改行なし (ページ末尾の行)
+    public final static byte LINE_END_LF = 1;
+    public final static byte LINE_END_CRLF = 2;
+    public final static byte LINE_END_CR = 3;
+
+    private final char[] mChars;
+    private final int mLength;                                  // 末尾の改行コードを除いた文字数
+    private final int mLineCount;
+    private final int[] mLineStarts;                            // 各行の開始位置
+    private final int[] mLineEnds;                              // 各行の終了位置 (改行コードを含まない)
+    private final byte[] mLineEndings;                          // 各行の改行コードの種類
+
+
+    TextPage(char[] chars, int lineCount, int[] lineStarts, int[] lineEnds, byte[] lineEndings) {
+        mChars = chars;
+        mLineCount = lineCount;
+        mLineStarts = lineStarts;
+        mLineEnds = lineEnds;
+        mLineEndings = lineEndings;
+        mLength = (lineCount > 0 ? lineEnds[lineCount - 1] : 0);
+    }
+
+    /**
+     * 文字が格納されている配列を返す。(Canvas.drawText(char[], ...)などで 直接使用するため。内容を変更しないこと)
+     * @return 文字の配列
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public int getLineCount() {
+        return mLineCount;
+    }
+
+    /**
+     * 指定行の開始位置を返す
+     * @param line ページ内の行番号 (0から始まる)
+     * @return getChars()の配列上の位置
+     */
+    public int getLineStart(int line) {
+        return mLineStarts[line];
+    }
+
+    /**
+     * 指定行の終了位置を返す (改行コードは含まない)
+     * @param line ページ内の行番号 (0から始まる)
+     * @return getChars()の配列上の位置
+     */
+    public int getLineEnd(int line) {
+        return mLineEnds[line];
+    }
+
+    /**
+     * 指定行の改行コードの種類を返す
+     * @param line ページ内の行番号 (0から始まる)
+     * @return LINE_END_NONE, LINE_END_LF, LINE_END_CRLF, LINE_END_CR のいずれか
+     */
+    public byte getLineEnding(int line) {
+        return mLineEndings[line];
+    }
+
+    /**
+     * 保持している文字数から、おおよそのメモリ使用量を返す
+     * @return メモリ使用量 (byte)
+     */
+    public int getMemorySize() {
+        return mChars.length * 2 + mLineCount * (4 + 4 + 1);
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException();
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > mLength || start > end) throw new IndexOutOfBoundsException();
+        return new String(mChars, start, end - start);
+    }
+
+    /**
+     * 指定範囲の文字を 配列にコピーする
+     * (StaticLayoutなどは GetCharsを実装した CharSequenceから まとめて文字を取得するので、1文字ずつ charAt()を呼び出さずに済む)
+     */
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        if (start < 0 || end > mLength || start > end) throw new IndexOutOfBoundsException();
+        System.arraycopy(mChars, start, dest, destoff, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+}
@@ -0,0 +1,632 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * テキストファイルを ページ単位に分割して読み込むクラス
+ * ファイル全体は読み込まず、表示に必要なページ(と前後の数ページ)のみをデコードして保持する
+ *
+ * ページ k は、ファイル先頭から k * PAGE_BYTES byte目以降の最初の行頭から始まる。
+ * そのため ページの開始位置は そのページ付近を読むだけで求められ、事前にファイル全体を走査する必要はない
+ *
+ * 1行が非常に長い場合(改行のない JSONなど)は、WRAP_BYTES以内に行頭がなければ 行の途中の文字の区切りをページの開始位置とする。
+ * (仮想的な折り返し位置として ページの開始位置の表に保持する)
+ * そのため 1行がどれだけ長くても、1ページのデコードやレイアウトの量は 一定の範囲に収まる
+ * ISO-2022-JPで 2byte文字が続く場合は 2byte文字の区切りで区切り、そのページは 開始位置で有効なエスケープシーケンスを補ってデコードする
+ *
+ * ファイルの読み込みは I/Oスレッドで行う。UIスレッドからは peekPage() / requestPage()を使用すること
+ */
+
+public class TextPager {
+    public final static int PAGE_BYTES = 32 * 1024;             // 1ページの目安のサイズ (byte)
+    private final static int PAGE_MARGIN = 2;                   // 表示範囲の前後に保持しておくページ数
+    private final static int BUFFER_SIZE = 4096;
+    private final static int WRAP_BYTES = PAGE_BYTES;           // この範囲に行頭がなければ 行の途中でページを区切る
+    private final static long OFF_HEAP_FILE_BYTES = 32L * 1024 * 1024;  // これ以上のファイルは ページをヒープ外にキャッシュする
+    private final static int MAX_UTF8_CHAR = 4;                 // UTF-8の 1文字の最大長 (byte)
+
+    private final static long UNKNOWN = -1;
+
+    // 内容のないページ (文字の区切りが見つからず 次のページと開始位置が同じになった場合など) を示す
+    public final static CharSequence EMPTY_PAGE = CharBuffer.allocate(0);
+
+    public interface OnPageLoadedListener {
+        /**
+         * ページが読み込まれた事を通知する (UIスレッドで呼び出される)
+         * @param page 読み込まれたページ
+         */
+        void onPageLoaded(int page);
+    }
+
+    private final UriSource mSource;
+    private final String mCharSet;
+    private volatile long mFileSize;
+    private final LineScanner mScanner;
+    private final Object mPageStartLock = new Object();
+    private volatile long[] mPageStart;                         // 各ページの開始位置 (未計算の場合は UNKNOWN)
+    private final SparseArray<byte[]> mPageShift = new SparseArray<>(); // 開始位置で有効なエスケープシーケンス (補う必要のあるページのみ)
+    private final SparseArray<CharSequence> mPages = new SparseArray<>();
+    private final Set<Integer> mRequested = new HashSet<>();   // 読み込み要求中のページ
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile ByteBuffer mHead = null;                   // 読み込み済みの ファイル先頭部分
+    private volatile PageCache mCache = null;
+    private volatile String mFileKey = null;                    // PageCacheで このファイルと文字コードを表すキー
+    private int mGeneration = 0;                                // ファイルに追記されるごとに 更新する
+    private volatile boolean mClosed = false;
+    private OnPageLoadedListener mListener = null;
+
+
+    /**
+     * コンストラクタ
+     * サイズが分かっていない UriSource(圧縮されたファイル)は、サイズを求め終えた範囲までとし、
+     * 求めた範囲が広がったら 追記された場合と同様に grow()で広げる
+     * @param source 表示するファイル
+     * @param charSet 文字コード
+     */
+    public TextPager(UriSource source, String charSet) throws IOException {
+        mSource = source;
+        mCharSet = charSet;
+        mFileSize = source.getAvailableSize();
+        mScanner = new LineScanner(charSet);
+
+        int pageCount = (int)((mFileSize + PAGE_BYTES - 1) / PAGE_BYTES);
+        mPageStart = new long[ Math.max(pageCount, 1) + 1 ];
+        Arrays.fill(mPageStart, UNKNOWN);
+        mPageStart[0] = 0;
+        mPageStart[mPageStart.length - 1] = mFileSize;
+    }
+
+    public Uri getUri() {
+        return mSource.getUri();
+    }
+
+    public UriSource getSource() {
+        return mSource;
+    }
+
+    public String getCharSet() {
+        return mCharSet;
+    }
+
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    /**
+     * 読み込み済みの ファイル先頭部分を設定する。(文字コード判定で読み込んだ部分を 再度読み込まないようにする)
+     * @param head ファイル先頭部分
+     */
+    public void setHeadBuffer(ByteBuffer head) {
+        mHead = head;
+    }
+
+    /**
+     * デコードしたページを保持する キャッシュを設定する
+     * 表示範囲から外れて破棄したページも キャッシュに残っていれば 読み込み直さずに使用する
+     * @param cache キャッシュ
+     */
+    public void setPageCache(PageCache cache) {
+        mFileKey = PageCache.getFileKey(mSource, mCharSet);
+        mCache = (mFileKey != null ? cache : null);
+    }
+
+    public int getPageCount() {
+        return mPageStart.length - 1;
+    }
+
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 指定ページのテキストを返す。保持されていない場合はファイルから読み込む
+     * (ファイルを読み込むので UIスレッドからは呼び出さないこと)
+     * @param page ページ番号
+     * @return ページのテキスト。内容のないページの場合は EMPTY_PAGE。読み込めなかった場合は null
+     */
+    public CharSequence getPage(int page) {
+        if (page < 0 || page >= getPageCount()) return null;
+
+        CharSequence text = peekPage(page);
+        if (text == null) {
+            int generation;
+            String fileKey;
+            synchronized (mPages) {
+                generation = mGeneration;
+                fileKey = mFileKey;
+            }
+            // 以前にデコードしたページが ヒープ外のキャッシュに残っていれば、それを使用する
+            PageCache cache = mCache;
+            text = (cache != null ? cache.get(fileKey, page) : null);
+            boolean cached = (text != null);
+            if (!cached) text = loadPage(page);
+            if (text != null) {
+                synchronized (mPages) {
+                    // 読み込み中に ファイルに追記された場合は、古い内容なので保持しない
+                    if (generation != mGeneration) return text;
+                    mPages.put(page, text);
+                }
+                if (!cached && cache != null && text instanceof TextPage) {
+                    cache.put(fileKey, page, (TextPage) text, mFileSize >= OFF_HEAP_FILE_BYTES);
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * 読み込み済みのページのテキストを返す。(ファイルの読み込みは行わない)
+     * @param page ページ番号
+     * @return ページのテキスト。読み込まれていない場合は null
+     */
+    public CharSequence peekPage(int page) {
+        synchronized (mPages) {
+            CharSequence text = mPages.get(page);
+            if (text != null) return text;
+        }
+
+        // 以前にデコードしたページが キャッシュ(ヒープ上)に残っていれば、それを使用する
+        PageCache cache = mCache;
+        TextPage cached = (cache != null ? cache.peek(mFileKey, page) : null);
+        if (cached == null || mClosed) return null;
+        synchronized (mPages) {
+            mPages.put(page, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * 指定ページの読み込みを I/Oスレッドに要求する。読み込まれたら OnPageLoadedListenerに通知される
+     * @param page ページ番号
+     */
+    public void requestPage(final int page) {
+        if (mClosed || page < 0 || page >= getPageCount()) return;
+        synchronized (mPages) {
+            if (mPages.get(page) != null || !mRequested.add(page)) return;
+        }
+
+        ViewerExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                // 要求後に表示範囲外となったページや、閉じられた場合は読み込まない
+                synchronized (mPages) {
+                    if (mClosed || !mRequested.contains(page)) return;
+                }
+                final CharSequence text = getPage(page);
+                synchronized (mPages) {
+                    mRequested.remove(page);
+                }
+                if (text == null) return;
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mClosed && mListener != null) mListener.onPageLoaded(page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 表示されている範囲を通知する。
+     * 前後の PAGE_MARGINページは先読みし、それより離れたページは破棄する
+     * @param firstPage 表示されている最初のページ
+     * @param lastPage 表示されている最後のページ
+     */
+    public void setVisibleRange(int firstPage, int lastPage) {
+        int from = firstPage - PAGE_MARGIN;
+        int to = lastPage + PAGE_MARGIN;
+        synchronized (mPages) {
+            for (int i = mPages.size() - 1; i >= 0; i--) {
+                int page = mPages.keyAt(i);
+                if (page < from || page > to) mPages.removeAt(i);
+            }
+            for (Integer page : mRequested.toArray(new Integer[0])) {
+                if (page < from || page > to) mRequested.remove(page);
+            }
+        }
+        for (int page = firstPage; page <= to; page++) requestPage(page);
+        for (int page = firstPage - 1; page >= from; page--) requestPage(page);
+    }
+
+    /**
+     * ファイルに追記された事を通知する。(UriSourceは refresh()されていること)
+     * 追記された内容に影響される 末尾のページのみを破棄し、それより前のページは そのまま使用する
+     * @param newSize 追記後のファイルサイズ
+     * @return 内容が変わった最初のページ。サイズが増えていない場合は -1
+     */
+    public int grow(long newSize) {
+        int firstChanged;
+        synchronized (mPageStartLock) {
+            long oldSize = mFileSize;
+            if (newSize <= oldSize) return -1;
+
+            long[] oldStarts = mPageStart;
+            int oldCount = oldStarts.length - 1;
+            int pageCount = (int)((newSize + PAGE_BYTES - 1) / PAGE_BYTES);
+            long[] starts = new long[ Math.max(pageCount, oldCount) + 1 ];
+            Arrays.fill(starts, UNKNOWN);
+            System.arraycopy(oldStarts, 0, starts, 0, oldCount);
+
+            // ファイル末尾を開始位置としていたページ(行頭が見つからなかったページ)や、
+            // ファイル末尾付近で 行の途中を開始位置としたページ(追記で 行頭が見つかる場合がある)は 改めて求める
+            // その直前のページは 終了位置が変わるので 内容が変わる
+            int first = oldCount;
+            while (first > 1 && (oldStarts[first - 1] == oldSize || oldStarts[first - 1] == UNKNOWN
+                    || oldStarts[first - 1] + WRAP_BYTES > oldSize)) first--;
+            firstChanged = first - 1;
+            for (int page = first; page < oldCount; page++) starts[page] = UNKNOWN;
+            for (int i = mPageShift.size() - 1; i >= 0; i--) {
+                if (mPageShift.keyAt(i) >= first) mPageShift.removeAt(i);
+            }
+            starts[starts.length - 1] = newSize;
+
+            mPageStart = starts;
+            mFileSize = newSize;
+        }
+
+        synchronized (mPages) {
+            mGeneration++;
+            mFileKey = (mCache != null ? PageCache.getFileKey(mSource, mCharSet) : null);
+            for (int i = mPages.size() - 1; i >= 0; i--) {
+                if (mPages.keyAt(i) >= firstChanged) mPages.removeAt(i);
+            }
+            for (Integer page : mRequested.toArray(new Integer[0])) {
+                if (page >= firstChanged) mRequested.remove(page);
+            }
+        }
+        return firstChanged;
+    }
+
+    /**
+     * 読み込みを終了する。読み込み要求中のページは破棄される
+     * (UriSourceは 呼び出し元が管理するので closeしない)
+     */
+    public void close() {
+        mClosed = true;
+        synchronized (mPages) {
+            mPages.clear();
+            mRequested.clear();
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * 指定ページの開始位置を返す (ファイルを読み込む場合があるので UIスレッドからは呼び出さないこと)
+     * @param page ページ番号 (getPageCount()を指定した場合は ファイルサイズを返す)
+     * @return 開始位置 (byte)
+     */
+    public long getPageStart(int page) {
+        if (page <= 0) return 0;
+        if (page >= mPageStart.length) return mFileSize;
+
+        synchronized (mPageStartLock) {
+            if (mPageStart[page] == UNKNOWN) {
+                mPageStart[page] = findPageStart(page);
+            }
+            return mPageStart[page];
+        }
+    }
+
+    /**
+     * 求めてある ページの開始位置を返す (ファイルの読み込みは行わない)
+     * @param page ページ番号
+     * @return 開始位置 (byte)。まだ求めていない場合は -1
+     */
+    public long peekPageStart(int page) {
+        if (page <= 0) return 0;
+        if (page >= mPageStart.length) return mFileSize;
+
+        synchronized (mPageStartLock) {
+            return mPageStart[page];
+        }
+    }
+
+    /**
+     * 指定位置を含むページを返す (ファイルを読み込む場合があるので UIスレッドからは呼び出さないこと)
+     * @param offset 位置 (byte)
+     * @return ページ番号
+     */
+    public int findPage(long offset) {
+        // ページ k の開始位置は k * PAGE_BYTES 以上なので、offset / PAGE_BYTES より後ろのページにはならない
+        int page = (int)Math.min(Math.max(offset, 0) / PAGE_BYTES, getPageCount() - 1);
+        while (page > 0 && getPageStart(page) > offset) page--;
+        return page;
+    }
+
+    /**
+     * ファイル上の位置を、ページ内の文字位置に変換する (ファイルを読み込むので UIスレッドからは呼び出さないこと)
+     * @param page ページ番号
+     * @param offset ファイル上の位置 (byte)。文字の先頭であること
+     * @return ページのテキスト上の位置。変換できなかった場合は -1
+     */
+    public int toCharOffset(int page, long offset) {
+        long start = getPageStart(page);
+        if (offset < start || offset > getPageStart(page + 1)) return -1;
+        if (offset == start) return 0;
+
+        try {
+            // ページ先頭から 指定位置までをデコードして 文字数を数える
+            // (ページのデコードと同じく 不正な byte列は置換文字 1文字となるので、位置はずれない)
+            CharBuffer chars = Charset.forName(mCharSet).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(getPageBuffer(page, start, (int)(offset - start)));
+            return chars.remaining();
+
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 指定位置以降の ページの開始位置を返す
+     * WRAP_BYTESごとに区切って、その範囲に行頭があれば 行頭を、なければ 行の途中の文字の区切りを開始位置とする。
+     * 改行コード(0x0A)は このビューアで扱う文字コードでは 他の文字の一部として現れることはないので、byte列のまま探す
+     * @param page ページ番号 (page * PAGE_BYTES 以降を検索する)
+     * @return 開始位置。見つからない場合は ファイルサイズ
+     */
+    private long findPageStart(int page) {
+        long window = (long)page * PAGE_BYTES;
+        try {
+            while (window < mFileSize) {
+                // 直前の byteが改行であれば windowが行頭となるので、1byte前から調べる
+                long from = window - 1;
+                ByteBuffer buf = getBuffer(from, (int)Math.min(WRAP_BYTES + 1, mFileSize - from));
+                int size = buf.remaining();
+                if (size <= 0) break;
+                for (int i = 0; i < size; i++) {
+                    if (buf.get(i) == '\n') return Math.min(from + i + 1, mFileSize);
+                }
+                int wrap = findWrapPoint(buf, 1, size);
+                if (wrap >= 0) return from + wrap;
+                if (CharBoundary.isStateful(mCharSet)) {
+                    // 1byte文字に戻らないまま続く場合も ページが大きくなり続けないように、状態を補える位置で区切る
+                    long split = findShiftedWrapPoint(page, from + 1, from + size);
+                    if (split >= 0) return split;
+                } else if (CharBoundary.CHARSET_EUC_JP.equalsIgnoreCase(mCharSet)) {
+                    // 全角文字のみが続く場合は 前の文字の区切りからたどる
+                    long split = findEucWrapPoint(page, from + 1, from + size);
+                    if (split >= 0) return split;
+                }
+                window = from + size;
+            }
+
+        } catch (IOException e) {
+            // ファイル末尾として扱う
+        }
+        return mFileSize;
+    }
+
+    /**
+     * 行の途中で ページを区切ることのできる位置(文字の区切り)を返す
+     * @param buf byte列
+     * @param start 検索開始位置
+     * @param end 検索終了位置
+     * @return 区切りの位置。見つからない場合は -1
+     */
+    private int findWrapPoint(ByteBuffer buf, int start, int end) {
+        if (CharBoundary.isStateful(mCharSet)) {
+            // ISO-2022-JPは 状態を持つので、1byte文字に戻すエスケープシーケンス(ESC ( B / ESC ( J)の直後で区切る
+            for (int i = start; i + 2 < end; i++) {
+                if (buf.get(i) == 0x1B && buf.get(i + 1) == '(' && (buf.get(i + 2) == 'B' || buf.get(i + 2) == 'J')) {
+                    return i + 3;
+                }
+            }
+            return -1;
+        }
+
+        // 0x40未満の byte(空白、記号、数字など)は UTF-8, SHIFT_JIS, EUC-JPのいずれでも 多バイト文字の一部とならないので、
+        // その直後が 文字の区切りとなる。(区切り文字の後で折り返すので、表示上も自然な位置となる)
+        for (int i = start; i < end; i++) {
+            if ((buf.get(i) & 0xFF) < 0x40) return i + 1;
+        }
+        if (CharBoundary.CHARSET_EUC_JP.equalsIgnoreCase(mCharSet)) {
+            // EUC-JPは 多バイト文字の byteが すべて 0x80以上なので、0x80未満の byteの直後が 文字の区切りとなる
+            for (int i = start; i < end; i++) {
+                if ((buf.get(i) & 0x80) == 0) return i + 1;
+            }
+            return -1;
+        }
+        if (CharBoundary.CHARSET_SJIS.equalsIgnoreCase(mCharSet)) {
+            // SHIFT_JISは 先頭byteになれない byteで 文字が終わるので、その直後から 先頭byte・2byte目の並びをたどる
+            for (int i = start - 1; i < end; i++) {
+                if (!isSjisLeadByte(buf.get(i))) {
+                    int position = i + 1;
+                    while (position < start) position += (isSjisLeadByte(buf.get(position)) ? 2 : 1);
+                    return (position < end ? position : -1);
+                }
+            }
+            return -1;
+        }
+        if (CharBoundary.CHARSET_UTF8.equalsIgnoreCase(mCharSet)) {
+            // UTF-8は 記号がなくても 文字の先頭を特定できる
+            int found = CharBoundary.findCharStart(buf, start, end, mCharSet);
+            // 不正な byte列の場合は 最大の文字長の位置で区切る
+            if (found < 0 && start + MAX_UTF8_CHAR < end) found = start + MAX_UTF8_CHAR;
+            return found;
+        }
+        return -1;
+    }
+
+    private static boolean isSjisLeadByte(byte b) {
+        int value = b & 0xFF;
+        return (value >= 0x81 && value <= 0x9F) || (value >= 0xE0 && value <= 0xFC);
+    }
+
+    /**
+     * EUC-JPで 0x80未満の byteがない範囲を、文字の区切りで区切る
+     * 0xA1未満の byteは 2byte目以降にならないので、startより前の 最後のその byte(なければ 求めてある前のページの開始位置)から 文字の区切りをたどる
+     * @param page ページ番号
+     * @param start 検索開始位置
+     * @param end 検索終了位置
+     * @return 区切りの位置。見つからない場合は -1
+     */
+    private long findEucWrapPoint(int page, long start, long end) throws IOException {
+        long limit = 0;
+        for (int i = page - 1; i > 0; i--) {
+            if (mPageStart[i] != UNKNOWN) {
+                limit = mPageStart[i];
+                break;
+            }
+        }
+        if (limit >= start) return (limit < end ? limit : -1);
+
+        long position = limit;
+        long to = start;
+        while (to > limit) {
+            long from = Math.max(to - WRAP_BYTES, limit);
+            ByteBuffer buf = getBuffer(from, (int)(to - from));
+            int found = -1;
+            for (int i = buf.remaining() - 1; i >= 0; i--) {
+                int value = buf.get(i) & 0xFF;
+                if (value < 0xA1) {
+                    // SS2(0x8E), SS3(0x8F)は 文字の先頭。それ以外は 1byteで 1文字
+                    found = (value == 0x8E || value == 0x8F ? i : i + 1);
+                    break;
+                }
+            }
+            if (found >= 0) {
+                position = from + found;
+                break;
+            }
+            to = from;
+        }
+
+        // 文字の区切りから 先頭byteごとの文字の長さで startまで進める
+        while (position < start) {
+            ByteBuffer buf = getBuffer(position, (int)Math.min(WRAP_BYTES, end - position));
+            int length = buf.remaining();
+            if (length <= 0) return -1;
+            int i = 0;
+            while (i < length && position + i < start) {
+                int value = buf.get(i) & 0xFF;
+                i += (value == 0x8F ? 3 : value >= 0x8E ? 2 : 1);
+            }
+            position += i;
+        }
+        return (position < end ? position : -1);
+    }
+
+    /**
+     * ISO-2022-JPで 1byte文字に戻るエスケープシーケンスがない範囲を、文字の区切りで区切る
+     * 直前のエスケープシーケンスから 文字の区切りをたどり、ページの開始位置で有効な エスケープシーケンスを記録しておく
+     * @param page ページ番号
+     * @param start 検索開始位置
+     * @param end 検索終了位置
+     * @return 区切りの位置。見つからない場合は -1
+     */
+    private long findShiftedWrapPoint(int page, long start, long end) throws IOException {
+        // 区切る位置より前の 最後のエスケープシーケンスを探す
+        // (startの直後に エスケープシーケンスがある場合は その途中で区切らないように、それも含めて探す)
+        long escape = -1;
+        long to = Math.min(start + 4, end);
+        while (escape < 0 && to > 0) {
+            long from = Math.max(to - WRAP_BYTES, 0);
+            ByteBuffer buf = getBuffer(from, (int)(to - from));
+            for (int i = buf.remaining() - 1; i >= 0; i--) {
+                if (buf.get(i) == 0x1B) {
+                    escape = from + i;
+                    break;
+                }
+            }
+            to = from;
+        }
+        // エスケープシーケンスがなければ ASCIIなので、どこでも区切れる
+        if (escape < 0) return start;
+
+        ByteBuffer buf = getBuffer(escape, (int)Math.min(4, mFileSize - escape));
+        int length = (buf.remaining() >= 4 && buf.get(1) == '$' && buf.get(2) == '(') ? 4 : 3;
+        if (buf.remaining() < length) return -1;
+        byte[] shift = new byte[ length ];
+        buf.get(shift);
+
+        long base = escape + length;
+        long position = Math.max(start, base);
+        boolean ascii = (shift[1] == '(' && (shift[2] == 'B' || shift[2] == 'J'));
+        // 2byte文字の状態では エスケープシーケンスの直後から 2byteずつが 1文字となる
+        if (shift[1] == '$') position += (position - base) & 1;
+        if (position >= end) return -1;
+
+        if (ascii) {
+            mPageShift.remove(page);
+        } else {
+            mPageShift.put(page, shift);
+        }
+        return position;
+    }
+
+    /**
+     * ページの内容を返す。開始位置に補う必要のある エスケープシーケンスがあれば、先頭に加える
+     * @param page ページ番号
+     * @param start ページの開始位置
+     * @param length バイト数
+     * @return 指定範囲の ByteBuffer (position は 0)
+     */
+    private ByteBuffer getPageBuffer(int page, long start, int length) throws IOException {
+        ByteBuffer bytes = getBuffer(start, length);
+        byte[] shift;
+        synchronized (mPageStartLock) {
+            shift = mPageShift.get(page);
+        }
+        if (shift == null) return bytes;
+
+        ByteBuffer shifted = ByteBuffer.allocate(shift.length + bytes.remaining());
+        shifted.put(shift);
+        shifted.put(bytes);
+        shifted.flip();
+        return shifted;
+    }
+
+    private CharSequence loadPage(int page) {
+        long start = getPageStart(page);
+        long end = getPageStart(page + 1);
+        if (end <= start) return EMPTY_PAGE;
+
+        try {
+            // メモリマップされている場合は、マップされた領域から直接デコードする
+            // (ページ末尾の改行は ページ間の区切りとなるので、TextPageの CharSequenceとしては含まれない)
+            ByteBuffer bytes = getPageBuffer(page, start, (int)(end - start));
+            synchronized (mScanner) {
+                return mScanner.scan(bytes);
+            }
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 指定範囲の内容を返す。読み込み済みの先頭部分に含まれる場合は、ファイルから読み込まない
+     * @param position 開始位置
+     * @param length バイト数
+     * @return 指定範囲の ByteBuffer (position は 0)
+     */
+    private ByteBuffer getBuffer(long position, int length) throws IOException {
+        ByteBuffer head = mHead;
+        if (head != null && position + length <= head.limit()) {
+            ByteBuffer buffer = head.duplicate();
+            buffer.position((int)position);
+            buffer.limit((int)position + length);
+            return buffer.slice();
+        }
+        return mSource.getBuffer(position, length);
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.insprout.okubo.mytool.viewer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * ファイルの内容(byte列)の 3byteの並び(trigram)ごとに、それを含むブロックの一覧を保持する索引
+ *
+ * ファイルを BLOCK_SIZEごとのブロックに分け、trigramのハッシュ値(BUCKET_BITS bit)ごとに ブロック番号の昇順の一覧を
+ * プリミティブの int配列に連結して保持する。検索文字列のすべての trigramを含むブロックのみを 候補として検索すればよい。
+ * (ハッシュ値が衝突した場合や 多くのブロックに含まれる trigramは 候補を多めに返すだけで、一致の見落としはない)
+ *
+ * 作成後は変更しないので、任意のスレッドから参照できる
+ */
+
+public class TrigramIndex {
+    final static int BLOCK_SIZE = 256 * 1024;
+    final static int BUCKET_BITS = 20;
+    final static int BUCKET_COUNT = 1 << BUCKET_BITS;
+    private final static int MAX_QUERY_TRIGRAMS = 64;           // 候補の判定に使用する trigramの数 (long値の bit数)
+
+    private final long mIndexedSize;                            // 索引を作成した時の ファイルサイズ
+    private final int mBlockCount;
+    private final int[] mStarts;                                // ハッシュ値ごとの 一覧の開始位置 (BUCKET_COUNT + 1個)
+    private final int[] mPostings;                              // ブロック番号の一覧を 連結したもの
+    private final BitSet mCommon;                               // 大半のブロックに含まれるため 一覧を保持しないハッシュ値
+
+
+    TrigramIndex(long indexedSize, int blockCount, int[] starts, int[] postings, BitSet common) {
+        mIndexedSize = indexedSize;
+        mBlockCount = blockCount;
+        mStarts = starts;
+        mPostings = postings;
+        mCommon = common;
+    }
+
+    /**
+     * 3byteの並びの ハッシュ値を返す
+     * @param trigram 3byteを 上位から順に並べた 24bitの値
+     * @return ハッシュ値 (0 〜 BUCKET_COUNT - 1)
+     */
+    static int bucket(int trigram) {
+        return (trigram * 0x9E3779B1) >>> (32 - BUCKET_BITS);
+    }
+
+    public long getIndexedSize() {
+        return mIndexedSize;
+    }
+
+    /**
+     * 検索文字列を含む可能性がある範囲を返す
+     * 索引の作成後に追記された部分は 常に候補とする
+     * @param pattern 検索する byte列
+     * @param fileSize 現在のファイルサイズ
+     * @return 候補の範囲 (開始位置, 終了位置)の組を 昇順に並べた配列。索引で絞り込めない場合は null
+     */
+    public long[] findCandidates(byte[] pattern, long fileSize) {
+        if (pattern.length < 3 || pattern.length > BLOCK_SIZE || fileSize < mIndexedSize) return null;
+
+        // 検索文字列の trigramごとに、それを含むブロックの bitを立てる
+        // (ブロックの境界をまたぐ一致もあるので、隣のブロックと合わせて すべての trigramを含むブロックを候補とする)
+        int blockCount = (int)((fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        long[] masks = new long[ Math.max(blockCount, mBlockCount) + 1 ];
+        long required = 0;
+        int[] buckets = new int[ pattern.length - 2 ];
+        int bucketCount = 0;
+        int trigram = ((pattern[0] & 0xff) << 8) | (pattern[1] & 0xff);
+        for (int i = 2; i < pattern.length && bucketCount < MAX_QUERY_TRIGRAMS; i++) {
+            trigram = ((trigram << 8) | (pattern[i] & 0xff)) & 0xFFFFFF;
+            int bucket = bucket(trigram);
+            if (mCommon.get(bucket) || contains(buckets, bucketCount, bucket)) continue;
+            buckets[bucketCount] = bucket;
+            long bit = 1L << bucketCount;
+            required |= bit;
+            for (int p = mStarts[bucket]; p < mStarts[bucket + 1]; p++) {
+                masks[mPostings[p]] |= bit;
+            }
+            bucketCount++;
+        }
+        if (required == 0) return null;
+
+        // 索引の作成後に 内容が変わった可能性がある 最後のブロック以降は 常に候補とする
+        // (変わっていない場合は 最後のブロックの後ろに 一致をまたぐ続きはない)
+        int validBlocks = (fileSize == mIndexedSize ? mBlockCount : (int)(mIndexedSize / BLOCK_SIZE));
+        if (validBlocks < blockCount) Arrays.fill(masks, validBlocks, blockCount, required);
+
+        long[] ranges = new long[ 16 ];
+        int count = 0;
+        for (int block = 0; block < blockCount; block++) {
+            boolean candidate = (block >= validBlocks || ((masks[block] | masks[block + 1]) & required) == required);
+            if (!candidate) continue;
+
+            long start = (long) block * BLOCK_SIZE;
+            long end = Math.min(start + BLOCK_SIZE, fileSize);
+            if (count > 0 && ranges[count - 1] == start) {
+                // 連続するブロックは 1つの範囲にまとめる
+                ranges[count - 1] = end;
+            } else {
+                if (count == ranges.length) ranges = Arrays.copyOf(ranges, count * 2);
+                ranges[count++] = start;
+                ranges[count++] = end;
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 索引を書き込む。ブロック番号の一覧は 前の番号からの差分を 可変長整数で書き込む
+     * @param out 書き込み先
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(mIndexedSize);
+        out.writeInt(mBlockCount);
+        out.writeInt(BLOCK_SIZE);
+        out.writeInt(BUCKET_BITS);
+        out.writeInt(mPostings.length);
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            // 一覧の件数 + 1を書き込む。(0は 一覧を保持しないハッシュ値)
+            if (mCommon.get(bucket)) {
+                out.writeByte(0);
+                continue;
+            }
+            int start = mStarts[bucket];
+            int end = mStarts[bucket + 1];
+            writeVarInt(out, end - start + 1);
+            int previous = 0;
+            for (int p = start; p < end; p++) {
+                writeVarInt(out, mPostings[p] - previous);
+                previous = mPostings[p];
+            }
+        }
+    }
+
+    /**
+     * write()で書き込んだ索引を読み込む
+     * @param in 読み込み元
+     * @return 索引。作成条件(ブロックサイズなど)が異なる場合は null
+     */
+    static TrigramIndex read(DataInputStream in) throws IOException {
+        long indexedSize = in.readLong();
+        int blockCount = in.readInt();
+        if (in.readInt() != BLOCK_SIZE || in.readInt() != BUCKET_BITS) return null;
+
+        int[] postings = new int[ in.readInt() ];
+        int[] starts = new int[ BUCKET_COUNT + 1 ];
+        BitSet common = new BitSet(BUCKET_COUNT);
+        int position = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            starts[bucket] = position;
+            int count = readVarInt(in) - 1;
+            if (count < 0) {
+                common.set(bucket);
+                continue;
+            }
+            if (position + count > postings.length) throw new IOException("broken index");
+            int block = 0;
+            for (int i = 0; i < count; i++) {
+                block += readVarInt(in);
+                postings[position++] = block;
+            }
+        }
+        starts[BUCKET_COUNT] = position;
+        return new TrigramIndex(indexedSize, blockCount, starts, postings, common);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+}
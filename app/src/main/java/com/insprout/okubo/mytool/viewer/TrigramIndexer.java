@@ -0,0 +1,184 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * ファイルの TrigramIndexを バックグラウンドで用意するクラス
+ *
+ * 保存されている索引があれば それを読み込み、なければ ファイルを走査して作成して保存する。
+ * 作成は ブロックごとに CPUのコア数分 並列に trigramのハッシュ値を求め、ブロックごとの一覧を 一時ファイルに書き出してから
+ * ハッシュ値ごとの一覧に並べ替える。(メモリに保持するのは 最終的な索引の分のみ)
+ * 用意できた索引は FileStateに設定する
+ */
+
+public class TrigramIndexer implements Runnable {
+    private final static String TEMP_FILE_PREFIX = "trigram";
+    private final static int COMMON_RATIO = 4;                  // ブロックの 1/COMMON_RATIO以上に含まれる trigramは 一覧を保持しない
+    private final static int MAX_POSTINGS = 8 * 1024 * 1024;    // 一覧の合計件数の上限 (超える場合は 索引を作成しない)
+
+    private final Context mContext;
+    private final Uri mUri;
+    private final UriSource mSource;
+    private final FileState mState;
+    private volatile boolean mCanceled = false;
+
+
+    /**
+     * コンストラクタ
+     * @param context コンテキスト
+     * @param source 索引を作成するファイル
+     * @param state ファイルの状態 (用意できた索引を設定する)
+     */
+    public TrigramIndexer(Context context, UriSource source, FileState state) {
+        mContext = context.getApplicationContext();
+        mUri = source.getUri();
+        mSource = source;
+        mState = state;
+    }
+
+    /**
+     * バックグラウンドで 索引の読み込み(または作成)を開始する
+     */
+    public void start() {
+        ViewerExecutors.background().execute(this);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    @Override
+    public void run() {
+        TrigramIndex index = FileStateStore.restoreTrigramIndex(mContext, mUri, mState);
+        if (index == null && !mCanceled) {
+            index = build();
+            if (index != null && !mCanceled) FileStateStore.saveTrigramIndex(mContext, mUri, mState, index);
+        }
+        if (index != null && !mCanceled) mState.setTrigramIndex(index);
+    }
+
+    /**
+     * ファイルを走査して 索引を作成する
+     * @return 作成した索引。作成できなかった場合は null
+     */
+    private TrigramIndex build() {
+        File temp = null;
+        ViewerExecutors.OrderedChunks<int[]> blocks = null;
+        try {
+            final long size = mSource.size();
+            int blockCount = (int)((size + TrigramIndex.BLOCK_SIZE - 1) / TrigramIndex.BLOCK_SIZE);
+            int[] counts = new int[ TrigramIndex.BUCKET_COUNT ];
+
+            // ブロックごとの ハッシュ値の一覧を 一時ファイルに書き出しながら、ハッシュ値ごとの件数を数える
+            temp = File.createTempFile(TEMP_FILE_PREFIX, null, mContext.getCacheDir());
+            blocks = new ViewerExecutors.OrderedChunks<>(blockCount, new ViewerExecutors.ChunkTask<int[]>() {
+                @Override
+                public int[] call(int block) throws IOException {
+                    return scanBlock((long) block * TrigramIndex.BLOCK_SIZE, size);
+                }
+            });
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                while (blocks.hasNext()) {
+                    if (mCanceled) return null;
+                    int[] buckets = blocks.next();
+                    TrigramIndex.writeVarInt(out, buckets.length);
+                    int previous = 0;
+                    for (int bucket : buckets) {
+                        TrigramIndex.writeVarInt(out, bucket - previous);
+                        previous = bucket;
+                        counts[bucket]++;
+                    }
+                }
+            }
+
+            // 多くのブロックに含まれる trigramは 絞り込みに役立たないので 一覧を保持しない
+            int commonLimit = Math.max(blockCount / COMMON_RATIO, 1);
+            BitSet common = new BitSet(TrigramIndex.BUCKET_COUNT);
+            int[] starts = new int[ TrigramIndex.BUCKET_COUNT + 1 ];
+            int total = 0;
+            for (int bucket = 0; bucket < TrigramIndex.BUCKET_COUNT; bucket++) {
+                starts[bucket] = total;
+                if (blockCount > 1 && counts[bucket] > commonLimit) {
+                    common.set(bucket);
+                } else {
+                    total += counts[bucket];
+                }
+                if (total > MAX_POSTINGS) return null;
+            }
+            starts[TrigramIndex.BUCKET_COUNT] = total;
+
+            // 一時ファイルを読み直して、ハッシュ値ごとに ブロック番号を昇順に並べる (件数の配列は 書き込み位置として使い回す)
+            int[] postings = new int[ total ];
+            System.arraycopy(starts, 0, counts, 0, TrigramIndex.BUCKET_COUNT);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(temp)))) {
+                for (int block = 0; block < blockCount && !mCanceled; block++) {
+                    int count = TrigramIndex.readVarInt(in);
+                    int bucket = 0;
+                    for (int i = 0; i < count; i++) {
+                        bucket += TrigramIndex.readVarInt(in);
+                        if (!common.get(bucket)) postings[counts[bucket]++] = block;
+                    }
+                }
+            }
+            if (mCanceled) return null;
+            return new TrigramIndex(size, blockCount, starts, postings, common);
+
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            mCanceled = true;
+            return null;
+        } finally {
+            if (blocks != null) blocks.cancel();
+            if (temp != null) temp.delete();
+        }
+    }
+
+    /**
+     * 1ブロックに含まれる trigramの ハッシュ値を求める
+     * ブロックの最後の 2byteから始まる trigramも含めるため、次のブロックの先頭 2byteまで読み込む
+     * @param start ブロックの開始位置
+     * @param size ファイルサイズ
+     * @return ハッシュ値の一覧 (昇順、重複なし)
+     */
+    private int[] scanBlock(long start, long size) throws IOException {
+        int length = (int)Math.min(TrigramIndex.BLOCK_SIZE + 2, size - start);
+        byte[] buf = new byte[ length ];
+        int read = 0;
+        while (read < length) {
+            int n = mSource.read(start + read, buf, read, length - read);
+            if (n <= 0) break;
+            read += n;
+        }
+
+        BitSet seen = new BitSet(TrigramIndex.BUCKET_COUNT);
+        int[] buckets = new int[ 4096 ];
+        int count = 0;
+        int trigram = 0;
+        for (int i = 0; i < read && !mCanceled; i++) {
+            trigram = ((trigram << 8) | (buf[i] & 0xff)) & 0xFFFFFF;
+            if (i < 2) continue;
+            int bucket = TrigramIndex.bucket(trigram);
+            if (seen.get(bucket)) continue;
+            seen.set(bucket);
+            if (count == buckets.length) buckets = Arrays.copyOf(buckets, count * 2);
+            buckets[count++] = bucket;
+        }
+        buckets = Arrays.copyOf(buckets, count);
+        Arrays.sort(buckets);
+        return buckets;
+    }
+
+}
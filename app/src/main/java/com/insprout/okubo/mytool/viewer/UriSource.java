@@ -0,0 +1,269 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Uriで指定されたファイルを 任意の位置から読み込むためのクラス
+ *
+ * シーク可能なファイルの場合は FileChannelをメモリマップして読み込み、
+ * シークできない場合(ContentProviderが pipeを返す場合など)は 読み込んだ内容をキャッシュファイルに退避しながら読み込む
+ * gzip / zipで圧縮されたファイルは 伸長した内容を読み込む
+ */
+
+public abstract class UriSource implements Closeable {
+
+    /**
+     * 指定された Uriを開く
+     * @param context コンテキスト
+     * @param uri 対象ファイルの Uri
+     * @return UriSource。開けなかった場合は null
+     */
+    public static UriSource open(Context context, Uri uri) {
+        UriSource source = openSource(context, uri);
+        // gzip / zipで圧縮されている場合は 伸長した内容を読み込む
+        if (source != null) source = InflatedUriSource.wrap(source, context.getCacheDir());
+        // 更新日時は キャッシュが 同じ内容のファイルのものか確認するために使用する
+        if (source != null) source.mLastModified = ViewerFiles.getLastModified(context, uri);
+        return source;
+    }
+
+    private static UriSource openSource(Context context, Uri uri) {
+        if (uri == null || uri.getScheme() == null) return null;
+
+        try {
+            switch (uri.getScheme()) {
+                case "file":
+                    String path = uri.getPath();
+                    if (path == null) return null;
+                    RandomAccessFile file = new RandomAccessFile(path, "r");
+                    return new MappedUriSource(uri, file.getChannel(), file);
+
+                case "content":
+                    ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+                    if (pfd != null) {
+                        FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+                        if (isSeekable(channel)) {
+                            return new MappedUriSource(uri, channel, pfd);
+                        }
+                        pfd.close();
+                    }
+                    // シークできない場合は 順次読み込みで対応する
+                    InputStream inputStream = ViewerFiles.openInputStream(context, uri);
+                    if (inputStream == null) return null;
+                    return new StreamUriSource(uri, inputStream, ViewerFiles.getFileSize(context, uri), context.getCacheDir());
+            }
+
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean isSeekable(FileChannel channel) {
+        try {
+            // pipeや socketの場合は、position()の設定で例外となる
+            channel.position(0);
+            return channel.size() >= 0;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    public interface OnProgressListener {
+        /**
+         * ファイルの読み込み状況を通知する (読み込みを行ったスレッドで呼び出される)
+         * @param bytes 読み込んだバイト数
+         * @param total ファイルサイズ (不明の場合は -1)
+         */
+        void onProgress(long bytes, long total);
+    }
+
+
+    private final Uri mUri;
+    private volatile OnProgressListener mProgressListener = null;
+    private volatile long mLastModified = 0;
+    private volatile boolean mAborted = false;
+
+    UriSource(Uri uri) {
+        mUri = uri;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * ファイルの更新日時を返す
+     * @return 更新日時 (msec)。取得できなかった場合は 0
+     */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * 元のファイルからの読み込み状況を受け取る Listenerを設定する
+     * (メモリマップされている場合など、読み込みに時間のかからない UriSourceでは通知されない)
+     * @param listener 設定する Listener。nullの場合は解除する
+     */
+    public void setOnProgressListener(OnProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    void notifyProgress(long bytes, long total) {
+        OnProgressListener listener = mProgressListener;
+        if (listener != null) listener.onProgress(bytes, total);
+    }
+
+    /**
+     * 実行中の 時間のかかる読み込み(サイズを求めるための ファイル末尾までの読み込みなど)を中止させる
+     * 読み込み中は closeできないので、破棄する UriSourceの読み込みを 先に止めるために使用する
+     * (中止した後の読み込みは IOExceptionとなる)
+     */
+    public void abort() {
+        mAborted = true;
+    }
+
+    /**
+     * abort()されていれば 読み込みを中止する (時間のかかる読み込みの途中で 呼び出す)
+     */
+    void checkAborted() throws IOException {
+        if (mAborted) throw new IOException("aborted");
+    }
+
+    /**
+     * ファイルサイズを返す
+     * @return ファイルサイズ (byte)
+     */
+    public abstract long size() throws IOException;
+
+    /**
+     * サイズが分かっているか (圧縮されたファイルは 最後まで伸長するまで 伸長後のサイズが分からない)
+     * @return true: size()は すぐに返る
+     */
+    public boolean isSizeKnown() {
+        return true;
+    }
+
+    /**
+     * サイズを求め終えた範囲を返す (サイズが分かっていない場合も 待たずに返る)
+     * @return 読み込める範囲 (byte)。サイズが分かっている場合は size()
+     */
+    public long getAvailableSize() throws IOException {
+        return size();
+    }
+
+    /**
+     * サイズが分かっていない場合に、指定位置までのサイズを求める (求め終えた範囲を広げる)
+     * @param limit 求める位置 (byte)
+     * @return 求め終えた範囲 (getAvailableSize())
+     */
+    long measure(long limit) throws IOException {
+        return getAvailableSize();
+    }
+
+    /**
+     * 元のファイルのサイズを返す (同じファイルかどうかの確認に使用する)
+     * 圧縮されたファイルは 伸長後のサイズを求めるのに時間がかかるので、圧縮されたままのサイズとする
+     * @return サイズ (byte)
+     */
+    public long getSourceSize() throws IOException {
+        return size();
+    }
+
+    /**
+     * ファイルに追記された内容を 読み込めるようにする
+     * (追記された内容を読み込めない UriSourceでは 何もしない)
+     * @return 更新後のファイルサイズ (byte)
+     */
+    public long refresh() throws IOException {
+        return size();
+    }
+
+    /**
+     * 圧縮されたファイルを 伸長して読み込んでいるか
+     * (伸長後のサイズは 元のファイルのサイズと異なり、追記の監視などはできない)
+     * @return true: 圧縮されたファイル
+     */
+    public boolean isCompressed() {
+        return false;
+    }
+
+    void setLastModified(long lastModified) {
+        mLastModified = lastModified;
+    }
+
+    /**
+     * 指定位置から読み込む。(複数のスレッドから同時に呼び出してもよい)
+     * @param position 読み込み開始位置
+     * @param buf 読み込み先
+     * @param offset 読み込み先の開始位置
+     * @param length 読み込むバイト数
+     * @return 読み込んだバイト数。ファイル末尾の場合は -1
+     */
+    public abstract int read(long position, byte[] buf, int offset, int length) throws IOException;
+
+    /**
+     * 指定範囲の内容を ByteBufferとして返す
+     * メモリマップされている場合は コピーせずにマップされた領域をそのまま返す
+     * @param position 開始位置
+     * @param length バイト数
+     * @return 読み込み専用の ByteBuffer (ファイル末尾を越える部分は含まない)
+     */
+    public ByteBuffer getBuffer(long position, int length) throws IOException {
+        // サイズが分かっていない場合は サイズを求めずに 読み込めた所までとする
+        if (isSizeKnown()) length = (int)Math.max(Math.min(length, size() - position), 0);
+        byte[] bytes = new byte[ length ];
+        int read = 0;
+        while (read < length) {
+            int size = read(position + read, bytes, read, length - read);
+            if (size <= 0) break;
+            read += size;
+        }
+        return ByteBuffer.wrap(bytes, 0, read).asReadOnlyBuffer();
+    }
+
+    /**
+     * 指定位置から順次読み込む InputStreamを返す
+     * @param position 読み込み開始位置
+     * @return InputStream (closeしても このUriSourceは closeされない)
+     */
+    public InputStream openStream(final long position) {
+        return new InputStream() {
+            private long mPosition = position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) > 0 ? (b[0] & 0xff) : -1);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                int size = UriSource.this.read(mPosition, b, off, len);
+                if (size > 0) mPosition += size;
+                return size;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = Math.max(Math.min(n, size() - mPosition), 0);
+                mPosition += skipped;
+                return skipped;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ビューアで使用するスレッドをまとめたクラス
+ *
+ * - io(): ファイルを開く処理や ページの読み込みなど、表示を待たせる処理用 (1スレッドで順に処理する)
+ * - background(): 索引の作成など、時間がかかり 表示とは独立した処理用 (優先度を下げて実行する)
+ * - compute(): ファイルを分割して並列に処理する場合の 各部分の処理用 (CPUのコア数分のスレッドで処理する)
+ * - layout(): 表示するページのレイアウトの作成用 (検索などで compute()が埋まっていても 表示を待たせないように分ける)
+ *
+ * ファイルを分割して compute()で並列に処理し、結果を先頭から順に受け取る場合は OrderedChunksを使用する
+ */
+
+public class ViewerExecutors {
+
+    private static ExecutorService sIoExecutor = null;
+    private static ExecutorService sBackgroundExecutor = null;
+    private static ExecutorService sComputeExecutor = null;
+    private static ExecutorService sLayoutExecutor = null;
+
+
+    public static synchronized ExecutorService io() {
+        if (sIoExecutor == null) {
+            sIoExecutor = Executors.newSingleThreadExecutor(new PriorityThreadFactory("viewer-io", Process.THREAD_PRIORITY_DEFAULT));
+        }
+        return sIoExecutor;
+    }
+
+    public static synchronized ExecutorService background() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = Executors.newCachedThreadPool(new PriorityThreadFactory("viewer-bg", Process.THREAD_PRIORITY_BACKGROUND));
+        }
+        return sBackgroundExecutor;
+    }
+
+    public static synchronized ExecutorService compute() {
+        if (sComputeExecutor == null) {
+            sComputeExecutor = Executors.newFixedThreadPool(getParallelism(), new PriorityThreadFactory("viewer-compute", Process.THREAD_PRIORITY_BACKGROUND));
+        }
+        return sComputeExecutor;
+    }
+
+    public static synchronized ExecutorService layout() {
+        if (sLayoutExecutor == null) {
+            sLayoutExecutor = Executors.newFixedThreadPool(getParallelism(), new PriorityThreadFactory("viewer-layout", Process.THREAD_PRIORITY_DEFAULT));
+        }
+        return sLayoutExecutor;
+    }
+
+    /**
+     * compute()で 同時に処理できる数を返す
+     * @return スレッド数 (CPUのコア数)
+     */
+    public static int getParallelism() {
+        return Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+
+    /**
+     * 分割した部分ごとの処理
+     */
+    public interface ChunkTask<T> {
+        /**
+         * 指定番目の部分を処理する (compute()のスレッドで呼び出される)
+         * @param chunk 部分の番号 (0から始まる)
+         * @return 処理結果
+         * @throws IOException 読み込みエラー
+         */
+        T call(int chunk) throws IOException;
+    }
+
+    /**
+     * ファイルを分割した各部分を compute()で並列に処理し、結果を 先頭の部分から順に受け取るクラス
+     *
+     * 受け取りが追いつかない場合に 結果が溜まり続けないように、先行して処理するのは getParallelism()の 2倍までとする。
+     * 処理を終える時は (途中で中止した場合も) 必ず cancel()を呼び出すこと
+     */
+    public static class OrderedChunks<T> {
+        private final int mCount;
+        private final ChunkTask<T> mTask;
+        private final int mMaxQueued = getParallelism() * 2;
+        private final ArrayDeque<Future<T>> mQueued = new ArrayDeque<>();
+        private int mSubmitted = 0;
+        private int mReceived = 0;
+
+        /**
+         * コンストラクタ
+         * @param count 部分の数
+         * @param task 部分ごとの処理
+         */
+        public OrderedChunks(int count, ChunkTask<T> task) {
+            mCount = count;
+            mTask = task;
+        }
+
+        public boolean hasNext() {
+            return mReceived < mCount;
+        }
+
+        /**
+         * 次の部分の処理結果を返す (処理が終わるまで待つ)
+         * @return 処理結果
+         * @throws IOException 処理中のエラー (読み込みエラー以外の例外も IOExceptionとして返す)
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        public T next() throws IOException, InterruptedException {
+            while (mSubmitted < mCount && mSubmitted < mReceived + mMaxQueued) {
+                final int chunk = mSubmitted++;
+                mQueued.add(compute().submit(new Callable<T>() {
+                    @Override
+                    public T call() throws IOException {
+                        return mTask.call(chunk);
+                    }
+                }));
+            }
+
+            Future<T> future = mQueued.poll();
+            mReceived++;
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * 処理中・処理待ちの部分を 取り消す
+         */
+        public void cancel() {
+            for (Future<T> future : mQueued) future.cancel(true);
+            mQueued.clear();
+        }
+    }
+
+
+    /**
+     * 名前と優先度を設定してスレッドを作成する ThreadFactory
+     */
+    private static class PriorityThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        PriorityThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.insprout.okubo.mytool.viewer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * Uriで指定されたファイルへのアクセスをまとめたクラス
+ * ("file:" および "content:" スキームに対応する)
+ */
+
+public class ViewerFiles {
+
+    /**
+     * 指定された Uriの InputStreamを返す
+     * @param context コンテキスト
+     * @param uri 対象ファイルの Uri
+     * @return InputStream。開けなかった場合は null
+     */
+    public static InputStream openInputStream(Context context, Uri uri) {
+        if (uri == null) return null;
+
+        String scheme = uri.getScheme();
+        if (scheme == null) return null;
+
+        try {
+            switch (scheme) {
+                case "file":
+                    String path = uri.getPath();
+                    if (path != null) {
+                        return new FileInputStream(path);
+                    }
+                    break;
+
+                case "content":
+                    return context.getContentResolver().openInputStream(uri);
+            }
+
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        return null;
+    }
+
+    /**
+     * 指定された Uriのファイルサイズを返す
+     * @param context コンテキスト
+     * @param uri 対象ファイルの Uri
+     * @return ファイルサイズ (byte)。取得できなかった場合は -1
+     */
+    public static long getFileSize(Context context, Uri uri) {
+        if (uri == null || uri.getScheme() == null) return -1;
+
+        switch (uri.getScheme()) {
+            case "file":
+                String path = uri.getPath();
+                if (path == null) return -1;
+                File file = new File(path);
+                return file.isFile() ? file.length() : -1;
+
+            case "content":
+                // try-with-resources で Cursorの close()を自動呼出しさせる
+                try (Cursor cursor = context.getContentResolver().query(uri, new String[]{ OpenableColumns.SIZE }, null, null, null)) {
+                    if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                        return cursor.getLong(0);
+                    }
+                } catch (RuntimeException e) {
+                    // サイズを返さない ContentProviderもある
+                }
+                break;
+        }
+
+        // サイズが取得できない場合は、読み込む側(StreamUriSource)で 最後まで読んだ時点で確定させる
+        return -1;
+    }
+
+    /**
+     * 指定された Uriのファイルの 更新日時を返す
+     * @param context コンテキスト
+     * @param uri 対象ファイルの Uri
+     * @return 更新日時 (msec)。取得できなかった場合は 0
+     */
+    public static long getLastModified(Context context, Uri uri) {
+        if (uri == null || uri.getScheme() == null) return 0;
+
+        switch (uri.getScheme()) {
+            case "file":
+                String path = uri.getPath();
+                if (path == null) return 0;
+                return new File(path).lastModified();
+
+            case "content":
+                try (Cursor cursor = context.getContentResolver().query(uri, new String[]{ DocumentsContract.Document.COLUMN_LAST_MODIFIED }, null, null, null)) {
+                    if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                        return cursor.getLong(0);
+                    }
+                } catch (RuntimeException e) {
+                    // DocumentsProvider以外では 更新日時を返さない場合がある
+                }
+                break;
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * CharBoundary.isCharStart() のテスト
+ */
+public class CharBoundaryTest {
+    private final static String CHARSET_SJIS = "SHIFT_JIS";
+    private final static String CHARSET_EUC_JP = "EUC-JP";
+    private final static String CHARSET_UTF8 = "UTF-8";
+
+    private static byte[] bytes(int... values) {
+        byte[] buf = new byte[ values.length ];
+        for (int i = 0; i < values.length; i++) buf[i] = (byte) values[i];
+        return buf;
+    }
+
+    @Test
+    public void sjis_trailByteIsNotCharStart() throws Exception {
+        // "1表" = 31 95 5C (2byte目の 0x5Cは「\」と同じ値)
+        byte[] buf = "1表".getBytes(CHARSET_SJIS);
+        assertTrue(CharBoundary.isCharStart(buf, 1, false, CHARSET_SJIS));
+        assertFalse(CharBoundary.isCharStart(buf, 2, false, CHARSET_SJIS));
+    }
+
+    @Test
+    public void sjis_usesWholeBufferBeforePosition() throws Exception {
+        // 0x40未満の byteが 一致した位置から離れていても、そこから文字の区切りをたどる
+        byte[] buf = "1表表表".getBytes(CHARSET_SJIS);
+        assertTrue(CharBoundary.isCharStart(buf, 5, false, CHARSET_SJIS));
+        assertFalse(CharBoundary.isCharStart(buf, 6, false, CHARSET_SJIS));
+    }
+
+    @Test
+    public void sjis_bufferStartIsCharStartOnlyAtFileStart() {
+        // 95 | 95 5C : 先頭の 0x95は 前の文字の 2byte目で、位置1 から「表」が始まる
+        byte[] buf = bytes(0x95, 0x95, 0x5C);
+        // ファイルの先頭であれば 95 95 が 1文字となるので、位置1 は文字の先頭ではない
+        assertFalse(CharBoundary.isCharStart(buf, 1, true, CHARSET_SJIS));
+        // ファイルの途中であれば 区切りが確認できないので 一致として扱う
+        assertTrue(CharBoundary.isCharStart(buf, 1, false, CHARSET_SJIS));
+    }
+
+    @Test
+    public void sjis_fileStart() throws Exception {
+        byte[] buf = "表a".getBytes(CHARSET_SJIS);
+        assertTrue(CharBoundary.isCharStart(buf, 0, true, CHARSET_SJIS));
+        assertFalse(CharBoundary.isCharStart(buf, 1, true, CHARSET_SJIS));
+        assertTrue(CharBoundary.isCharStart(buf, 2, true, CHARSET_SJIS));
+    }
+
+    @Test
+    public void eucJp_trailByteIsNotCharStart() throws Exception {
+        // "a漢字" = 61 B4 C1 BB FA
+        byte[] buf = "a漢字".getBytes(CHARSET_EUC_JP);
+        assertTrue(CharBoundary.isCharStart(buf, 1, false, CHARSET_EUC_JP));
+        assertFalse(CharBoundary.isCharStart(buf, 2, false, CHARSET_EUC_JP));
+        assertTrue(CharBoundary.isCharStart(buf, 3, false, CHARSET_EUC_JP));
+        assertFalse(CharBoundary.isCharStart(buf, 4, false, CHARSET_EUC_JP));
+    }
+
+    @Test
+    public void eucJp_threeByteChar() {
+        // 8F A1 A1 (補助漢字) の後に B4 C1
+        byte[] buf = bytes(0x61, 0x8F, 0xA1, 0xA1, 0xB4, 0xC1);
+        assertFalse(CharBoundary.isCharStart(buf, 2, false, CHARSET_EUC_JP));
+        assertFalse(CharBoundary.isCharStart(buf, 3, false, CHARSET_EUC_JP));
+        assertTrue(CharBoundary.isCharStart(buf, 4, false, CHARSET_EUC_JP));
+    }
+
+    @Test
+    public void eucJp_bufferStartIsCharStartOnlyAtFileStart() {
+        // C1 | B4 C1 : 先頭の 0xC1は 前の文字の 2byte目
+        byte[] buf = bytes(0xC1, 0xB4, 0xC1);
+        assertFalse(CharBoundary.isCharStart(buf, 1, true, CHARSET_EUC_JP));
+        assertTrue(CharBoundary.isCharStart(buf, 1, false, CHARSET_EUC_JP));
+    }
+
+    @Test
+    public void utf8_alwaysCharStart() throws Exception {
+        byte[] buf = "a漢".getBytes(CHARSET_UTF8);
+        assertTrue(CharBoundary.isCharStart(buf, 1, false, CHARSET_UTF8));
+    }
+}
@@ -0,0 +1,76 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * CsvScannerの 列の分割のテスト
+ */
+public class CsvScannerTest {
+
+    private static String[] split(String line) {
+        return CsvScanner.split(line, CsvScanner.DELIMITER_COMMA, 100);
+    }
+
+    @Test
+    public void split_plainColumns() {
+        assertArrayEquals(new String[] { "a", "bc", "d" }, split("a,bc,d"));
+    }
+
+    @Test
+    public void split_emptyColumns() {
+        assertArrayEquals(new String[] { "" }, split(""));
+        assertArrayEquals(new String[] { "", "", "" }, split(",,"));
+        assertArrayEquals(new String[] { "a", "" }, split("a,"));
+    }
+
+    @Test
+    public void split_quotedDelimiter() {
+        assertArrayEquals(new String[] { "a,b", "c" }, split("\"a,b\",c"));
+    }
+
+    @Test
+    public void split_escapedQuote() {
+        // 「""」は 「"」1文字とする
+        assertArrayEquals(new String[] { "say \"hi\"", "x" }, split("\"say \"\"hi\"\"\",x"));
+        assertArrayEquals(new String[] { "", "y" }, split("\"\",y"));
+    }
+
+    @Test
+    public void split_quoteInsideUnquotedColumn() {
+        // 列の途中の「"」は 囲みとしない
+        assertArrayEquals(new String[] { "a\"b", "c" }, split("a\"b,c"));
+    }
+
+    @Test
+    public void split_textAfterClosingQuote() {
+        assertArrayEquals(new String[] { "ab c", "d" }, split("\"ab\" c,d"));
+    }
+
+    @Test
+    public void split_unclosedQuote() {
+        // 閉じられていない「"」は 行末までを 1つの列とする
+        assertArrayEquals(new String[] { "a", "b,c" }, split("a,\"b,c"));
+    }
+
+    @Test
+    public void split_maxColumns() {
+        // 最大の列数を超えた分は 捨てる
+        assertArrayEquals(new String[] { "a", "b" }, CsvScanner.split("a,b,c,d", CsvScanner.DELIMITER_COMMA, 2));
+    }
+
+    @Test
+    public void split_tab() {
+        assertArrayEquals(new String[] { "a,b", "c" }, CsvScanner.split("a,b\tc", CsvScanner.DELIMITER_TAB, 100));
+    }
+
+    @Test
+    public void detectDelimiter() {
+        assertEquals(CsvScanner.DELIMITER_COMMA, CsvScanner.detectDelimiter("a,b,c"));
+        assertEquals(CsvScanner.DELIMITER_TAB, CsvScanner.detectDelimiter("a\tb,c\td"));
+        // 「"」の中の 区切り文字は 数えない
+        assertEquals(CsvScanner.DELIMITER_COMMA, CsvScanner.detectDelimiter("\"a\tb\tc\",d"));
+    }
+
+}
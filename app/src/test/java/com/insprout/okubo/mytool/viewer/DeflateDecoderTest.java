@@ -0,0 +1,203 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * DeflateDecoderの 伸長結果を java.util.zip.Inflaterと比較するテスト
+ */
+public class DeflateDecoderTest {
+    private final static int BTYPE_STORED = 0;
+    private final static int BTYPE_FIXED = 1;
+    private final static int BTYPE_DYNAMIC = 2;
+
+    /**
+     * メモリ上の byte列を 入力とする UriSource
+     */
+    private static class BytesSource extends UriSource {
+        private final byte[] mData;
+
+        BytesSource(byte[] data) {
+            super(null);
+            mData = data;
+        }
+
+        @Override
+        public long size() {
+            return mData.length;
+        }
+
+        @Override
+        public int read(long position, byte[] buf, int offset, int length) {
+            if (position >= mData.length) return -1;
+            int size = (int)Math.min(length, mData.length - position);
+            System.arraycopy(mData, (int)position, buf, offset, size);
+            return size;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int level, int strategy) {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[ 8192 ];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed) throws Exception {
+        Inflater inflater = new Inflater(true);
+        // nowrapの場合は 入力の後に 1byte余分に必要
+        inflater.setInput(Arrays.copyOf(compressed, compressed.length + 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[ 8192 ];
+        while (!inflater.finished()) {
+            int n = inflater.inflate(buf);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            out.write(buf, 0, n);
+        }
+        inflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(DeflateDecoder decoder, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[ chunk ];
+        int n;
+        while ((n = decoder.read(buf, 0, buf.length)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(byte[] compressed, int chunk) throws IOException {
+        DeflateDecoder decoder = new DeflateDecoder(new BytesSource(compressed), 0, compressed.length, 0, null, 0);
+        byte[] result = decode(decoder, chunk);
+        assertTrue(decoder.isFinished());
+        return result;
+    }
+
+    private static int firstBlockType(byte[] compressed) {
+        return (compressed[0] >> 1) & 3;
+    }
+
+    /**
+     * 繰り返しの多い テキストを作成する (一致の距離が 32KB近くになるものも含める)
+     */
+    private static byte[] text(int size, long seed) {
+        Random random = new Random(seed);
+        String[] words = { "viewer", "page", "line", "index", "deflate", "テキスト", "表示", "\r\n", " ", ", " };
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < size) {
+            builder.append(words[random.nextInt(words.length)]);
+            if (random.nextInt(50) == 0) builder.append(random.nextLong());
+        }
+        try {
+            return Arrays.copyOf(builder.toString().getBytes("UTF-8"), size);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertSameAsInflater(byte[] data, byte[] compressed) throws Exception {
+        byte[] expected = inflate(compressed);
+        assertArrayEquals(data, expected);
+        assertArrayEquals(expected, decode(compressed, 8192));
+        assertArrayEquals(expected, decode(compressed, 1));
+    }
+
+    @Test
+    public void storedBlocks() throws Exception {
+        // 無圧縮のブロックは 最大 65535byteなので 複数のブロックになる
+        byte[] data = text(200 * 1024, 1);
+        byte[] compressed = deflate(data, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        assertEquals(BTYPE_STORED, firstBlockType(compressed));
+        assertSameAsInflater(data, compressed);
+    }
+
+    @Test
+    public void fixedHuffmanBlock() throws Exception {
+        byte[] data = "abcabcabcabc, abcabc.\r\n".getBytes("US-ASCII");
+        byte[] compressed = deflate(data, Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        assertEquals(BTYPE_FIXED, firstBlockType(compressed));
+        assertSameAsInflater(data, compressed);
+    }
+
+    @Test
+    public void dynamicHuffmanBlocks() throws Exception {
+        byte[] data = text(1024 * 1024, 2);
+        byte[] compressed = deflate(data, Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        assertEquals(BTYPE_DYNAMIC, firstBlockType(compressed));
+        assertSameAsInflater(data, compressed);
+    }
+
+    @Test
+    public void huffmanOnlyBlocks() throws Exception {
+        // 一致(長さ・距離)を含まない 符号のみのブロック
+        byte[] data = text(300 * 1024, 3);
+        assertSameAsInflater(data, deflate(data, Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY));
+    }
+
+    @Test
+    public void emptyInput() throws Exception {
+        byte[] compressed = deflate(new byte[ 0 ], Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        assertEquals(0, decode(compressed, 16).length);
+    }
+
+    @Test
+    public void resumeFromBlockBoundary() throws Exception {
+        // ブロックの区切りで記録した位置と windowから 伸長を再開できる
+        byte[] data = text(1024 * 1024, 4);
+        byte[] compressed = deflate(data, Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        BytesSource source = new BytesSource(compressed);
+
+        final long[] boundary = { -1, -1 };
+        final byte[] window = new byte[ DeflateDecoder.WINDOW_SIZE ];
+        final int[] windowLength = { 0 };
+        DeflateDecoder decoder = new DeflateDecoder(source, 0, compressed.length, 0, null, 0);
+        decoder.setOnBlockListener(new DeflateDecoder.OnBlockListener() {
+            @Override
+            public void onBlockBoundary(DeflateDecoder decoder) {
+                if (boundary[0] >= 0 || decoder.getOutputPosition() < DeflateDecoder.WINDOW_SIZE) return;
+                boundary[0] = decoder.getBitPosition();
+                boundary[1] = decoder.getOutputPosition();
+                windowLength[0] = decoder.copyWindow(window);
+            }
+        });
+        assertArrayEquals(data, decode(decoder, 4096));
+        assertTrue(boundary[0] > 0);
+        assertEquals(DeflateDecoder.WINDOW_SIZE, windowLength[0]);
+
+        DeflateDecoder resumed = new DeflateDecoder(source, boundary[0], compressed.length, boundary[1], window, windowLength[0]);
+        assertEquals(boundary[1], resumed.getPosition());
+        assertArrayEquals(Arrays.copyOfRange(data, (int) boundary[1], data.length), decode(resumed, 4096));
+    }
+
+    @Test
+    public void skipThenRead() throws Exception {
+        byte[] data = text(256 * 1024, 5);
+        byte[] compressed = deflate(data, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        DeflateDecoder decoder = new DeflateDecoder(new BytesSource(compressed), 0, compressed.length, 0, null, 0);
+        assertEquals(100000, decoder.skip(100000));
+        assertEquals(100000, decoder.getPosition());
+        assertArrayEquals(Arrays.copyOfRange(data, 100000, data.length), decode(decoder, 1000));
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * FileStateStoreの 可変長整数の書き込み・読み込みのテスト
+ */
+public class FileStateStoreTest {
+
+    private static byte[] writeVarLongs(long... values) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) FileStateStore.writeVarLong(out, value);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void varLong_roundTrip() throws Exception {
+        long[] values = { 0, 1, 0x7F, 0x80, 0x3FFF, 0x4000, 1L << 31, (1L << 32) + 5, 1L << 56, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(writeVarLongs(values)));
+        for (long value : values) {
+            assertEquals(value, FileStateStore.readVarLong(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void varLong_length() throws Exception {
+        // 7bitごとに 1byte
+        assertEquals(1, writeVarLongs(0).length);
+        assertEquals(1, writeVarLongs(0x7F).length);
+        assertEquals(2, writeVarLongs(0x80).length);
+        assertEquals(3, writeVarLongs(0x4000).length);
+        assertEquals(9, writeVarLongs(Long.MAX_VALUE).length);
+        assertEquals(10, writeVarLongs(-1).length);
+    }
+
+}
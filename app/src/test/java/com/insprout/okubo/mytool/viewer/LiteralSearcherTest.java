@@ -0,0 +1,103 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * LiteralSearcherの ISO-2022-JPの状態判定のテスト
+ */
+public class LiteralSearcherTest {
+    private final static String CHARSET_JIS = "ISO-2022-JP";
+
+    private static byte[] bytes(int... values) {
+        byte[] buf = new byte[ values.length ];
+        for (int i = 0; i < values.length; i++) buf[i] = (byte) values[i];
+        return buf;
+    }
+
+    private static int indexOf(byte[] buf, byte[] pattern, int from) {
+        for (int i = from; i + pattern.length <= buf.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(buf, i, i + pattern.length), pattern)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] buf, int position, String query) {
+        byte[] pattern = LiteralSearcher.encodePattern(query, CHARSET_JIS);
+        int state = LiteralSearcher.getPatternShiftState(query, pattern, CHARSET_JIS);
+        return state == CharBoundary.SHIFT_UNKNOWN || CharBoundary.getShiftState(buf, position, true) == state;
+    }
+
+    @Test
+    public void jis_kanjiPatternHasNoEscape() throws Exception {
+        // 「漢字」 = ESC $ B 34 41 3B 7A ESC ( B
+        assertArrayEquals(bytes(0x34, 0x41, 0x3B, 0x7A), LiteralSearcher.encodePattern("漢字", CHARSET_JIS));
+    }
+
+    @Test
+    public void jis_kanjiQueryDoesNotMatchAscii() throws Exception {
+        // 「4A;z」は「漢字」と同じ byte列だが ASCIIなので 一致としない
+        byte[] buf = "4A;z".getBytes(CHARSET_JIS);
+        byte[] pattern = LiteralSearcher.encodePattern("漢字", CHARSET_JIS);
+        assertEquals(0, indexOf(buf, pattern, 0));
+        assertFalse(matches(buf, 0, "漢字"));
+        assertTrue(matches(buf, 0, "4A;z"));
+    }
+
+    @Test
+    public void jis_kanjiQueryMatchesKanji() throws Exception {
+        byte[] buf = "あ漢字い".getBytes(CHARSET_JIS);
+        byte[] pattern = LiteralSearcher.encodePattern("漢字", CHARSET_JIS);
+        int position = indexOf(buf, pattern, 0);
+        assertTrue(position > 0);
+        assertTrue(matches(buf, position, "漢字"));
+        assertFalse(matches(buf, position, "4A;z"));
+    }
+
+    @Test
+    public void jis_oddAlignedPairIsNotMatched() throws Exception {
+        // 30 34 | 41 3B | 7A 30 : 「漢字」の byte列が 2byte文字の区切りをまたいで現れる
+        byte[] buf = bytes(0x1B, '$', 'B', 0x30, 0x34, 0x41, 0x3B, 0x7A, 0x30, 0x1B, '(', 'B');
+        byte[] pattern = LiteralSearcher.encodePattern("漢字", CHARSET_JIS);
+        assertEquals(4, indexOf(buf, pattern, 0));
+        assertFalse(matches(buf, 4, "漢字"));
+    }
+
+    @Test
+    public void jis_escapeSequenceIsNotCharStart() {
+        byte[] buf = bytes(0x1B, '$', 'B', 0x34, 0x41);
+        assertEquals(CharBoundary.SHIFT_NONE, CharBoundary.getShiftState(buf, 1, true));
+        assertEquals(CharBoundary.SHIFT_DOUBLE, CharBoundary.getShiftState(buf, 3, true));
+    }
+
+    @Test
+    public void jis_stateUnknownWithoutEscape() {
+        // ファイルの途中で エスケープシーケンスが見つからない場合は 判定できない
+        byte[] buf = bytes(0x34, 0x41, 0x3B, 0x7A);
+        assertEquals(CharBoundary.SHIFT_UNKNOWN, CharBoundary.getShiftState(buf, 2, false));
+        assertEquals(CharBoundary.SHIFT_SINGLE, CharBoundary.getShiftState(buf, 2, true));
+    }
+
+    @Test
+    public void jis_stateFromEscapeBeforeBuffer() {
+        // 遡って見つけた エスケープシーケンスからの距離で 2byte文字の区切りを判定する
+        byte[] escape = bytes(0x1B, '$', 'B', 0);
+        assertEquals(CharBoundary.SHIFT_DOUBLE, CharBoundary.getShiftState(escape, 0, 3 + 1000));
+        assertEquals(CharBoundary.SHIFT_NONE, CharBoundary.getShiftState(escape, 0, 3 + 1001));
+        assertEquals(CharBoundary.SHIFT_SINGLE, CharBoundary.getShiftState(bytes(0x1B, '(', 'B', 0), 0, 50));
+    }
+
+    @Test
+    public void jis_patternStartingWithEscapeIsNotChecked() throws Exception {
+        // 2byte文字と 1byte文字が混在する検索文字列は エスケープシーケンスで始まるので 状態によらない
+        byte[] pattern = LiteralSearcher.encodePattern("漢a", CHARSET_JIS);
+        assertEquals(0x1B, pattern[0]);
+        assertEquals(CharBoundary.SHIFT_UNKNOWN, LiteralSearcher.getPatternShiftState("漢a", pattern, CHARSET_JIS));
+        assertEquals(CharBoundary.SHIFT_SINGLE,
+                LiteralSearcher.getPatternShiftState("a漢", LiteralSearcher.encodePattern("a漢", CHARSET_JIS), CHARSET_JIS));
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.insprout.okubo.mytool.viewer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrigramIndexの 候補の範囲の絞り込みのテスト
+ */
+public class TrigramIndexTest {
+    private final static int BLOCK = TrigramIndex.BLOCK_SIZE;
+
+    /**
+     * TrigramIndexerと同じ方法で 索引を作成する (一覧を保持しないハッシュ値は なし)
+     */
+    private static TrigramIndex build(byte[] data) {
+        int blockCount = (data.length + BLOCK - 1) / BLOCK;
+        BitSet[] blocks = new BitSet[ blockCount ];
+        int[] counts = new int[ TrigramIndex.BUCKET_COUNT ];
+        for (int block = 0; block < blockCount; block++) {
+            // ブロックの最後の 2byteから始まる trigramも含める
+            int start = block * BLOCK;
+            int end = Math.min(start + BLOCK + 2, data.length);
+            BitSet seen = new BitSet(TrigramIndex.BUCKET_COUNT);
+            for (int i = start + 2; i < end; i++) {
+                int trigram = ((data[i - 2] & 0xff) << 16) | ((data[i - 1] & 0xff) << 8) | (data[i] & 0xff);
+                int bucket = TrigramIndex.bucket(trigram);
+                if (!seen.get(bucket)) counts[bucket]++;
+                seen.set(bucket);
+            }
+            blocks[block] = seen;
+        }
+
+        int[] starts = new int[ TrigramIndex.BUCKET_COUNT + 1 ];
+        int total = 0;
+        for (int bucket = 0; bucket < TrigramIndex.BUCKET_COUNT; bucket++) {
+            starts[bucket] = total;
+            total += counts[bucket];
+        }
+        starts[TrigramIndex.BUCKET_COUNT] = total;
+        int[] postings = new int[ total ];
+        System.arraycopy(starts, 0, counts, 0, TrigramIndex.BUCKET_COUNT);
+        for (int block = 0; block < blockCount; block++) {
+            for (int bucket = blocks[block].nextSetBit(0); bucket >= 0; bucket = blocks[block].nextSetBit(bucket + 1)) {
+                postings[counts[bucket]++] = block;
+            }
+        }
+        return new TrigramIndex(data.length, blockCount, starts, postings, new BitSet(TrigramIndex.BUCKET_COUNT));
+    }
+
+    /**
+     * 4ブロック分の 空白の中に 指定位置に文字列を置いたデータを作成する
+     */
+    private static byte[] data(long position, String text) throws Exception {
+        byte[] data = new byte[ 4 * BLOCK ];
+        Arrays.fill(data, (byte) ' ');
+        byte[] bytes = text.getBytes("UTF-8");
+        System.arraycopy(bytes, 0, data, (int) position, bytes.length);
+        return data;
+    }
+
+    private static byte[] pattern(String query) throws Exception {
+        return query.getBytes("UTF-8");
+    }
+
+    @Test
+    public void findCandidates_singleBlock() throws Exception {
+        byte[] data = data(2 * BLOCK + 100, "needle");
+        TrigramIndex index = build(data);
+        // 一致したブロックと その前のブロック (境界をまたぐ一致のため) のみが候補になる
+        long[] ranges = index.findCandidates(pattern("needle"), data.length);
+        assertArrayEquals(new long[] { BLOCK, 3L * BLOCK }, ranges);
+    }
+
+    @Test
+    public void findCandidates_acrossBlockBoundary() throws Exception {
+        byte[] data = data(BLOCK - 3, "needle");
+        TrigramIndex index = build(data);
+        // 候補の範囲は 一致の開始位置の範囲 (一致は 範囲の後ろにはみ出してもよい)
+        assertArrayEquals(new long[] { 0, BLOCK }, index.findCandidates(pattern("needle"), data.length));
+    }
+
+    @Test
+    public void findCandidates_notFound() throws Exception {
+        byte[] data = data(100, "needle");
+        TrigramIndex index = build(data);
+        assertArrayEquals(new long[ 0 ], index.findCandidates(pattern("haystack"), data.length));
+    }
+
+    @Test
+    public void findCandidates_shortPattern() throws Exception {
+        byte[] data = data(100, "needle");
+        // 3byte未満の検索文字列は 絞り込めない
+        assertNull(build(data).findCandidates(pattern("ne"), data.length));
+    }
+
+    @Test
+    public void findCandidates_appendedPartIsAlwaysCandidate() throws Exception {
+        byte[] data = data(100, "needle");
+        TrigramIndex index = build(data);
+        // 索引の作成後に追記された部分(と 最後のブロック)は 常に候補とする
+        long fileSize = data.length + BLOCK + 10;
+        assertArrayEquals(new long[] { 0, BLOCK, 3L * BLOCK, fileSize }, index.findCandidates(pattern("needle"), fileSize));
+        // ファイルが小さくなった場合は 索引を使用しない
+        assertNull(index.findCandidates(pattern("needle"), data.length - 1));
+    }
+
+    @Test
+    public void readWrite_roundTrip() throws Exception {
+        byte[] data = data(3 * BLOCK + 10, "needle");
+        TrigramIndex index = build(data);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        index.write(out);
+        out.flush();
+        TrigramIndex read = TrigramIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertNotNull(read);
+        assertEquals(data.length, read.getIndexedSize());
+        assertArrayEquals(index.findCandidates(pattern("needle"), data.length), read.findCandidates(pattern("needle"), data.length));
+    }
+
+}